@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning;
+
+
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+
+/**
+ * A tile of double-valued bins, stored as a flat primitive array rather than
+ * as a list of boxed values.
+ * 
+ * Bins are stored row-by-row, in the same order as {@link TileData#getData()}.
+ * Since there is no primitive null, setting a bin to null stores NaN.
+ * 
+ * @author nkronenfeld
+ */
+public class DoubleTileData extends TileData<Double> {
+	private static final long serialVersionUID = 3436316455719633815L;
+
+
+
+	private double[] _doubleData;
+
+
+
+	// No-argument constructor, really just for use by Kryo.
+	private DoubleTileData () {
+		super();
+	}
+
+	/**
+	 * Construct a tile data object for a particular tile. All entries are
+	 * initialized to 0.
+	 * 
+	 * @param definition The index of the tile whose data is to be collected by
+	 *            this object.
+	 */
+	public DoubleTileData (TileIndex definition) {
+		this(definition, 0.0);
+	}
+
+	/**
+	 * Construct a set of tile data for a particular tile. All entries are
+	 * initialized to the given default value.
+	 * 
+	 * @param definition The index of the tile whose data is to be collected by
+	 *            this object.
+	 * @param defaultValue The default value of each bin
+	 */
+	public DoubleTileData (TileIndex definition, double defaultValue) {
+		this();
+		setDefinition(definition);
+		_doubleData = new double[definition.getXBins() * definition.getYBins()];
+		if (0.0 != defaultValue) {
+			Arrays.fill(_doubleData, defaultValue);
+		}
+	}
+
+	/**
+	 * Construct a set of tile data for a particular tile, with preset data.
+	 * 
+	 * @param definition The index of the tile whose data is to be represented
+	 *            by this object.
+	 * @param tileData The data for this tile
+	 */
+	public DoubleTileData (TileIndex definition, List<Double> tileData) {
+		this();
+		setDefinition(definition);
+		checkLength(definition, tileData.size());
+		_doubleData = new double[tileData.size()];
+		for (int i = 0; i < _doubleData.length; ++i) {
+			_doubleData[i] = toPrimitive(tileData.get(i));
+		}
+	}
+
+	/**
+	 * Construct a set of tile data for a particular tile, wrapping the given
+	 * array of data. The array is used directly, not copied, so later changes
+	 * to it will be reflected in this tile.
+	 * 
+	 * @param definition The index of the tile whose data is to be represented
+	 *            by this object.
+	 * @param tileData The data for this tile, row by row
+	 */
+	public DoubleTileData (TileIndex definition, double[] tileData) {
+		this();
+		setDefinition(definition);
+		checkLength(definition, tileData.length);
+		_doubleData = tileData;
+	}
+
+	/**
+	 * Get a primitive view of a double-valued tile. If the tile is already a
+	 * DoubleTileData, it is returned as is; otherwise, its data is copied into
+	 * a new one (including its metadata).
+	 * 
+	 * @param tile The tile to view
+	 * @return A DoubleTileData with the same index, data, and metadata
+	 */
+	public static DoubleTileData fromTile (TileData<Double> tile) {
+		if (tile instanceof DoubleTileData) return (DoubleTileData) tile;
+
+		DoubleTileData result = new DoubleTileData(tile.getDefinition(), tile.getData());
+		Collection<String> properties = tile.getMetaDataProperties();
+		if (null != properties) {
+			for (String property: properties) {
+				result.setMetaData(property, tile.getMetaData(property));
+			}
+		}
+		return result;
+	}
+
+	private static void checkLength (TileIndex definition, int length) {
+		int requiredLength = definition.getXBins() * definition.getYBins();
+		if (length != requiredLength) {
+			throw new IllegalArgumentException("Data was of the wrong length.  Should have been "
+			                                   + requiredLength + ", was " + length);
+		}
+	}
+
+	private static double toPrimitive (Double value) {
+		if (null == value) return Double.NaN;
+		return value.doubleValue();
+	}
+
+	/**
+	 * Set the value of a particular bin in this tile, without boxing
+	 * 
+	 * @param x The x coordinate of the bin to be changed.
+	 * @param y The y coordinate of the bin to be changed.
+	 * @param value The value to which to set the bin in question.
+	 */
+	public void setDoubleBin (int x, int y, double value) {
+		_doubleData[x + y * getDefinition().getXBins()] = value;
+	}
+
+	/**
+	 * Get the value of a particular bin in this tile, without boxing
+	 * 
+	 * @param x The x coordinate of the bin to be changed.
+	 * @param y The y coordinate of the bin to be changed.
+	 * @return The value of the bin in question.
+	 */
+	public double getDoubleBin (int x, int y) {
+		return _doubleData[x + y * getDefinition().getXBins()];
+	}
+
+	@Override
+	public void setBin (int x, int y, Double value) {
+		setDoubleBin(x, y, toPrimitive(value));
+	}
+
+	@Override
+	public Double getBin (int x, int y) {
+		return getDoubleBin(x, y);
+	}
+
+	/**
+	 * Get the raw data array backing this tile. This is not a copy - changes
+	 * to it will change the tile. As with {@link #getData()}, data is stored
+	 * row by row.
+	 */
+	public double[] getDoubleData () {
+		return _doubleData;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The list returned is an unmodifiable view of the backing array; values
+	 * are boxed as they are read.
+	 */
+	@Override
+	public List<Double> getData () {
+		return new DoubleListView(_doubleData);
+	}
+
+
+
+	private static class DoubleListView extends AbstractList<Double> implements RandomAccess {
+		private double[] _values;
+
+		DoubleListView (double[] values) {
+			_values = values;
+		}
+
+		@Override
+		public Double get (int index) {
+			return _values[index];
+		}
+
+		@Override
+		public int size () {
+			return _values.length;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning;
+
+
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+
+/**
+ * A tile of long-valued bins, stored as a flat primitive array rather than as
+ * a list of boxed values.
+ * 
+ * Bins are stored row-by-row, in the same order as {@link TileData#getData()}.
+ * Since there is no primitive null, null bin values are not allowed.
+ * 
+ * @author nkronenfeld
+ */
+public class LongTileData extends TileData<Long> {
+	private static final long serialVersionUID = -6259311436829112487L;
+
+
+
+	private long[] _longData;
+
+
+
+	// No-argument constructor, really just for use by Kryo.
+	private LongTileData () {
+		super();
+	}
+
+	/**
+	 * Construct a tile data object for a particular tile. All entries are
+	 * initialized to 0.
+	 * 
+	 * @param definition The index of the tile whose data is to be collected by
+	 *            this object.
+	 */
+	public LongTileData (TileIndex definition) {
+		this(definition, 0L);
+	}
+
+	/**
+	 * Construct a set of tile data for a particular tile. All entries are
+	 * initialized to the given default value.
+	 * 
+	 * @param definition The index of the tile whose data is to be collected by
+	 *            this object.
+	 * @param defaultValue The default value of each bin
+	 */
+	public LongTileData (TileIndex definition, long defaultValue) {
+		this();
+		setDefinition(definition);
+		_longData = new long[definition.getXBins() * definition.getYBins()];
+		if (0L != defaultValue) {
+			Arrays.fill(_longData, defaultValue);
+		}
+	}
+
+	/**
+	 * Construct a set of tile data for a particular tile, with preset data.
+	 * 
+	 * @param definition The index of the tile whose data is to be represented
+	 *            by this object.
+	 * @param tileData The data for this tile
+	 */
+	public LongTileData (TileIndex definition, List<Long> tileData) {
+		this();
+		setDefinition(definition);
+		checkLength(definition, tileData.size());
+		_longData = new long[tileData.size()];
+		for (int i = 0; i < _longData.length; ++i) {
+			_longData[i] = toPrimitive(tileData.get(i));
+		}
+	}
+
+	/**
+	 * Construct a set of tile data for a particular tile, wrapping the given
+	 * array of data. The array is used directly, not copied, so later changes
+	 * to it will be reflected in this tile.
+	 * 
+	 * @param definition The index of the tile whose data is to be represented
+	 *            by this object.
+	 * @param tileData The data for this tile, row by row
+	 */
+	public LongTileData (TileIndex definition, long[] tileData) {
+		this();
+		setDefinition(definition);
+		checkLength(definition, tileData.length);
+		_longData = tileData;
+	}
+
+	private static void checkLength (TileIndex definition, int length) {
+		int requiredLength = definition.getXBins() * definition.getYBins();
+		if (length != requiredLength) {
+			throw new IllegalArgumentException("Data was of the wrong length.  Should have been "
+			                                   + requiredLength + ", was " + length);
+		}
+	}
+
+	private static long toPrimitive (Long value) {
+		if (null == value) throw new IllegalArgumentException("Null value for bin");
+		return value.longValue();
+	}
+
+	/**
+	 * Set the value of a particular bin in this tile, without boxing
+	 * 
+	 * @param x The x coordinate of the bin to be changed.
+	 * @param y The y coordinate of the bin to be changed.
+	 * @param value The value to which to set the bin in question.
+	 */
+	public void setLongBin (int x, int y, long value) {
+		_longData[x + y * getDefinition().getXBins()] = value;
+	}
+
+	/**
+	 * Get the value of a particular bin in this tile, without boxing
+	 * 
+	 * @param x The x coordinate of the bin to be changed.
+	 * @param y The y coordinate of the bin to be changed.
+	 * @return The value of the bin in question.
+	 */
+	public long getLongBin (int x, int y) {
+		return _longData[x + y * getDefinition().getXBins()];
+	}
+
+	@Override
+	public void setBin (int x, int y, Long value) {
+		setLongBin(x, y, toPrimitive(value));
+	}
+
+	@Override
+	public Long getBin (int x, int y) {
+		return getLongBin(x, y);
+	}
+
+	/**
+	 * Get the raw data array backing this tile. This is not a copy - changes
+	 * to it will change the tile. As with {@link #getData()}, data is stored
+	 * row by row.
+	 */
+	public long[] getLongData () {
+		return _longData;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The list returned is an unmodifiable view of the backing array; values
+	 * are boxed as they are read.
+	 */
+	@Override
+	public List<Long> getData () {
+		return new LongListView(_longData);
+	}
+
+
+
+	private static class LongListView extends AbstractList<Long> implements RandomAccess {
+		private long[] _values;
+
+		LongListView (long[] values) {
+			_values = values;
+		}
+
+		@Override
+		public Long get (int index) {
+			return _values[index];
+		}
+
+		@Override
+		public int size () {
+			return _values.length;
+		}
+	}
+}
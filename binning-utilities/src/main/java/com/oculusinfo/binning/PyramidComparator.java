@@ -24,6 +24,8 @@
 package com.oculusinfo.binning;
 
 
+import com.oculusinfo.binning.util.ZOrder;
+
 import java.awt.*;
 import java.awt.geom.Point2D;
 import java.io.Serializable;
@@ -38,7 +40,7 @@ import java.util.Comparator;
  * Direct comparison code is taken from
  * http://en.wikipedia.org/wiki/Z-order_curve
  * 
- * Key-generation code is taken from one of Chris Bethune's projects.
+ * Keys are generated by {@link ZOrder}.
  * 
  * This class acts as a comparator, but does not implement the comparator
  * interface, because it can handle both raw points and indices (and we can't
@@ -51,11 +53,14 @@ import java.util.Comparator;
 public class PyramidComparator implements Serializable {
 	private static final long     serialVersionUID         = 1L;
 
-	// Constants for bit interleaving.
+	// Constants for bit interleaving; keys are now generated by ZOrder, so
+	// these are no longer used here.
+	@Deprecated
 	public static final long      BITS[]                   = {
 		0x5555555555555555L, 0x3333333333333333L, 0x0F0F0F0F0F0F0F0FL,
 		0x00FF00FF00FF00FFL, 0x0000FFFF0000FFFFL, 0x00000000FFFFFFFFL};
 
+	@Deprecated
 	public static final long      SHIFTS[]                 = {1, 2, 4, 8, 16};
 
 	public static final byte      SW                       = 0;
@@ -156,26 +161,22 @@ public class PyramidComparator implements Serializable {
 	 *         curve ordering.
 	 */
 	public long getComparisonKey (double rawX, double rawY) {
-		TileIndex index = _pyramid.rootToTile(rawX, rawY, _comparisonLevel);
-		long x = index.getX();
-		long y = index.getY();
-
-		x = (x | (x << SHIFTS[4])) & BITS[4];
-		x = (x | (x << SHIFTS[3])) & BITS[3];
-		x = (x | (x << SHIFTS[2])) & BITS[2];
-		x = (x | (x << SHIFTS[1])) & BITS[1];
-		x = (x | (x << SHIFTS[0])) & BITS[0];
-
-		y = (y | (y << SHIFTS[4])) & BITS[4];
-		y = (y | (y << SHIFTS[3])) & BITS[3];
-		y = (y | (y << SHIFTS[2])) & BITS[2];
-		y = (y | (y << SHIFTS[1])) & BITS[1];
-		y = (y | (y << SHIFTS[0])) & BITS[0];
-
-		long z = x | (y << 1);
-
-		// Apply fence bit
-		return (0x01L << (2 * (_comparisonLevel + 1))) | z;
+		return getTileKey(_pyramid.rootToTile(rawX, rawY, _comparisonLevel));
+	}
+
+	/**
+	 * Returns a lookup key for a tile index, in the same way as
+	 * {@link #getComparisonKey(double, double)}, but at the level of the tile
+	 * itself. Keys of tiles on the same level are ordered along the Morton
+	 * curve, and keys of tiles on different levels never collide.
+	 * 
+	 * @param index The tile whose key is desired
+	 * 
+	 * @return A location key that should be in order according to the Morton
+	 *         curve ordering.
+	 */
+	public static long getTileKey (TileIndex index) {
+		return ZOrder.getTileKey(index);
 	}
 
 
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning;
+
+
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+
+/**
+ * A tile that only stores those bins whose value differs from a common
+ * default value.
+ * 
+ * Stored bins are kept as a sorted array of bin offsets (x + y * xBins), with
+ * a parallel array of values, so lookups are a binary search, and a
+ * sequential walk over the tile (as in {@link #getData()}) is linear.  This is
+ * intended for tiles with few populated bins; for well-filled tiles, a normal
+ * dense tile is both smaller and faster.  {@link #isSparseEnough(TileIndex, int)}
+ * can be used to choose between the two.
+ * 
+ * @author nkronenfeld
+ * 
+ * @param <T> The type of data stored in the bins of this tile.
+ */
+public class SparseTileData<T> extends TileData<T> {
+	private static final long serialVersionUID = -1930276232227262475L;
+
+	/**
+	 * The maximum proportion of populated bins for which a sparse tile is
+	 * preferred over a dense one.
+	 */
+	public static final double MAXIMUM_SPARSE_FILL_RATIO = 0.25;
+
+	private static final int   INITIAL_CAPACITY          = 16;
+
+
+
+	/**
+	 * Determine whether a tile with the given number of non-default bins is
+	 * better stored sparsely or densely
+	 * 
+	 * @param definition The index of the tile in question
+	 * @param nonDefaultBins The number of bins in the tile which are expected
+	 *            to hold something other than the default value
+	 * @return True if a sparse tile is preferred
+	 */
+	public static boolean isSparseEnough (TileIndex definition, int nonDefaultBins) {
+		int totalBins = definition.getXBins() * definition.getYBins();
+		return nonDefaultBins <= totalBins * MAXIMUM_SPARSE_FILL_RATIO;
+	}
+
+
+
+	private T        _defaultValue;
+	private int[]    _binOffsets;
+	private Object[] _binValues;
+	private int      _size;
+
+
+
+	// No-argument constructor, really just for use by Kryo.
+	private SparseTileData () {
+		super();
+	}
+
+	/**
+	 * Construct a sparse tile for a particular tile. All entries are
+	 * initialized to the given default value.
+	 * 
+	 * @param definition The index of the tile whose data is to be collected by
+	 *            this object.
+	 * @param defaultValue The value of every bin not explicitly set.
+	 */
+	public SparseTileData (TileIndex definition, T defaultValue) {
+		this();
+		setDefinition(definition);
+		_defaultValue = defaultValue;
+		_binOffsets = new int[INITIAL_CAPACITY];
+		_binValues = new Object[INITIAL_CAPACITY];
+		_size = 0;
+	}
+
+	/**
+	 * Construct a sparse tile for a particular tile, with preset data.
+	 * 
+	 * @param definition The index of the tile whose data is to be collected by
+	 *            this object.
+	 * @param defaultValue The value of every bin not explicitly set.
+	 * @param binOffsets The offsets (x + y * xBins) of the bins with data, in
+	 *            increasing order
+	 * @param binValues The values of the bins with data, in the same order as
+	 *            binOffsets
+	 */
+	public SparseTileData (TileIndex definition, T defaultValue,
+	                       int[] binOffsets, List<T> binValues) {
+		this();
+		setDefinition(definition);
+		if (binOffsets.length != binValues.size()) {
+			throw new IllegalArgumentException("Mismatched bin offset and value counts: "
+			                                   + binOffsets.length + " vs "
+			                                   + binValues.size());
+		}
+		int totalBins = definition.getXBins() * definition.getYBins();
+		for (int i = 0; i < binOffsets.length; ++i) {
+			if (binOffsets[i] < 0 || binOffsets[i] >= totalBins
+			    || (i > 0 && binOffsets[i] <= binOffsets[i - 1])) {
+				throw new IllegalArgumentException("Bin offsets must be increasing and within the tile");
+			}
+		}
+		_defaultValue = defaultValue;
+		_size = binOffsets.length;
+		int capacity = Math.max(INITIAL_CAPACITY, _size);
+		_binOffsets = Arrays.copyOf(binOffsets, capacity);
+		_binValues = new Object[capacity];
+		for (int i = 0; i < _size; ++i) {
+			_binValues[i] = binValues.get(i);
+		}
+	}
+
+	/**
+	 * Get the value of any bin that has not been explicitly set.
+	 */
+	public T getDefaultValue () {
+		return _defaultValue;
+	}
+
+	/**
+	 * Get the number of bins explicitly stored in this tile.
+	 */
+	public int getStoredBinCount () {
+		return _size;
+	}
+
+	/**
+	 * Get the offsets (x + y * xBins) of the bins explicitly stored in this
+	 * tile, in increasing order.
+	 */
+	public int[] getStoredBinOffsets () {
+		return Arrays.copyOf(_binOffsets, _size);
+	}
+
+	/**
+	 * Get the values of the bins explicitly stored in this tile, in the same
+	 * order as {@link #getStoredBinOffsets()}.
+	 */
+	public List<T> getStoredBinValues () {
+		return new AbstractList<T>() {
+			@Override
+			public T get (int index) {
+				if (index >= _size) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+_size);
+				return getStoredValue(index);
+			}
+
+			@Override
+			public int size () {
+				return _size;
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private T getStoredValue (int index) {
+		return (T) _binValues[index];
+	}
+
+	@Override
+	public void setBin (int x, int y, T value) {
+		int offset = x + y * getDefinition().getXBins();
+		int position = Arrays.binarySearch(_binOffsets, 0, _size, offset);
+		if (position >= 0) {
+			_binValues[position] = value;
+		} else if (!isDefault(value)) {
+			position = -position - 1;
+			if (_size == _binOffsets.length) {
+				int capacity = _size * 2;
+				_binOffsets = Arrays.copyOf(_binOffsets, capacity);
+				_binValues = Arrays.copyOf(_binValues, capacity);
+			}
+			System.arraycopy(_binOffsets, position, _binOffsets, position + 1, _size - position);
+			System.arraycopy(_binValues, position, _binValues, position + 1, _size - position);
+			_binOffsets[position] = offset;
+			_binValues[position] = value;
+			++_size;
+		}
+	}
+
+	private boolean isDefault (T value) {
+		if (null == _defaultValue) return null == value;
+		return _defaultValue.equals(value);
+	}
+
+	@Override
+	public T getBin (int x, int y) {
+		int offset = x + y * getDefinition().getXBins();
+		int position = Arrays.binarySearch(_binOffsets, 0, _size, offset);
+		if (position >= 0) return getStoredValue(position);
+		return _defaultValue;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The list returned is an unmodifiable, expanded view of this sparse
+	 * tile; default values are filled in as it is read.
+	 */
+	@Override
+	public List<T> getData () {
+		return new SparseListView();
+	}
+
+
+
+	private class SparseListView extends AbstractList<T> {
+		@Override
+		public T get (int index) {
+			if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size());
+			int position = Arrays.binarySearch(_binOffsets, 0, _size, index);
+			if (position >= 0) return getStoredValue(position);
+			return _defaultValue;
+		}
+
+		@Override
+		public int size () {
+			TileIndex definition = getDefinition();
+			return definition.getXBins() * definition.getYBins();
+		}
+
+		// Walk stored bins in order, rather than searching for each one
+		@Override
+		public Iterator<T> iterator () {
+			return new Iterator<T>() {
+				private int _offset = 0;
+				private int _position = 0;
+				private int _end = size();
+
+				@Override
+				public boolean hasNext () {
+					return _offset < _end;
+				}
+
+				@Override
+				public T next () {
+					if (_offset >= _end) throw new NoSuchElementException();
+					T result;
+					if (_position < _size && _binOffsets[_position] == _offset) {
+						result = getStoredValue(_position);
+						++_position;
+					} else {
+						result = _defaultValue;
+					}
+					++_offset;
+					return result;
+				}
+
+				@Override
+				public void remove () {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+}
@@ -52,8 +52,10 @@ public class TileData<T> implements Serializable {
 
 
 	// No-argument constructor, really just for use by Kryo, but we call it from
-	// the main constructor just to get rid of the warning.
-	private TileData () {
+	// the main constructor just to get rid of the warning.  Subclasses that
+	// keep their own bin storage (see {@link DoubleTileData}) also use it,
+	// along with {@link #setDefinition(TileIndex)}.
+	protected TileData () {
 	}
 
 	/**
@@ -108,6 +110,19 @@ public class TileData<T> implements Serializable {
 		_data = new ArrayList<T>(tileData);
 	}
 
+	/**
+	 * Set the tile index of this tile.  This is only for use by subclasses
+	 * that store their bins themselves, and so can't use the bin-allocating
+	 * constructors; such subclasses must override {@link #getBin(int, int)},
+	 * {@link #setBin(int, int, Object)}, and {@link #getData()}.
+	 * 
+	 * @param definition The index of the tile whose data is represented by
+	 *            this object.
+	 */
+	protected void setDefinition (TileIndex definition) {
+		_definition = definition;
+	}
+
 	/**
 	 * Get the tile index defining which tile is associated with this data
 	 * 
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io;
+
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+
+
+
+/**
+ * A PyramidIO that can also read tiles without blocking the caller.
+ * 
+ * Implementations should coalesce concurrent reads of the same tile, so that
+ * any number of callers waiting on one tile cost only one read.
+ * 
+ * @see ExecutorPyramidIO for a way to make any PyramidIO asynchronous
+ */
+public interface AsyncPyramidIO extends PyramidIO {
+	/**
+	 * Read in a single tile asynchronously
+	 * 
+	 * @param pyramidId The ID of the pyramid to be read; the meaning of this ID
+	 *            is dependent on the I/O type
+	 * @param serializer A serializaer class that defines how the specific data
+	 *            format will be read
+	 * @param tile The tile to be read
+	 * @return A future that will yield the tile, or null if the tile doesn't
+	 *         exist. If the read fails, the future's get method will throw an
+	 *         ExecutionException wrapping the cause.
+	 */
+	public <T> Future<TileData<T>> readTileAsync (String pyramidId,
+	                                              TileSerializer<T> serializer,
+	                                              TileIndex tile);
+
+	/**
+	 * Read in a set of tiles asynchronously, as a single batch
+	 * 
+	 * @param pyramidId The ID of the pyramid to be read; the meaning of this ID
+	 *            is dependent on the I/O type
+	 * @param serializer A serializaer class that defines how the specific data
+	 *            format will be read
+	 * @param tiles The tiles to be read
+	 * @return A future that will yield a list of those tiles that exist
+	 */
+	public <T> Future<List<TileData<T>>> readTilesAsync (String pyramidId,
+	                                                     TileSerializer<T> serializer,
+	                                                     Iterable<TileIndex> tiles);
+}
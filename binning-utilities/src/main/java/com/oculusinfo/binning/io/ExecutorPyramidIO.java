@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.util.Pair;
+
+
+
+/**
+ * An adapter that makes any PyramidIO asynchronous, by running its reads on a
+ * bounded thread pool.
+ * 
+ * Concurrent single-tile reads of the same tile are coalesced into one read of
+ * the underlying PyramidIO. Batch reads are passed through as a single batch,
+ * so the underlying PyramidIO may still make one round trip for them. When the
+ * pool's queue is full, new reads are run on the calling thread, so a flood of
+ * requests slows its callers rather than exhausting memory.
+ * 
+ * Writes and other synchronous calls go straight through to the underlying
+ * PyramidIO.
+ */
+public class ExecutorPyramidIO implements AsyncPyramidIO {
+	private PyramidIO                                                   _base;
+	private ExecutorService                                             _executor;
+	private ConcurrentMap<Pair<String, TileIndex>, Future<TileData<?>>> _inFlight;
+
+
+
+	/**
+	 * Wrap a PyramidIO with a pool of its own
+	 * 
+	 * @param base The PyramidIO to which to delegate
+	 * @param threads The number of threads with which to read
+	 * @param maxQueuedReads The number of reads that may wait for a thread
+	 *            before further reads are run on the caller's thread
+	 */
+	public ExecutorPyramidIO (PyramidIO base, int threads, int maxQueuedReads) {
+		this(base, createBoundedExecutor("pyramid-io", threads, maxQueuedReads));
+	}
+
+	/**
+	 * Wrap a PyramidIO with an existing executor
+	 * 
+	 * @param base The PyramidIO to which to delegate
+	 * @param executor The executor on which to read
+	 */
+	public ExecutorPyramidIO (PyramidIO base, ExecutorService executor) {
+		_base = base;
+		_executor = executor;
+		_inFlight = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Create a fixed-size pool of daemon threads, with a bounded queue, that
+	 * runs tasks on the caller's thread when the queue is full (or when the
+	 * pool has been shut down, so no read is ever silently dropped).
+	 * 
+	 * @param name A name prefix for the pool's threads
+	 * @param threads The number of threads in the pool
+	 * @param maxQueuedTasks The maximum number of tasks waiting for a thread
+	 */
+	public static ExecutorService createBoundedExecutor (final String name, int threads, int maxQueuedTasks) {
+		ThreadFactory factory = new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger(0);
+			@Override
+			public Thread newThread (Runnable r) {
+				Thread thread = new Thread(r, name+"-"+_count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+		                              new LinkedBlockingQueue<Runnable>(maxQueuedTasks),
+		                              factory, new RejectedExecutionHandler() {
+			                              @Override
+			                              public void rejectedExecution (Runnable r, ThreadPoolExecutor executor) {
+				                              r.run();
+			                              }
+		                              });
+	}
+
+	/**
+	 * Get the PyramidIO to which this adapter delegates
+	 */
+	public PyramidIO getBasePyramidIO () {
+		return _base;
+	}
+
+	/**
+	 * Stop accepting new reads; reads already submitted will still complete.
+	 */
+	public void shutdown () {
+		_executor.shutdown();
+	}
+
+
+
+	@Override
+	public <T> Future<TileData<T>> readTileAsync (final String pyramidId,
+	                                              final TileSerializer<T> serializer,
+	                                              final TileIndex tile) {
+		final Pair<String, TileIndex> key = new Pair<String, TileIndex>(pyramidId, tile);
+
+		// We key in-flight reads only by pyramid and index, and rely on
+		// configuration to make sure the types of reads of the same pyramid
+		// match.
+		@SuppressWarnings({"rawtypes", "unchecked"})
+		Future<TileData<T>> existing = (Future) _inFlight.get(key);
+		if (null != existing) {
+			if (!existing.isDone())
+				return existing;
+			// Finished, but not yet cleaned up; don't hand back a stale read.
+			_inFlight.remove(key, existing);
+		}
+
+		FutureTask<TileData<?>> task = new FutureTask<TileData<?>>(new Callable<TileData<?>>() {
+			@Override
+			public TileData<?> call () throws Exception {
+				List<TileData<T>> tiles = _base.readTiles(pyramidId, serializer,
+				                                          Collections.singletonList(tile));
+				if (null == tiles || tiles.isEmpty())
+					return null;
+				return tiles.get(0);
+			}
+		}) {
+			@Override
+			protected void done () {
+				_inFlight.remove(key, this);
+			}
+		};
+
+		@SuppressWarnings({"rawtypes", "unchecked"})
+		Future<TileData<T>> raced = (Future) _inFlight.putIfAbsent(key, task);
+		if (null != raced && !raced.isDone())
+			return raced;
+		if (null != raced)
+			_inFlight.put(key, task);
+
+		_executor.execute(task);
+
+		@SuppressWarnings({"rawtypes", "unchecked"})
+		Future<TileData<T>> result = (Future) task;
+		return result;
+	}
+
+	@Override
+	public <T> Future<List<TileData<T>>> readTilesAsync (final String pyramidId,
+	                                                     final TileSerializer<T> serializer,
+	                                                     final Iterable<TileIndex> tiles) {
+		return _executor.submit(new Callable<List<TileData<T>>>() {
+			@Override
+			public List<TileData<T>> call () throws Exception {
+				return _base.readTiles(pyramidId, serializer, tiles);
+			}
+		});
+	}
+
+
+
+	@Override
+	public void initializeForWrite (String pyramidId) throws IOException {
+		_base.initializeForWrite(pyramidId);
+	}
+
+	@Override
+	public <T> void writeTiles (String pyramidId, TileSerializer<T> serializer,
+	                            Iterable<TileData<T>> data) throws IOException {
+		_base.writeTiles(pyramidId, serializer, data);
+	}
+
+	@Override
+	public void writeMetaData (String pyramidId, String metaData) throws IOException {
+		_base.writeMetaData(pyramidId, metaData);
+	}
+
+	@Override
+	public void initializeForRead (String pyramidId, int width, int height,
+	                               Properties dataDescription) {
+		_base.initializeForRead(pyramidId, width, height, dataDescription);
+	}
+
+	@Override
+	public <T> List<TileData<T>> readTiles (String pyramidId,
+	                                        TileSerializer<T> serializer,
+	                                        Iterable<TileIndex> tiles) throws IOException {
+		return _base.readTiles(pyramidId, serializer, tiles);
+	}
+
+	@Override
+	public <T> InputStream getTileStream (String pyramidId,
+	                                      TileSerializer<T> serializer,
+	                                      TileIndex tile) throws IOException {
+		return _base.getTileStream(pyramidId, serializer, tile);
+	}
+
+	@Override
+	public String readMetaData (String pyramidId) throws IOException {
+		return _base.readMetaData(pyramidId);
+	}
+
+	@Override
+	public void removeTiles (String id, Iterable<TileIndex> tiles) throws IOException {
+		_base.removeTiles(id, tiles);
+	}
+}
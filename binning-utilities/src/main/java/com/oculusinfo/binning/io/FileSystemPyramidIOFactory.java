@@ -26,6 +26,7 @@ package com.oculusinfo.binning.io;
 
 import com.oculusinfo.binning.io.impl.FileSystemPyramidIO;
 import com.oculusinfo.factory.ConfigurableFactory;
+import com.oculusinfo.factory.properties.IntegerProperty;
 import com.oculusinfo.factory.properties.StringProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,12 +44,16 @@ public class FileSystemPyramidIOFactory extends ConfigurableFactory<PyramidIO> {
 	public static StringProperty EXTENSION              = new StringProperty("extension",
 			"Used with type=\"file-system\", \"resource\", or \"zip\".  The file extension which the serializer should expect to find on individual tiles.",
 			"avro");
+	public static IntegerProperty IO_THREADS            = new IntegerProperty("io.threads",
+			"Used with type=\"file-system\".  The number of threads used to read and write each batch of tiles; 1 does all file I/O on the calling thread.",
+			FileSystemPyramidIO.DEFAULT_IO_THREADS);
 	
 	public FileSystemPyramidIOFactory(String factoryName, ConfigurableFactory<?> parent, List<String> path) {
 		super(factoryName, PyramidIO.class, parent, path);
 		
 		addProperty(ROOT_PATH);
 		addProperty(EXTENSION);
+		addProperty(IO_THREADS);
 	}
 
 	@Override
@@ -56,7 +61,8 @@ public class FileSystemPyramidIOFactory extends ConfigurableFactory<PyramidIO> {
 		try {
 			String rootPath = getPropertyValue(ROOT_PATH);
 			String extension = getPropertyValue(EXTENSION);
-			return new FileSystemPyramidIO(rootPath, extension);
+			int ioThreads = getPropertyValue(IO_THREADS);
+			return new FileSystemPyramidIO(rootPath, extension, ioThreads);
 		}
 		catch (Exception e) {
 			LOGGER.error("Error trying to create FileSystemPyramidIO", e);
@@ -25,8 +25,10 @@
 package com.oculusinfo.binning.io;
 
 import com.oculusinfo.binning.io.impl.HBasePyramidIO;
+import com.oculusinfo.binning.io.impl.HBaseRowKeyScheme;
 import com.oculusinfo.factory.ConfigurableFactory;
 import com.oculusinfo.factory.SharedInstanceFactory;
+import com.oculusinfo.factory.properties.IntegerProperty;
 import com.oculusinfo.factory.properties.StringProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +49,19 @@ public class HBasePyramidIOFactory extends SharedInstanceFactory<PyramidIO> {
 	public static StringProperty HBASE_MASTER           = new StringProperty("hbase.master",
 		   "Only used if type=\"hbase\".  An HBase configuration parameter, this should match the similar value in hbase-site.xml.  There is no default for this property.",
 		   null);
+	public static StringProperty HBASE_ROW_KEYS         = new StringProperty("hbase.row.keys",
+		   "Only used if type=\"hbase\".  The row key scheme used for newly created tables - either \"zorder\" (binary keys, ordered so neighbouring tiles are stored together) or \"legacy\" (\"level,x,y\" strings).  Existing tables are always read and written with the scheme they were created with.",
+		   "zorder",
+		   new String[] {"zorder", "legacy"});
+	public static IntegerProperty HBASE_SALT_BUCKETS    = new IntegerProperty("hbase.salt.buckets",
+		   "Only used if type=\"hbase\" and hbase.row.keys=\"zorder\".  The number of key prefixes over which each level of a new table is spread, to avoid writing a whole level to a single region.  1 (the default) means no salting.",
+		   1);
+	public static IntegerProperty HBASE_WRITE_BUFFER    = new IntegerProperty("hbase.write.buffer",
+		   "Only used if type=\"hbase\".  The number of bytes of tiles buffered on the client before being sent to HBase.",
+		   (int) HBasePyramidIO.DEFAULT_WRITE_BUFFER_SIZE);
+	public static IntegerProperty HBASE_CLIENT_THREADS  = new IntegerProperty("hbase.client.threads",
+		   "Only used if type=\"hbase\".  The number of threads used to send buffered writes to, and read large batches of tiles from, HBase.",
+		   HBasePyramidIO.DEFAULT_CLIENT_THREADS);
 	
 	public HBasePyramidIOFactory(String factoryName, ConfigurableFactory<?> parent, List<String> path) {
 		super(factoryName, PyramidIO.class, parent, path);
@@ -54,6 +69,10 @@ public class HBasePyramidIOFactory extends SharedInstanceFactory<PyramidIO> {
 		addProperty(HBASE_ZOOKEEPER_QUORUM);
 		addProperty(HBASE_ZOKEEPER_PORT);
 		addProperty(HBASE_MASTER);
+		addProperty(HBASE_ROW_KEYS);
+		addProperty(HBASE_SALT_BUCKETS);
+		addProperty(HBASE_WRITE_BUFFER);
+		addProperty(HBASE_CLIENT_THREADS);
 	}
 
 	@Override
@@ -62,7 +81,15 @@ public class HBasePyramidIOFactory extends SharedInstanceFactory<PyramidIO> {
 			String quorum = getPropertyValue(HBASE_ZOOKEEPER_QUORUM);
 			String port = getPropertyValue(HBASE_ZOKEEPER_PORT);
 			String master = getPropertyValue(HBASE_MASTER);
-			return new HBasePyramidIO(quorum, port, master);
+			HBaseRowKeyScheme scheme;
+			if ("legacy".equals(getPropertyValue(HBASE_ROW_KEYS))) {
+				scheme = HBaseRowKeyScheme.legacy();
+			} else {
+				scheme = HBaseRowKeyScheme.zOrder(getPropertyValue(HBASE_SALT_BUCKETS));
+			}
+			int writeBuffer = getPropertyValue(HBASE_WRITE_BUFFER);
+			int clientThreads = getPropertyValue(HBASE_CLIENT_THREADS);
+			return new HBasePyramidIO(quorum, port, master, scheme, writeBuffer, clientThreads);
 		}
 		catch (Exception e) {
 			LOGGER.error("Error trying to create HBasePyramidIO", e);
@@ -26,6 +26,7 @@ package com.oculusinfo.binning.io;
 
 import com.oculusinfo.binning.io.impl.JDBCPyramidIO;
 import com.oculusinfo.factory.ConfigurableFactory;
+import com.oculusinfo.factory.properties.IntegerProperty;
 import com.oculusinfo.factory.properties.StringProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,12 +44,20 @@ public class JDBCPyramidIOFactory extends ConfigurableFactory<PyramidIO> {
 	public static StringProperty JDBC_DRIVER            = new StringProperty("jdbc.driver",
 			"Only used if type=\"jdbc\".  The full class name of the JDBC driver to use.  There is no default for this property.",
 			null);
+	public static IntegerProperty JDBC_POOL_SIZE        = new IntegerProperty("jdbc.pool.size",
+			"Only used if type=\"jdbc\".  The maximum number of connections opened to the database at once.",
+			JDBCPyramidIO.DEFAULT_POOL_SIZE);
+	public static IntegerProperty JDBC_BATCH_SIZE       = new IntegerProperty("jdbc.batch.size",
+			"Only used if type=\"jdbc\".  The number of tiles written in each transaction.",
+			JDBCPyramidIO.DEFAULT_WRITE_BATCH_SIZE);
 	
 	public JDBCPyramidIOFactory(String factoryName, ConfigurableFactory<?> parent, List<String> path) {
 		super(factoryName, PyramidIO.class, parent, path);
 		
 		addProperty(ROOT_PATH);
 		addProperty(JDBC_DRIVER);
+		addProperty(JDBC_POOL_SIZE);
+		addProperty(JDBC_BATCH_SIZE);
 	}
 
 	@Override
@@ -56,7 +65,9 @@ public class JDBCPyramidIOFactory extends ConfigurableFactory<PyramidIO> {
 		try {
 			String driver = getPropertyValue(JDBC_DRIVER);
 			String rootPath = getPropertyValue(ROOT_PATH);
-			return new JDBCPyramidIO(driver, rootPath);
+			int poolSize = getPropertyValue(JDBC_POOL_SIZE);
+			int batchSize = getPropertyValue(JDBC_BATCH_SIZE);
+			return new JDBCPyramidIO(driver, rootPath, poolSize, batchSize);
 		}
 		catch (Exception e) {
 			LOGGER.error("Error trying to create JDBCPyramidIO", e);
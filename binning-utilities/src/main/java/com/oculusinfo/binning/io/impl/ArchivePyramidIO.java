@@ -0,0 +1,619 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.PyramidIO;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.util.ZOrder;
+
+/**
+ * A pyramid IO that packs each level of a pyramid into a single archive,
+ * rather than writing one file per tile.
+ * 
+ * Each level consists of two files under the pyramid's tiles folder:
+ * <ul>
+ * <li><code>{level}.data</code> - an append-only file containing the
+ * serialized tiles, back to back</li>
+ * <li><code>{level}.index</code> - a header followed by fixed-size records
+ * mapping the Z-order key of each tile to its offset and length in the data
+ * file. Records up to the count in the header are sorted by key; anything
+ * after that has been appended since the index was last compacted.</li>
+ * </ul>
+ * 
+ * Writing appends to both files under a file lock, so several writers (for
+ * instance, several spark workers on the same machine) may write to the same
+ * pyramid at once. Writing the metadata compacts each index, so a finished
+ * pyramid normally has a fully sorted index.
+ * 
+ * Reading memory-maps both files once, and thereafter serves each tile with a
+ * binary search of the index and a slice of the mapped data, without touching
+ * the file system. Archives are checked for changes at most once every
+ * {@link #STALE_CHECK_INTERVAL} milliseconds.
+ */
+public class ArchivePyramidIO implements PyramidIO {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ArchivePyramidIO.class);
+
+	public static final String DATA_EXTENSION       = "data";
+	public static final String INDEX_EXTENSION      = "index";
+	public static final long   STALE_CHECK_INTERVAL = 5000L;
+
+	private static final int  INDEX_MAGIC       = 0x54494458; // "TIDX"
+	private static final int  INDEX_VERSION     = 1;
+	private static final int  INDEX_HEADER_SIZE = 16;
+	private static final int  INDEX_RECORD_SIZE = 20;
+	// Tiles never straddle a segment boundary in the data file, so that each
+	// tile can be served from a single mapped segment.
+	private static final long SEGMENT_SIZE      = 1L << 30;
+	// The length recorded for removed tiles
+	private static final int  REMOVED           = -1;
+
+	// Writes within this JVM are serialized on one monitor per archive, since
+	// file locks are held by the whole process, not by individual threads.
+	private static final ConcurrentMap<String, Object> WRITE_MONITORS = new ConcurrentHashMap<String, Object>();
+
+
+
+	private String                                _rootPath;
+	private ConcurrentMap<String, LevelArchive>   _archives;
+
+
+
+	public ArchivePyramidIO (String rootPath) {
+		//if there's no root path, then it should be based on a relative path, so make sure to set root path to '.'
+		if (rootPath == null || rootPath.trim().length() == 0) {
+			rootPath = "./";
+		}
+
+		//make sure the root path ends with a slash
+		_rootPath = (rootPath.trim().endsWith("/"))? rootPath : rootPath.trim() + "/";
+		_archives = new ConcurrentHashMap<String, LevelArchive>();
+	}
+
+	public Object getRootPath () {
+		return _rootPath;
+	}
+
+	private File getTilesDir (String basePath) {
+		return new File(_rootPath + basePath + "/" + PyramidIO.TILES_FOLDERNAME);
+	}
+
+	private File getDataFile (String basePath, int level) {
+		return new File(getTilesDir(basePath), level + "." + DATA_EXTENSION);
+	}
+
+	private File getIndexFile (String basePath, int level) {
+		return new File(getTilesDir(basePath), level + "." + INDEX_EXTENSION);
+	}
+
+	private File getMetaDataFile (String basePath) {
+		return new File(_rootPath + basePath + "/" + PyramidIO.METADATA_FILENAME);
+	}
+
+	private static Object getWriteMonitor (File dataFile) throws IOException {
+		String key = dataFile.getCanonicalPath();
+		Object monitor = WRITE_MONITORS.get(key);
+		if (null == monitor) {
+			Object newMonitor = new Object();
+			monitor = WRITE_MONITORS.putIfAbsent(key, newMonitor);
+			if (null == monitor) monitor = newMonitor;
+		}
+		return monitor;
+	}
+
+	private static Map<Integer, List<TileIndex>> groupByLevel (Iterable<TileIndex> tiles) {
+		Map<Integer, List<TileIndex>> byLevel = new HashMap<Integer, List<TileIndex>>();
+		for (TileIndex tile: tiles) {
+			List<TileIndex> levelTiles = byLevel.get(tile.getLevel());
+			if (null == levelTiles) {
+				levelTiles = new ArrayList<TileIndex>();
+				byLevel.put(tile.getLevel(), levelTiles);
+			}
+			levelTiles.add(tile);
+		}
+		return byLevel;
+	}
+
+
+
+	// ////////////////////////////////////////////////////////////////////////
+	// Section: Writing
+	//
+	@Override
+	public void initializeForWrite (String basePath) throws IOException {
+		File tilesDir = getTilesDir(basePath);
+		if (!tilesDir.exists()) tilesDir.mkdirs();
+	}
+
+	@Override
+	public <T> void writeTiles (String basePath, TileSerializer<T> serializer,
+	                            Iterable<TileData<T>> data) throws IOException {
+		// Serialize everything before taking any locks
+		Map<Integer, List<TileIndex>> indicesByLevel = new HashMap<Integer, List<TileIndex>>();
+		Map<Integer, List<byte[]>> bytesByLevel = new HashMap<Integer, List<byte[]>>();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (TileData<T> tile: data) {
+			TileIndex index = tile.getDefinition();
+			baos.reset();
+			serializer.serialize(tile, baos);
+
+			List<TileIndex> levelIndices = indicesByLevel.get(index.getLevel());
+			if (null == levelIndices) {
+				levelIndices = new ArrayList<TileIndex>();
+				indicesByLevel.put(index.getLevel(), levelIndices);
+				bytesByLevel.put(index.getLevel(), new ArrayList<byte[]>());
+			}
+			levelIndices.add(index);
+			bytesByLevel.get(index.getLevel()).add(baos.toByteArray());
+		}
+
+		for (Map.Entry<Integer, List<TileIndex>> entry: indicesByLevel.entrySet()) {
+			int level = entry.getKey();
+			appendRecords(basePath, level, entry.getValue(), bytesByLevel.get(level));
+		}
+	}
+
+	private void appendRecords (String basePath, int level,
+	                            List<TileIndex> indices, List<byte[]> tiles) throws IOException {
+		File dataFile = getDataFile(basePath, level);
+		File indexFile = getIndexFile(basePath, level);
+		File parent = dataFile.getParentFile();
+		if (!parent.exists()) parent.mkdirs();
+
+		synchronized (getWriteMonitor(dataFile)) {
+			RandomAccessFile dataRAF = new RandomAccessFile(dataFile, "rw");
+			RandomAccessFile indexRAF = new RandomAccessFile(indexFile, "rw");
+			FileChannel dataChannel = dataRAF.getChannel();
+			FileChannel indexChannel = indexRAF.getChannel();
+			// The data file lock guards both files
+			FileLock lock = dataChannel.lock();
+			try {
+				if (indexChannel.size() < INDEX_HEADER_SIZE) {
+					writeIndexHeader(indexChannel, 0L);
+				}
+
+				int n = indices.size();
+				ByteBuffer records = ByteBuffer.allocate(n * INDEX_RECORD_SIZE);
+				long offset = dataChannel.size();
+				for (int i=0; i<n; ++i) {
+					TileIndex index = indices.get(i);
+					long key = ZOrder.interleave(index.getX(), index.getY());
+					if (null == tiles) {
+						records.putLong(key).putLong(0L).putInt(REMOVED);
+						continue;
+					}
+
+					byte[] tile = tiles.get(i);
+					if (tile.length > SEGMENT_SIZE)
+						throw new IOException("Tile "+index+" is too large to archive ("+tile.length+" bytes)");
+					// Pad so the tile doesn't cross a segment boundary
+					long segmentEnd = (offset / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+					if (offset + tile.length > segmentEnd) offset = segmentEnd;
+
+					writeFully(dataChannel, ByteBuffer.wrap(tile), offset);
+					records.putLong(key).putLong(offset).putInt(tile.length);
+					offset += tile.length;
+				}
+				records.flip();
+				writeFully(indexChannel, records, indexChannel.size());
+			} finally {
+				lock.release();
+				dataRAF.close();
+				indexRAF.close();
+			}
+		}
+	}
+
+	private static void writeIndexHeader (FileChannel channel, long sortedCount) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+		header.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(sortedCount);
+		header.flip();
+		writeFully(channel, header, 0L);
+	}
+
+	private static void writeFully (FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	@Override
+	public void writeMetaData (String basePath, String metaData) throws IOException {
+		compact(basePath);
+
+		FileOutputStream stream = new FileOutputStream(getMetaDataFile(basePath));
+		stream.write(metaData.getBytes());
+		stream.close();
+	}
+
+	/**
+	 * Sort the index of each level of the given pyramid, dropping all but the
+	 * most recent record of each tile. This is done automatically whenever
+	 * metadata is written; data for overwritten or removed tiles remains in
+	 * the data file.
+	 */
+	public void compact (String basePath) throws IOException {
+		File tilesDir = getTilesDir(basePath);
+		File[] indexFiles = tilesDir.listFiles();
+		if (null == indexFiles) return;
+
+		for (File indexFile: indexFiles) {
+			String name = indexFile.getName();
+			if (!name.endsWith("." + INDEX_EXTENSION)) continue;
+			int level;
+			try {
+				level = Integer.parseInt(name.substring(0, name.length() - INDEX_EXTENSION.length() - 1));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			compactLevel(basePath, level);
+		}
+	}
+
+	private void compactLevel (String basePath, int level) throws IOException {
+		File dataFile = getDataFile(basePath, level);
+		File indexFile = getIndexFile(basePath, level);
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+
+		synchronized (getWriteMonitor(dataFile)) {
+			RandomAccessFile dataRAF = new RandomAccessFile(dataFile, "rw");
+			FileLock lock = dataRAF.getChannel().lock();
+			try {
+				RandomAccessFile indexRAF = new RandomAccessFile(indexFile, "r");
+				long[][] records;
+				long sortedCount;
+				try {
+					FileChannel indexChannel = indexRAF.getChannel();
+					sortedCount = readIndexHeader(indexChannel, indexFile);
+					int n = (int) ((indexChannel.size() - INDEX_HEADER_SIZE) / INDEX_RECORD_SIZE);
+					if (n == sortedCount) return;
+
+					ByteBuffer buffer = ByteBuffer.allocate(n * INDEX_RECORD_SIZE);
+					while (buffer.hasRemaining()) {
+						if (indexChannel.read(buffer, INDEX_HEADER_SIZE + buffer.position()) < 0) break;
+					}
+					buffer.flip();
+					// key, offset, length, original position (so later records win)
+					records = new long[n][];
+					for (int i=0; i<n; ++i) {
+						records[i] = new long[] {buffer.getLong(), buffer.getLong(), buffer.getInt(), i};
+					}
+				} finally {
+					indexRAF.close();
+				}
+
+				Arrays.sort(records, new Comparator<long[]>() {
+					@Override
+					public int compare (long[] a, long[] b) {
+						if (a[0] != b[0]) return a[0] < b[0] ? -1 : 1;
+						return a[3] < b[3] ? -1 : (a[3] == b[3] ? 0 : 1);
+					}
+				});
+
+				ByteBuffer output = ByteBuffer.allocate(records.length * INDEX_RECORD_SIZE);
+				long count = 0;
+				for (int i=0; i<records.length; ++i) {
+					// Only keep the last record for each key
+					if (i+1 < records.length && records[i+1][0] == records[i][0]) continue;
+					if (REMOVED == records[i][2]) continue;
+					output.putLong(records[i][0]).putLong(records[i][1]).putInt((int) records[i][2]);
+					++count;
+				}
+				output.flip();
+
+				RandomAccessFile tmpRAF = new RandomAccessFile(tmpFile, "rw");
+				try {
+					FileChannel tmpChannel = tmpRAF.getChannel();
+					tmpChannel.truncate(0L);
+					writeIndexHeader(tmpChannel, count);
+					writeFully(tmpChannel, output, INDEX_HEADER_SIZE);
+					tmpChannel.force(true);
+				} finally {
+					tmpRAF.close();
+				}
+				if (!tmpFile.renameTo(indexFile)) {
+					// Some platforms won't rename over an existing file
+					if (!indexFile.delete() || !tmpFile.renameTo(indexFile))
+						throw new IOException("Couldn't replace index "+indexFile);
+				}
+			} finally {
+				lock.release();
+				dataRAF.close();
+			}
+		}
+	}
+
+	private static long readIndexHeader (FileChannel channel, File indexFile) throws IOException {
+		if (channel.size() < INDEX_HEADER_SIZE) return 0L;
+
+		ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) break;
+		}
+		header.flip();
+		if (INDEX_MAGIC != header.getInt())
+			throw new IOException(indexFile+" is not a tile archive index");
+		int version = header.getInt();
+		if (INDEX_VERSION != version)
+			throw new IOException("Unsupported tile archive index version "+version+" in "+indexFile);
+		return header.getLong();
+	}
+
+
+
+	// ////////////////////////////////////////////////////////////////////////
+	// Section: Reading
+	//
+	@Override
+	public void initializeForRead(String pyramidId, int width, int height, Properties dataDescription) {
+		// Noop
+	}
+
+	private LevelArchive getArchive (String basePath, int level) throws IOException {
+		String key = basePath + ":" + level;
+		LevelArchive archive = _archives.get(key);
+		long now = System.currentTimeMillis();
+		if (null == archive || archive.isStale(now)) {
+			// Several threads may open the same archive at once; that's
+			// harmless, and avoids blocking readers on each other.
+			archive = new LevelArchive(getDataFile(basePath, level),
+			                           getIndexFile(basePath, level), now);
+			_archives.put(key, archive);
+		}
+		return archive;
+	}
+
+	private ByteBuffer getTileBuffer (String basePath, TileIndex tile) throws IOException {
+		return getArchive(basePath, tile.getLevel()).getTile(ZOrder.interleave(tile.getX(), tile.getY()));
+	}
+
+	@Override
+	public <T> List<TileData<T>> readTiles (String basePath,
+	                                        TileSerializer<T> serializer,
+	                                        Iterable<TileIndex> tiles) throws IOException {
+		List<TileData<T>> results = new LinkedList<TileData<T>>();
+		for (TileIndex tile: tiles) {
+			ByteBuffer buffer = getTileBuffer(basePath, tile);
+			if (null != buffer) {
+				results.add(serializer.deserialize(tile, new ByteBufferInputStream(buffer)));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public <T> InputStream getTileStream (String basePath,
+	                                      TileSerializer<T> serializer,
+	                                      TileIndex tile) throws IOException {
+		ByteBuffer buffer = getTileBuffer(basePath, tile);
+		if (null == buffer) return null;
+		return new ByteBufferInputStream(buffer);
+	}
+
+	@Override
+	public String readMetaData (String basePath) throws IOException {
+		File metaDataFile = getMetaDataFile(basePath);
+		if (!metaDataFile.exists()) return null;
+
+		FileInputStream stream = new FileInputStream(metaDataFile);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+		String rawMetaData = "";
+		String line;
+		while (null != (line = reader.readLine())) {
+			rawMetaData = rawMetaData + line;
+		}
+		reader.close();
+		return rawMetaData;
+	}
+
+	@Override
+	public void removeTiles (String basePath, Iterable<TileIndex> tiles) throws IOException {
+		// Archives are append-only, so removal is recorded in the index, and
+		// takes effect permanently on the next compaction
+		for (Map.Entry<Integer, List<TileIndex>> entry: groupByLevel(tiles).entrySet()) {
+			File dataFile = getDataFile(basePath, entry.getKey());
+			if (!dataFile.exists()) continue;
+			appendRecords(basePath, entry.getKey(), entry.getValue(), null);
+		}
+	}
+
+
+
+	/*
+	 * The mapped form of a single level of a pyramid
+	 */
+	private static class LevelArchive {
+		private File                _dataFile;
+		private File                _indexFile;
+		private long                _dataLength;
+		private long                _indexLength;
+		private volatile long       _lastChecked;
+		private ByteBuffer          _index;
+		private long                _sortedCount;
+		// Records appended since the last compaction, by key
+		private Map<Long, long[]>   _unsorted;
+		private ByteBuffer[]        _segments;
+
+		LevelArchive (File dataFile, File indexFile, long now) throws IOException {
+			_dataFile = dataFile;
+			_indexFile = indexFile;
+			_lastChecked = now;
+			// Data is always appended before the index records that refer to
+			// it, so reading the index length first means every complete
+			// record we see refers to data we will map.
+			_indexLength = indexFile.length();
+			_dataLength = dataFile.length();
+			_sortedCount = 0L;
+			_unsorted = new HashMap<Long, long[]>();
+			_segments = new ByteBuffer[0];
+			if (_dataLength <= 0 || _indexLength < INDEX_HEADER_SIZE) return;
+
+			RandomAccessFile indexRAF = new RandomAccessFile(indexFile, "r");
+			try {
+				FileChannel indexChannel = indexRAF.getChannel();
+				_sortedCount = readIndexHeader(indexChannel, indexFile);
+				_index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0L, _indexLength);
+			} finally {
+				// The mapping remains valid after the channel is closed
+				indexRAF.close();
+			}
+			long records = (_indexLength - INDEX_HEADER_SIZE) / INDEX_RECORD_SIZE;
+			_sortedCount = Math.min(_sortedCount, records);
+			for (long i=_sortedCount; i<records; ++i) {
+				int position = (int) (INDEX_HEADER_SIZE + i * INDEX_RECORD_SIZE);
+				_unsorted.put(_index.getLong(position),
+				              new long[] {_index.getLong(position+8), _index.getInt(position+16)});
+			}
+
+			RandomAccessFile dataRAF = new RandomAccessFile(dataFile, "r");
+			try {
+				FileChannel dataChannel = dataRAF.getChannel();
+				int nSegments = (int) ((_dataLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+				_segments = new ByteBuffer[nSegments];
+				for (int i=0; i<nSegments; ++i) {
+					long start = i * SEGMENT_SIZE;
+					_segments[i] = dataChannel.map(FileChannel.MapMode.READ_ONLY, start,
+					                               Math.min(SEGMENT_SIZE, _dataLength - start));
+				}
+			} finally {
+				dataRAF.close();
+			}
+		}
+
+		boolean isStale (long now) {
+			if (now - _lastChecked < STALE_CHECK_INTERVAL) return false;
+			_lastChecked = now;
+			return _dataFile.length() != _dataLength || _indexFile.length() != _indexLength;
+		}
+
+		ByteBuffer getTile (long key) {
+			long offset;
+			int length;
+
+			long[] unsorted = _unsorted.get(key);
+			if (null != unsorted) {
+				offset = unsorted[0];
+				length = (int) unsorted[1];
+			} else {
+				long position = find(key);
+				if (position < 0) return null;
+				offset = _index.getLong((int) position + 8);
+				length = _index.getInt((int) position + 16);
+			}
+			if (length < 0) return null;
+
+			int segment = (int) (offset / SEGMENT_SIZE);
+			if (offset + length > _dataLength) {
+				LOGGER.warn("Tile archive {} references data past its end", _dataFile);
+				return null;
+			}
+			ByteBuffer tile = _segments[segment].duplicate();
+			int start = (int) (offset - segment * SEGMENT_SIZE);
+			tile.position(start);
+			tile.limit(start + length);
+			return tile.slice();
+		}
+
+		// Binary search the sorted part of the index, returning the position
+		// of the matching record, or -1 if there is none
+		private long find (long key) {
+			long low = 0;
+			long high = _sortedCount - 1;
+			while (low <= high) {
+				long mid = (low + high) >>> 1;
+				int position = (int) (INDEX_HEADER_SIZE + mid * INDEX_RECORD_SIZE);
+				long midKey = _index.getLong(position);
+				if (midKey < key) low = mid + 1;
+				else if (midKey > key) high = mid - 1;
+				else return position;
+			}
+			return -1;
+		}
+	}
+
+	/*
+	 * Read a (mapped) byte buffer as a stream, without copying it
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer _buffer;
+
+		ByteBufferInputStream (ByteBuffer buffer) {
+			_buffer = buffer;
+		}
+
+		@Override
+		public int read () throws IOException {
+			if (!_buffer.hasRemaining()) return -1;
+			return _buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read (byte[] b, int off, int len) throws IOException {
+			if (0 == len) return 0;
+			if (!_buffer.hasRemaining()) return -1;
+			len = Math.min(len, _buffer.remaining());
+			_buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip (long n) throws IOException {
+			int skipped = (int) Math.max(0, Math.min(n, _buffer.remaining()));
+			_buffer.position(_buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available () throws IOException {
+			return _buffer.remaining();
+		}
+	}
+}
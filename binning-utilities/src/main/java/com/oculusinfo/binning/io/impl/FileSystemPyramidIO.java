@@ -25,28 +25,95 @@
 package com.oculusinfo.binning.io.impl;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.ExecutorPyramidIO;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
 
+/**
+ * A pyramid IO that stores each tile in its own file, under
+ * <code>{root}/{pyramid}/tiles/{level}/{x}/{y}.{extension}</code>.
+ * 
+ * Batches of tiles are split into chunks and read or written in parallel on
+ * a shared pool of I/O threads; the directories a batch of writes needs are
+ * created once per batch, rather than checked once per tile. Small batches,
+ * and instances configured with a single I/O thread, run on the caller's
+ * thread. Results are always returned in request order.
+ */
 public class FileSystemPyramidIO implements PyramidIO {
+	public static final int DEFAULT_IO_THREADS = 4;
+	// Batches are only split up if each chunk would get at least this many
+	// tiles; below that, the hand-off costs more than it saves.
+	private static final int MIN_TILES_PER_TASK = 8;
+	private static final int MAX_QUEUED_TASKS   = 1024;
+
+	// Pools are shared by all instances with the same thread count, since
+	// instances are cheap and often created per task (e.g., by spark jobs)
+	private static final ConcurrentMap<Integer, ExecutorService> IO_POOLS =
+		new ConcurrentHashMap<Integer, ExecutorService>();
+
+	private static ExecutorService getIOPool (int threads) {
+		ExecutorService pool = IO_POOLS.get(threads);
+		if (null == pool) {
+			synchronized (IO_POOLS) {
+				pool = IO_POOLS.get(threads);
+				if (null == pool) {
+					pool = ExecutorPyramidIO.createBoundedExecutor("file-system-io-"+threads, threads, MAX_QUEUED_TASKS);
+					IO_POOLS.put(threads, pool);
+				}
+			}
+		}
+		return pool;
+	}
+
+
+
 	private String _rootPath;
 	private String _extension;
+	private int    _ioThreads;
 
 
 
 	public FileSystemPyramidIO (String rootPath, String extension){
+		this(rootPath, extension, DEFAULT_IO_THREADS);
+	}
+
+	/**
+	 * @param rootPath The directory under which pyramids are stored
+	 * @param extension The file extension to use for tiles
+	 * @param ioThreads The number of threads with which to read and write
+	 *            batches of tiles; 1 to do all I/O on the caller's thread.
+	 */
+	public FileSystemPyramidIO (String rootPath, String extension, int ioThreads){
 		//if there's no root path, then it should be based on a relative path, so make sure to set root path to '.'
 		if (rootPath == null || rootPath.trim().length() == 0) {
 			rootPath = "./";
@@ -55,53 +122,135 @@ public class FileSystemPyramidIO implements PyramidIO {
 		//make sure the root path ends with a slash
 		_rootPath = (rootPath.trim().endsWith("/"))? rootPath : rootPath.trim() + "/";
 		_extension = extension;
+		_ioThreads = Math.max(1, ioThreads);
 	}
 
 	public Object getRootPath () {
 		return _rootPath;
 	}
-	
+
+	private String getTilesPath (String basePath) {
+		return _rootPath + basePath + "/" + PyramidIO.TILES_FOLDERNAME + "/";
+	}
+
 	private File getLevelDir (String basePath, TileIndex tile) {
-		return new File(String.format("%s/" + PyramidIO.TILES_FOLDERNAME
-		                              + "/%d/",
-		                              _rootPath + basePath,
-		                              tile.getLevel() ));
+		return new File(getTilesPath(basePath) + tile.getLevel() + "/");
 	}
 	
 	private File getXDir (String basePath, TileIndex tile) {
-		return new File(String.format("%s/" + PyramidIO.TILES_FOLDERNAME
-		                              + "/%d/%d/",
-		                              _rootPath + basePath,
-		                              tile.getLevel(), tile.getX() ));
+		return new File(getTilesPath(basePath) + tile.getLevel() + "/" + tile.getX() + "/");
 	}
 
-	private File getTileFile (String basePath, TileIndex tile) {
-		return new File(String.format("%s/" + PyramidIO.TILES_FOLDERNAME
-		                              + "/%d/%d/%d." + _extension,
-		                              _rootPath + basePath,
-		                              tile.getLevel(), tile.getX(), tile.getY()));
+	private Path getTilePath (String tilesPath, TileIndex tile) {
+		StringBuilder path = new StringBuilder(tilesPath.length() + 32);
+		path.append(tilesPath)
+			.append(tile.getLevel()).append('/')
+			.append(tile.getX()).append('/')
+			.append(tile.getY()).append('.').append(_extension);
+		return Paths.get(path.toString());
 	}
 
 	private File getMetaDataFile (String basePath) {
 		return new File(_rootPath + basePath+"/"+PyramidIO.METADATA_FILENAME);
 	}
 
+	/*
+	 * Run the given operation on each tile in the list, in parallel chunks
+	 * when there are enough tiles to make that worthwhile, returning the
+	 * results in the same order as the input.
+	 */
+	private <I, O> List<O> runBatch (final List<I> inputs, final TileOperation<I, O> operation) throws IOException {
+		int n = inputs.size();
+		int tasks = Math.min(_ioThreads, n / MIN_TILES_PER_TASK);
+		if (tasks <= 1) {
+			List<O> results = new ArrayList<O>(n);
+			for (I input: inputs) results.add(operation.run(input));
+			return results;
+		}
+
+		ExecutorService pool = getIOPool(_ioThreads);
+		List<Future<List<O>>> futures = new ArrayList<Future<List<O>>>(tasks);
+		for (int t=0; t<tasks; ++t) {
+			final List<I> chunk = inputs.subList(t*n/tasks, (t+1)*n/tasks);
+			futures.add(pool.submit(new Callable<List<O>>() {
+				@Override
+				public List<O> call () throws Exception {
+					List<O> results = new ArrayList<O>(chunk.size());
+					for (I input: chunk) results.add(operation.run(input));
+					return results;
+				}
+			}));
+		}
+
+		List<O> results = new ArrayList<O>(n);
+		IOException error = null;
+		for (Future<List<O>> future: futures) {
+			try {
+				results.addAll(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (null == error) error = new IOException("Interrupted during tile I/O", e);
+			} catch (ExecutionException e) {
+				if (null == error) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) error = (IOException) cause;
+					else if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+					else error = new IOException(cause);
+				}
+			}
+		}
+		if (null != error) throw error;
+		return results;
+	}
+
+	private interface TileOperation<I, O> {
+		public O run (I input) throws IOException;
+	}
+
 	@Override
 	public void initializeForWrite (String basePath) throws IOException {
 	}
 
 	@Override
-	public <T> void writeTiles (String basePath, TileSerializer<T> serializer,
+	public <T> void writeTiles (String basePath, final TileSerializer<T> serializer,
 	                            Iterable<TileData<T>> data) throws IOException {
+		final String tilesPath = getTilesPath(basePath);
+		List<TileData<T>> tiles = new ArrayList<TileData<T>>();
+		Set<Path> directories = new HashSet<Path>();
 		for (TileData<T> tile: data) {
-			File tileFile = getTileFile(basePath, tile.getDefinition());
-			File parent = tileFile.getParentFile();
-			if (!parent.exists()) parent.mkdirs();
-
-			FileOutputStream fileStream = new FileOutputStream(tileFile);
-			serializer.serialize(tile, fileStream);
-			fileStream.close();
+			tiles.add(tile);
+			directories.add(getTilePath(tilesPath, tile.getDefinition()).getParent());
+		}
+		for (Path directory: directories) {
+			Files.createDirectories(directory);
 		}
+
+		runBatch(tiles, new TileOperation<TileData<T>, Void>() {
+			private final ThreadLocal<ByteArrayOutputStream> _buffer = new ThreadLocal<ByteArrayOutputStream>() {
+				@Override
+				protected ByteArrayOutputStream initialValue () {
+					return new ByteArrayOutputStream();
+				}
+			};
+			@Override
+			public Void run (TileData<T> tile) throws IOException {
+				ByteArrayOutputStream buffer = _buffer.get();
+				buffer.reset();
+				serializer.serialize(tile, buffer);
+
+				FileChannel channel = FileChannel.open(getTilePath(tilesPath, tile.getDefinition()),
+				                                       StandardOpenOption.CREATE,
+				                                       StandardOpenOption.TRUNCATE_EXISTING,
+				                                       StandardOpenOption.WRITE);
+				try {
+					ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+					while (bytes.hasRemaining()) channel.write(bytes);
+				} finally {
+					channel.close();
+				}
+				return null;
+			}
+		});
 	}
 
 	@Override
@@ -118,31 +267,45 @@ public class FileSystemPyramidIO implements PyramidIO {
 
 	@Override
 	public <T> List<TileData<T>> readTiles (String basePath,
-	                                        TileSerializer<T> serializer,
+	                                        final TileSerializer<T> serializer,
 	                                        Iterable<TileIndex> tiles) throws IOException {
-		List<TileData<T>> results = new LinkedList<TileData<T>>();
-		for (TileIndex tile: tiles) {
-			File tileFile = getTileFile(basePath, tile);
+		final String tilesPath = getTilesPath(basePath);
+		List<TileIndex> indices = new ArrayList<TileIndex>();
+		for (TileIndex tile: tiles) indices.add(tile);
 
-			if (tileFile.exists() && tileFile.isFile()) {
-				FileInputStream stream = new FileInputStream(tileFile);
-				TileData<T> data = serializer.deserialize(tile, stream);
-				results.add(data);
-				stream.close();
+		List<TileData<T>> read = runBatch(indices, new TileOperation<TileIndex, TileData<T>>() {
+			@Override
+			public TileData<T> run (TileIndex tile) throws IOException {
+				byte[] bytes = readTileBytes(getTilePath(tilesPath, tile));
+				if (null == bytes) return null;
+				return serializer.deserialize(tile, new ByteArrayInputStream(bytes));
 			}
+		});
+
+		List<TileData<T>> results = new LinkedList<TileData<T>>();
+		for (TileData<T> tile: read) {
+			if (null != tile) results.add(tile);
 		}
 		return results;
 	}
 
+	// Read a whole tile file, or return null if there is no such tile. This
+	// avoids a separate existence check per tile.
+	private static byte[] readTileBytes (Path path) throws IOException {
+		try {
+			return Files.readAllBytes(path);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
 	@Override
 	public <T> InputStream getTileStream (String basePath,
 	                                      TileSerializer<T> serializer,
 	                                      TileIndex tile) throws IOException {
-		File tileFile = getTileFile(basePath, tile);
-
-		if (tileFile.exists() && tileFile.isFile()) {
-			return new FileInputStream(tileFile);
-		} else {
+		try {
+			return Files.newInputStream(getTilePath(getTilesPath(basePath), tile));
+		} catch (NoSuchFileException e) {
 			return null;
 		}
 	}
@@ -165,10 +328,10 @@ public class FileSystemPyramidIO implements PyramidIO {
 	
 	@Override
 	public void removeTiles (String basePath, Iterable<TileIndex> tiles ) throws IOException {		
+		String tilesPath = getTilesPath(basePath);
 		for (TileIndex tile: tiles) {
 			// delete tile
-			File tileFile = getTileFile(basePath, tile);
-			tileFile.delete();
+			Files.deleteIfExists(getTilePath(tilesPath, tile));
 			// if x directory is empty, delete it as well
 			File xDir = getXDir(basePath, tile);
 			if ( xDir.isDirectory() && xDir.list().length == 0 ) {
@@ -36,10 +36,19 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.*;
 import org.apache.log4j.Level;
@@ -47,13 +56,45 @@ import org.apache.log4j.Logger;
 
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.ExecutorPyramidIO;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.util.ZOrder;
 
 //import org.apache.hadoop.hbase.TableName;
 
+/**
+ * A pyramid IO that stores tiles in HBase, one table per pyramid.
+ * 
+ * The row key of each tile is determined by the table's
+ * {@link HBaseRowKeyScheme}, which is recorded in the table's metadata row
+ * when the table is created. Tables created before row key schemes existed
+ * have no such record, and continue to be read and written with legacy
+ * string keys.
+ * 
+ * Table handles are pooled and reused between calls. Tile writes are streamed
+ * through each handle's client-side write buffer, which is flushed whenever
+ * it fills, so a large batch of tiles is never held in memory all at once.
+ * Large batches of reads are split by region, and the pieces are read in
+ * parallel.
+ */
 public class HBasePyramidIO implements PyramidIO {
 	private static final String META_DATA_INDEX      = "metadata";
+	// Rows fetched per round trip when scanning
+	private static final int    SCAN_CACHING         = 256;
+	// A batch read scans a level's requested tiles, rather than getting them
+	// one by one, if there are at least this many of them, and they make up
+	// at least 1/MIN_SCANNED_FRACTION of their bounding box
+	private static final int    MIN_SCANNED_TILES    = 16;
+	private static final int    MIN_SCANNED_FRACTION = 2;
+	// The most gets sent to a single region in one call; larger groups are
+	// split up so they can be read in parallel
+	private static final int    MAX_GETS_PER_CALL    = 128;
+	// The most idle table handles kept per table
+	private static final int    MAX_POOLED_TABLES    = 16;
+
+	public static final long    DEFAULT_WRITE_BUFFER_SIZE = 8L * 1024L * 1024L;
+	public static final int     DEFAULT_CLIENT_THREADS    = 8;
 
 	public static class HBaseColumn {
 		byte[] family;
@@ -73,14 +114,43 @@ public class HBasePyramidIO implements PyramidIO {
 	public static final HBaseColumn  TILE_COLUMN          = new HBaseColumn(TILE_FAMILY_NAME, EMPTY_BYTES);
 	private static final byte[]      METADATA_FAMILY_NAME = "metaData".getBytes();
 	public static final HBaseColumn  METADATA_COLUMN      = new HBaseColumn(METADATA_FAMILY_NAME, EMPTY_BYTES);
+	public static final HBaseColumn  ROW_KEYS_COLUMN      = new HBaseColumn(METADATA_FAMILY_NAME, "rowKeys".getBytes());
 
 
-	private Configuration       _config;
-	private HBaseAdmin          _admin;
-    private HConnection         _connection;
+	private Configuration                                 _config;
+	private HBaseAdmin                                    _admin;
+    private HConnection                                   _connection;
+	// The scheme used for tables this instance creates
+	private HBaseRowKeyScheme                             _newTableScheme;
+	private ConcurrentMap<String, HBaseRowKeyScheme>      _tableSchemes;
+	private ConcurrentMap<String, BlockingQueue<HTableInterface>> _tablePool;
+	private long                                          _writeBufferSize;
+	private ExecutorService                               _readExecutor;
 
 	public HBasePyramidIO (String zookeeperQuorum, String zookeeperPort, String hbaseMaster)
 		throws IOException {
+		this(zookeeperQuorum, zookeeperPort, hbaseMaster, HBaseRowKeyScheme.zOrder(1));
+	}
+
+	public HBasePyramidIO (String zookeeperQuorum, String zookeeperPort, String hbaseMaster,
+	                       HBaseRowKeyScheme newTableScheme)
+		throws IOException {
+		this(zookeeperQuorum, zookeeperPort, hbaseMaster, newTableScheme,
+		     DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_CLIENT_THREADS);
+	}
+
+	/**
+	 * @param newTableScheme The row key scheme to use for any tables this
+	 *            pyramid IO creates. Existing tables are always accessed using
+	 *            the scheme with which they were created.
+	 * @param writeBufferSize The number of bytes of tiles buffered on the
+	 *            client before they are sent to HBase.
+	 * @param clientThreads The number of threads used to send buffered writes
+	 *            to, and read split batches from, region servers.
+	 */
+	public HBasePyramidIO (String zookeeperQuorum, String zookeeperPort, String hbaseMaster,
+	                       HBaseRowKeyScheme newTableScheme, long writeBufferSize, int clientThreads)
+		throws IOException {
 
         Logger.getLogger("org.apache.zookeeper").setLevel(Level.WARN);
         Logger.getLogger("org.apache.hadoop.hbase.zookeeper").setLevel(Level.WARN);
@@ -90,14 +160,24 @@ public class HBasePyramidIO implements PyramidIO {
 		_config.set("hbase.zookeeper.quorum", zookeeperQuorum);
 		_config.set("hbase.zookeeper.property.clientPort", zookeeperPort);
 		_config.set("hbase.master", hbaseMaster);
+		// Used both by our own table handles and by map-reduce output
+		// formats that use this configuration
+		_config.setLong("hbase.client.write.buffer", writeBufferSize);
+		_config.setInt("hbase.hconnection.threads.max", clientThreads);
 		_admin = new HBaseAdmin(_config);
         _connection = HConnectionManager.createConnection(_config);
+		_newTableScheme = newTableScheme;
+		_tableSchemes = new ConcurrentHashMap<String, HBaseRowKeyScheme>();
+		_tablePool = new ConcurrentHashMap<String, BlockingQueue<HTableInterface>>();
+		_writeBufferSize = writeBufferSize;
+		_readExecutor = ExecutorPyramidIO.createBoundedExecutor("hbase-read", clientThreads, 1024);
 	}
 
 
 
 	/**
-	 * Determine the row ID we use in HBase for a given tile index
+	 * Determine the legacy row ID for a given tile index. Tables created with
+	 * other row key schemes use {@link #getRowKeyScheme(String)} instead.
 	 */
 	public static String rowIdFromTileIndex (TileIndex tile) {
 		// Use the minimum possible number of digits for the tile key
@@ -116,6 +196,36 @@ public class HBasePyramidIO implements PyramidIO {
 		                     Integer.parseInt(fields[2]));
 	}
 
+	/**
+	 * Get the row key scheme used by the given table. Tables with no recorded
+	 * scheme use legacy keys; tables that don't exist yet will use the scheme
+	 * with which this pyramid IO was constructed.
+	 */
+	public HBaseRowKeyScheme getRowKeyScheme (String tableName) throws IOException {
+		HBaseRowKeyScheme scheme = _tableSchemes.get(tableName);
+		if (null == scheme) {
+			if (!_admin.tableExists(tableName)) return _newTableScheme;
+
+			List<Map<HBaseColumn, byte[]>> rawData =
+				readRows(tableName, Collections.singletonList(META_DATA_INDEX.getBytes()),
+				         ROW_KEYS_COLUMN, METADATA_COLUMN);
+			Map<HBaseColumn, byte[]> metaDataRow = rawData.get(0);
+			if (null == metaDataRow) {
+				// Either a legacy table with no metadata yet, or a table whose
+				// creator hasn't recorded its scheme yet; don't remember
+				// which until we know.
+				return HBaseRowKeyScheme.legacy();
+			}
+			String marker = null;
+			if (metaDataRow.containsKey(ROW_KEYS_COLUMN)) {
+				marker = new String(metaDataRow.get(ROW_KEYS_COLUMN));
+			}
+			scheme = HBaseRowKeyScheme.fromMarker(marker);
+			_tableSchemes.put(tableName, scheme);
+		}
+		return scheme;
+	}
+
 	/**
 	 * Get the configuration used to connect to HBase.
 	 */
@@ -125,11 +235,52 @@ public class HBasePyramidIO implements PyramidIO {
 
 
 	/*
-	 * Gets an existing table (without creating it)
+	 * Gets a handle on an existing table (without creating it), reusing an
+	 * idle handle if there is one. Handles must be given back with
+	 * releaseTable when done.
 	 */
 	private HTableInterface getTable (String tableName) throws IOException {
+		BlockingQueue<HTableInterface> pool = _tablePool.get(tableName);
+		if (null != pool) {
+			HTableInterface table = pool.poll();
+			if (null != table) return table;
+		}
+
+        HTableInterface table = _connection.getTable( tableName );
+		table.setAutoFlush(false);
+		table.setWriteBufferSize(_writeBufferSize);
+		return table;
+	}
+
+	/*
+	 * Give back a table handle obtained from getTable. Handles used by calls
+	 * that failed should be discarded rather than reused, as they may still
+	 * hold buffered writes.
+	 */
+	private void releaseTable (String tableName, HTableInterface table, boolean reusable) throws IOException {
+		if (reusable) {
+			BlockingQueue<HTableInterface> pool = _tablePool.get(tableName);
+			if (null == pool) {
+				BlockingQueue<HTableInterface> newPool = new LinkedBlockingQueue<HTableInterface>(MAX_POOLED_TABLES);
+				pool = _tablePool.putIfAbsent(tableName, newPool);
+				if (null == pool) pool = newPool;
+			}
+			if (pool.offer(table)) return;
+		}
+		table.close();
+	}
 
-        return _connection.getTable( tableName );
+	private void closeTables (String tableName) {
+		BlockingQueue<HTableInterface> pool = _tablePool.remove(tableName);
+		if (null == pool) return;
+		HTableInterface table;
+		while (null != (table = pool.poll())) {
+			try {
+				table.close();
+			} catch (IOException e) {
+				// Nothing useful to do; the handle is being discarded anyway
+			}
+		}
 	}
 
 	/*
@@ -141,9 +292,9 @@ public class HBasePyramidIO implements PyramidIO {
 	 *            the given row. If non-null, no check will be performed to make
 	 *            sure the put request is for the right row - this is the
 	 *            responsibility of the caller.
-	 * @param rowId
-	 *            The id of the row to put. This is only used if the existingPut
-	 *            is null.
+	 * @param rowKey
+	 *            The key of the row to put. This is only used if the
+	 *            existingPut is null.
 	 * @param column
 	 *            The column defining the entry in this row into which to put
 	 *            the data
@@ -152,9 +303,9 @@ public class HBasePyramidIO implements PyramidIO {
 	 * @return The put request - the same as is passed in, or a new request if
 	 *         none was passed in.
 	 */
-	private Put addToPut (Put existingPut, String rowId, HBaseColumn column, byte[] data) {
+	private Put addToPut (Put existingPut, byte[] rowKey, HBaseColumn column, byte[] data) {
 		if (null == existingPut) {
-			existingPut = new Put(rowId.getBytes());
+			existingPut = new Put(rowKey);
 		}
 
 		existingPut.add(column.family, column.qualifier, data);
@@ -172,9 +323,14 @@ public class HBasePyramidIO implements PyramidIO {
 	 */
 	private void writeRows (String tableName, List<Row> rows) throws InterruptedException, IOException {
         HTableInterface table = getTable(tableName);
-		table.batch(rows);
-		table.flushCommits();
-		table.close();
+		boolean succeeded = false;
+		try {
+			table.batch(rows);
+			table.flushCommits();
+			succeeded = true;
+		} finally {
+			releaseTable(tableName, table, succeeded);
+		}
 	}
 
 	private Map<HBaseColumn, byte[]> decodeRawResult (Result row, HBaseColumn[] columns) {
@@ -202,27 +358,90 @@ public class HBasePyramidIO implements PyramidIO {
 	 *         the map. Rows which returned no data have a null instead of a
 	 *         map.
 	 */
-	private List<Map<HBaseColumn, byte[]>> readRows (String tableName, List<String> rows, HBaseColumn... columns) throws IOException {
-        HTableInterface table = getTable(tableName);
-
+	private List<Map<HBaseColumn, byte[]>> readRows (final String tableName, List<byte[]> rows, final HBaseColumn... columns) throws IOException {
 		List<Get> gets = new ArrayList<Get>(rows.size());
-		for (String rowId: rows) {
-			Get get = new Get(rowId.getBytes());
+		for (byte[] rowKey: rows) {
+			Get get = new Get(rowKey);
 			for (HBaseColumn column: columns) {
 				get.addColumn(column.family, column.qualifier);
 			}
 			gets.add(get);
 		}
 
-		Result[] results = table.get(gets);
-		List<Map<HBaseColumn, byte[]>> allResults = new ArrayList<Map<HBaseColumn,byte[]>>(rows.size());
-		for (Result result: results) {
-			allResults.add(decodeRawResult(result, columns));
+		final List<Map<HBaseColumn, byte[]>> allResults = new ArrayList<Map<HBaseColumn,byte[]>>(rows.size());
+		if (gets.size() <= MAX_GETS_PER_CALL) {
+			allResults.addAll(readGets(tableName, gets, columns));
+			return allResults;
+		}
+
+		// Group the gets by region, and read groups in parallel
+		Map<String, List<Integer>> byRegion = new HashMap<String, List<Integer>>();
+		byte[] tableNameBytes = tableName.getBytes();
+		for (int i=0; i<gets.size(); ++i) {
+			HRegionLocation location = _connection.getRegionLocation(tableNameBytes, gets.get(i).getRow(), false);
+			String region = location.getRegionInfo().getRegionNameAsString();
+			List<Integer> regionGets = byRegion.get(region);
+			if (null == regionGets) {
+				regionGets = new ArrayList<Integer>();
+				byRegion.put(region, regionGets);
+			}
+			regionGets.add(i);
+		}
+
+		for (int i=0; i<gets.size(); ++i) allResults.add(null);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (List<Integer> regionGets: byRegion.values()) {
+			for (int start=0; start<regionGets.size(); start += MAX_GETS_PER_CALL) {
+				final List<Integer> indices = regionGets.subList(start, Math.min(regionGets.size(), start + MAX_GETS_PER_CALL));
+				final List<Get> chunk = new ArrayList<Get>(indices.size());
+				for (int index: indices) chunk.add(gets.get(index));
+				futures.add(_readExecutor.submit(new Callable<Void>() {
+					@Override
+					public Void call () throws Exception {
+						List<Map<HBaseColumn, byte[]>> chunkResults = readGets(tableName, chunk, columns);
+						// Each task sets distinct entries of a pre-sized list;
+						// waiting on the futures makes them visible to the caller
+						for (int i=0; i<indices.size(); ++i) {
+							allResults.set(indices.get(i), chunkResults.get(i));
+						}
+						return null;
+					}
+				}));
+			}
+		}
+		for (Future<?> future: futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted reading from HBase", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException("Error reading from HBase", e.getCause());
+			}
 		}
-        table.close();
 		return allResults;
 	}
 
+	/*
+	 * Read a single batch of gets with one call, on the calling thread
+	 */
+	private List<Map<HBaseColumn, byte[]>> readGets (String tableName, List<Get> gets, HBaseColumn[] columns) throws IOException {
+        HTableInterface table = getTable(tableName);
+		boolean succeeded = false;
+		try {
+			Result[] results = table.get(gets);
+			List<Map<HBaseColumn, byte[]>> allResults = new ArrayList<Map<HBaseColumn,byte[]>>(gets.size());
+			for (Result result: results) {
+				allResults.add(decodeRawResult(result, columns));
+			}
+			succeeded = true;
+			return allResults;
+		} finally {
+			releaseTable(tableName, table, succeeded);
+		}
+	}
+
 
 
 	@Override
@@ -235,6 +454,13 @@ public class HBasePyramidIO implements PyramidIO {
 				HColumnDescriptor tileFamily = new HColumnDescriptor(TILE_FAMILY_NAME);
 				tableDesc.addFamily(tileFamily);
 				_admin.createTable(tableDesc);
+
+				// Record how this table's rows are keyed
+				List<Row> rows = new ArrayList<Row>();
+				rows.add(addToPut(null, META_DATA_INDEX.getBytes(), ROW_KEYS_COLUMN,
+				                  _newTableScheme.getMarker().getBytes()));
+				writeRows(tableName, rows);
+				_tableSchemes.put(tableName, _newTableScheme);
 			} catch (Exception e) {
                 e.printStackTrace();
             }
@@ -245,18 +471,24 @@ public class HBasePyramidIO implements PyramidIO {
 	@Override
 	public <T> void writeTiles (String tableName, TileSerializer<T> serializer,
 	                            Iterable<TileData<T>> data) throws IOException {
-		List<Row> rows = new ArrayList<Row>();
-		for (TileData<T> tile: data) {
+		HBaseRowKeyScheme scheme = getRowKeyScheme(tableName);
+		HTableInterface table = getTable(tableName);
+		boolean succeeded = false;
+		try {
+			// Each put goes into the table's write buffer, which is sent
+			// whenever it exceeds its size limit
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			serializer.serialize(tile, baos);
+			for (TileData<T> tile: data) {
+				baos.reset();
+				serializer.serialize(tile, baos);
 
-			rows.add(addToPut(null, rowIdFromTileIndex(tile.getDefinition()),
-			                  TILE_COLUMN, baos.toByteArray()));
-		}
-		try {
-			writeRows(tableName, rows);
-		} catch (InterruptedException e) {
-			throw new IOException("Error writing tiles to HBase", e);
+				table.put(addToPut(null, scheme.getRowKey(tile.getDefinition()),
+				                   TILE_COLUMN, baos.toByteArray()));
+			}
+			table.flushCommits();
+			succeeded = true;
+		} finally {
+			releaseTable(tableName, table, succeeded);
 		}
 	}
 
@@ -264,7 +496,7 @@ public class HBasePyramidIO implements PyramidIO {
 	public void writeMetaData (String tableName, String metaData) throws IOException {
 		try {
 			List<Row> rows = new ArrayList<Row>();
-			rows.add(addToPut(null, META_DATA_INDEX, METADATA_COLUMN, metaData.getBytes()));
+			rows.add(addToPut(null, META_DATA_INDEX.getBytes(), METADATA_COLUMN, metaData.getBytes()));
 			Put put = new Put(META_DATA_INDEX.getBytes());
 			put.add(METADATA_FAMILY_NAME, EMPTY_BYTES, metaData.getBytes());
 			writeRows(tableName, rows);
@@ -282,27 +514,78 @@ public class HBasePyramidIO implements PyramidIO {
     	}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Where many of the requested tiles of one level lie close together, that
+	 * level's tiles are read with a few range scans over their bounding box
+	 * (see {@link #readTileRange}); the rest are read with gets.
+	 */
 	@Override
 	public <T> List<TileData<T>> readTiles (String tableName,
 	                                        TileSerializer<T> serializer,
 	                                        Iterable<TileIndex> tiles) throws IOException {
-		List<String> rowIds = new ArrayList<String>();
+		HBaseRowKeyScheme scheme = getRowKeyScheme(tableName);
+
+		// Find the bounds of the requested tiles of each level
+		List<TileIndex> requested = new ArrayList<TileIndex>();
+		Map<Integer, int[]> levelBounds = new HashMap<Integer, int[]>();
 		for (TileIndex tile: tiles) {
-			rowIds.add(rowIdFromTileIndex(tile));
+			requested.add(tile);
+			int[] bounds = levelBounds.get(tile.getLevel());
+			if (null == bounds) {
+				// min x, min y, max x, max y, count
+				levelBounds.put(tile.getLevel(), new int[] {tile.getX(), tile.getY(), tile.getX(), tile.getY(), 1});
+			} else {
+				bounds[0] = Math.min(bounds[0], tile.getX());
+				bounds[1] = Math.min(bounds[1], tile.getY());
+				bounds[2] = Math.max(bounds[2], tile.getX());
+				bounds[3] = Math.max(bounds[3], tile.getY());
+				++bounds[4];
+			}
 		}
-        
-		List<Map<HBaseColumn, byte[]>> rawResults = readRows(tableName, rowIds, TILE_COLUMN);
 
-		List<TileData<T>> results = new LinkedList<TileData<T>>();
+		// Scan levels whose requested tiles fill enough of their bounds
+		Map<Long, byte[]> scanned = new HashMap<Long, byte[]>();
+		for (Map.Entry<Integer, int[]> entry: levelBounds.entrySet()) {
+			int[] bounds = entry.getValue();
+			long area = ((long) (bounds[2] - bounds[0] + 1)) * (bounds[3] - bounds[1] + 1);
+			if (bounds[4] >= MIN_SCANNED_TILES && bounds[4] * MIN_SCANNED_FRACTION >= area) {
+				// Scanned rows are keyed by index without bin counts, so
+				// match them to requests by tile key instead
+				for (Map.Entry<TileIndex, byte[]> row: scanTileRange(tableName, scheme, entry.getKey(),
+				                                                      bounds[0], bounds[1],
+				                                                      bounds[2], bounds[3]).entrySet()) {
+					scanned.put(ZOrder.getTileKey(row.getKey()), row.getValue());
+				}
+			} else {
+				entry.setValue(null);
+			}
+		}
 
-		Iterator<Map<HBaseColumn, byte[]>> iData = rawResults.iterator();
-		Iterator<TileIndex> indexIterator = tiles.iterator();
+		// Get the rest individually
+		List<byte[]> rowKeys = new ArrayList<byte[]>();
+		for (TileIndex tile: requested) {
+			if (null == levelBounds.get(tile.getLevel())) {
+				rowKeys.add(scheme.getRowKey(tile));
+			}
+		}
+		Iterator<Map<HBaseColumn, byte[]>> iData = Collections.<Map<HBaseColumn, byte[]>>emptyList().iterator();
+		if (!rowKeys.isEmpty()) {
+			iData = readRows(tableName, rowKeys, TILE_COLUMN).iterator();
+		}
 
-		while (iData.hasNext()) {
-			Map<HBaseColumn, byte[]> rawResult = iData.next();
-			TileIndex index = indexIterator.next();
-			if (null != rawResult) {
-				byte[] rawData = rawResult.get(TILE_COLUMN);
+		// Deserialize with the requested indices, in the requested order
+		List<TileData<T>> results = new LinkedList<TileData<T>>();
+		for (TileIndex index: requested) {
+			byte[] rawData;
+			if (null == levelBounds.get(index.getLevel())) {
+				Map<HBaseColumn, byte[]> rawResult = iData.next();
+				rawData = (null == rawResult ? null : rawResult.get(TILE_COLUMN));
+			} else {
+				rawData = scanned.get(ZOrder.getTileKey(index));
+			}
+			if (null != rawData) {
 				ByteArrayInputStream bais = new ByteArrayInputStream(rawData);
 				TileData<T> data = serializer.deserialize(index, bais);
 				results.add(data);
@@ -312,14 +595,74 @@ public class HBasePyramidIO implements PyramidIO {
 		return results;
 	}
 
+	/**
+	 * Read all tiles in a rectangular block of a single level, using a few
+	 * range scans rather than one get per tile. This is most effective on
+	 * tables with Z-order row keys; legacy tables need one scan per column of
+	 * tiles.
+	 * 
+	 * @return The tiles present in the block, in no particular order
+	 */
+	public <T> List<TileData<T>> readTileRange (String tableName, TileSerializer<T> serializer,
+	                                            int level, int minX, int minY, int maxX, int maxY)
+		throws IOException {
+		Map<TileIndex, byte[]> scanned = scanTileRange(tableName, getRowKeyScheme(tableName),
+		                                               level, minX, minY, maxX, maxY);
+
+		List<TileData<T>> results = new ArrayList<TileData<T>>(scanned.size());
+		for (Map.Entry<TileIndex, byte[]> entry: scanned.entrySet()) {
+			results.add(serializer.deserialize(entry.getKey(), new ByteArrayInputStream(entry.getValue())));
+		}
+		return results;
+	}
+
+	/*
+	 * Scan the raw data of all tiles in a rectangular block of a single level,
+	 * keyed by the tile indices read from their row keys
+	 */
+	private Map<TileIndex, byte[]> scanTileRange (String tableName, HBaseRowKeyScheme scheme,
+	                                              int level, int minX, int minY, int maxX, int maxY)
+		throws IOException {
+		Map<TileIndex, byte[]> results = new HashMap<TileIndex, byte[]>();
+		HTableInterface table = getTable(tableName);
+		boolean succeeded = false;
+		try {
+			for (byte[][] range: scheme.getScanRanges(level, minX, minY, maxX, maxY)) {
+				Scan scan = new Scan(range[0], range[1]);
+				scan.addColumn(TILE_COLUMN.family, TILE_COLUMN.qualifier);
+				scan.setCaching(SCAN_CACHING);
+				ResultScanner scanner = table.getScanner(scan);
+				try {
+					for (Result result: scanner) {
+						TileIndex index = HBaseRowKeyScheme.getTileIndex(result.getRow());
+						// Ranges may overshoot the requested block
+						if (null == index || index.getLevel() != level
+						    || index.getX() < minX || index.getX() > maxX
+						    || index.getY() < minY || index.getY() > maxY) continue;
+
+						byte[] rawData = result.getValue(TILE_COLUMN.family, TILE_COLUMN.qualifier);
+						if (null == rawData) continue;
+						results.put(index, rawData);
+					}
+				} finally {
+					scanner.close();
+				}
+			}
+			succeeded = true;
+		} finally {
+			releaseTable(tableName, table, succeeded);
+		}
+		return results;
+	}
+
 	@Override
 	public <T> InputStream getTileStream (String tableName,
 	                                      TileSerializer<T> serializer,
 	                                      TileIndex tile) throws IOException {
-		List<String> rowIds = new ArrayList<String>();
-		rowIds.add(rowIdFromTileIndex(tile));
+		List<byte[]> rowKeys = new ArrayList<byte[]>();
+		rowKeys.add(getRowKeyScheme(tableName).getRowKey(tile));
         
-		List<Map<HBaseColumn, byte[]>> rawResults = readRows(tableName, rowIds, TILE_COLUMN);
+		List<Map<HBaseColumn, byte[]>> rawResults = readRows(tableName, rowKeys, TILE_COLUMN);
 		Iterator<Map<HBaseColumn, byte[]>> iData = rawResults.iterator();
 
 		if (iData.hasNext()) {
@@ -335,7 +678,7 @@ public class HBasePyramidIO implements PyramidIO {
 
 	@Override
 	public String readMetaData (String tableName) throws IOException {
-		List<Map<HBaseColumn, byte[]>> rawData = readRows(tableName, Collections.singletonList(META_DATA_INDEX), METADATA_COLUMN);
+		List<Map<HBaseColumn, byte[]>> rawData = readRows(tableName, Collections.singletonList(META_DATA_INDEX.getBytes()), METADATA_COLUMN);
 
 		if (null == rawData) return null;
 		if (rawData.isEmpty()) return null;
@@ -348,31 +691,39 @@ public class HBasePyramidIO implements PyramidIO {
 	@Override
     public void removeTiles (String tableName, Iterable<TileIndex> tiles) throws IOException {
     	
-    	List<String> rowIds = new ArrayList<>();
+    	HBaseRowKeyScheme scheme = getRowKeyScheme(tableName);
+    	List<byte[]> rowKeys = new ArrayList<>();
         for (TileIndex tile: tiles) {
-            rowIds.add( rowIdFromTileIndex( tile ) );
+            rowKeys.add( scheme.getRowKey( tile ) );
         }        
-        deleteRows(tableName, rowIds, TILE_COLUMN);
+        deleteRows(tableName, rowKeys, TILE_COLUMN);
     }
 	
-	private void deleteRows (String tableName, List<String> rows, HBaseColumn... columns) throws IOException {
+	private void deleteRows (String tableName, List<byte[]> rows, HBaseColumn... columns) throws IOException {
 
-        HTableInterface table = getTable(tableName);
         List<Delete> deletes = new LinkedList<Delete>();
-        for (String rowId: rows) {
-        	Delete delete = new Delete(rowId.getBytes());
+        for (byte[] rowKey: rows) {
+        	Delete delete = new Delete(rowKey);
             deletes.add(delete);
         }
-        table.delete(deletes);
-        table.close();
+        HTableInterface table = getTable(tableName);
+        boolean succeeded = false;
+        try {
+            table.delete(deletes);
+            succeeded = true;
+        } finally {
+            releaseTable(tableName, table, succeeded);
+        }
     }
 	
 	public void dropTable( String tableName ) {
     	
+    	closeTables(tableName);
     	try {
     		_admin.disableTable( /*TableName.valueOf(*/ tableName /*)*/ );
     		_admin.deleteTable( /*TableName.valueOf(*/ tableName /*)*/ );
         } catch (Exception e) {}
+    	_tableSchemes.remove(tableName);
  	
     }
 }
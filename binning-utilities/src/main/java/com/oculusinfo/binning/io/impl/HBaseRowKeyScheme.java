@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.util.ZOrder;
+
+/**
+ * The scheme by which tiles are mapped to HBase row keys.
+ * 
+ * Two schemes exist:
+ * <dl>
+ * <dt>legacy</dt>
+ * <dd>The original, human-readable <code>"level,x,y"</code> string keys.
+ * Tiles are ordered by level, then column, then row, so spatially
+ * neighbouring tiles are usually far apart in the table.</dd>
+ * <dt>zorder</dt>
+ * <dd>Binary keys consisting of a version byte, a salt byte, a level byte,
+ * and the 8-byte Z-order interleaving of x and y. Spatially neighbouring
+ * tiles are neighbours in the table, so a rectangular block of tiles can be
+ * read with a few scans. The salt spreads each level over several key ranges
+ * (so writes to one level don't all hit one region); blocks of
+ * {@link #SALT_BLOCK_SIZE} by {@link #SALT_BLOCK_SIZE} tiles always share a
+ * salt.</dd>
+ * </dl>
+ * 
+ * Binary keys always start with a byte below any printable character, so
+ * they can never be confused with legacy keys, or with the metadata row.
+ */
+public abstract class HBaseRowKeyScheme implements Serializable {
+	private static final long    serialVersionUID  = 1L;
+	private static final Charset UTF8              = Charset.forName("UTF-8");
+
+	public static final  byte    ZORDER_VERSION    = 1;
+	public static final  int     ZORDER_KEY_LENGTH = 11;
+	public static final  int     SALT_BLOCK_SIZE   = 16;
+	// The number of low bits of the Z-order key that don't affect the salt
+	private static final int     SALT_BLOCK_BITS   = 8;
+	// How many times quadtree cells no larger than a scanned rectangle are
+	// split when breaking it into key ranges; this bounds both the number of
+	// ranges (per salt) and how far they overshoot the rectangle
+	private static final int     MAX_RANGE_DEPTH   = 4;
+
+
+
+	/**
+	 * Get the original string-keyed scheme
+	 */
+	public static HBaseRowKeyScheme legacy () {
+		return new LegacyScheme();
+	}
+
+	/**
+	 * Get a binary Z-order scheme
+	 * 
+	 * @param saltBuckets The number of distinct salt values into which to
+	 *            spread tiles; 1 for no salting.
+	 */
+	public static HBaseRowKeyScheme zOrder (int saltBuckets) {
+		return new ZOrderScheme(saltBuckets);
+	}
+
+	/**
+	 * Reconstruct a scheme from the marker stored with a table
+	 * 
+	 * @see #getMarker()
+	 */
+	public static HBaseRowKeyScheme fromMarker (String marker) {
+		if (null == marker || "legacy".equals(marker)) return legacy();
+		String[] fields = marker.split(":");
+		if (3 == fields.length && "zorder".equals(fields[0])
+		    && Integer.toString(ZORDER_VERSION).equals(fields[1])) {
+			return zOrder(Integer.parseInt(fields[2]));
+		}
+		throw new IllegalArgumentException("Unrecognized row key scheme "+marker);
+	}
+
+	/**
+	 * Get the tile index described by a row key of either scheme.
+	 * 
+	 * @return The tile index, or null if the row is not a tile (e.g., the
+	 *         metadata row)
+	 */
+	public static TileIndex getTileIndex (byte[] rowKey) {
+		if (null == rowKey || 0 == rowKey.length) return null;
+		if (ZORDER_VERSION == rowKey[0]) {
+			if (ZORDER_KEY_LENGTH != rowKey.length) return null;
+			long zKey = 0L;
+			for (int i=3; i<ZORDER_KEY_LENGTH; ++i) {
+				zKey = (zKey << 8) | (rowKey[i] & 0xff);
+			}
+			return new TileIndex(rowKey[2] & 0xff, ZOrder.getX(zKey), ZOrder.getY(zKey));
+		}
+		if (rowKey[0] < '0' || rowKey[0] > '9') return null;
+		return HBasePyramidIO.tileIndexFromRowId(new String(rowKey, UTF8));
+	}
+
+
+
+	/**
+	 * Get the row key under which to store the given tile
+	 */
+	abstract public byte[] getRowKey (TileIndex tile);
+
+	/**
+	 * Get the key ranges to scan to find all tiles in the given rectangle of
+	 * the given level. Ranges may cover some tiles outside the rectangle too,
+	 * so the results of the scans should be filtered.
+	 * 
+	 * @return A list of [start row (inclusive), stop row (exclusive)] pairs
+	 */
+	abstract public List<byte[][]> getScanRanges (int level, int minX, int minY, int maxX, int maxY);
+
+	/**
+	 * Get the key ranges to scan to find all tiles of the given level. Unlike
+	 * {@link #getScanRanges}, these ranges contain nothing but tiles of that
+	 * level.
+	 * 
+	 * @return A list of [start row (inclusive), stop row (exclusive)] pairs
+	 */
+	abstract public List<byte[][]> getLevelScanRanges (int level);
+
+	/**
+	 * Get a description of this scheme, suitable for storing with a table
+	 */
+	abstract public String getMarker ();
+
+	@Override
+	public String toString () {
+		return getMarker();
+	}
+
+
+
+	private static class LegacyScheme extends HBaseRowKeyScheme {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public byte[] getRowKey (TileIndex tile) {
+			return HBasePyramidIO.rowIdFromTileIndex(tile).getBytes(UTF8);
+		}
+
+		@Override
+		public List<byte[][]> getScanRanges (int level, int minX, int minY, int maxX, int maxY) {
+			// Within a level, keys have a fixed number of digits, so each
+			// column of tiles is one contiguous key range.
+			List<byte[][]> ranges = new ArrayList<byte[][]>();
+			for (int x=minX; x<=maxX; ++x) {
+				byte[] start = getRowKey(new TileIndex(level, x, minY));
+				byte[] last = getRowKey(new TileIndex(level, x, maxY));
+				byte[] stop = new byte[last.length+1];
+				System.arraycopy(last, 0, stop, 0, last.length);
+				ranges.add(new byte[][] {start, stop});
+			}
+			return ranges;
+		}
+
+		@Override
+		public List<byte[][]> getLevelScanRanges (int level) {
+			// All keys of a level share the prefix "level,"; ',' + 1 is '-'
+			String prefix = String.format("%02d", level);
+			List<byte[][]> ranges = new ArrayList<byte[][]>();
+			ranges.add(new byte[][] {(prefix+",").getBytes(UTF8), (prefix+"-").getBytes(UTF8)});
+			return ranges;
+		}
+
+		@Override
+		public String getMarker () {
+			return "legacy";
+		}
+	}
+
+
+
+	private static class ZOrderScheme extends HBaseRowKeyScheme {
+		private static final long serialVersionUID = 1L;
+
+		private int _saltBuckets;
+
+		ZOrderScheme (int saltBuckets) {
+			if (saltBuckets < 1 || saltBuckets > 256)
+				throw new IllegalArgumentException("Salt buckets must be between 1 and 256");
+			_saltBuckets = saltBuckets;
+		}
+
+		private int getSalt (int level, long zKey) {
+			if (1 == _saltBuckets) return 0;
+			// Mix the level and block number, so each level's blocks are
+			// spread evenly over the buckets
+			long h = (zKey >>> SALT_BLOCK_BITS) * 0x9E3779B97F4A7C15L + level;
+			h ^= (h >>> 33);
+			h *= 0xff51afd7ed558ccdL;
+			h ^= (h >>> 33);
+			return (int) ((h & Long.MAX_VALUE) % _saltBuckets);
+		}
+
+		private byte[] getRowKey (int salt, int level, long zKey) {
+			byte[] key = new byte[ZORDER_KEY_LENGTH];
+			key[0] = ZORDER_VERSION;
+			key[1] = (byte) salt;
+			key[2] = (byte) level;
+			for (int i=ZORDER_KEY_LENGTH-1; i>=3; --i) {
+				key[i] = (byte) zKey;
+				zKey >>>= 8;
+			}
+			return key;
+		}
+
+		@Override
+		public byte[] getRowKey (TileIndex tile) {
+			long zKey = ZOrder.interleave(tile.getX(), tile.getY());
+			return getRowKey(getSalt(tile.getLevel(), zKey), tile.getLevel(), zKey);
+		}
+
+		@Override
+		public List<byte[][]> getScanRanges (int level, int minX, int minY, int maxX, int maxY) {
+			long span = Long.highestOneBit(Math.max(maxX - minX, maxY - minY)) << 1;
+			long minSize = Math.max(1L, span >> MAX_RANGE_DEPTH);
+			List<long[]> zRanges = new ArrayList<long[]>();
+			addZRanges(zRanges, 0L, 0L, 0L, 1L << level, minX, minY, maxX, maxY, minSize);
+
+			List<byte[][]> ranges = new ArrayList<byte[][]>();
+			for (int salt=0; salt<_saltBuckets; ++salt) {
+				for (long[] zRange: zRanges) {
+					ranges.add(new byte[][] {getRowKey(salt, level, zRange[0]),
+					                         getRowKey(salt, level, zRange[1] + 1)});
+				}
+			}
+			return ranges;
+		}
+
+		@Override
+		public List<byte[][]> getLevelScanRanges (int level) {
+			// Each salt holds one contiguous run of each level's keys
+			List<byte[][]> ranges = new ArrayList<byte[][]>();
+			for (int salt=0; salt<_saltBuckets; ++salt) {
+				ranges.add(new byte[][] {getRowKey(salt, level, 0L),
+				                         getRowKey(salt, level + 1, 0L)});
+			}
+			return ranges;
+		}
+
+		/*
+		 * Break the rectangle into Z-order key ranges by recursively splitting
+		 * the quadtree cell (x0, y0, size) whose keys start at zStart. Cells
+		 * entirely within the rectangle become one range; cells only partly
+		 * within it are split until they reach minSize, and then taken whole.
+		 * Quadrants are visited in Z order, so ranges come out sorted, and
+		 * adjacent ones are merged.
+		 */
+		private void addZRanges (List<long[]> ranges, long zStart, long x0, long y0, long size,
+		                         int minX, int minY, int maxX, int maxY, long minSize) {
+			long x1 = x0 + size - 1;
+			long y1 = y0 + size - 1;
+			if (x1 < minX || x0 > maxX || y1 < minY || y0 > maxY) return;
+
+			boolean contained = (x0 >= minX && x1 <= maxX && y0 >= minY && y1 <= maxY);
+			if (contained || size <= minSize) {
+				long zEnd = zStart + size * size - 1;
+				if (!ranges.isEmpty()) {
+					long[] last = ranges.get(ranges.size()-1);
+					if (last[1] + 1 == zStart) {
+						last[1] = zEnd;
+						return;
+					}
+				}
+				ranges.add(new long[] {zStart, zEnd});
+				return;
+			}
+
+			long half = size / 2;
+			long quadrant = half * half;
+			addZRanges(ranges, zStart,              x0,        y0,        half, minX, minY, maxX, maxY, minSize);
+			addZRanges(ranges, zStart + quadrant,   x0 + half, y0,        half, minX, minY, maxX, maxY, minSize);
+			addZRanges(ranges, zStart + 2*quadrant, x0,        y0 + half, half, minX, minY, maxX, maxY, minSize);
+			addZRanges(ranges, zStart + 3*quadrant, x0 + half, y0 + half, half, minX, minY, maxX, maxY, minSize);
+		}
+
+		@Override
+		public String getMarker () {
+			return "zorder:"+ZORDER_VERSION+":"+_saltBuckets;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * The SQL differences between the databases {@link JDBCPyramidIO} supports.
+ */
+public enum JDBCDialect {
+	SQLITE {
+		@Override
+		public String getBinaryType () {
+			return "BLOB";
+		}
+
+		@Override
+		public String getKeyTextType () {
+			return "TEXT";
+		}
+
+		@Override
+		public String getUpsert (String table, List<String> keyColumns, List<String> valueColumns) {
+			// Older SQLite versions (including the bundled driver) have no
+			// ON CONFLICT ... DO UPDATE; a replace is equivalent here, since
+			// every column is written.
+			return "INSERT OR REPLACE INTO " + table + " (" + join(keyColumns, valueColumns) + ")"
+				+ " VALUES (" + parameters(keyColumns.size() + valueColumns.size()) + ")";
+		}
+
+		@Override
+		public int getMaxParameters () {
+			return 999;
+		}
+
+		@Override
+		public void initializeConnection (Connection connection) throws SQLException {
+			// Wait for other connections' locks, rather than failing at once
+			// with SQLITE_BUSY
+			Statement stmt = connection.createStatement();
+			try {
+				stmt.execute("PRAGMA busy_timeout = 30000");
+			} finally {
+				stmt.close();
+			}
+		}
+
+		@Override
+		public boolean isSingleWriter () {
+			return true;
+		}
+
+		@Override
+		protected boolean isPrivateDatabase (String url) {
+			return url.startsWith("jdbc:sqlite::memory:") || "jdbc:sqlite:".equals(url);
+		}
+	},
+
+	H2 {
+		@Override
+		public String getUpsert (String table, List<String> keyColumns, List<String> valueColumns) {
+			return "MERGE INTO " + table + " (" + join(keyColumns, valueColumns) + ")"
+				+ " KEY (" + join(keyColumns, null) + ")"
+				+ " VALUES (" + parameters(keyColumns.size() + valueColumns.size()) + ")";
+		}
+
+		@Override
+		protected boolean isPrivateDatabase (String url) {
+			// Unnamed in-memory databases are private to their connection
+			return url.startsWith("jdbc:h2:mem:;") || "jdbc:h2:mem:".equals(url);
+		}
+	},
+
+	POSTGRESQL {
+		@Override
+		public String getBinaryType () {
+			return "BYTEA";
+		}
+
+		@Override
+		public String getUpsert (String table, List<String> keyColumns, List<String> valueColumns) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("INSERT INTO ").append(table);
+			sb.append(" (").append(join(keyColumns, valueColumns)).append(")");
+			sb.append(" VALUES (").append(parameters(keyColumns.size() + valueColumns.size())).append(")");
+			sb.append(" ON CONFLICT (").append(join(keyColumns, null)).append(") DO UPDATE SET ");
+			for (int i=0; i<valueColumns.size(); ++i) {
+				if (i > 0) sb.append(", ");
+				sb.append(valueColumns.get(i)).append(" = EXCLUDED.").append(valueColumns.get(i));
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public int getMaxParameters () {
+			return 32767;
+		}
+	},
+
+	/** Any other database; writes are plain inserts, as they always were */
+	GENERIC {
+		@Override
+		public String getUpsert (String table, List<String> keyColumns, List<String> valueColumns) {
+			return "INSERT INTO " + table + " (" + join(keyColumns, valueColumns) + ")"
+				+ " VALUES (" + parameters(keyColumns.size() + valueColumns.size()) + ")";
+		}
+	};
+
+
+
+	/**
+	 * Determine the dialect of a database from its JDBC URL
+	 */
+	public static JDBCDialect fromUrl (String url) {
+		if (url.startsWith("jdbc:sqlite:")) return SQLITE;
+		if (url.startsWith("jdbc:h2:")) return H2;
+		if (url.startsWith("jdbc:postgresql:")) return POSTGRESQL;
+		return GENERIC;
+	}
+
+	/**
+	 * Determine if every connection to the given URL sees a different
+	 * database (as with unnamed in-memory databases), in which case only a
+	 * single connection may be used.
+	 */
+	public static boolean isPrivateDatabaseUrl (String url) {
+		return fromUrl(url).isPrivateDatabase(url);
+	}
+
+	private static String join (List<String> a, List<String> b) {
+		StringBuilder sb = new StringBuilder();
+		for (String column: a) {
+			if (sb.length() > 0) sb.append(",");
+			sb.append(column);
+		}
+		if (null != b) {
+			for (String column: b) {
+				if (sb.length() > 0) sb.append(",");
+				sb.append(column);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get a comma-separated list of the given number of parameter markers
+	 */
+	public static String parameters (int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<n; ++i) {
+			if (i > 0) sb.append(",");
+			sb.append("?");
+		}
+		return sb.toString();
+	}
+
+
+
+	/**
+	 * Get the column type used for tile data
+	 */
+	public String getBinaryType () {
+		return "BLOB";
+	}
+
+	/**
+	 * Get the column type used for text that is part of a primary key
+	 */
+	public String getKeyTextType () {
+		return "VARCHAR(1024)";
+	}
+
+	/**
+	 * Get a statement that inserts a row, or replaces the row with the same
+	 * key if there is one. Parameters are the key columns, then the value
+	 * columns, in order.
+	 */
+	abstract public String getUpsert (String table, List<String> keyColumns, List<String> valueColumns);
+
+	/**
+	 * Get the maximum number of parameters a single statement may have
+	 */
+	public int getMaxParameters () {
+		return 1000;
+	}
+
+	/**
+	 * Prepare a newly opened connection for use
+	 */
+	public void initializeConnection (Connection connection) throws SQLException {
+	}
+
+	/**
+	 * Determine if the database allows only one writing transaction at a
+	 * time, in which case writes should be serialized rather than left to
+	 * contend for the database lock
+	 */
+	public boolean isSingleWriter () {
+		return false;
+	}
+
+	protected boolean isPrivateDatabase (String url) {
+		return false;
+	}
+}
@@ -29,29 +29,51 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.util.ZOrder;
 
 /**
  * JDBC-based implementation of PyramidIO.
  * 
+ * Connections are pooled, so one instance can serve concurrent readers.
+ * Batches of tiles are read with as few queries as the database allows,
+ * and tiles are written as upserts, committed every
+ * {@link #DEFAULT_WRITE_BATCH_SIZE} tiles (by default). Databases that
+ * allow only one writer at a time (i.e., SQLite) have their writes
+ * serialized. The SQL used for each database is determined by its
+ * {@link JDBCDialect}.
+ * 
  * @author rcameron
  * 
  */
 public class JDBCPyramidIO implements PyramidIO {
 	private static final String TABLE_METADATA = "metadata";
-	private static final int BATCH_SIZE = 10000;
 	private static final String COL_ZOOM_LVL = "zoom_level";
 	private static final String COL_TILE_COLUMN = "tile_column";
 	private static final String COL_TILE_ROW = "tile_row";
@@ -59,27 +81,143 @@ public class JDBCPyramidIO implements PyramidIO {
 	private static final String COL_METADATA = "metadata";
 	private static final String COL_PYRAMID_ID = "pyramid_id";
 
-	private Connection _connection;
-	
+	private static final List<String> TILE_KEY_COLUMNS       = Arrays.asList(COL_ZOOM_LVL, COL_TILE_COLUMN, COL_TILE_ROW);
+	private static final List<String> TILE_VALUE_COLUMNS     = Collections.singletonList(COL_TILE_DATA);
+	private static final List<String> METADATA_KEY_COLUMNS   = Collections.singletonList(COL_PYRAMID_ID);
+	private static final List<String> METADATA_VALUE_COLUMNS = Collections.singletonList(COL_METADATA);
+
+	// SQLite allows at most 500 terms in a compound select
+	private static final int MAX_UNION_TERMS = 250;
+
+	public static final int DEFAULT_POOL_SIZE = 8;
+	public static final int DEFAULT_WRITE_BATCH_SIZE = 1000;
+
+
+
+	private String                     _dbUrl;
+	private JDBCDialect                _dialect;
+	private int                        _writeBatchSize;
+	private Semaphore                  _connectionPermits;
+	private BlockingQueue<Connection>  _idleConnections;
+	// Held while writing, if the database allows only one writer
+	private Lock                       _writeLock;
+	// Tables known to exist; tables are never dropped, so this never shrinks
+	private Set<String>                _knownTables;
+
 	public JDBCPyramidIO(String driverClassName, String dbUrl) throws Exception {
+		this(driverClassName, dbUrl, DEFAULT_POOL_SIZE, DEFAULT_WRITE_BATCH_SIZE);
+	}
+
+	/**
+	 * @param driverClassName The JDBC driver class
+	 * @param dbUrl The JDBC URL of the database
+	 * @param poolSize The maximum number of simultaneously open connections
+	 * @param writeBatchSize The number of tiles written per transaction
+	 */
+	public JDBCPyramidIO(String driverClassName, String dbUrl, int poolSize, int writeBatchSize) throws Exception {
 		Class.forName(driverClassName);
-		_connection = DriverManager.getConnection(dbUrl);
+		_dbUrl = dbUrl;
+		_dialect = JDBCDialect.fromUrl(dbUrl);
+		_writeBatchSize = Math.max(1, writeBatchSize);
+		// Unnamed in-memory databases only exist for a single connection
+		if (JDBCDialect.isPrivateDatabaseUrl(dbUrl)) poolSize = 1;
+		poolSize = Math.max(1, poolSize);
+		_connectionPermits = new Semaphore(poolSize, true);
+		_idleConnections = new LinkedBlockingQueue<Connection>(poolSize);
+		_knownTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		_writeLock = _dialect.isSingleWriter() ? new ReentrantLock(true) : null;
+
+		// Open one connection up front, so configuration errors show up now
+		releaseConnection(getConnection(), true);
 	}
 
 	public void shutdown() {
+		Connection connection;
+		while (null != (connection = _idleConnections.poll())) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/*
+	 * Get a connection from the pool, waiting for one if all are in use.
+	 * Connections must be given back with releaseConnection.
+	 */
+	private Connection getConnection () throws SQLException {
 		try {
-			_connection.close();
+			_connectionPermits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a database connection", e);
+		}
+		try {
+			Connection connection = _idleConnections.poll();
+			if (null == connection || connection.isClosed()) {
+				connection = DriverManager.getConnection(_dbUrl);
+				try {
+					_dialect.initializeConnection(connection);
+				} catch (SQLException e) {
+					connection.close();
+					throw e;
+				}
+			}
+			return connection;
+		} catch (SQLException e) {
+			_connectionPermits.release();
+			throw e;
+		}
+	}
+
+	/*
+	 * Give a connection back to the pool. Connections that were in use when
+	 * something went wrong should not be reused, as their state is unknown.
+	 */
+	private void releaseConnection (Connection connection, boolean reusable) {
+		try {
+			if (!reusable || !_idleConnections.offer(connection)) {
+				connection.close();
+			}
 		} catch (SQLException e) {
 			e.printStackTrace();
+		} finally {
+			_connectionPermits.release();
+		}
+	}
+
+	/*
+	 * Get a connection with which to write. Connections must be given back
+	 * with releaseWriteConnection.
+	 */
+	private Connection getWriteConnection () throws SQLException {
+		if (null != _writeLock) _writeLock.lock();
+		try {
+			return getConnection();
+		} catch (SQLException e) {
+			if (null != _writeLock) _writeLock.unlock();
+			throw e;
+		}
+	}
+
+	private void releaseWriteConnection (Connection connection, boolean reusable) {
+		try {
+			releaseConnection(connection, reusable);
+		} finally {
+			if (null != _writeLock) _writeLock.unlock();
 		}
 	}
 
 	@Override
 	public void initializeForWrite(String pyramidId) throws IOException {
 		// Create the table and columns if necessary.
+		Connection connection = null;
 		Statement stmt = null;
+		boolean succeeded = false;
 		try {
-			if (!tableExists(pyramidId)) {
+			connection = getWriteConnection();
+			if (!tableExists(connection, pyramidId)) {
 				StringBuilder sb = new StringBuilder();
 				sb.append("CREATE TABLE ");
 				sb.append(toTableName(pyramidId));
@@ -91,8 +229,10 @@ public class JDBCPyramidIO implements PyramidIO {
 				sb.append(COL_TILE_ROW);
 				sb.append(" INTEGER NOT NULL, ");
 				sb.append(COL_TILE_DATA);
-				sb.append(" BLOB,");
-				sb.append(" CONSTRAINT pk_TileIndex PRIMARY KEY (");
+				sb.append(" ").append(_dialect.getBinaryType()).append(",");
+				// Left unnamed; some databases require constraint names to be
+				// unique across all tables, not just within one
+				sb.append(" PRIMARY KEY (");
 				sb.append(COL_ZOOM_LVL);
 				sb.append(",");
 				sb.append(COL_TILE_COLUMN);
@@ -100,21 +240,22 @@ public class JDBCPyramidIO implements PyramidIO {
 				sb.append(COL_TILE_ROW);
 				sb.append("))");
 				
-				stmt = _connection.createStatement();
+				stmt = connection.createStatement();
 				stmt.executeUpdate(sb.toString());
 			}
 
-			if (!tableExists(TABLE_METADATA)) {
+			if (!tableExists(connection, TABLE_METADATA)) {
 				StringBuilder sb = new StringBuilder();
 				sb.append("CREATE TABLE ");
 				sb.append(TABLE_METADATA);
 				sb.append(" (");
 				sb.append(COL_PYRAMID_ID);
-				sb.append(" TEXT PRIMARY KEY, metadata TEXT)");
+				sb.append(" ").append(_dialect.getKeyTextType()).append(" PRIMARY KEY, metadata TEXT)");
 				
-				if (stmt == null) stmt = _connection.createStatement();
+				if (stmt == null) stmt = connection.createStatement();
 				stmt.executeUpdate(sb.toString());
 			}
+			succeeded = true;
 		} catch (Exception e) {
 			throw new IOException("Error initializing for write: ", e);
 		} finally {
@@ -125,6 +266,7 @@ public class JDBCPyramidIO implements PyramidIO {
 					e.printStackTrace();
 				}
 			}
+			if (null != connection) releaseWriteConnection(connection, succeeded);
 		}
 	}
 	
@@ -137,53 +279,59 @@ public class JDBCPyramidIO implements PyramidIO {
 	}
 
 	protected boolean tableExists(String pyramidId) throws SQLException {
-		StringBuilder sb = new StringBuilder();
-		sb.append("SELECT name FROM 'sqlite_master' WHERE type='table' AND name=");
-		sb.append(toTableName(pyramidId));
-		
-		Statement stmt = null;
-		boolean exists = false;
-		
+		if (_knownTables.contains(pyramidId)) return true;
+
+		Connection connection = getConnection();
+		boolean succeeded = false;
 		try {
-			stmt = _connection.createStatement();
-			stmt.execute(sb.toString());
-			exists = stmt.getResultSet().next();
+			boolean exists = tableExists(connection, pyramidId);
+			succeeded = true;
+			return exists;
 		} finally {
-			if (stmt != null) {
-				stmt.close();
+			releaseConnection(connection, succeeded);
+		}
+	}
+
+	private boolean tableExists (Connection connection, String pyramidId) throws SQLException {
+		if (_knownTables.contains(pyramidId)) return true;
+
+		// Unquoted names may have been folded to either case by the database
+		DatabaseMetaData dbMetaData = connection.getMetaData();
+		for (String name: new String[] {pyramidId, pyramidId.toUpperCase(), pyramidId.toLowerCase()}) {
+			ResultSet tables = dbMetaData.getTables(null, null, name, null);
+			try {
+				while (tables.next()) {
+					if (pyramidId.equalsIgnoreCase(tables.getString("TABLE_NAME"))) {
+						_knownTables.add(pyramidId);
+						return true;
+					}
+				}
+			} finally {
+				tables.close();
 			}
 		}
-		
-		return exists;
+		return false;
 	}
 
 	@Override
 	public <T> void writeTiles(String pyramidId,
 	                           TileSerializer<T> serializer, Iterable<TileData<T>> data)
 		throws IOException {
+		Connection connection = null;
 		PreparedStatement ps = null;
+		boolean succeeded = false;
 
 		try {
-			_connection.setAutoCommit(false);
+			connection = getWriteConnection();
+			connection.setAutoCommit(false);
 
-			StringBuilder sb = new StringBuilder();
-			sb.append("INSERT INTO ");
-			sb.append(toTableName(pyramidId));
-			sb.append(" (");
-			sb.append(COL_ZOOM_LVL);
-			sb.append(",");
-			sb.append(COL_TILE_COLUMN);
-			sb.append(",");
-			sb.append(COL_TILE_ROW);
-			sb.append(",");
-			sb.append(COL_TILE_DATA);
-			sb.append(") ");
-			sb.append("VALUES (?,?,?,?)");
-			ps = _connection.prepareStatement(sb.toString());
+			ps = connection.prepareStatement(_dialect.getUpsert(toTableName(pyramidId),
+			                                                    TILE_KEY_COLUMNS, TILE_VALUE_COLUMNS));
 
 			int count = 0;
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			for (TileData<T> tile : data) {
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				baos.reset();
 				serializer.serialize(tile, baos);
 
 				TileIndex index = tile.getDefinition();
@@ -196,83 +344,65 @@ public class JDBCPyramidIO implements PyramidIO {
 				ps.addBatch();
 
 				++count;
-				if (count % BATCH_SIZE == 0) {
+				if (count % _writeBatchSize == 0) {
 					ps.executeBatch();
+					connection.commit();
 				}
 			}
 
 			ps.executeBatch();
-			_connection.commit();
+			connection.commit();
+			succeeded = true;
 		} catch (Exception e) {
+			if (null != connection) {
+				try {
+					connection.rollback();
+				} catch (SQLException e2) {
+					e2.printStackTrace();
+				}
+			}
 			throw new IOException("Error writing tiles.", e);
 		} finally {
 			try {
 				if (ps != null) {
 					ps.close();
 				}
-				_connection.setAutoCommit(true);
+				if (null != connection) connection.setAutoCommit(true);
 			} catch (SQLException e) {
+				succeeded = false;
 				e.printStackTrace();
 			}
+			if (null != connection) releaseWriteConnection(connection, succeeded);
 		}
 
 	}
 
-	protected boolean metaDataExistsFor(String pyramidId) {
-		String metadata = null;
-		try {
-			metadata = readMetaData(pyramidId);
-		} catch (IOException e) {
-			metadata = null;
-		}
-		return metadata != null;
-	}
-	
 	@Override
 	public void writeMetaData(String pyramidId, String metaData)
 		throws IOException {
-		Statement stmt = null;
+		Connection connection = null;
+		PreparedStatement ps = null;
+		boolean succeeded = false;
 		try {
-			StringBuilder sb = new StringBuilder();
-			if (metaDataExistsFor(pyramidId)) {
-				sb.append("UPDATE ");
-				sb.append(TABLE_METADATA);
-				sb.append(" SET ");
-				sb.append(COL_METADATA);
-				sb.append(" = '");
-				sb.append(metaData);
-				sb.append("' WHERE ");
-				sb.append(COL_PYRAMID_ID);
-				sb.append(" = '");
-				sb.append(toTableName(pyramidId));
-				sb.append("';");
-			}
-			else {
-				sb.append("INSERT INTO ");
-				sb.append(TABLE_METADATA);
-				sb.append(" (");
-				sb.append(COL_PYRAMID_ID);
-				sb.append(", ");
-				sb.append(COL_METADATA);
-				sb.append(") VALUES('");
-				sb.append(toTableName(pyramidId));
-				sb.append("','");
-				sb.append(metaData);
-				sb.append("')");
-			}
-			
-			stmt = _connection.createStatement();
-			stmt.execute(sb.toString());
+			connection = getWriteConnection();
+			ps = connection.prepareStatement(_dialect.getUpsert(TABLE_METADATA, METADATA_KEY_COLUMNS,
+			                                                    METADATA_VALUE_COLUMNS));
+			// Metadata has always been keyed by the quoted table name
+			ps.setString(1, toTableName(pyramidId));
+			ps.setString(2, metaData);
+			ps.executeUpdate();
+			succeeded = true;
 		} catch (SQLException e) {
 			throw new IOException("Error writing metadata.", e);
 		} finally {
-			if (stmt != null) {
+			if (ps != null) {
 				try {
-					stmt.close();
+					ps.close();
 				} catch (SQLException e) {
 					e.printStackTrace();
 				}
 			}
+			if (null != connection) releaseWriteConnection(connection, succeeded);
 		}
 	}
 
@@ -281,19 +411,71 @@ public class JDBCPyramidIO implements PyramidIO {
 		// Noop
 	}
 
-	@Override
-	public <T> List<TileData<T>> readTiles(String pyramidId,
-	                                       TileSerializer<T> serializer, Iterable<TileIndex> tiles)
-		throws IOException {
-		PreparedStatement ps = null;
+	/*
+	 * Read the raw data of a set of tiles. Tiles are grouped by level and
+	 * column; each group becomes one index-friendly
+	 * "level = ? AND column = ? AND row IN (...)" select, and groups are
+	 * combined with UNION ALL into as few statements as the database's
+	 * parameter limit allows.
+	 * 
+	 * @return A map from level to a map from the Z-order key of each tile
+	 *         found to its data
+	 */
+	private Map<Integer, Map<Long, byte[]>> readRawTiles (String pyramidId, Iterable<TileIndex> tiles)
+		throws SQLException {
+		Map<Long, List<TileIndex>> byColumn = new LinkedHashMap<Long, List<TileIndex>>();
+		for (TileIndex tile: tiles) {
+			Long column = (((long) tile.getLevel()) << 32) | tile.getX();
+			List<TileIndex> columnTiles = byColumn.get(column);
+			if (null == columnTiles) {
+				columnTiles = new ArrayList<TileIndex>();
+				byColumn.put(column, columnTiles);
+			}
+			columnTiles.add(tile);
+		}
+
+		// Split columns that are too large for one statement
+		int maxRowsPerTerm = _dialect.getMaxParameters() - 2;
+		List<List<TileIndex>> terms = new ArrayList<List<TileIndex>>();
+		for (List<TileIndex> columnTiles: byColumn.values()) {
+			for (int start=0; start<columnTiles.size(); start += maxRowsPerTerm) {
+				terms.add(columnTiles.subList(start, Math.min(columnTiles.size(), start + maxRowsPerTerm)));
+			}
+		}
+
+		Map<Integer, Map<Long, byte[]>> results = new HashMap<Integer, Map<Long, byte[]>>();
+		Connection connection = getConnection();
+		boolean succeeded = false;
 		try {
-			if (!tableExists(pyramidId)) {
-				// TODO: Right thing to return when the table doesn't exist?
-				return null;
+			int term = 0;
+			while (term < terms.size()) {
+				// Take as many terms as will fit in one statement
+				int end = term;
+				int parameters = 0;
+				while (end < terms.size() && end - term < MAX_UNION_TERMS
+				       && parameters + terms.get(end).size() + 2 <= _dialect.getMaxParameters()) {
+					parameters += terms.get(end).size() + 2;
+					++end;
+				}
+				readRawTerms(connection, pyramidId, terms.subList(term, end), results);
+				term = end;
 			}
+			succeeded = true;
+		} finally {
+			releaseConnection(connection, succeeded);
+		}
+		return results;
+	}
 
-			StringBuilder sb = new StringBuilder();
+	private void readRawTerms (Connection connection, String pyramidId, List<List<TileIndex>> terms,
+	                           Map<Integer, Map<Long, byte[]>> results) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		for (List<TileIndex> term: terms) {
+			if (sb.length() > 0) sb.append(" UNION ALL ");
 			sb.append("SELECT ");
+			sb.append(COL_ZOOM_LVL).append(", ");
+			sb.append(COL_TILE_COLUMN).append(", ");
+			sb.append(COL_TILE_ROW).append(", ");
 			sb.append(COL_TILE_DATA);
 			sb.append(" FROM ");
 			sb.append(toTableName(pyramidId));
@@ -303,22 +485,61 @@ public class JDBCPyramidIO implements PyramidIO {
 			sb.append(COL_TILE_COLUMN);
 			sb.append(" = ? AND ");
 			sb.append(COL_TILE_ROW);
-			sb.append(" = ?");
+			sb.append(" IN (").append(JDBCDialect.parameters(term.size())).append(")");
+		}
 
-			ps = _connection.prepareStatement(sb.toString());
+		PreparedStatement ps = connection.prepareStatement(sb.toString());
+		try {
+			int parameter = 1;
+			for (List<TileIndex> term: terms) {
+				ps.setInt(parameter++, term.get(0).getLevel());
+				ps.setInt(parameter++, term.get(0).getX());
+				for (TileIndex tile: term) {
+					ps.setInt(parameter++, tile.getY());
+				}
+			}
 
+			ResultSet resultSet = ps.executeQuery();
+			while (resultSet.next()) {
+				int level = resultSet.getInt(1);
+				long key = ZOrder.interleave(resultSet.getInt(2), resultSet.getInt(3));
+				Map<Long, byte[]> levelResults = results.get(level);
+				if (null == levelResults) {
+					levelResults = new HashMap<Long, byte[]>();
+					results.put(level, levelResults);
+				}
+				levelResults.put(key, resultSet.getBytes(4));
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	private static byte[] getRawTile (Map<Integer, Map<Long, byte[]>> rawTiles, TileIndex tile) {
+		Map<Long, byte[]> levelTiles = rawTiles.get(tile.getLevel());
+		if (null == levelTiles) return null;
+		return levelTiles.get(ZOrder.interleave(tile.getX(), tile.getY()));
+	}
+
+	@Override
+	public <T> List<TileData<T>> readTiles(String pyramidId,
+	                                       TileSerializer<T> serializer, Iterable<TileIndex> tiles)
+		throws IOException {
+		try {
+			if (!tableExists(pyramidId)) {
+				// TODO: Right thing to return when the table doesn't exist?
+				return null;
+			}
+
+			Map<Integer, Map<Long, byte[]>> rawTiles = readRawTiles(pyramidId, tiles);
+
+			// Results are returned in request order
 			List<TileData<T>> results = new LinkedList<TileData<T>>();
 			for (TileIndex tile : tiles) {
-				ps.setInt(1, tile.getLevel());
-				ps.setInt(2, tile.getX());
-				ps.setInt(3, tile.getY());
-
-				ResultSet resultSet = ps.executeQuery();
-				if (!resultSet.next())
+				byte[] tileBytes = getRawTile(rawTiles, tile);
+				if (null == tileBytes)
 					continue;
 
-				byte[] tileBytes = resultSet.getBytes(COL_TILE_DATA);
-
 				TileData<T> data = serializer.deserialize(tile,
 				                                          new ByteArrayInputStream(tileBytes));
 				results.add(data);
@@ -327,14 +548,6 @@ public class JDBCPyramidIO implements PyramidIO {
 
 		} catch (Exception e) {
 			throw new IOException("Error reading tiles.", e);
-		} finally {
-			if (ps != null) {
-				try {
-					ps.close();
-				} catch (SQLException e) {
-					throw new IOException(e);
-				}
-			}
 		}
 	}
 
@@ -342,53 +555,27 @@ public class JDBCPyramidIO implements PyramidIO {
 	public <T> InputStream getTileStream (String pyramidId,
 	                                      TileSerializer<T> serializer,
 	                                      TileIndex tile) throws IOException {
-		PreparedStatement ps = null;
 		try {
 			if (!tableExists(pyramidId)) {
 				// TODO: Right thing to return when the table doesn't exist?
 				return null;
 			}
 
-			StringBuilder sb = new StringBuilder();
-			sb.append("SELECT ");
-			sb.append(COL_TILE_DATA);
-			sb.append(" FROM ");
-			sb.append(toTableName(pyramidId));
-			sb.append(" WHERE ");
-			sb.append(COL_ZOOM_LVL);
-			sb.append(" = ? AND ");
-			sb.append(COL_TILE_COLUMN);
-			sb.append(" = ? AND ");
-			sb.append(COL_TILE_ROW);
-			sb.append(" = ?");
-
-			ps = _connection.prepareStatement(sb.toString());
-			ps.setInt(1, tile.getLevel());
-			ps.setInt(2, tile.getX());
-			ps.setInt(3, tile.getY());
-
-			ResultSet resultSet = ps.executeQuery();
-			if (resultSet.next()) {
-				byte[] tileBytes = resultSet.getBytes(COL_TILE_DATA);
+			byte[] tileBytes = getRawTile(readRawTiles(pyramidId, Collections.singletonList(tile)), tile);
+			if (null != tileBytes) {
 				return new ByteArrayInputStream(tileBytes);
 			}
 		} catch (Exception e) {
 			throw new IOException("Error reading tiles.", e);
-		} finally {
-			if (ps != null) {
-				try {
-					ps.close();
-				} catch (SQLException e) {
-					throw new IOException(e);
-				}
-			}
 		}
 		return null;
 	}
 
 	@Override
 	public String readMetaData(String pyramidId) throws IOException {
-		Statement stmt = null;
+		Connection connection = null;
+		PreparedStatement ps = null;
+		boolean succeeded = false;
 		try {
 			if (!tableExists(TABLE_METADATA)) {
 				return null;
@@ -401,27 +588,28 @@ public class JDBCPyramidIO implements PyramidIO {
 			sb.append(TABLE_METADATA);
 			sb.append(" WHERE ");
 			sb.append(COL_PYRAMID_ID);
-			sb.append(" = '");
-			sb.append(toTableName(pyramidId));
-			sb.append("'");
+			sb.append(" = ?");
 			
-			stmt = _connection.createStatement();
-			ResultSet resultSet = stmt.executeQuery(sb
-			                                        .toString());
-			if (!resultSet.next())
-				return null;
-
-			return resultSet.getString(TABLE_METADATA);
+			connection = getConnection();
+			ps = connection.prepareStatement(sb.toString());
+			ps.setString(1, toTableName(pyramidId));
+			ResultSet resultSet = ps.executeQuery();
+			String metaData = null;
+			if (resultSet.next())
+				metaData = resultSet.getString(1);
+			succeeded = true;
+			return metaData;
 		} catch (SQLException e) {
 			throw new IOException("Error reading tiles.", e);
 		} finally {
-			if (stmt != null) {
+			if (ps != null) {
 				try {
-					stmt.close();
+					ps.close();
 				} catch (SQLException e) {
 					e.printStackTrace();
 				}
 			}
+			if (null != connection) releaseConnection(connection, succeeded);
 		}
 	}
 	
@@ -41,8 +41,18 @@ abstract public class GenericAvroArraySerializer<T> extends GenericAvroSerialize
 
 
 
+	// Not serializable, so recreated as needed
+	private transient volatile Schema _entrySchema;
+
+
+
 	public GenericAvroArraySerializer (CodecFactory compressionCodec, TypeDescriptor elementTypeDescription) {
-		super(compressionCodec, new TypeDescriptor(List.class, elementTypeDescription));
+		this(compressionCodec, elementTypeDescription, false);
+	}
+
+	public GenericAvroArraySerializer (CodecFactory compressionCodec, TypeDescriptor elementTypeDescription,
+	                                   boolean rawFraming) {
+		super(compressionCodec, new TypeDescriptor(List.class, elementTypeDescription), rawFraming);
 	}
 
 	abstract protected String getEntrySchemaFile ();
@@ -57,9 +67,19 @@ abstract public class GenericAvroArraySerializer<T> extends GenericAvroSerialize
 	protected Schema getEntrySchema () throws IOException {
 		return new AvroSchemaComposer().addResource(getEntrySchemaFile()).resolved();
 	}
+	protected Schema getCachedEntrySchema () throws IOException {
+		if (null == _entrySchema) {
+			synchronized (this) {
+				if (null == _entrySchema) {
+					_entrySchema = getEntrySchema();
+				}
+			}
+		}
+		return _entrySchema;
+	}
 	@Override
 	protected Schema getRecordSchema() throws IOException {
-		return new AvroSchemaComposer().add(getEntrySchema()).addResource(getRecordSchemaFile()).resolved();
+		return new AvroSchemaComposer().add(getCachedEntrySchema()).addResource(getRecordSchemaFile()).resolved();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -75,7 +95,7 @@ abstract public class GenericAvroArraySerializer<T> extends GenericAvroSerialize
 
 	@Override
 	protected void setValue (GenericRecord bin, List<T> values) throws IOException {
-		Schema entrySchema = getEntrySchema();
+		Schema entrySchema = getCachedEntrySchema();
 
 		List<GenericRecord> avroValues = new ArrayList<GenericRecord>();
 
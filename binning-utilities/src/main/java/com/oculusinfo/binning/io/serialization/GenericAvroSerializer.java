@@ -27,6 +27,7 @@ package com.oculusinfo.binning.io.serialization;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -41,22 +42,127 @@ import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.DatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
 
+import com.oculusinfo.binning.SparseTileData;
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.binning.util.TypeDescriptor;
 
+/**
+ * Base class for serializers that write tiles using Apache Avro.
+ * 
+ * By default, each tile is written as a complete Avro container file, with its
+ * own header and schema.  Optionally, tiles can instead be written with raw
+ * framing - a single format version byte, followed by the bare binary Avro
+ * datum, with no header or compression.  This is much faster to write and
+ * read, and is intended for stores that compress on their own.  Either form
+ * is read regardless of which one the serializer writes.
+ * 
+ * Sparse tiles are only written sparsely - as the non-default bins, their
+ * offsets, and the default value - with raw framing.  Container files are
+ * read by readers that predate sparse tiles, and that would take the stored
+ * bins as the whole tile, so sparse tiles are written to them densely.
+ * Sparse container files written before this was so are still read.
+ * 
+ * Schemas, and the Avro readers and writers using them, are created once per
+ * serializer (per thread, for readers and writers) rather than per tile.
+ * When writing, the tile record and bin records are likewise reused, each
+ * bin value being set into the one bin record just as it is written.
+ */
 abstract public class GenericAvroSerializer<T> implements TileSerializer<T> {
 	private static final long serialVersionUID = 5775555328063499845L;
 
+	/**
+	 * The first byte of a tile written with raw framing.  Avro container
+	 * files always start with 'O', so the two never conflict.
+	 */
+	public static final int RAW_FORMAT_VERSION = 1;
+
+
+
+	// Readers, writers, encoders, decoders and records aren't thread-safe,
+	// so each thread gets its own set.
+	private class AvroIO {
+		TileDatumWriter                   _writer;
+		GenericDatumReader<GenericRecord> _containerReader;
+		GenericDatumReader<GenericRecord> _rawReader;
+		BinaryEncoder                     _encoder;
+		BinaryDecoder                     _decoder;
+		GenericRecord                     _tileRecord;
+		GenericRecord                     _defaultBin;
+
+		AvroIO (Schema tileSchema, Schema recordSchema) {
+			_writer = new TileDatumWriter(tileSchema, recordSchema);
+			_containerReader = new GenericDatumReader<GenericRecord>();
+			_rawReader = new GenericDatumReader<GenericRecord>(tileSchema);
+			_encoder = null;
+			_decoder = null;
+			_tileRecord = new GenericData.Record(tileSchema);
+			_defaultBin = new GenericData.Record(recordSchema);
+		}
+	}
+
+	// Writes tile records whose bin values are left as raw values, rather
+	// than as bin records; each is set into a single reused bin record as it
+	// is written.
+	private class TileDatumWriter extends GenericDatumWriter<GenericRecord> {
+		private GenericRecord _bin;
+
+		TileDatumWriter (Schema tileSchema, Schema recordSchema) {
+			super(tileSchema);
+			_bin = new GenericData.Record(recordSchema);
+		}
+
+		@Override
+		protected void writeRecord (Schema schema, Object datum, Encoder out) throws IOException {
+			if (datum instanceof IndexedRecord) {
+				super.writeRecord(schema, datum, out);
+			} else {
+				// Only bin values are ever put in the record without a
+				// record of their own
+				@SuppressWarnings("unchecked")
+				T value = (T) datum;
+				setValue(_bin, value);
+				super.writeRecord(schema, _bin, out);
+			}
+		}
+	}
+
+
 
 	private CodecFactory _compressionCodec;
 	private TypeDescriptor _typeDescription;
+	private boolean _rawFraming;
+	// Schemas and avro readers and writers aren't serializable, so are
+	// recreated as needed.
+	private transient volatile Schema _recordSchema;
+	private transient volatile Schema _tileSchema;
+	private transient volatile ThreadLocal<AvroIO> _avroIO;
+
 	protected GenericAvroSerializer (CodecFactory compressionCodec, TypeDescriptor typeDescription) {
+		this(compressionCodec, typeDescription, false);
+	}
+
+	/**
+	 * @param compressionCodec The codec with which to compress tiles written
+	 *            as container files
+	 * @param typeDescription A description of the bin type of tiles handled
+	 *            by this serializer
+	 * @param rawFraming If true, tiles are written as a format version byte
+	 *            followed by the raw, uncompressed avro datum; if false, as a
+	 *            complete avro container file.
+	 */
+	protected GenericAvroSerializer (CodecFactory compressionCodec, TypeDescriptor typeDescription,
+	                                 boolean rawFraming) {
 		_compressionCodec = compressionCodec;
 		_typeDescription = typeDescription;
+		_rawFraming = rawFraming;
 	}
 
 	abstract protected String getRecordSchemaFile ();
@@ -66,12 +172,68 @@ abstract public class GenericAvroSerializer<T> implements TileSerializer<T> {
 	public String getFileExtension(){
 		return "avro";
 	}
-    
+
+	/**
+	 * Create the schema for a single bin.  This is only called once per
+	 * serializer; use {@link #getCachedRecordSchema()} to get the schema.
+	 */
 	protected Schema getRecordSchema () throws IOException {
 		return new AvroSchemaComposer().addResource(getRecordSchemaFile()).resolved();
 	}
+	/**
+	 * Create the schema for a whole tile.  This is only called once per
+	 * serializer; use {@link #getCachedTileSchema()} to get the schema.
+	 */
 	protected Schema getTileSchema () throws IOException {
-		return new AvroSchemaComposer().add(getRecordSchema()).addResource("tile.avsc").resolved();
+		return new AvroSchemaComposer().add(getCachedRecordSchema()).addResource("tile.avsc").resolved();
+	}
+
+	protected Schema getCachedRecordSchema () throws IOException {
+		if (null == _recordSchema) {
+			synchronized (this) {
+				if (null == _recordSchema) {
+					_recordSchema = getRecordSchema();
+				}
+			}
+		}
+		return _recordSchema;
+	}
+
+	protected Schema getCachedTileSchema () throws IOException {
+		if (null == _tileSchema) {
+			synchronized (this) {
+				if (null == _tileSchema) {
+					_tileSchema = getTileSchema();
+				}
+			}
+		}
+		return _tileSchema;
+	}
+
+	private AvroIO getAvroIO () throws IOException {
+		if (null == _avroIO) {
+			final Schema tileSchema = getCachedTileSchema();
+			final Schema recordSchema = getCachedRecordSchema();
+			synchronized (this) {
+				if (null == _avroIO) {
+					_avroIO = new ThreadLocal<AvroIO>() {
+						@Override
+						protected AvroIO initialValue () {
+							return new AvroIO(tileSchema, recordSchema);
+						}
+					};
+				}
+			}
+		}
+		return _avroIO.get();
+	}
+
+	/**
+	 * Determine whether this serializer writes tiles with raw framing, rather
+	 * than as avro container files.
+	 */
+	public boolean isRawFraming () {
+		return _rawFraming;
 	}
 
 	@Override
@@ -91,69 +253,136 @@ abstract public class GenericAvroSerializer<T> implements TileSerializer<T> {
 		return metaData;
 	}
 
+	/**
+	 * Create the tile object into which deserialized data is placed.
+	 * Subclasses with a more compact tile representation for their bin type
+	 * may override this.
+	 * 
+	 * @param index The index of the tile to create
+	 * @param data The bin values of the tile, row by row
+	 */
+	protected TileData<T> createTile (TileIndex index, List<T> data) {
+		return new TileData<T>(index, data);
+	}
+
 	@Override
 	public TileData<T> deserialize (TileIndex index, InputStream stream) throws IOException {
+		AvroIO avroIO = getAvroIO();
+		PushbackInputStream input = new PushbackInputStream(stream, 1);
 
-		DatumReader<GenericRecord> reader = new GenericDatumReader<GenericRecord>();
-		DataFileStream<GenericRecord> dataFileReader = new DataFileStream<GenericRecord>(stream, reader);
-    	
 		try {
-        	
-			GenericRecord r = dataFileReader.next();
-
-			int level = (Integer) r.get("level");
-			int xIndex = (Integer) r.get("xIndex");
-			int yIndex = (Integer) r.get("yIndex");
-			int xBins = (Integer) r.get("xBinCount");
-			int yBins = (Integer) r.get("yBinCount");
-			Map<?, ?> meta = (Map<?, ?>) r.get("meta");
+			int formatByte = input.read();
+			if (RAW_FORMAT_VERSION == formatByte) {
+				BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(input, avroIO._decoder);
+				avroIO._decoder = decoder;
+				return fromRecord(avroIO._rawReader.read(null, decoder));
+			} else if ('O' == formatByte) {
+				input.unread(formatByte);
+				DataFileStream<GenericRecord> dataFileReader =
+					new DataFileStream<GenericRecord>(input, avroIO._containerReader);
+				try {
+					return fromRecord(dataFileReader.next());
+				} finally {
+					dataFileReader.close();
+				}
+			} else {
+				throw new IOException("Unrecognized avro tile format "+formatByte);
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	private TileData<T> fromRecord (GenericRecord r) {
+		int level = (Integer) r.get("level");
+		int xIndex = (Integer) r.get("xIndex");
+		int yIndex = (Integer) r.get("yIndex");
+		int xBins = (Integer) r.get("xBinCount");
+		int yBins = (Integer) r.get("yBinCount");
+		Map<?, ?> meta = (Map<?, ?>) r.get("meta");
 			
                     
-			@SuppressWarnings("unchecked")
-			GenericData.Array<GenericRecord> bins = (GenericData.Array<GenericRecord>) r.get("values");
-
-			// Warning suppressed because Array.newInstance definitionally returns 
-			// something of the correct type, or throws an exception 
-			List<T> data = new ArrayList<T>(xBins*yBins);
-			int i = 0;
-			for (GenericRecord bin: bins) {
-				data.add(getValue(bin));
-				if (i >= xBins*yBins) break;
+		@SuppressWarnings("unchecked")
+		GenericData.Array<GenericRecord> bins = (GenericData.Array<GenericRecord>) r.get("values");
+		@SuppressWarnings("unchecked")
+		GenericData.Array<Integer> binOffsets = (GenericData.Array<Integer>) r.get("binOffsets");
+
+		// Warning suppressed because Array.newInstance definitionally returns 
+		// something of the correct type, or throws an exception 
+		List<T> data = new ArrayList<T>(null == binOffsets ? xBins*yBins : binOffsets.size());
+		int i = 0;
+		for (GenericRecord bin: bins) {
+			data.add(getValue(bin));
+			if (i >= xBins*yBins) break;
+		}
+		TileIndex newTileIndex = new TileIndex(level, xIndex, yIndex, xBins, yBins);
+		TileData<T> newTile;
+		if (null == binOffsets) {
+			newTile = createTile(newTileIndex, data);
+		} else {
+			// Sparse tile - keep it sparse, so it only gets expanded if
+			// and when someone reads it bin by bin.
+			GenericRecord defaultBin = (GenericRecord) r.get("default");
+			T defaultValue = (null == defaultBin ? null : getValue(defaultBin));
+			int[] offsets = new int[binOffsets.size()];
+			for (int n = 0; n < offsets.length; ++n) {
+				offsets[n] = binOffsets.get(n);
 			}
-			TileIndex newTileIndex = new TileIndex(level, xIndex, yIndex, xBins, yBins);
-			TileData<T> newTile = new TileData<T>(newTileIndex, data);
-			if (null != meta) {
-    			for (Object key: meta.keySet()) {
-    				if (null != key) {
-    					Object value = meta.get(key);
-    					if (null != value) {
-    						newTile.setMetaData(key.toString(), value.toString());
-    					}
-    				}
-    			}
+			newTile = new SparseTileData<T>(newTileIndex, defaultValue, offsets, data);
+		}
+		if (null != meta) {
+			for (Object key: meta.keySet()) {
+				if (null != key) {
+					Object value = meta.get(key);
+					if (null != value) {
+						newTile.setMetaData(key.toString(), value.toString());
+					}
+				}
 			}
-			return newTile;
-		} finally {
-			dataFileReader.close();
-			stream.close();
 		}
+		return newTile;
 	}
 
 	@Override
 	public void serialize (TileData<T> tile, OutputStream stream) throws IOException {
-		Schema recordSchema = getRecordSchema();
-		Schema tileSchema = getTileSchema();
+		Schema tileSchema = getCachedTileSchema();
+		AvroIO avroIO = getAvroIO();
 
-		List<GenericRecord> bins = new ArrayList<GenericRecord>();
+		// Bin values are written as they are; the writer turns each into a
+		// bin record as it goes.
+		List<T> bins;
+		List<Integer> binOffsets = null;
+		GenericRecord defaultBin = null;
 
-		for (T value: tile.getData()){
-			if (value == null)continue;
-			GenericRecord bin = new GenericData.Record(recordSchema);
-			setValue(bin, value);
-			bins.add(bin);
+		if (_rawFraming && tile instanceof SparseTileData) {
+			// Only write out bins that differ from the default
+			SparseTileData<T> sparseTile = (SparseTileData<T>) tile;
+			binOffsets = new ArrayList<Integer>(sparseTile.getStoredBinCount());
+			for (int offset: sparseTile.getStoredBinOffsets()) {
+				binOffsets.add(offset);
+			}
+			bins = sparseTile.getStoredBinValues();
+			for (T value: bins) {
+				// Avro bins can't be null, and dropping one would misalign
+				// the offsets, so the only null a sparse tile may hold is its
+				// default.
+				if (null == value)
+					throw new IOException("Tile "+tile.getDefinition()+" has a null bin; only the default value of a sparse tile may be null");
+			}
+			T defaultValue = sparseTile.getDefaultValue();
+			if (null != defaultValue) {
+				defaultBin = avroIO._defaultBin;
+				setValue(defaultBin, defaultValue);
+			}
+		} else {
+			bins = new ArrayList<T>();
+			for (T value: tile.getData()){
+				if (value == null)continue;
+				bins.add(value);
+			}
 		}
 
-		GenericRecord tileRecord = new GenericData.Record(tileSchema);
+		GenericRecord tileRecord = avroIO._tileRecord;
 		TileIndex idx = tile.getDefinition();
 		tileRecord.put("level", idx.getLevel());
 		tileRecord.put("xIndex", idx.getX());
@@ -161,17 +390,31 @@ abstract public class GenericAvroSerializer<T> implements TileSerializer<T> {
 		tileRecord.put("xBinCount", idx.getXBins());
 		tileRecord.put("yBinCount", idx.getYBins());
 		tileRecord.put("values", bins);
-		tileRecord.put("default", null);
+		tileRecord.put("default", defaultBin);
 		tileRecord.put("meta", getTileMetaData(tile));
+		tileRecord.put("binOffsets", binOffsets);
 
-		DatumWriter<GenericRecord> datumWriter = new GenericDatumWriter<GenericRecord>(tileSchema);
-		DataFileWriter<GenericRecord> dataFileWriter = new DataFileWriter<GenericRecord>(datumWriter);
 		try {
-			dataFileWriter.setCodec(_compressionCodec);
-			dataFileWriter.create(tileSchema, stream);
-			dataFileWriter.append(tileRecord);
-			dataFileWriter.close();
+			if (_rawFraming) {
+				stream.write(RAW_FORMAT_VERSION);
+				BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(stream, avroIO._encoder);
+				avroIO._encoder = encoder;
+				avroIO._writer.write(tileRecord, encoder);
+				encoder.flush();
+			} else {
+				DataFileWriter<GenericRecord> dataFileWriter = new DataFileWriter<GenericRecord>(avroIO._writer);
+				dataFileWriter.setCodec(_compressionCodec);
+				dataFileWriter.create(tileSchema, stream);
+				dataFileWriter.append(tileRecord);
+				dataFileWriter.close();
+			}
 			stream.close();
-		} catch (IOException e) {throw new RuntimeException("Error serializing",e);}	
+		} catch (IOException e) {
+			throw new RuntimeException("Error serializing",e);
+		} finally {
+			// Don't hold on to the tile's data until the next tile is written
+			tileRecord.put("values", null);
+			tileRecord.put("meta", null);
+		}
 	}
 }
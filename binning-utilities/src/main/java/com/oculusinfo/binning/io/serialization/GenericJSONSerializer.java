@@ -38,6 +38,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.oculusinfo.binning.SparseTileData;
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
 
@@ -77,7 +78,22 @@ public abstract class GenericJSONSerializer<T> implements TileSerializer<T> {
 
 
 			TileIndex tileIndex = new TileIndex(level, x, y, xBins, yBins);
-			TileData<T> tile = new TileData<T>( tileIndex, values);
+			TileData<T> tile;
+			if (json.has("binOffsets")) {
+				// Sparse tile; only the listed bins differ from the default.
+				JSONArray jsonOffsets = json.getJSONArray("binOffsets");
+				int[] binOffsets = new int[jsonOffsets.length()];
+				for (int i = 0; i < binOffsets.length; i++) {
+					binOffsets[i] = jsonOffsets.getInt(i);
+				}
+				T defaultValue = null;
+				if (json.has("default") && !json.isNull("default")) {
+					defaultValue = getValue(json.get("default"));
+				}
+				tile = new SparseTileData<T>(tileIndex, defaultValue, binOffsets, values);
+			} else {
+				tile = new TileData<T>( tileIndex, values);
+			}
 			
 			if (json.has("meta")) {
 				JSONObject metaData = json.getJSONObject("meta");
@@ -127,7 +143,24 @@ public abstract class GenericJSONSerializer<T> implements TileSerializer<T> {
 			jsonEntry.put("yBinCount", tileIndex.getYBins() );
 			
 			JSONArray bins = new JSONArray();
-			for (T value: tile.getData()) {
+			List<T> values;
+			if (tile instanceof SparseTileData) {
+				// Only write out bins that differ from the default
+				SparseTileData<T> sparseTile = (SparseTileData<T>) tile;
+				JSONArray binOffsets = new JSONArray();
+				for (int offset: sparseTile.getStoredBinOffsets()) {
+					binOffsets.put(offset);
+				}
+				jsonEntry.put("binOffsets", binOffsets);
+				T defaultValue = sparseTile.getDefaultValue();
+				if (null != defaultValue) {
+					jsonEntry.put("default", translateToJSON(defaultValue));
+				}
+				values = sparseTile.getStoredBinValues();
+			} else {
+				values = tile.getData();
+			}
+			for (T value: values) {
 				
 				if (value == null) {
 					bins.put( new JSONObject() );
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.util.Pair;
+import com.oculusinfo.binning.util.TypeDescriptor;
+
+
+
+/**
+ * Base class for serializers that write tiles in a compact, columnar binary
+ * format, rather than through Avro or JSON.
+ * 
+ * A packed tile consists of an uncompressed header - a magic number and
+ * format version, the compression type, the tile index, and the tile metadata
+ * - followed by a payload of one or more columns of numbers, optionally
+ * compressed as a whole.  All multi-byte values are little-endian.
+ * 
+ * Each column is written either as a contiguous block of raw doubles, or, if
+ * every value in it is an integer (as is typical of count tiles), as
+ * zig-zag-encoded variable-length deltas between successive values, which is
+ * far smaller.  The choice is made per column, automatically.
+ * 
+ * Subclasses determine how bin values map to columns.
+ * 
+ * @author nkronenfeld
+ */
+abstract public class PackedTileSerializer<T> implements TileSerializer<T> {
+	private static final long serialVersionUID = -4129474623446106734L;
+
+	public static enum Compression {
+		None, Deflate
+	}
+
+	private static final Charset UTF8             = Charset.forName("UTF-8");
+	private static final byte[]  MAGIC            = {'P', 'K', 'T'};
+	private static final byte    FORMAT_VERSION   = 1;
+
+	// Column encodings
+	private static final byte    ENCODING_DOUBLES = 0;
+	private static final byte    ENCODING_VARINT  = 1;
+
+	// Integers beyond this can't be represented exactly as doubles
+	private static final double  MAX_EXACT_LONG   = (double) (1L << 53);
+	private static final long    NEGATIVE_ZERO    = Double.doubleToRawLongBits(-0.0);
+
+
+
+	private TypeDescriptor _typeDescription;
+	private Compression    _compression;
+	private int            _compressionLevel;
+
+	/**
+	 * @param typeDescription A description of the bin type of tiles handled by
+	 *            this serializer
+	 * @param compression The compression to apply to the tile payload
+	 * @param compressionLevel The deflate level to use (0-9), if deflate
+	 *            compression is chosen
+	 */
+	protected PackedTileSerializer (TypeDescriptor typeDescription,
+	                                Compression compression,
+	                                int compressionLevel) {
+		_typeDescription = typeDescription;
+		_compression = compression;
+		_compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Write the bin values of a tile to the payload, using
+	 * {@link #writeColumn(ByteArrayOutputStream, double[], int)} and
+	 * {@link #writeVarLong(ByteArrayOutputStream, long)}.
+	 */
+	abstract protected void writeBins (TileData<T> tile, ByteArrayOutputStream payload) throws IOException;
+
+	/**
+	 * Read the bin values of a tile from the payload, as written by
+	 * {@link #writeBins(TileData, ByteArrayOutputStream)}, using
+	 * {@link #readColumn(ByteBuffer, int)} and {@link #readVarLong(ByteBuffer)}.
+	 */
+	abstract protected TileData<T> readBins (TileIndex index, ByteBuffer payload) throws IOException;
+
+	public String getFileExtension () {
+		return "packed";
+	}
+
+	@Override
+	public TypeDescriptor getBinTypeDescription () {
+		return _typeDescription;
+	}
+
+	@Override
+	public void serialize (TileData<T> tile, OutputStream stream) throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		writeBins(tile, payload);
+		byte[] payloadBytes = payload.toByteArray();
+		int rawLength = payloadBytes.length;
+		int length = rawLength;
+
+		if (Compression.Deflate == _compression) {
+			Deflater deflater = new Deflater(_compressionLevel);
+			try {
+				deflater.setInput(payloadBytes);
+				deflater.finish();
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawLength/4+16);
+				byte[] buffer = new byte[8192];
+				while (!deflater.finished()) {
+					int n = deflater.deflate(buffer);
+					compressed.write(buffer, 0, n);
+				}
+				payloadBytes = compressed.toByteArray();
+				length = payloadBytes.length;
+			} finally {
+				deflater.end();
+			}
+		}
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		header.write(MAGIC);
+		header.write(FORMAT_VERSION);
+		header.write(_compression.ordinal());
+		TileIndex index = tile.getDefinition();
+		writeInt(header, index.getLevel());
+		writeInt(header, index.getX());
+		writeInt(header, index.getY());
+		writeInt(header, index.getXBins());
+		writeInt(header, index.getYBins());
+
+		List<Pair<String, String>> metaData = new ArrayList<>();
+		Collection<String> keys = tile.getMetaDataProperties();
+		if (null != keys) {
+			for (String key: keys) {
+				String value = tile.getMetaData(key);
+				if (null != value) metaData.add(new Pair<String, String>(key, value));
+			}
+		}
+		writeVarLong(header, metaData.size());
+		for (Pair<String, String> entry: metaData) {
+			writeString(header, entry.getFirst());
+			writeString(header, entry.getSecond());
+		}
+		writeInt(header, rawLength);
+		writeInt(header, length);
+
+		try {
+			header.writeTo(stream);
+			stream.write(payloadBytes, 0, length);
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Override
+	public TileData<T> deserialize (TileIndex index, InputStream stream) throws IOException {
+		ByteBuffer data;
+		try {
+			data = ByteBuffer.wrap(readFully(stream)).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			stream.close();
+		}
+
+		for (int i = 0; i < MAGIC.length; ++i) {
+			if (data.get() != MAGIC[i]) throw new IOException("Data is not a packed tile");
+		}
+		byte version = data.get();
+		if (FORMAT_VERSION != version)
+			throw new IOException("Unsupported packed tile version "+version);
+		int compressionType = data.get();
+		if (compressionType < 0 || compressionType >= Compression.values().length)
+			throw new IOException("Unknown packed tile compression type "+compressionType);
+		Compression compression = Compression.values()[compressionType];
+
+		int level = data.getInt();
+		int x = data.getInt();
+		int y = data.getInt();
+		int xBins = data.getInt();
+		int yBins = data.getInt();
+		TileIndex tileIndex = new TileIndex(level, x, y, xBins, yBins);
+
+		int metaDataCount = (int) readVarLong(data);
+		List<Pair<String, String>> metaData = new ArrayList<>(metaDataCount);
+		for (int i = 0; i < metaDataCount; ++i) {
+			String key = readString(data);
+			String value = readString(data);
+			metaData.add(new Pair<String, String>(key, value));
+		}
+
+		int rawLength = data.getInt();
+		int length = data.getInt();
+		ByteBuffer payload;
+		if (Compression.Deflate == compression) {
+			byte[] raw = new byte[rawLength];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(data.array(), data.arrayOffset()+data.position(), length);
+				int read = 0;
+				while (read < rawLength && !inflater.finished()) {
+					int n = inflater.inflate(raw, read, rawLength - read);
+					if (0 == n && (inflater.needsInput() || inflater.needsDictionary()))
+						throw new IOException("Truncated packed tile");
+					read += n;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt packed tile", e);
+			} finally {
+				inflater.end();
+			}
+			payload = ByteBuffer.wrap(raw);
+		} else {
+			payload = data.slice();
+			payload.limit(length);
+		}
+		payload.order(ByteOrder.LITTLE_ENDIAN);
+
+		TileData<T> tile = readBins(tileIndex, payload);
+		for (Pair<String, String> entry: metaData) {
+			tile.setMetaData(entry.getFirst(), entry.getSecond());
+		}
+		return tile;
+	}
+
+
+
+	/**
+	 * Write a column of numbers to the payload, choosing the most compact
+	 * lossless encoding for it.
+	 * 
+	 * @param payload The payload being written
+	 * @param values The values to write
+	 * @param count The number of values (from the beginning of values) to
+	 *            write
+	 */
+	protected static void writeColumn (ByteArrayOutputStream payload, double[] values, int count) {
+		boolean integral = true;
+		for (int i = 0; i < count && integral; ++i) {
+			double value = values[i];
+			integral = (value == Math.rint(value)
+			            && Math.abs(value) <= MAX_EXACT_LONG
+			            && NEGATIVE_ZERO != Double.doubleToRawLongBits(value));
+		}
+
+		if (integral) {
+			payload.write(ENCODING_VARINT);
+			long previous = 0L;
+			for (int i = 0; i < count; ++i) {
+				long value = (long) values[i];
+				long delta = value - previous;
+				writeVarLong(payload, (delta << 1) ^ (delta >> 63));
+				previous = value;
+			}
+		} else {
+			payload.write(ENCODING_DOUBLES);
+			ByteBuffer block = ByteBuffer.allocate(count * 8).order(ByteOrder.LITTLE_ENDIAN);
+			block.asDoubleBuffer().put(values, 0, count);
+			payload.write(block.array(), 0, count * 8);
+		}
+	}
+
+	/**
+	 * Read a column of numbers written by
+	 * {@link #writeColumn(ByteArrayOutputStream, double[], int)}.
+	 * 
+	 * @param payload The payload being read
+	 * @param count The number of values in the column
+	 */
+	protected static double[] readColumn (ByteBuffer payload, int count) throws IOException {
+		double[] values = new double[count];
+		byte encoding = payload.get();
+		if (ENCODING_VARINT == encoding) {
+			long previous = 0L;
+			for (int i = 0; i < count; ++i) {
+				long zigzag = readVarLong(payload);
+				previous += (zigzag >>> 1) ^ -(zigzag & 1);
+				values[i] = previous;
+			}
+		} else if (ENCODING_DOUBLES == encoding) {
+			payload.asDoubleBuffer().get(values);
+			payload.position(payload.position() + count * 8);
+		} else {
+			throw new IOException("Unknown packed column encoding "+encoding);
+		}
+		return values;
+	}
+
+	/**
+	 * Write a non-negative integer in as few bytes as possible, 7 bits per
+	 * byte, low bits first.
+	 */
+	protected static void writeVarLong (ByteArrayOutputStream out, long value) {
+		while (0 != (value & ~0x7FL)) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Read an integer written by
+	 * {@link #writeVarLong(ByteArrayOutputStream, long)}.
+	 */
+	protected static long readVarLong (ByteBuffer in) throws IOException {
+		long value = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= ((long) (b & 0x7F)) << shift;
+			if (0 == (b & 0x80)) return value;
+		}
+		throw new IOException("Malformed variable-length integer in packed tile");
+	}
+
+	private static void writeInt (ByteArrayOutputStream out, int value) {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+
+	private static void writeString (ByteArrayOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString (ByteBuffer in) throws IOException {
+		int length = (int) readVarLong(in);
+		String value = new String(in.array(), in.arrayOffset() + in.position(), length, UTF8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	private static byte[] readFully (InputStream stream) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while (-1 != (n = stream.read(buffer))) {
+			result.write(buffer, 0, n);
+		}
+		return result.toByteArray();
+	}
+}
@@ -26,6 +26,7 @@ package com.oculusinfo.binning.io.serialization;
 
 import com.oculusinfo.binning.io.serialization.impl.*;
 import com.oculusinfo.factory.ConfigurableFactory;
+import com.oculusinfo.factory.properties.BooleanProperty;
 import com.oculusinfo.factory.properties.EnumProperty;
 import com.oculusinfo.factory.properties.IntegerProperty;
 import com.oculusinfo.factory.properties.StringProperty;
@@ -49,22 +50,30 @@ public class StandardTileSerializerFactory
 		      + "type that the serializer can handle.  In this short-hand, square brackets surround "
 		      + "an array, parentheses, an n-tuple.  Finally, after the type is a suffix indicating "
 		      + "the format in which the data will be written - \"-a\" for Apache Avro, \"-j\" for "
-		      + "JSON.  So, \"double-a\" indicates a serializer for tiles whose bins are just doubles, "
+		      + "JSON, \"-p\" for a packed, columnar binary format.  So, \"double-a\" indicates a serializer for tiles whose bins are just doubles, "
 		      + "written using Avro."),
 		     "double-a",
 		     new String[] {
 			     "legacy",
 			     "[(string, integer)]-j",
 			     "integer-a", "double-a", "[double]-a", "[string]-a",
-			     "[(string, integer)]-a", "[(string, double)]-a"
+			     "[(string, integer)]-a", "[(string, double)]-a",
+			     "double-p", "[double]-p"
 		     });
 	public static EnumProperty<CodecType> CODEC_TYPE      = new EnumProperty<CodecType>("codec",
-		              "The codec to use when compressing results if the serializer is an Avro serializer.",
+		              "The codec to use when compressing results if the serializer is an Avro serializer.  "
+		              + "Packed serializers only support deflate and none; they use deflate for any other codec.",
 		              CodecType.class,
 		              CodecType.BZip2);
 	public static IntegerProperty         DEFLATE_LEVEL   = new IntegerProperty("deflation",
-		      "The deflation setting used if the serializer is an Avro serializer, and the deflate codec is chosen",
+		      "The deflation setting used if the serializer is an Avro or packed serializer, and the deflate codec is chosen",
 		      4);
+	public static BooleanProperty         RAW_FRAMING     = new BooleanProperty("raw",
+		      "If the serializer is an Avro serializer, whether to write tiles as a bare avro datum "
+		      + "preceded by a format version byte, rather than as a full avro container file.  This "
+		      + "is faster, but the codec is ignored, so should only be used where storage is "
+		      + "compressed separately.  Tiles in either format can be read either way.",
+		      false);
 
 
 
@@ -97,6 +106,7 @@ public class StandardTileSerializerFactory
 		addProperty(SERIALIZER_TYPE);
 		addProperty(CODEC_TYPE);
 		addProperty(DEFLATE_LEVEL);
+		addProperty(RAW_FRAMING);
 	}
 
 	@Override
@@ -111,8 +121,22 @@ public class StandardTileSerializerFactory
 			return new StringIntPairArrayJSONSerializer();
 		}
 
-		// The rest are all avro
 		CodecType codecType = getPropertyValue(CODEC_TYPE);
+		if (serializerType.endsWith("-p")) {
+			PackedTileSerializer.Compression compression = (CodecType.None == codecType
+			                                                ? PackedTileSerializer.Compression.None
+			                                                : PackedTileSerializer.Compression.Deflate);
+			int deflateLevel = getPropertyValue(DEFLATE_LEVEL);
+			if ("double-p".equals(serializerType)) {
+				return new PackedDoubleTileSerializer(compression, deflateLevel);
+			}
+			if ("[double]-p".equals(serializerType)) {
+				return new PackedDoubleArrayTileSerializer(compression, deflateLevel);
+			}
+			return null;
+		}
+
+		// The rest are all avro
 		CodecFactory codec = null;
 		switch (codecType) {
 		case Snappy:
@@ -130,23 +154,24 @@ public class StandardTileSerializerFactory
 			codec = CodecFactory.bzip2Codec();
 			break;
 		}
+		boolean raw = getPropertyValue(RAW_FRAMING);
 		if ("integer-a".equals(serializerType)) {
-			return new IntegerAvroSerializer(codec);
+			return new IntegerAvroSerializer(codec, raw);
 		}
 		if ("double-a".equals(serializerType)) {
-			return new DoubleAvroSerializer(codec);
+			return new DoubleAvroSerializer(codec, raw);
 		}
 		if ("[double]-a".equals(serializerType)) {
-			return new DoubleArrayAvroSerializer(codec);
+			return new DoubleArrayAvroSerializer(codec, raw);
 		}
 		if ("[string]-a".equals(serializerType)) {
-			return new StringArrayAvroSerializer(codec);
+			return new StringArrayAvroSerializer(codec, raw);
 		}
 		if ("[(string, integer)]-a".equals(serializerType)) {
-			return new StringIntPairArrayAvroSerializer(codec);
+			return new StringIntPairArrayAvroSerializer(codec, raw);
 		}
 		if ("[(string, double)]-a".equals(serializerType)) {
-			return new StringDoublePairArrayAvroSerializer(codec);
+			return new StringDoublePairArrayAvroSerializer(codec, raw);
 		}
 		if ("string->[(string, long)]-j".equals(serializerType)) {
 			return new StringLongPairArrayMapJSONSerializer();
@@ -39,6 +39,10 @@ public class DoubleArrayAvroSerializer extends GenericAvroArraySerializer<Double
 		super(compressionCodec, TYPE_DESCRIPTOR);
 	}
 
+	public DoubleArrayAvroSerializer (CodecFactory compressionCodec, boolean rawFraming) {
+		super(compressionCodec, TYPE_DESCRIPTOR, rawFraming);
+	}
+
 	@Override
 	protected String getEntrySchemaFile() {
 		return "doubleEntry.avsc";
@@ -24,12 +24,16 @@
  */
 package com.oculusinfo.binning.io.serialization.impl;
 
+import com.oculusinfo.binning.DoubleTileData;
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.binning.io.serialization.GenericAvroSerializer;
 import com.oculusinfo.binning.util.TypeDescriptor;
 import org.apache.avro.file.CodecFactory;
 import org.apache.avro.generic.GenericRecord;
 
 import java.io.IOException;
+import java.util.List;
 
 public class DoubleAvroSerializer extends GenericAvroSerializer<Double> {
 	private static final long serialVersionUID = 6100948287405483872L;
@@ -41,11 +45,20 @@ public class DoubleAvroSerializer extends GenericAvroSerializer<Double> {
 		super(compressionCodec, TYPE_DESCRIPTOR);
 	}
 
+	public DoubleAvroSerializer (CodecFactory compressionCodec, boolean rawFraming) {
+		super(compressionCodec, TYPE_DESCRIPTOR, rawFraming);
+	}
+
 	@Override
 	protected String getRecordSchemaFile () {
 		return "doubleData.avsc";
 	}
 
+	@Override
+	protected TileData<Double> createTile (TileIndex index, List<Double> data) {
+		return new DoubleTileData(index, data);
+	}
+
 	@Override
 	protected Double getValue (GenericRecord bin) {
 		return (Double) bin.get("value");
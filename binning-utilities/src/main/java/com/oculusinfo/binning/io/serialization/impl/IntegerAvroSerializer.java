@@ -42,6 +42,10 @@ public class IntegerAvroSerializer extends GenericAvroSerializer<Integer> {
 		super(compressionCodec, TYPE_DESCRIPTOR);
 	}
 
+	public IntegerAvroSerializer (CodecFactory compressionCodec, boolean rawFraming) {
+		super(compressionCodec, TYPE_DESCRIPTOR, rawFraming);
+	}
+
 	@Override
 	protected String getRecordSchemaFile () {
 		return "integerData.avsc";
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.serialization.impl;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.PackedTileSerializer;
+import com.oculusinfo.binning.util.TypeDescriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A packed serializer for tiles whose bins are lists of doubles.  The tile is
+ * written as the length of each bin's list, followed by a single column of
+ * all the values of all the bins, in order.
+ */
+public class PackedDoubleArrayTileSerializer extends PackedTileSerializer<List<Double>> {
+	private static final long serialVersionUID = -5309874232460921735L;
+	private static final TypeDescriptor TYPE_DESCRIPTOR = new TypeDescriptor(List.class,
+		   new TypeDescriptor(Double.class));
+
+
+
+	public PackedDoubleArrayTileSerializer (Compression compression, int compressionLevel) {
+		super(TYPE_DESCRIPTOR, compression, compressionLevel);
+	}
+
+	@Override
+	protected void writeBins (TileData<List<Double>> tile, ByteArrayOutputStream payload) throws IOException {
+		List<List<Double>> bins = tile.getData();
+		int total = 0;
+		for (List<Double> bin: bins) {
+			int length = (null == bin ? 0 : bin.size());
+			writeVarLong(payload, length);
+			total += length;
+		}
+
+		double[] values = new double[total];
+		int n = 0;
+		for (List<Double> bin: bins) {
+			if (null == bin) continue;
+			for (Double value: bin) {
+				values[n] = (null == value ? Double.NaN : value.doubleValue());
+				++n;
+			}
+		}
+		writeColumn(payload, values, total);
+	}
+
+	@Override
+	protected TileData<List<Double>> readBins (TileIndex index, ByteBuffer payload) throws IOException {
+		int count = index.getXBins() * index.getYBins();
+		int[] lengths = new int[count];
+		int total = 0;
+		for (int i = 0; i < count; ++i) {
+			lengths[i] = (int) readVarLong(payload);
+			total += lengths[i];
+		}
+
+		double[] values = readColumn(payload, total);
+		List<List<Double>> bins = new ArrayList<>(count);
+		int n = 0;
+		for (int i = 0; i < count; ++i) {
+			List<Double> bin = new ArrayList<>(lengths[i]);
+			for (int j = 0; j < lengths[i]; ++j) {
+				bin.add(values[n]);
+				++n;
+			}
+			bins.add(bin);
+		}
+		return new TileData<>(index, bins);
+	}
+}
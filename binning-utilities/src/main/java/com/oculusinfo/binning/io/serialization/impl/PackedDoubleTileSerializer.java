@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.serialization.impl;
+
+import com.oculusinfo.binning.DoubleTileData;
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.PackedTileSerializer;
+import com.oculusinfo.binning.util.TypeDescriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A packed serializer for tiles of single doubles - the whole tile is written
+ * as a single column.  Tiles are read back as {@link DoubleTileData}.
+ */
+public class PackedDoubleTileSerializer extends PackedTileSerializer<Double> {
+	private static final long serialVersionUID = 2863425624553466208L;
+	private static final TypeDescriptor TYPE_DESCRIPTOR = new TypeDescriptor(Double.class);
+
+
+
+	public PackedDoubleTileSerializer (Compression compression, int compressionLevel) {
+		super(TYPE_DESCRIPTOR, compression, compressionLevel);
+	}
+
+	@Override
+	protected void writeBins (TileData<Double> tile, ByteArrayOutputStream payload) throws IOException {
+		double[] values = DoubleTileData.fromTile(tile).getDoubleData();
+		writeColumn(payload, values, values.length);
+	}
+
+	@Override
+	protected TileData<Double> readBins (TileIndex index, ByteBuffer payload) throws IOException {
+		int count = index.getXBins() * index.getYBins();
+		return new DoubleTileData(index, readColumn(payload, count));
+	}
+}
@@ -42,6 +42,10 @@ public class StringArrayAvroSerializer extends GenericAvroArraySerializer<String
 		super(compressionCodec, TYPE_DESCRIPTOR);
 	}
 
+	public StringArrayAvroSerializer (CodecFactory compressionCodec, boolean rawFraming) {
+		super(compressionCodec, TYPE_DESCRIPTOR, rawFraming);
+	}
+
 	@Override
 	protected String getEntrySchemaFile() {
 		return "stringEntry.avsc";
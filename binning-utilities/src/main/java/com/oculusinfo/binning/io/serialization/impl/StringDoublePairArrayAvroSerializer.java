@@ -46,6 +46,10 @@ public class StringDoublePairArrayAvroSerializer
 		super(compressionCodec, TYPE_DESCRIPTOR);
 	}
 
+	public StringDoublePairArrayAvroSerializer (CodecFactory compressionCodec, boolean rawFraming) {
+		super(compressionCodec, TYPE_DESCRIPTOR, rawFraming);
+	}
+
 	@Override
 	protected String getEntrySchemaFile () {
 		return "stringDoublePairEntry.avsc";
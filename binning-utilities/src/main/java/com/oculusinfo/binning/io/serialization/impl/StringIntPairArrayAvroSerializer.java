@@ -45,6 +45,10 @@ public class StringIntPairArrayAvroSerializer extends GenericAvroArraySerializer
 		super(compressionCodec, TYPE_DESCRIPTOR);
 	}
 
+	public StringIntPairArrayAvroSerializer (CodecFactory compressionCodec, boolean rawFraming) {
+		super(compressionCodec, TYPE_DESCRIPTOR, rawFraming);
+	}
+
 	@Override
 	protected String getEntrySchemaFile () {
 		return "stringIntPairEntry.avsc";
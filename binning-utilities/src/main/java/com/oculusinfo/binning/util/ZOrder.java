@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.util;
+
+import com.oculusinfo.binning.TileIndex;
+
+/**
+ * Z-order (Morton) encoding of tile coordinates.  Interleaving the bits of x
+ * and y gives a single key under which tiles that are close to each other in
+ * space tend to be close to each other in key order, so a block of
+ * neighbouring tiles maps onto a small number of contiguous key ranges.
+ */
+public class ZOrder {
+	private ZOrder () {
+	}
+
+	// Spread the low 32 bits of the value out so there is a zero bit between
+	// each pair of original bits
+	private static long spread (long value) {
+		value &= 0x00000000ffffffffL;
+		value = (value | (value << 16)) & 0x0000ffff0000ffffL;
+		value = (value | (value <<  8)) & 0x00ff00ff00ff00ffL;
+		value = (value | (value <<  4)) & 0x0f0f0f0f0f0f0f0fL;
+		value = (value | (value <<  2)) & 0x3333333333333333L;
+		value = (value | (value <<  1)) & 0x5555555555555555L;
+		return value;
+	}
+
+	// The inverse of spread - collect every other bit back into the low 32
+	private static long compact (long value) {
+		value &= 0x5555555555555555L;
+		value = (value | (value >>>  1)) & 0x3333333333333333L;
+		value = (value | (value >>>  2)) & 0x0f0f0f0f0f0f0f0fL;
+		value = (value | (value >>>  4)) & 0x00ff00ff00ff00ffL;
+		value = (value | (value >>>  8)) & 0x0000ffff0000ffffL;
+		value = (value | (value >>> 16)) & 0x00000000ffffffffL;
+		return value;
+	}
+
+	/**
+	 * Interleave the bits of the given (non-negative) coordinates into a
+	 * single Z-order key.  X occupies the even bits, y the odd ones.
+	 */
+	public static long interleave (int x, int y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	/**
+	 * Get a key for a tile that is unique across the whole pyramid: the
+	 * Z-order key of its coordinates, with a fence bit above them marking its
+	 * level.  Keys of tiles on the same level are in Z-order; keys of tiles on
+	 * different levels never collide.  Levels up to 30 are supported.
+	 */
+	public static long getTileKey (TileIndex tile) {
+		return (0x01L << (2 * (tile.getLevel() + 1))) | interleave(tile.getX(), tile.getY());
+	}
+
+	/**
+	 * Get the x coordinate back out of a Z-order key
+	 */
+	public static int getX (long key) {
+		return (int) compact(key);
+	}
+
+	/**
+	 * Get the y coordinate back out of a Z-order key
+	 */
+	public static int getY (long key) {
+		return (int) compact(key >>> 1);
+	}
+}
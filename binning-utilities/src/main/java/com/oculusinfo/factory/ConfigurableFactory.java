@@ -371,6 +371,32 @@ abstract public class ConfigurableFactory<T> {
 		}
 	}
 
+	/**
+	 * Get the values read at configuration time for all properties of this
+	 * factory and its descendants, keyed by the path, factory, and name of
+	 * each property.  Unlike the configuration itself, this leaves out
+	 * anything in the configuration that no factory uses.
+	 * 
+	 * The behavior of this function is undefined if called before
+	 * readConfiguration (either version).
+	 */
+	public SortedMap<String, Object> getPropertyValues () {
+		SortedMap<String, Object> values = new TreeMap<>();
+		addPropertyValues(values);
+		return values;
+	}
+
+	private void addPropertyValues (Map<String, Object> values) {
+		String prefix = mkString(_rootPath, ".")+"/"+getClass().getName()
+			+(null == _name ? "" : "["+_name+"]")+"/";
+		for (ConfigurationProperty<?> property: _properties) {
+			values.put(prefix+property.getName(), getPropertyValue(property));
+		}
+		for (ConfigurableFactory<?> child: _children) {
+			child.addPropertyValues(values);
+		}
+	}
+
 	/**
 	 * Get the JSON object used to configure this factory.
 	 * 
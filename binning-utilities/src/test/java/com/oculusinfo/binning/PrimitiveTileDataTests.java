@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning;
+
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.DoubleAvroSerializer;
+import org.apache.avro.file.CodecFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PrimitiveTileDataTests {
+	private static final double EPSILON = 1E-12;
+
+	@Test
+	public void testDoubleBinAccess () {
+		TileIndex index = new TileIndex(2, 1, 1, 4, 3);
+		DoubleTileData tile = new DoubleTileData(index, 1.5);
+		Assert.assertEquals(12, tile.getDoubleData().length);
+		Assert.assertEquals(1.5, tile.getDoubleBin(3, 2), EPSILON);
+
+		tile.setDoubleBin(3, 2, 4.0);
+		tile.setBin(0, 1, 2.0);
+		Assert.assertEquals(4.0, tile.getBin(3, 2), EPSILON);
+		Assert.assertEquals(2.0, tile.getDoubleBin(0, 1), EPSILON);
+		Assert.assertEquals(4.0, tile.getDoubleData()[3 + 2*4], EPSILON);
+		Assert.assertEquals(2.0, tile.getData().get(0 + 1*4), EPSILON);
+
+		tile.setBin(1, 1, null);
+		Assert.assertTrue(Double.isNaN(tile.getDoubleBin(1, 1)));
+	}
+
+	@Test
+	public void testDoubleDataViewIsLive () {
+		TileIndex index = new TileIndex(0, 0, 0, 2, 2);
+		double[] raw = new double[] {1.0, 2.0, 3.0, 4.0};
+		DoubleTileData tile = new DoubleTileData(index, raw);
+		List<Double> view = tile.getData();
+		raw[2] = 7.0;
+		Assert.assertEquals(7.0, view.get(2), EPSILON);
+		Assert.assertEquals(7.0, tile.getDoubleBin(0, 1), EPSILON);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testDoubleDataWrongLength () {
+		new DoubleTileData(new TileIndex(0, 0, 0, 2, 2), new double[3]);
+	}
+
+	@Test
+	public void testFromTile () {
+		TileIndex index = new TileIndex(0, 0, 0, 2, 2);
+		List<Double> data = new ArrayList<>();
+		for (int i=0; i<4; ++i) data.add(i*0.5);
+		TileData<Double> boxed = new TileData<>(index, data);
+		boxed.setMetaData("a", "b");
+
+		DoubleTileData primitive = DoubleTileData.fromTile(boxed);
+		Assert.assertEquals(index, primitive.getDefinition());
+		Assert.assertEquals(data, primitive.getData());
+		Assert.assertEquals("b", primitive.getMetaData("a"));
+		Assert.assertSame(primitive, DoubleTileData.fromTile(primitive));
+	}
+
+	@Test
+	public void testLongBinAccess () {
+		TileIndex index = new TileIndex(0, 0, 0, 3, 3);
+		LongTileData tile = new LongTileData(index);
+		tile.setLongBin(2, 1, 12L);
+		tile.setBin(0, 0, 3L);
+		Assert.assertEquals(12L, tile.getBin(2, 1).longValue());
+		Assert.assertEquals(3L, tile.getLongBin(0, 0));
+		Assert.assertEquals(0L, tile.getLongData()[8]);
+	}
+
+	@Test
+	public void testDoubleAvroRoundTrip () throws Exception {
+		TileIndex index = new TileIndex(3, 2, 1, 4, 4);
+		DoubleTileData tile = new DoubleTileData(index);
+		for (int x=0; x<4; ++x)
+			for (int y=0; y<4; ++y)
+				tile.setDoubleBin(x, y, x*10.0+y);
+
+		TileSerializer<Double> serializer = new DoubleAvroSerializer(CodecFactory.nullCodec());
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(tile, baos);
+		baos.close();
+
+		TileData<Double> read = serializer.deserialize(index, new ByteArrayInputStream(baos.toByteArray()));
+		Assert.assertTrue(read instanceof DoubleTileData);
+		Assert.assertEquals(index, read.getDefinition());
+		Assert.assertEquals(tile.getData(), read.getData());
+	}
+}
@@ -132,6 +132,31 @@ public class PyramidComparatorTests {
 			}
 		}
 	}
+	@Test
+	public void testTileKeys () {
+		for (int x1 = 0; x1 < 8; ++x1) {
+			for (int y1 = 0; y1 < 8; ++y1) {
+				TileIndex index1 = _pyramid.rootToTile(_points.get(y1).get(x1), 4);
+				long key1 = PyramidComparator.getTileKey(index1);
+				Assert.assertEquals(_comparator.getComparisonKey(x1, y1), key1);
+
+				for (int x2 = 0; x2 < 8; ++x2) {
+					for (int y2 = 0; y2 < 8; ++y2) {
+						TileIndex index2 = _pyramid.rootToTile(_points.get(y2).get(x2), 4);
+						long key2 = PyramidComparator.getTileKey(index2);
+
+						Assert.assertEquals(signum(_comparator.compareIndex(index1, index2)),
+						                    signum(Long.compare(key1, key2)));
+					}
+				}
+			}
+		}
+
+		// Keys on different levels don't collide
+		Assert.assertTrue(PyramidComparator.getTileKey(new TileIndex(1, 0, 0)) !=
+		                  PyramidComparator.getTileKey(new TileIndex(2, 0, 0)));
+	}
+
 	@Test
 	public void testTileComparisons () {
 		for (int L1 = 0; L1 < 5; ++L1) {
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning;
+
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.DoubleAvroSerializer;
+import com.oculusinfo.binning.io.serialization.impl.DoubleJsonSerializer;
+import org.apache.avro.file.CodecFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SparseTileDataTests {
+	private SparseTileData<Double> createSparseTile () {
+		TileIndex index = new TileIndex(4, 3, 2, 8, 8);
+		SparseTileData<Double> tile = new SparseTileData<>(index, 0.0);
+		tile.setBin(7, 7, 3.0);
+		tile.setBin(1, 0, 1.0);
+		tile.setBin(2, 3, 2.0);
+		tile.setBin(5, 5, 0.0);
+		tile.setMetaData("a", "b");
+		return tile;
+	}
+
+	@Test
+	public void testBinAccess () {
+		SparseTileData<Double> tile = createSparseTile();
+		Assert.assertEquals(3, tile.getStoredBinCount());
+		Assert.assertArrayEquals(new int[] {1, 2+3*8, 7+7*8}, tile.getStoredBinOffsets());
+		Assert.assertEquals(Arrays.asList(1.0, 2.0, 3.0), tile.getStoredBinValues());
+		Assert.assertEquals(2.0, tile.getBin(2, 3), 1E-12);
+		Assert.assertEquals(0.0, tile.getBin(4, 4), 1E-12);
+
+		tile.setBin(2, 3, 4.0);
+		Assert.assertEquals(3, tile.getStoredBinCount());
+		Assert.assertEquals(4.0, tile.getBin(2, 3), 1E-12);
+	}
+
+	@Test
+	public void testExpandedData () {
+		SparseTileData<Double> tile = createSparseTile();
+		List<Double> data = tile.getData();
+		Assert.assertEquals(64, data.size());
+
+		List<Double> iterated = new ArrayList<>();
+		for (Double value: data) iterated.add(value);
+		Assert.assertEquals(64, iterated.size());
+		for (int i=0; i<64; ++i) {
+			Assert.assertEquals(tile.getBin(i%8, i/8), data.get(i));
+			Assert.assertEquals(data.get(i), iterated.get(i));
+		}
+	}
+
+	@Test
+	public void testFillRatio () {
+		TileIndex index = new TileIndex(0, 0, 0, 256, 256);
+		Assert.assertTrue(SparseTileData.isSparseEnough(index, 100));
+		Assert.assertFalse(SparseTileData.isSparseEnough(index, 256*256/2));
+	}
+
+	private void checkSameTile (SparseTileData<Double> expected, TileData<Double> actual) {
+		Assert.assertTrue(actual instanceof SparseTileData);
+		SparseTileData<Double> sparseActual = (SparseTileData<Double>) actual;
+		Assert.assertEquals(expected.getDefinition(), actual.getDefinition());
+		Assert.assertEquals(expected.getDefaultValue(), sparseActual.getDefaultValue());
+		Assert.assertArrayEquals(expected.getStoredBinOffsets(), sparseActual.getStoredBinOffsets());
+		Assert.assertEquals(expected.getData(), actual.getData());
+		Assert.assertEquals("b", actual.getMetaData("a"));
+	}
+
+	@Test
+	public void testAvroRoundTrip () throws Exception {
+		SparseTileData<Double> tile = createSparseTile();
+		TileSerializer<Double> serializer = new DoubleAvroSerializer(CodecFactory.nullCodec());
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(tile, baos);
+		baos.close();
+
+		TileData<Double> readTile = serializer.deserialize(tile.getDefinition(),
+		                                                   new ByteArrayInputStream(baos.toByteArray()));
+		// Container files are read by readers that don't know about sparse
+		// tiles, so must be written densely
+		Assert.assertFalse(readTile instanceof SparseTileData);
+		Assert.assertEquals(tile.getDefinition(), readTile.getDefinition());
+		Assert.assertEquals(tile.getData(), readTile.getData());
+		Assert.assertEquals("b", readTile.getMetaData("a"));
+	}
+
+	@Test
+	public void testRawAvroRoundTrip () throws Exception {
+		SparseTileData<Double> tile = createSparseTile();
+		TileSerializer<Double> serializer = new DoubleAvroSerializer(CodecFactory.nullCodec(), true);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(tile, baos);
+		baos.close();
+
+		TileData<Double> readTile = serializer.deserialize(tile.getDefinition(),
+		                                                   new ByteArrayInputStream(baos.toByteArray()));
+		checkSameTile(tile, readTile);
+	}
+
+	@Test(expected=IOException.class)
+	public void testAvroRejectsNullBins () throws Exception {
+		SparseTileData<Double> tile = createSparseTile();
+		tile.setBin(4, 4, null);
+		TileSerializer<Double> serializer = new DoubleAvroSerializer(CodecFactory.nullCodec(), true);
+		serializer.serialize(tile, new ByteArrayOutputStream());
+	}
+
+	@Test
+	public void testJSONRoundTrip () throws Exception {
+		SparseTileData<Double> tile = createSparseTile();
+		TileSerializer<Double> serializer = new DoubleJsonSerializer();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(tile, baos);
+		baos.close();
+
+		checkSameTile(tile, serializer.deserialize(tile.getDefinition(),
+		                                           new ByteArrayInputStream(baos.toByteArray())));
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.file.CodecFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.IntegerAvroSerializer;
+
+public class ExecutorPyramidIOTests {
+	private static final String PYRAMID = "test";
+
+	private BlockingPyramidIO          _base;
+	private ExecutorPyramidIO          _io;
+	private TileSerializer<Integer>    _serializer;
+
+	@Before
+	public void setup () throws IOException {
+		_serializer = new IntegerAvroSerializer(CodecFactory.nullCodec());
+		_base = new BlockingPyramidIO();
+		_base.writeTiles(PYRAMID, _serializer,
+		                 Arrays.asList(new TileData<Integer>(new TileIndex(1, 0, 0, 4, 4), 1),
+		                               new TileData<Integer>(new TileIndex(1, 1, 0, 4, 4), 2)));
+		_io = new ExecutorPyramidIO(_base, 2, 16);
+	}
+
+	@After
+	public void teardown () {
+		_io.shutdown();
+	}
+
+	@Test
+	public void testConcurrentReadsCoalesce () throws Exception {
+		TileIndex index = new TileIndex(1, 0, 0, 4, 4);
+		Future<TileData<Integer>> first = _io.readTileAsync(PYRAMID, _serializer, index);
+		Future<TileData<Integer>> second = _io.readTileAsync(PYRAMID, _serializer, index);
+		Assert.assertSame(first, second);
+
+		_base.release();
+		TileData<Integer> tile = first.get(10, TimeUnit.SECONDS);
+		Assert.assertEquals(1, tile.getBin(2, 2).intValue());
+		Assert.assertEquals(1, _base.getReadCount());
+
+		// Once complete, a new read goes back to the base
+		Future<TileData<Integer>> third = _io.readTileAsync(PYRAMID, _serializer, index);
+		Assert.assertEquals(1, third.get(10, TimeUnit.SECONDS).getBin(0, 0).intValue());
+		Assert.assertEquals(2, _base.getReadCount());
+	}
+
+	@Test
+	public void testBatchRead () throws Exception {
+		_base.release();
+		Future<List<TileData<Integer>>> future =
+			_io.readTilesAsync(PYRAMID, _serializer,
+			                   Arrays.asList(new TileIndex(1, 0, 0, 4, 4),
+			                                 new TileIndex(1, 1, 0, 4, 4)));
+		List<TileData<Integer>> tiles = future.get(10, TimeUnit.SECONDS);
+		Assert.assertEquals(2, tiles.size());
+		Assert.assertEquals(2, tiles.get(1).getBin(0, 0).intValue());
+		Assert.assertEquals(1, _base.getReadCount());
+	}
+
+	@Test
+	public void testMissingTile () throws Exception {
+		_base.release();
+		Future<TileData<Integer>> future =
+			_io.readTileAsync(PYRAMID, _serializer, new TileIndex(1, 1, 1, 4, 4));
+		Assert.assertNull(future.get(10, TimeUnit.SECONDS));
+	}
+
+
+
+	// A test pyramid IO that holds all reads until released, and counts them
+	private static class BlockingPyramidIO extends TestPyramidIO {
+		private CountDownLatch _gate      = new CountDownLatch(1);
+		private AtomicInteger  _readCount = new AtomicInteger(0);
+
+		void release () {
+			_gate.countDown();
+		}
+
+		int getReadCount () {
+			return _readCount.get();
+		}
+
+		@Override
+		public <T> List<TileData<T>> readTiles (String pyramidId,
+		                                        TileSerializer<T> serializer,
+		                                        Iterable<TileIndex> tiles) throws IOException {
+			try {
+				_gate.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			_readCount.incrementAndGet();
+			return super.readTiles(pyramidId, serializer, tiles);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.PackedTileSerializer;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.PackedDoubleTileSerializer;
+
+public class ArchivePyramidIOTest {
+	private File _root;
+	private TileSerializer<Double> _serializer;
+
+	@Before
+	public void setup () throws IOException {
+		_root = File.createTempFile("archive.", ".test", null);
+		_root.delete();
+		_root.mkdirs();
+		_serializer = new PackedDoubleTileSerializer(PackedTileSerializer.Compression.None, 0);
+	}
+
+	@After
+	public void teardown () {
+		delete(_root);
+	}
+
+	private void delete (File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child: children) delete(child);
+		}
+		file.delete();
+	}
+
+	private TileData<Double> createTile (int level, int x, int y, double value) {
+		TileData<Double> tile = new TileData<Double>(new TileIndex(level, x, y, 4, 4));
+		for (int bx=0; bx<4; ++bx) {
+			for (int by=0; by<4; ++by) {
+				tile.setBin(bx, by, value + bx + 4*by);
+			}
+		}
+		return tile;
+	}
+
+	private TileData<Double> readTile (ArchivePyramidIO io, int level, int x, int y) throws IOException {
+		List<TileData<Double>> tiles = io.readTiles("test", _serializer,
+		                                            Arrays.asList(new TileIndex(level, x, y, 4, 4)));
+		if (tiles.isEmpty()) return null;
+		return tiles.get(0);
+	}
+
+	@Test
+	public void testRoundTrip () throws IOException {
+		ArchivePyramidIO io = new ArchivePyramidIO(_root.getAbsolutePath());
+		io.initializeForWrite("test");
+
+		List<TileData<Double>> tiles = new ArrayList<TileData<Double>>();
+		for (int level=0; level<4; ++level) {
+			for (int x=0; x<(1<<level); ++x) {
+				for (int y=0; y<(1<<level); ++y) {
+					tiles.add(createTile(level, x, y, 100*level + 10*x + y));
+				}
+			}
+		}
+		// Write in two batches, so the index has more than one append
+		io.writeTiles("test", _serializer, tiles.subList(0, 30));
+		io.writeTiles("test", _serializer, tiles.subList(30, tiles.size()));
+
+		// Read before compaction, from the unsorted part of the index
+		ArchivePyramidIO reader = new ArchivePyramidIO(_root.getAbsolutePath());
+		Assert.assertEquals(tiles.get(40).getData(), readTile(reader, 3, 2, 3).getData());
+
+		io.writeMetaData("test", "{}");
+		Assert.assertEquals("{}", io.readMetaData("test"));
+
+		// Read after compaction, from the sorted index
+		reader = new ArchivePyramidIO(_root.getAbsolutePath());
+		for (TileData<Double> tile: tiles) {
+			TileIndex index = tile.getDefinition();
+			TileData<Double> read = readTile(reader, index.getLevel(), index.getX(), index.getY());
+			Assert.assertNotNull(read);
+			Assert.assertEquals(index, read.getDefinition());
+			Assert.assertEquals(tile.getData(), read.getData());
+		}
+		Assert.assertNull(readTile(reader, 4, 0, 0));
+		Assert.assertNull(reader.getTileStream("test", _serializer, new TileIndex(2, 5, 5, 4, 4)));
+	}
+
+	@Test
+	public void testOverwriteAndRemove () throws IOException {
+		ArchivePyramidIO io = new ArchivePyramidIO(_root.getAbsolutePath());
+		io.initializeForWrite("test");
+		io.writeTiles("test", _serializer, Arrays.asList(createTile(2, 1, 1, 0.0), createTile(2, 2, 2, 0.0)));
+		io.writeTiles("test", _serializer, Arrays.asList(createTile(2, 1, 1, 50.0)));
+		io.removeTiles("test", Arrays.asList(new TileIndex(2, 2, 2, 4, 4)));
+
+		ArchivePyramidIO reader = new ArchivePyramidIO(_root.getAbsolutePath());
+		Assert.assertEquals(createTile(2, 1, 1, 50.0).getData(), readTile(reader, 2, 1, 1).getData());
+		Assert.assertNull(readTile(reader, 2, 2, 2));
+
+		io.compact("test");
+		reader = new ArchivePyramidIO(_root.getAbsolutePath());
+		Assert.assertEquals(createTile(2, 1, 1, 50.0).getData(), readTile(reader, 2, 1, 1).getData());
+		Assert.assertNull(readTile(reader, 2, 2, 2));
+		Assert.assertEquals(16 + 20, new File(_root, "test/tiles/2.index").length());
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.PackedTileSerializer;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.PackedDoubleTileSerializer;
+
+public class FileSystemPyramidIOTest {
+	private File _root;
+	private TileSerializer<Double> _serializer;
+
+	@Before
+	public void setup () throws IOException {
+		_root = File.createTempFile("filesystem.", ".test", null);
+		_root.delete();
+		_root.mkdirs();
+		_serializer = new PackedDoubleTileSerializer(PackedTileSerializer.Compression.None, 0);
+	}
+
+	@After
+	public void teardown () {
+		delete(_root);
+	}
+
+	private void delete (File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child: children) delete(child);
+		}
+		file.delete();
+	}
+
+	private TileData<Double> createTile (TileIndex index) {
+		TileData<Double> tile = new TileData<Double>(index);
+		for (int x=0; x<index.getXBins(); ++x) {
+			for (int y=0; y<index.getYBins(); ++y) {
+				tile.setBin(x, y, (double) (index.getX() * 1000 + index.getY() + x + y));
+			}
+		}
+		return tile;
+	}
+
+	private void testBatch (int ioThreads) throws IOException {
+		FileSystemPyramidIO io = new FileSystemPyramidIO(_root.getAbsolutePath(), "bin", ioThreads);
+		io.initializeForWrite("test");
+
+		List<TileData<Double>> tiles = new ArrayList<TileData<Double>>();
+		for (int x=0; x<16; ++x) {
+			for (int y=0; y<16; ++y) {
+				// Only write every other tile, so reads have gaps
+				if (0 == (x+y)%2) tiles.add(createTile(new TileIndex(4, x, y, 2, 2)));
+			}
+		}
+		io.writeTiles("test", _serializer, tiles);
+
+		// Request everything in reverse order; present tiles should come
+		// back in that order, missing ones should be skipped
+		List<TileIndex> request = new ArrayList<TileIndex>();
+		List<TileData<Double>> expected = new ArrayList<TileData<Double>>();
+		for (int x=15; x>=0; --x) {
+			for (int y=15; y>=0; --y) {
+				TileIndex index = new TileIndex(4, x, y, 2, 2);
+				request.add(index);
+				if (0 == (x+y)%2) expected.add(createTile(index));
+			}
+		}
+		List<TileData<Double>> read = io.readTiles("test", _serializer, request);
+		Assert.assertEquals(expected.size(), read.size());
+		for (int i=0; i<expected.size(); ++i) {
+			Assert.assertEquals(expected.get(i).getDefinition(), read.get(i).getDefinition());
+			Assert.assertEquals(expected.get(i).getData(), read.get(i).getData());
+		}
+
+		Assert.assertNull(io.getTileStream("test", _serializer, new TileIndex(4, 0, 1, 2, 2)));
+		InputStream stream = io.getTileStream("test", _serializer, new TileIndex(4, 0, 0, 2, 2));
+		Assert.assertNotNull(stream);
+		stream.close();
+	}
+
+	@Test
+	public void testSequentialBatch () throws IOException {
+		testBatch(1);
+	}
+
+	@Test
+	public void testParallelBatch () throws IOException {
+		testBatch(4);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.impl.StringIntPairArrayJSONSerializer;
+import com.oculusinfo.binning.util.Pair;
+
+/**
+ * Test the JDBC pyramid IO against an embedded, in-memory H2 database
+ */
+public class H2PyramidIOTest {
+	private JDBCPyramidIO _pyramidIO;
+
+	@Before
+	public void setUp () throws Exception {
+		// A named database, so all pooled connections see the same one, and
+		// a unique name, so tests run in parallel don't share it
+		_pyramidIO = new JDBCPyramidIO("org.h2.Driver",
+		                               "jdbc:h2:mem:"+UUID.randomUUID()+";DB_CLOSE_DELAY=-1");
+	}
+
+	@After
+	public void tearDown () {
+		_pyramidIO.shutdown();
+	}
+
+	private TileData<List<Pair<String, Integer>>> createTile (int x, int y, String name) {
+		TileData<List<Pair<String, Integer>>> tile =
+			new TileData<List<Pair<String, Integer>>>(new TileIndex(2, x, y, 1, 1));
+		List<Pair<String, Integer>> binVals = new ArrayList<Pair<String,Integer>>();
+		binVals.add(new Pair<String, Integer>(name, x*4+y));
+		tile.setBin(0, 0, binVals);
+		return tile;
+	}
+
+	@Test
+	public void testTwoPyramids () throws Exception {
+		StringIntPairArrayJSONSerializer serializer = new StringIntPairArrayJSONSerializer();
+
+		_pyramidIO.initializeForWrite("first");
+		_pyramidIO.initializeForWrite("second");
+		Assert.assertTrue(_pyramidIO.tableExists("first"));
+		Assert.assertTrue(_pyramidIO.tableExists("second"));
+
+		_pyramidIO.writeTiles("first", serializer, Arrays.asList(createTile(0, 0, "first"),
+		                                                         createTile(1, 2, "first")));
+		_pyramidIO.writeTiles("second", serializer, Arrays.asList(createTile(1, 2, "second")));
+		_pyramidIO.writeMetaData("first", "first metadata");
+		_pyramidIO.writeMetaData("second", "second metadata");
+
+		List<TileIndex> request = Arrays.asList(new TileIndex(2, 0, 0, 1, 1),
+		                                        new TileIndex(2, 1, 2, 1, 1));
+		List<TileData<List<Pair<String, Integer>>>> first = _pyramidIO.readTiles("first", serializer, request);
+		Assert.assertEquals(2, first.size());
+		Assert.assertEquals(createTile(0, 0, "first").getData(), first.get(0).getData());
+		Assert.assertEquals(createTile(1, 2, "first").getData(), first.get(1).getData());
+
+		List<TileData<List<Pair<String, Integer>>>> second = _pyramidIO.readTiles("second", serializer, request);
+		Assert.assertEquals(1, second.size());
+		Assert.assertEquals(createTile(1, 2, "second").getData(), second.get(0).getData());
+
+		Assert.assertEquals("first metadata", _pyramidIO.readMetaData("first"));
+		Assert.assertEquals("second metadata", _pyramidIO.readMetaData("second"));
+	}
+}
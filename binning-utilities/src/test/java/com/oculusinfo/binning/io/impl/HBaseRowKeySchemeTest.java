@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.oculusinfo.binning.TileIndex;
+
+public class HBaseRowKeySchemeTest {
+	// Unsigned lexicographic comparison, as HBase orders row keys
+	private static int compare (byte[] a, byte[] b) {
+		for (int i=0; i<Math.min(a.length, b.length); ++i) {
+			int diff = (a[i] & 0xff) - (b[i] & 0xff);
+			if (0 != diff) return diff;
+		}
+		return a.length - b.length;
+	}
+
+	private static boolean inRanges (byte[] key, List<byte[][]> ranges) {
+		for (byte[][] range: ranges) {
+			if (compare(range[0], key) <= 0 && compare(key, range[1]) < 0) return true;
+		}
+		return false;
+	}
+
+	@Test
+	public void testRoundTrip () {
+		HBaseRowKeyScheme[] schemes = {HBaseRowKeyScheme.legacy(),
+		                               HBaseRowKeyScheme.zOrder(1),
+		                               HBaseRowKeyScheme.zOrder(7)};
+		for (HBaseRowKeyScheme scheme: schemes) {
+			for (TileIndex index: new TileIndex[] {new TileIndex(0, 0, 0),
+			                                       new TileIndex(5, 17, 30),
+			                                       new TileIndex(20, 1000000, 3)}) {
+				Assert.assertEquals(index, HBaseRowKeyScheme.getTileIndex(scheme.getRowKey(index)));
+			}
+			Assert.assertEquals(scheme.getMarker(),
+			                    HBaseRowKeyScheme.fromMarker(scheme.getMarker()).getMarker());
+		}
+		Assert.assertEquals("legacy", HBaseRowKeyScheme.fromMarker(null).getMarker());
+		Assert.assertNull(HBaseRowKeyScheme.getTileIndex("metadata".getBytes()));
+	}
+
+	@Test
+	public void testNeighboursAreAdjacent () {
+		// A 2x2 block of tiles should be contiguous in key order
+		HBaseRowKeyScheme scheme = HBaseRowKeyScheme.zOrder(1);
+		byte[] a = scheme.getRowKey(new TileIndex(10, 4, 6));
+		byte[] b = scheme.getRowKey(new TileIndex(10, 5, 6));
+		byte[] c = scheme.getRowKey(new TileIndex(10, 4, 7));
+		byte[] d = scheme.getRowKey(new TileIndex(10, 5, 7));
+		Assert.assertTrue(compare(a, b) < 0);
+		Assert.assertTrue(compare(b, c) < 0);
+		Assert.assertTrue(compare(c, d) < 0);
+		Assert.assertEquals(3, d[d.length-1] - a[a.length-1]);
+	}
+
+	private void checkScanRanges (HBaseRowKeyScheme scheme, int level,
+	                              int minX, int minY, int maxX, int maxY, int maxRanges) {
+		List<byte[][]> ranges = scheme.getScanRanges(level, minX, minY, maxX, maxY);
+		Assert.assertTrue(ranges.size() <= maxRanges);
+		int size = 1 << level;
+		for (int x=0; x<size; ++x) {
+			for (int y=0; y<size; ++y) {
+				if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+					Assert.assertTrue(inRanges(scheme.getRowKey(new TileIndex(level, x, y)), ranges));
+				}
+			}
+		}
+		// Nothing from other levels
+		Assert.assertFalse(inRanges(scheme.getRowKey(new TileIndex(level-1, minX/2, minY/2)), ranges));
+		Assert.assertFalse(inRanges(scheme.getRowKey(new TileIndex(level+1, minX*2, minY*2)), ranges));
+	}
+
+	@Test
+	public void testScanRanges () {
+		checkScanRanges(HBaseRowKeyScheme.zOrder(1), 6, 0, 0, 63, 63, 1);
+		checkScanRanges(HBaseRowKeyScheme.zOrder(1), 6, 8, 8, 15, 15, 1);
+		checkScanRanges(HBaseRowKeyScheme.zOrder(1), 6, 5, 9, 22, 40, 64);
+		checkScanRanges(HBaseRowKeyScheme.zOrder(4), 6, 5, 9, 22, 40, 4*64);
+		checkScanRanges(HBaseRowKeyScheme.legacy(), 6, 5, 9, 22, 40, 18);
+	}
+
+	@Test
+	public void testLevelScanRanges () {
+		HBaseRowKeyScheme[] schemes = {HBaseRowKeyScheme.legacy(),
+		                               HBaseRowKeyScheme.zOrder(1),
+		                               HBaseRowKeyScheme.zOrder(7)};
+		for (HBaseRowKeyScheme scheme: schemes) {
+			List<byte[][]> ranges = scheme.getLevelScanRanges(4);
+			for (int x=0; x<16; ++x) {
+				for (int y=0; y<16; ++y) {
+					Assert.assertTrue(inRanges(scheme.getRowKey(new TileIndex(4, x, y)), ranges));
+				}
+			}
+			Assert.assertFalse(inRanges(scheme.getRowKey(new TileIndex(3, 7, 7)), ranges));
+			Assert.assertFalse(inRanges(scheme.getRowKey(new TileIndex(5, 0, 0)), ranges));
+			Assert.assertFalse(inRanges(scheme.getRowKey(new TileIndex(14, 0, 0)), ranges));
+			Assert.assertFalse(inRanges("metadata".getBytes(), ranges));
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JDBCDialectTest {
+	private static final List<String> KEYS   = Arrays.asList("a", "b");
+	private static final List<String> VALUES = Collections.singletonList("c");
+
+	@Test
+	public void testDialectFromUrl () {
+		Assert.assertEquals(JDBCDialect.SQLITE, JDBCDialect.fromUrl("jdbc:sqlite:test.db"));
+		Assert.assertEquals(JDBCDialect.H2, JDBCDialect.fromUrl("jdbc:h2:~/tiles"));
+		Assert.assertEquals(JDBCDialect.POSTGRESQL, JDBCDialect.fromUrl("jdbc:postgresql://host/tiles"));
+		Assert.assertEquals(JDBCDialect.GENERIC, JDBCDialect.fromUrl("jdbc:mysql://host/tiles"));
+
+		Assert.assertTrue(JDBCDialect.isPrivateDatabaseUrl("jdbc:sqlite::memory:"));
+		Assert.assertTrue(JDBCDialect.isPrivateDatabaseUrl("jdbc:h2:mem:"));
+		Assert.assertFalse(JDBCDialect.isPrivateDatabaseUrl("jdbc:h2:mem:tiles"));
+		Assert.assertFalse(JDBCDialect.isPrivateDatabaseUrl("jdbc:sqlite:test.db"));
+	}
+
+	@Test
+	public void testUpserts () {
+		Assert.assertEquals("INSERT OR REPLACE INTO t (a,b,c) VALUES (?,?,?)",
+		                    JDBCDialect.SQLITE.getUpsert("t", KEYS, VALUES));
+		Assert.assertEquals("MERGE INTO t (a,b,c) KEY (a,b) VALUES (?,?,?)",
+		                    JDBCDialect.H2.getUpsert("t", KEYS, VALUES));
+		Assert.assertEquals("INSERT INTO t (a,b,c) VALUES (?,?,?) ON CONFLICT (a,b) DO UPDATE SET c = EXCLUDED.c",
+		                    JDBCDialect.POSTGRESQL.getUpsert("t", KEYS, VALUES));
+		Assert.assertEquals("INSERT INTO t (a,b,c) VALUES (?,?,?)",
+		                    JDBCDialect.GENERIC.getUpsert("t", KEYS, VALUES));
+	}
+}
@@ -118,6 +118,53 @@ public class SQLitePyramidIOTest {
 		}
 	}
 
+	private TileData<List<Pair<String, Integer>>> createTile (int x, int y, String name) {
+		TileData<List<Pair<String, Integer>>> tile =
+			new TileData<List<Pair<String, Integer>>>(new TileIndex(3, x, y, 1, 1));
+		List<Pair<String, Integer>> binVals = new ArrayList<Pair<String,Integer>>();
+		binVals.add(new Pair<String, Integer>(name, x*8+y));
+		tile.setBin(0, 0, binVals);
+		return tile;
+	}
+
+	@Test
+	public void testBatchReadAndOverwrite() {
+		try {
+			sqlitePyramidIO.initializeForWrite(PYRAMID_ID);
+			StringIntPairArrayJSONSerializer serializer = new StringIntPairArrayJSONSerializer();
+
+			// Write every other tile of a level
+			List<TileData<List<Pair<String, Integer>>>> tiles = new ArrayList<TileData<List<Pair<String, Integer>>>>();
+			for (int x=0; x<8; ++x) {
+				for (int y=0; y<8; ++y) {
+					if (0 == (x+y)%2) tiles.add(createTile(x, y, "first"));
+				}
+			}
+			sqlitePyramidIO.writeTiles(PYRAMID_ID, serializer, tiles);
+			// Overwrite one
+			sqlitePyramidIO.writeTiles(PYRAMID_ID, serializer, Collections.singletonList(createTile(2, 4, "second")));
+
+			// Read them all back, in reverse order
+			List<TileIndex> request = new ArrayList<TileIndex>();
+			for (int x=7; x>=0; --x) {
+				for (int y=7; y>=0; --y) {
+					request.add(new TileIndex(3, x, y, 1, 1));
+				}
+			}
+			List<TileData<List<Pair<String, Integer>>>> readResult =
+				sqlitePyramidIO.readTiles(PYRAMID_ID, serializer, request);
+			Assert.assertEquals(tiles.size(), readResult.size());
+			Assert.assertEquals(new TileIndex(3, 7, 7, 1, 1), readResult.get(0).getDefinition());
+			for (TileData<List<Pair<String, Integer>>> tile: readResult) {
+				TileIndex index = tile.getDefinition();
+				String expectedName = (2 == index.getX() && 4 == index.getY()) ? "second" : "first";
+				Assert.assertEquals(createTile(index.getX(), index.getY(), expectedName).getData(), tile.getData());
+			}
+		} catch (Exception e) {
+			fail(e.getMessage());
+		}
+	}
+
 	@Test
 	public void testMetadata() {
 		try {
@@ -127,6 +174,11 @@ public class SQLitePyramidIOTest {
 			sqlitePyramidIO.writeMetaData(PYRAMID_ID, metadata);
 
 			Assert.assertTrue(sqlitePyramidIO.readMetaData(PYRAMID_ID).equals(metadata));
+
+			// Rewriting metadata replaces it; quotes must survive
+			metadata = "Some 'other' metadata.";
+			sqlitePyramidIO.writeMetaData(PYRAMID_ID, metadata);
+			Assert.assertTrue(sqlitePyramidIO.readMetaData(PYRAMID_ID).equals(metadata));
 		} catch (Exception e) {
 			fail(e.getMessage());
 		}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. 
+ * http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.serialization;
+
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.impl.DoubleArrayAvroSerializer;
+import com.oculusinfo.binning.io.serialization.impl.DoubleAvroSerializer;
+import org.apache.avro.file.CodecFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Test that raw and container avro framing can be written and read interchangeably
+public class AvroFramingTests {
+	private TileData<Double> createTile () {
+		TileIndex index = new TileIndex(2, 1, 3, 4, 4);
+		TileData<Double> tile = new TileData<>(index);
+		for (int x=0; x<4; ++x) {
+			for (int y=0; y<4; ++y) {
+				tile.setBin(x, y, x+0.25*y);
+			}
+		}
+		tile.setMetaData("source", "test");
+		return tile;
+	}
+
+	private <T> byte[] write (TileSerializer<T> serializer, TileData<T> tile) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(tile, baos);
+		baos.close();
+		return baos.toByteArray();
+	}
+
+	private <T> TileData<T> read (TileSerializer<T> serializer, TileIndex index, byte[] data) throws Exception {
+		return serializer.deserialize(index, new ByteArrayInputStream(data));
+	}
+
+	private <T> void assertTilesEqual (TileData<T> expected, TileData<T> actual) {
+		Assert.assertEquals(expected.getDefinition(), actual.getDefinition());
+		Assert.assertEquals(expected.getData(), actual.getData());
+		Assert.assertEquals(expected.getMetaData("source"), actual.getMetaData("source"));
+	}
+
+	@Test
+	public void testRawRoundTrip () throws Exception {
+		TileData<Double> tile = createTile();
+		TileSerializer<Double> raw = new DoubleAvroSerializer(CodecFactory.nullCodec(), true);
+		byte[] data = write(raw, tile);
+		Assert.assertEquals(GenericAvroSerializer.RAW_FORMAT_VERSION, data[0]);
+		assertTilesEqual(tile, read(raw, tile.getDefinition(), data));
+	}
+
+	@Test
+	public void testMixedFraming () throws Exception {
+		TileData<Double> tile = createTile();
+		TileSerializer<Double> raw = new DoubleAvroSerializer(CodecFactory.bzip2Codec(), true);
+		TileSerializer<Double> container = new DoubleAvroSerializer(CodecFactory.bzip2Codec());
+
+		assertTilesEqual(tile, read(raw, tile.getDefinition(), write(container, tile)));
+		assertTilesEqual(tile, read(container, tile.getDefinition(), write(raw, tile)));
+	}
+
+	@Test
+	public void testRawArrayRoundTrip () throws Exception {
+		TileIndex index = new TileIndex(0, 0, 0, 2, 2);
+		List<List<Double>> data = new ArrayList<>();
+		for (int i=0; i<4; ++i) data.add(Arrays.asList(i*1.0, i*2.0));
+		TileData<List<Double>> tile = new TileData<>(index, data);
+
+		TileSerializer<List<Double>> raw = new DoubleArrayAvroSerializer(CodecFactory.nullCodec(), true);
+		TileData<List<Double>> result = read(raw, index, write(raw, tile));
+		Assert.assertEquals(tile.getData(), result.getData());
+	}
+}
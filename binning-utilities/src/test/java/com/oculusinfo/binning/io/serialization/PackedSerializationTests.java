@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. 
+ * http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.io.serialization;
+
+import com.oculusinfo.binning.DoubleTileData;
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.PackedTileSerializer.Compression;
+import com.oculusinfo.binning.io.serialization.impl.PackedDoubleArrayTileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.PackedDoubleTileSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class PackedSerializationTests {
+	private <T> TileData<T> roundTrip (TileSerializer<T> serializer, TileData<T> tile) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(tile, baos);
+		baos.close();
+		return serializer.deserialize(tile.getDefinition(), new ByteArrayInputStream(baos.toByteArray()));
+	}
+
+	private DoubleTileData createCountTile () {
+		TileIndex index = new TileIndex(5, 3, 7, 256, 256);
+		DoubleTileData tile = new DoubleTileData(index);
+		Random random = new Random(15485863);
+		for (int i=0; i<5000; ++i) {
+			tile.setDoubleBin(random.nextInt(256), random.nextInt(256), random.nextInt(1000));
+		}
+		tile.setMetaData("source", "test");
+		return tile;
+	}
+
+	@Test
+	public void testIntegralDoubleRoundTrip () throws Exception {
+		for (Compression compression: Compression.values()) {
+			DoubleTileData tile = createCountTile();
+			TileData<Double> result = roundTrip(new PackedDoubleTileSerializer(compression, 6), tile);
+			Assert.assertTrue(result instanceof DoubleTileData);
+			Assert.assertEquals(tile.getDefinition(), result.getDefinition());
+			Assert.assertEquals(tile.getData(), result.getData());
+			Assert.assertEquals("test", result.getMetaData("source"));
+		}
+	}
+
+	@Test
+	public void testFractionalDoubleRoundTrip () throws Exception {
+		for (Compression compression: Compression.values()) {
+			DoubleTileData tile = createCountTile();
+			tile.setDoubleBin(3, 4, 0.125);
+			tile.setDoubleBin(4, 4, -0.0);
+			tile.setDoubleBin(5, 4, Double.NaN);
+			tile.setDoubleBin(6, 4, 1E300);
+			TileData<Double> result = roundTrip(new PackedDoubleTileSerializer(compression, 6), tile);
+			Assert.assertEquals(tile.getData(), result.getData());
+		}
+	}
+
+	@Test
+	public void testIntegralCountsAreSmall () throws Exception {
+		DoubleTileData tile = createCountTile();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new PackedDoubleTileSerializer(Compression.None, 0).serialize(tile, baos);
+		// Far less than the 8 bytes per bin raw doubles would take
+		Assert.assertTrue(baos.size() < 256*256*2);
+	}
+
+	@Test
+	public void testDoubleArrayRoundTrip () throws Exception {
+		TileIndex index = new TileIndex(0, 0, 0, 2, 2);
+		List<List<Double>> data = new ArrayList<>();
+		data.add(Arrays.asList(1.0, 2.5));
+		data.add(Arrays.asList(3.0));
+		data.add(new ArrayList<Double>());
+		data.add(Arrays.asList(-4.0, 5.0, 6.0));
+		TileData<List<Double>> tile = new TileData<>(index, data);
+
+		for (Compression compression: Compression.values()) {
+			TileData<List<Double>> result = roundTrip(new PackedDoubleArrayTileSerializer(compression, 6), tile);
+			Assert.assertEquals(tile.getData(), result.getData());
+		}
+	}
+}
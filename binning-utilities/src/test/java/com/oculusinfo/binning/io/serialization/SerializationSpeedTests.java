@@ -217,4 +217,51 @@ public class SerializationSpeedTests {
 		System.out.println("Total time: "+((endTime-startTime)/1000.0)+" seconds");
 		System.out.println("Average time: "+(((endTime-startTime)/1000.0)/N)+" seconds");
 	}
+
+
+	@Test
+	public void testRawAvroTileSerialization () throws Exception {
+		int N = 100;
+		TileSerializer<Double> serializer = new DoubleAvroSerializer(CodecFactory.nullCodec(), true);
+
+		// test serialization time
+		long startTime = System.currentTimeMillis();
+		for (int n=0; n<N; ++n) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			serializer.serialize(_data, baos);
+			baos.close();
+			baos.flush();
+
+		}
+		long endTime = System.currentTimeMillis();
+		System.out.println("Raw Avro Serialization");
+		System.out.println("Total time: "+((endTime-startTime)/1000.0)+" seconds");
+		System.out.println("Average time: "+(((endTime-startTime)/1000.0)/N)+" seconds");
+	}
+
+
+	@Test
+	public void testRawAvroTileDeSerialization () throws Exception {
+		int N = 100;
+		TileSerializer<Double> serializer = new DoubleAvroSerializer(CodecFactory.nullCodec(), true);
+
+		// Get somethign to deserialization
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(_data, baos);
+		baos.close();
+		baos.flush();
+		byte[] data = baos.toByteArray();
+
+		// test deserialization time
+		long startTime = System.currentTimeMillis();
+		for (int n=0; n<N; ++n) {
+			ByteArrayInputStream bais = new ByteArrayInputStream(data);
+			serializer.deserialize(null, bais);
+			bais.close();
+		}
+		long endTime = System.currentTimeMillis();
+		System.out.println("Raw Avro Deserialization");
+		System.out.println("Total time: "+((endTime-startTime)/1000.0)+" seconds");
+		System.out.println("Average time: "+(((endTime-startTime)/1000.0)/N)+" seconds");
+	}
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.binning.util;
+
+import com.oculusinfo.binning.TileIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZOrderTests {
+	// Interleave bits one at a time, for comparison
+	private static long slowInterleave (int x, int y) {
+		long key = 0L;
+		for (int bit = 0; bit < 32; ++bit) {
+			key |= ((long) ((x >>> bit) & 1)) << (2 * bit);
+			key |= ((long) ((y >>> bit) & 1)) << (2 * bit + 1);
+		}
+		return key;
+	}
+
+	@Test
+	public void testInterleave () {
+		Assert.assertEquals(0L, ZOrder.interleave(0, 0));
+		Assert.assertEquals(1L, ZOrder.interleave(1, 0));
+		Assert.assertEquals(2L, ZOrder.interleave(0, 1));
+		Assert.assertEquals(15L, ZOrder.interleave(3, 3));
+		Assert.assertEquals(slowInterleave(123456789, 987654321), ZOrder.interleave(123456789, 987654321));
+		Assert.assertEquals(slowInterleave(Integer.MAX_VALUE, 0), ZOrder.interleave(Integer.MAX_VALUE, 0));
+		long key = ZOrder.interleave(123456789, 987654321);
+		Assert.assertEquals(123456789, ZOrder.getX(key));
+		Assert.assertEquals(987654321, ZOrder.getY(key));
+	}
+
+	@Test
+	public void testTileKeys () {
+		Assert.assertEquals(0x4L, ZOrder.getTileKey(new TileIndex(0, 0, 0)));
+		Assert.assertEquals(0x10L | 0x3L, ZOrder.getTileKey(new TileIndex(1, 1, 1)));
+		Assert.assertEquals((1L << 42) | slowInterleave(1000000, 2000000),
+		                    ZOrder.getTileKey(new TileIndex(20, 1000000, 2000000)));
+
+		// Keys on different levels don't collide
+		for (int level = 0; level < 4; ++level) {
+			int n = 1 << level;
+			for (int x = 0; x < n; ++x) {
+				for (int y = 0; y < n; ++y) {
+					long key = ZOrder.getTileKey(new TileIndex(level, x, y));
+					Assert.assertTrue(key >= (1L << (2 * (level + 1))));
+					Assert.assertTrue(key < (1L << (2 * (level + 2))));
+				}
+			}
+		}
+	}
+}
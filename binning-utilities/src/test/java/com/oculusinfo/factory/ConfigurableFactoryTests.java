@@ -92,4 +92,16 @@ public class ConfigurableFactoryTests {
 		factory.readConfiguration(configuration);
 		Assert.assertEquals(configuration, factory.getConfigurationNode());
 	}
+
+	@Test
+	public void testPropertyValues () throws Exception {
+		TestFactory factory = new TestFactory();
+		factory.readConfiguration(new JSONObject("{'int':3, 'string': 'abc'}"));
+		TestFactory unusedFactory = new TestFactory();
+		unusedFactory.readConfiguration(new JSONObject("{'string': 'abc', 'unused': 'xyz', 'int':3}"));
+
+		Assert.assertEquals(3, factory.getPropertyValues().size());
+		Assert.assertEquals(factory.getPropertyValues(), unusedFactory.getPropertyValues());
+		Assert.assertTrue(factory.getPropertyValues().containsValue(1.0));
+	}
 }
@@ -90,6 +90,13 @@ public class TileRegistrator implements KryoRegistrator {
 		kryo.register(PyramidComparator.class);
 		kryo.register(TileData.class);
 		kryo.register(TileData[].class);
+		kryo.register(DoubleTileData.class);
+		kryo.register(LongTileData.class);
+		kryo.register(SparseTileData.class);
+		kryo.register(int[].class);
+		kryo.register(Object[].class);
+		kryo.register(double[].class);
+		kryo.register(long[].class);
 		kryo.register(java.util.ArrayList.class);
 		kryo.register(TileIndex.class);
 		kryo.register(DensityStripData.class);
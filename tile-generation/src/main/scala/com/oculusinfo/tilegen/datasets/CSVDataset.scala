@@ -52,6 +52,7 @@ import com.oculusinfo.tilegen.tiling.StandardDoubleBinDescriptor
 import com.oculusinfo.tilegen.tiling.MaximumDoubleBinDescriptor
 import com.oculusinfo.tilegen.tiling.MinimumDoubleBinDescriptor
 import com.oculusinfo.tilegen.tiling.LogDoubleBinDescriptor
+import com.oculusinfo.tilegen.tiling.PackedDoubleSerialization
 import com.oculusinfo.tilegen.util.ArgumentParser
 import com.oculusinfo.tilegen.util.PropertiesWrapper
 import com.oculusinfo.tilegen.tiling.TimeRangeCartesianIndexScheme
@@ -138,6 +139,18 @@ import java.util.TimeZone
  *      reasonable something); this parameter is only needed for fine-tuning failing
  *      processes
  * 
+ *  oculus.binning.bottomUp
+ *      If true, the raw data is only binned on the deepest level requested,
+ *      and each shallower level is built from the tiles of the level below
+ *      it, rather than binning the raw data once per level.  This requires
+ *      an even number of bins per tile, and is ignored for density strips.
+ *      Default is false.
+ * 
+ *  oculus.binning.tileFormat
+ *      The format in which to write tiles.  Default is avro; the other option
+ *      is packed, a compact binary format that is much smaller and faster for
+ *      count data
+ * 
  * 
  *  oculus.binning.parsing.separator
  *      The character or string to use as a separator between columns.
@@ -368,6 +381,20 @@ class CSVDataSource (properties: CSVRecordPropertiesWrapper) {
 
 
 
+/**
+ * The parsing configuration of a single field, compiled from properties once
+ * so that it can be applied to many records without further lookups.
+ *
+ * @param column The column from which the field is read, or -1 for constant
+ *               fields
+ * @param parse Conversion of the column's text to a value
+ * @param scale Scaling applied to the parsed value
+ */
+class CSVFieldParser (val column: Int, parse: String => Double, scale: Double => Double) {
+	def apply (columns: Array[String]): Double =
+		scale(if (column < 0) 0.0 else parse(columns(column)))
+}
+
 /**
  * A simple parser that splits a record according to a given separator
  */
@@ -379,6 +406,35 @@ class CSVRecordParser (properties: CSVRecordPropertiesWrapper) {
 		if (1 == separator.length) input.split(separator.charAt(0))
 		else input.split(separator)
 
+	/**
+	 * Split a record into its columns, ignoring anything past the given
+	 * number of columns.  Single-character separators are found with a direct
+	 * scan, rather than with String.split.
+	 */
+	def splitColumns (input: String, separator: String, maxColumns: Int): Array[String] =
+		if (1 == separator.length) {
+			val separatorChar = separator.charAt(0)
+			val columns = new Array[String](maxColumns)
+			var start = 0
+			var n = 0
+			while (n < maxColumns && start >= 0) {
+				val end = input.indexOf(separatorChar, start)
+				if (end < 0) {
+					columns(n) = input.substring(start)
+					start = -1
+				} else {
+					columns(n) = input.substring(start, end)
+					start = end + 1
+				}
+				n = n + 1
+			}
+			// Mimic String.split - missing columns aren't there
+			if (n < maxColumns) java.util.Arrays.copyOf(columns, n)
+			else columns
+		} else {
+			input.split(separator)
+		}
+
 	def getFieldType(field: String, suffix: String = "fieldType"): String = {
 		properties.getString("oculus.binning.parsing." + field + "." + suffix,
 			"",
@@ -386,83 +442,111 @@ class CSVRecordParser (properties: CSVRecordPropertiesWrapper) {
 			else ""))
 	}
 
+	private def getDateFormat (field: String): SimpleDateFormat = {
+		val format = new SimpleDateFormat(properties.getString(
+			"oculus.binning.parsing." + field + ".dateFormat",
+			"", Some("yyMMddHHmm")))
+		format.setTimeZone(TimeZone.getTimeZone("GMT"))
+		format
+	}
+
 	// Convert a string to a double value according to field semantics
-	def parseValue(value: String, field: String, parseType: String, dateFormats: Map[String, SimpleDateFormat]): Double = {
+	def parseValue(value: String, field: String, parseType: String, dateFormats: Map[String, SimpleDateFormat]): Double =
+		getValueParser(field, parseType, dateFormats(field))(value)
+
+	// Determine, once, how to convert strings to double values for a field
+	private def getValueParser (field: String, parseType: String, dateFormat: => SimpleDateFormat): String => Double = {
 		if ("int" == parseType) {
-			value.toInt.toDouble
+			value => value.toInt.toDouble
 		} else if ("long" == parseType) {
-			value.toLong.toDouble
+			value => value.toLong.toDouble
 		} else if ("date" == parseType) {
-			dateFormats(field).parse(value).getTime()
+			val format = dateFormat
+			value => format.parse(value).getTime()
 		} else if ("ipv4" == parseType) {
-			value.split("\\.").map(_.toLong).foldLeft(0L)((a, b) => (256L * a + b)).toDouble
+			value => splitString(value, ".").map(_.toLong).foldLeft(0L)((a, b) => (256L * a + b)).toDouble
 		} else if ("propertyMap" == parseType) {
-			val property = properties.getStringOption("oculus.binning.parsing." + field + ".property", "").get
+			val property = properties.getStringOption("oculus.binning.parsing." + field + ".property", "").get.trim
 			val propType = getFieldType(field, "propertyType")
 			val propSep = properties.getStringOption("oculus.binning.parsing." + field +
 				".propertySeparator", "").get
 			val valueSep = properties.getStringOption("oculus.binning.parsing." + field +
 				".propertyValueSeparator", "").get
+			val propParser = getValueParser(field, propType, dateFormat)
 
-			val kvPairs = splitString(value, propSep)
-			val propPairs = kvPairs.map(splitString(_, valueSep))
+			value => {
+				val kvPairs = splitString(value, propSep)
+				val propPairs = kvPairs.map(splitString(_, valueSep))
 
-			val propValue = propPairs.filter(kv => property.trim == kv(0).trim).map(kv =>
-				if (kv.size > 1) kv(1) else "").takeRight(1)(0)
-			parseValue(propValue, field, propType, dateFormats)
+				val propValue = propPairs.filter(kv => property == kv(0).trim).map(kv =>
+					if (kv.size > 1) kv(1) else "").takeRight(1)(0)
+				propParser(propValue)
+			}
 		} else {
-			value.toDouble
+			value => value.toDouble
 		}
 	}
 
-	def parseRecords(raw: Iterator[String], variables: String*): Iterator[(String, Try[List[Double]])] = {
-		// This method generally is only called on workers, therefore properties can't really be documented here.
+	private def compileField (field: String): CSVFieldParser = {
+		val fieldType = getFieldType(field)
+		val column =
+			if ("constant" == fieldType || "zero" == fieldType) -1
+			else properties.getIntOption("oculus.binning.parsing." + field + ".index", "").get
+		val parse = getValueParser(field, fieldType, getDateFormat(field))
+
+		val fieldScaling =
+			properties.getString("oculus.binning.parsing." + field +
+				".fieldScaling", "", Some(""))
+		val scale: Double => Double = if ("log" == fieldScaling) {
+			val logBase =
+				math.log(properties.getDouble("oculus.binning.parsing." +
+					field + ".fieldBase",
+					"", Some(math.exp(1.0))))
+			value => math.log(value) / logBase
+		} else {
+			value => value
+		}
 
-		// Get some simple parsing info we'll need
-		val separator = properties.getString(
-			"oculus.binning.parsing.separator", "", Some("\t"))
+		new CSVFieldParser(column, parse, scale)
+	}
 
-		val dateFormats = properties.fields.filter(field =>
-			"date" == properties.getString("oculus.binning.parsing." + field + ".fieldType", "", Some(""))).map(field => {
-			val format = new SimpleDateFormat(properties.getString(
-				"oculus.binning.parsing." + field + ".dateFormat",
-				"", Some("yyMMddHHmm")))
-			format.setTimeZone(TimeZone.getTimeZone("GMT"))
-			(field -> format)
-		}).toMap
+	// This is generally only used on workers, therefore properties can't
+	// really be documented here.
+	protected lazy val separator = properties.getString(
+		"oculus.binning.parsing.separator", "", Some("\t"))
+	protected lazy val fieldParsers = properties.fields.map(compileField).toArray
+	protected lazy val maxColumns =
+		fieldParsers.map(_.column + 1).foldLeft(1)(_ max _)
 
-		raw.map(s =>
-			{
-				val columns = splitString(s, separator)
+	/**
+	 * Parse the values of every field in a record into the given array, in
+	 * the order of properties.fields.  Throws an exception if any field can't
+	 * be parsed.
+	 */
+	def parseRecordInto (record: String, values: Array[Double]): Unit =
+		parseColumnsInto(splitColumns(record, separator, maxColumns), values)
+
+	protected def parseColumnsInto (columns: Array[String], values: Array[Double]): Unit = {
+		var i = 0
+		while (i < fieldParsers.length) {
+			values(i) = fieldParsers(i)(columns)
+			i = i + 1
+		}
+	}
 
-				(s,
-					Try(
-						properties.fields.toList.map(field =>
-							{
-								val fieldType = getFieldType(field)
-								var value = if ("constant" == fieldType ||
-									"zero" == fieldType) 0.0
-								else {
-									val fieldIndex =
-										properties.getIntOption("oculus.binning.parsing." +
-											field + ".index",
-											"").get
-									parseValue(columns(fieldIndex.toInt), field, fieldType, dateFormats)
-								}
-								val fieldScaling =
-									properties.getString("oculus.binning.parsing." + field +
-										".fieldScaling", "", Some(""))
-								if ("log" == fieldScaling) {
-									val base =
-										properties.getDouble("oculus.binning.parsing." +
-											field + ".fieldBase",
-											"", Some(math.exp(1.0)))
-									value = math.log(value) / math.log(base)
-								}
-								value
-							})))
-			})
+	/**
+	 * Parse records into arrays of field values, in the order of
+	 * properties.fields.  For efficiency, the same array is reused for each
+	 * record, so each one must be used or copied before the next is
+	 * retrieved.
+	 */
+	def parseRecordValues (raw: Iterator[String]): Iterator[(String, Try[Array[Double]])] = {
+		val values = new Array[Double](fieldParsers.length)
+		raw.map(s => (s, Try({parseRecordInto(s, values); values})))
 	}
+
+	def parseRecords(raw: Iterator[String], variables: String*): Iterator[(String, Try[List[Double]])] =
+		parseRecordValues(raw).map{case (record, values) => (record, values.map(_.toList))}
 }
 
 /**
@@ -475,52 +559,18 @@ class GraphRecordParser(properties: CSVRecordPropertiesWrapper) extends CSVRecor
 
 		val graphDataType = properties.getString("oculus.binning.graph.data","", Some("nodes"))	// to choose if parsing nodes or edges
 		val graphFieldID = if (graphDataType=="nodes") "node" else "edge"
-		
-		// Get some simple parsing info we'll need
-		val separator = properties.getString(
-			"oculus.binning.parsing.separator", "", Some("\t"))
-
-		val dateFormats = properties.fields.filter(field =>
-			"date" == properties.getString("oculus.binning.parsing." + field + ".fieldType", "", Some(""))).map(field => {
-			val format = new SimpleDateFormat(properties.getString(
-				"oculus.binning.parsing." + field + ".dateFormat",
-				"", Some("yyMMddHHmm")))
-			format.setTimeZone(TimeZone.getTimeZone("GMT"))
-			(field -> format)
-		}).toMap
 
+		val values = new Array[Double](fieldParsers.length)
 		raw.map(s =>
 			{
-				val columns = splitString(s, separator)
+				val columns = splitColumns(s, separator, maxColumns)
 
 				(s,
 					Try(
 						// Only parse lines that have 1st column = graphFieldID, else disregard
-						if (columns(0) == graphFieldID) {	
-							properties.fields.toList.map(field =>
-								{
-									val fieldType = getFieldType(field)
-									var value = if ("constant" == fieldType ||
-										"zero" == fieldType) 0.0
-									else {
-										val fieldIndex =
-											properties.getIntOption("oculus.binning.parsing." +
-												field + ".index",
-												"").get
-										parseValue(columns(fieldIndex.toInt), field, fieldType, dateFormats)
-									}
-									val fieldScaling =
-										properties.getString("oculus.binning.parsing." + field +
-											".fieldScaling", "", Some(""))
-									if ("log" == fieldScaling) {
-										val base =
-											properties.getDouble("oculus.binning.parsing." +
-												field + ".fieldBase",
-												"", Some(math.exp(1.0)))
-										value = math.log(value) / math.log(base)
-									}
-									value
-								})
+						if (columns(0) == graphFieldID) {
+							parseColumnsInto(columns, values)
+							values.toList
 						}
 						else {
 							List[Double]()
@@ -552,6 +602,16 @@ class CSVFieldExtractor (properties: CSVRecordPropertiesWrapper) {
 		else if ("zero" == field) Try(0.0)
 		else Try(record(properties.fieldIndices(field)))
 
+	/**
+	 * Get the value of a field from an array of parsed values, as produced
+	 * by CSVRecordParser.parseRecordValues.  Throws an exception if the field
+	 * is unknown.
+	 */
+	def getFieldValueFromArray (field: String, values: Array[Double]): Double =
+		if ("count" == field) 1.0
+		else if ("zero" == field) 0.0
+		else values(properties.fieldIndices(field))
+
 	def getTilePyramid (autoBounds: Boolean,
 	                    xField: String, minX: Double, maxX: Double,
 	                    yField: String, minY: Double, maxY: Double): TilePyramid = {
@@ -592,9 +652,9 @@ abstract class CSVDatasetBase[IT: ClassTag]
 
 	private val description = properties.getStringOption("oculus.binning.description",
 	                                                     "The description to put in the tile metadata")
-	private val zVar = properties.getString("oculus.binning.valueField",
-	                                        "The field to use for the value to tile",
-	                                        Some("count"))
+	protected val zVar = properties.getString("oculus.binning.valueField",
+	                                          "The field to use for the value to tile",
+	                                          Some("count"))
 	private val levels = properties.getStringPropSeq("oculus.binning.levels",
 	                                                 "The levels to bin").map(lvlString =>
 		{
@@ -620,6 +680,12 @@ abstract class CSVDatasetBase[IT: ClassTag]
 		properties.getIntOption("oculus.binning.consolidationPartitions",
 		                        "The number of partitions into which to consolidate data when done")
 
+	private val bottomUp =
+		properties.getBoolean("oculus.binning.bottomUp",
+		                      "If true, bin raw data only on the deepest level, and build "+
+			                      "shallower levels from the tiles below them",
+		                      Some(false))
+
 
 	//////////////////////////////////////////////////////////////////////////////
 	// Section: Dataset implementation
@@ -714,6 +780,7 @@ abstract class CSVDatasetBase[IT: ClassTag]
 	override def getNumXBins = tileWidth
 	override def getNumYBins = tileHeight
 	override def getConsolidationPartitions: Option[Int] = consolidationPartitions
+	override def isBottomUp: Boolean = bottomUp
 
 	def getIndexScheme = indexer.indexScheme
  
@@ -721,19 +788,28 @@ abstract class CSVDatasetBase[IT: ClassTag]
 		val fieldAggregation = properties.getString("oculus.binning.parsing." + zVar + ".fieldAggregation",
 		                                            "The way to aggregate the value field when binning",
 		                                            Some("add"))
+		val packed = "packed" == properties.getString("oculus.binning.tileFormat",
+		                                              "The format in which to write tiles - either avro "+
+			                                              "(the default) or packed, a compact "+
+			                                              "binary format",
+		                                              Some("avro"))
 		if ("log" == fieldAggregation) {
 			val base = properties.getDouble("oculus.binning.parsing." + zVar + ".fieldBase",
 			                                "The base to use when taking value the logarithm of "+
 				                                "values.  Default is e.",
 			                                Some(math.exp(1.0)))
-			new LogDoubleBinDescriptor(base)
+			if (packed) new LogDoubleBinDescriptor(base) with PackedDoubleSerialization
+			else new LogDoubleBinDescriptor(base)
 		}
 		else if ("min" == fieldAggregation)
-			new MinimumDoubleBinDescriptor
+			if (packed) new MinimumDoubleBinDescriptor with PackedDoubleSerialization
+			else new MinimumDoubleBinDescriptor
 		else if ("max" == fieldAggregation)
-			new MaximumDoubleBinDescriptor
+			if (packed) new MaximumDoubleBinDescriptor with PackedDoubleSerialization
+			else new MaximumDoubleBinDescriptor
 		else
-			new StandardDoubleBinDescriptor
+			if (packed) new StandardDoubleBinDescriptor with PackedDoubleSerialization
+			else new StandardDoubleBinDescriptor
 	}
 
 	override def isDensityStrip = indexer.isDensityStrip
@@ -796,47 +872,22 @@ abstract class CSVDatasetBase[IT: ClassTag]
 			val data = rawData2.mapPartitions(iter =>
 				{
 					val parser = new CSVRecordParser(localProperties)
-					// Determine which fields we need
-					val fields = if ("count" == localZVar) {
-						localIndexer.fields
-					} else {
-						localIndexer.fields :+ localZVar
-					}
-
-					// Parse the records from the raw data
-					parser.parseRecords(iter, fields:_*)
-						.map(_._2) // We don't need the original record (in _1)
-				}
-			).filter(r =>
-				// Filter out unsuccessful parsings
-				r.isSuccess
-			).map(_.get).mapPartitions(iter =>
-				{
 					val extractor = new CSVFieldExtractor(localProperties)
-
-					iter.map(t =>
-						{
-							// Determine our index value
-							val indexValue = Try(
-								{
-									val indexFields = localIndexer.fields
-									val fieldValues = indexFields.map(field =>
-										(field -> extractor.getFieldValue(field)(t))
-									).map{case (k, v) => (k, v.get)}.toMap
-									localIndexer.calculateIndex(fieldValues)
-								}
+					val indexFields = localIndexer.fields
+
+					// Parse the records from the raw data.  The parser reuses
+					// its value array, so each record is fully used before
+					// moving to the next.
+					parser.parseRecordValues(iter).flatMap{case (record, parsed) =>
+						parsed.flatMap(values =>
+							Try(
+								(localIndexer.calculateIndex(indexFields.map(field =>
+									                             (field -> extractor.getFieldValueFromArray(field, values))).toMap),
+								 extractor.getFieldValueFromArray(localZVar, values))
 							)
-
-							// Determine and add in our binnable value
-							(indexValue,
-							 extractor.getFieldValue(localZVar)(t))
-						}
-					)
+						).toOption
+					}
 				}
-			).filter(record =>
-				record._1.isSuccess && record._2.isSuccess
-			).map(record =>
-				(record._1.get, record._2.get)
 			)
 
 			if (cacheProcessed)
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.datasets
+
+
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+
+import scala.reflect.ClassTag
+import scala.util.Try
+
+import org.apache.hadoop.io.BytesWritable
+import org.apache.hadoop.io.NullWritable
+import org.apache.hadoop.mapred.SequenceFileOutputFormat
+import org.apache.spark.SparkContext
+import org.apache.spark.SparkContext._
+import org.apache.spark.rdd.RDD
+import org.apache.spark.storage.StorageLevel
+
+
+
+/**
+ * A simple binary columnar format for parsed CSV data.
+ *
+ * Data is stored as a Hadoop sequence file of blocks, each holding a group of
+ * rows.  Within a block, the values of each column are stored together, as
+ * raw doubles, after a header listing the column names.  Readers only decode
+ * the columns they need, and never have to parse text.
+ *
+ * Values are stored as parsed by CSVRecordParser - i.e., after dates,
+ * IP addresses, property maps and field scaling have been applied.
+ */
+object ColumnarBlock {
+	val VERSION = 1
+	val DEFAULT_ROWS_PER_BLOCK = 65536
+
+	/** Encode a set of rows, each with a value for every column, into a block */
+	def encode (columns: Seq[String], rows: Seq[Seq[Double]]): Array[Byte] = {
+		val baos = new ByteArrayOutputStream(64 + 8 * columns.size * rows.size)
+		val output = new DataOutputStream(baos)
+		output.writeInt(VERSION)
+		output.writeInt(rows.size)
+		output.writeInt(columns.size)
+		columns.foreach(output.writeUTF(_))
+		for (column <- 0 until columns.size; row <- rows)
+			output.writeDouble(row(column))
+		output.close()
+		baos.toByteArray()
+	}
+
+	/**
+	 * Decode the given columns of a block.
+	 *
+	 * @return The number of rows in the block, and the values of each
+	 *         requested column, in the order requested
+	 */
+	def decode (block: Array[Byte], length: Int, columns: Seq[String]): (Int, Seq[Array[Double]]) = {
+		val bais = new ByteArrayInputStream(block, 0, length)
+		val input = new DataInputStream(bais)
+		val version = input.readInt()
+		if (VERSION != version)
+			throw new IllegalArgumentException("Unknown columnar block version "+version)
+		val rows = input.readInt()
+		val blockColumns = Range(0, input.readInt()).map(n => input.readUTF())
+		val dataStart = length - bais.available()
+
+		val values = columns.map(column =>
+			{
+				val index = blockColumns.indexOf(column)
+				if (index < 0)
+					throw new IllegalArgumentException("Column "+column+" not found in columnar data")
+				val columnValues = new Array[Double](rows)
+				ByteBuffer.wrap(block, dataStart + index * rows * 8, rows * 8)
+					.asDoubleBuffer().get(columnValues)
+				columnValues
+			}
+		)
+		(rows, values)
+	}
+
+	/** Read the blocks stored at a location */
+	def readBlocks (sc: SparkContext, location: String, partitions: Option[Int]): RDD[Array[Byte]] = {
+		val blocks = partitions match {
+			case Some(n) => sc.sequenceFile(location, classOf[NullWritable], classOf[BytesWritable], n)
+			case None => sc.sequenceFile(location, classOf[NullWritable], classOf[BytesWritable])
+		}
+		// Hadoop reuses writables, so the bytes have to be copied out.
+		blocks.map(_._2).map(bytes => java.util.Arrays.copyOf(bytes.getBytes(), bytes.getLength()))
+	}
+
+	/**
+	 * Convert a CSV data set, as described by the given properties, into
+	 * columnar form, with one column for every field the properties describe.
+	 * Records that can't be fully parsed are dropped, just as CSVDataset
+	 * drops them.
+	 */
+	def convert (sc: SparkContext,
+	             properties: CSVRecordPropertiesWrapper,
+	             outputLocation: String,
+	             rowsPerBlock: Int = DEFAULT_ROWS_PER_BLOCK): Unit = {
+		val localProperties = properties
+		val columns = properties.fields
+		new CSVDataSource(properties).getData(sc).mapPartitions(iter =>
+			{
+				val parser = new CSVRecordParser(localProperties)
+				parser.parseRecords(iter, columns:_*)
+					.map(_._2).filter(_.isSuccess).map(_.get)
+					.grouped(rowsPerBlock)
+					.map(rows => (NullWritable.get(), new BytesWritable(encode(columns, rows))))
+			}
+		).saveAsHadoopFile(outputLocation,
+		                   classOf[NullWritable], classOf[BytesWritable],
+		                   classOf[SequenceFileOutputFormat[NullWritable, BytesWritable]])
+	}
+}
+
+
+
+/**
+ * A dataset that reads data in the columnar format written by
+ * ColumnarBlock.convert, rather than parsing CSV text.  It is configured by
+ * the same properties as CSVDataset, with the same field definitions; the
+ * only difference is that oculus.binning.source.location points at the
+ * columnar data, and oculus.binning.source.format is "columnar".
+ */
+class ColumnarDataset[IT: ClassTag] (indexer: CSVIndexExtractor[IT],
+                                     properties: CSVRecordPropertiesWrapper,
+                                     tileWidth: Int,
+                                     tileHeight: Int)
+		extends CSVDatasetBase[IT](indexer, properties, tileWidth, tileHeight) {
+	type STRATEGY_TYPE = ColumnarStaticProcessingStrategy
+	protected var strategy: STRATEGY_TYPE = null
+
+	def initialize (sc: SparkContext, cacheProcessed: Boolean): Unit =
+		initialize(new ColumnarStaticProcessingStrategy(sc, cacheProcessed))
+
+
+
+	class ColumnarStaticProcessingStrategy (sc: SparkContext, cacheProcessed: Boolean)
+			extends StaticProcessingStrategy[IT, Double](sc) {
+		def getData: RDD[(IT, Double)] = {
+			val localIndexer = indexer
+			val localZVar = zVar
+			val source = new CSVDataSource(properties)
+
+			// Only decode the columns we actually use
+			val derivedFields = Set("count", CSVDatasetBase.ZERO_STR)
+			val columns = (localIndexer.fields :+ localZVar).distinct.filter(!derivedFields.contains(_))
+			val columnIndices = columns.zipWithIndex.toMap
+
+			val data = source.getDataFiles.map(location =>
+				ColumnarBlock.readBlocks(sc, location, source.getIdealPartitions)
+			).reduce(_ union _).flatMap(block =>
+				{
+					val (rows, columnValues) = ColumnarBlock.decode(block, block.length, columns)
+					val getValue: (String, Int) => Double = (field, row) =>
+						if ("count" == field) 1.0
+						else if (CSVDatasetBase.ZERO_STR == field) 0.0
+						else columnValues(columnIndices(field))(row)
+
+					Range(0, rows).iterator.flatMap(row =>
+						Try(
+							(localIndexer.calculateIndex(localIndexer.fields.map(field =>
+								                             (field -> getValue(field, row))).toMap),
+							 getValue(localZVar, row))
+						).toOption
+					)
+				}
+			)
+
+			if (cacheProcessed)
+				data.persist(StorageLevel.MEMORY_AND_DISK)
+
+			data
+		}
+	}
+}
@@ -84,6 +84,13 @@ abstract class Dataset[IT: ClassTag, PT: ClassTag, BT] {
 	def getNumYBins: Int = 256
 
 	def getConsolidationPartitions: Option[Int] = None
+
+	/**
+	 * Whether levels should be binned bottom-up - i.e., binning the raw data
+	 * only on the deepest level, and building each shallower level from the
+	 * tiles of the level below it.
+	 */
+	def isBottomUp: Boolean = false
 	
 	def isDensityStrip: Boolean = false
 
@@ -241,6 +248,18 @@ object DatasetFactory {
 	                                  tileHeight: Int): CSVDataset[T] =
 		getDataset(indexer, properties, tileWidth, tileHeight)(indexer.indexTypeManifest)
 
+	private def getColumnarDataset[T: ClassTag] (indexer: CSVIndexExtractor[T],
+	                                             properties: CSVRecordPropertiesWrapper,
+	                                             tileWidth: Int,
+	                                             tileHeight: Int): ColumnarDataset[T] =
+		new ColumnarDataset(indexer, properties, tileWidth, tileHeight)
+
+	private def getColumnarDatasetGeneric[T] (indexer: CSVIndexExtractor[T],
+	                                          properties: CSVRecordPropertiesWrapper,
+	                                          tileWidth: Int,
+	                                          tileHeight: Int): ColumnarDataset[T] =
+		getColumnarDataset(indexer, properties, tileWidth, tileHeight)(indexer.indexTypeManifest)
+
 	def createDataset (sc: SparkContext,
 	                   dataDescription: Properties,
 	                   cacheRaw: Boolean,
@@ -254,8 +273,19 @@ object DatasetFactory {
 		// Determine indexing information
 		val indexer = CSVIndexExtractor.fromProperties(properties)
 
-		val dataset:CSVDataset[_] = getDatasetGeneric(indexer, properties, tileWidth, tileHeight)
-		dataset.initialize(sc, cacheRaw, cacheFilterable, cacheProcessed)
-		dataset
+		val format = properties.getString("oculus.binning.source.format",
+		                                  "The format of the source data - csv, or columnar "+
+			                                  "(as written by ColumnarBlock.convert)",
+		                                  Some("csv"))
+		if ("columnar" == format) {
+			val dataset:ColumnarDataset[_] =
+				getColumnarDatasetGeneric(indexer, properties, tileWidth, tileHeight)
+			dataset.initialize(sc, cacheProcessed)
+			dataset
+		} else {
+			val dataset:CSVDataset[_] = getDatasetGeneric(indexer, properties, tileWidth, tileHeight)
+			dataset.initialize(sc, cacheRaw, cacheFilterable, cacheProcessed)
+			dataset
+		}
 	}
 }
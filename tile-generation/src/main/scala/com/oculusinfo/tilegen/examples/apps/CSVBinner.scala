@@ -45,6 +45,7 @@ import com.oculusinfo.tilegen.tiling.RDDBinner
 import com.oculusinfo.tilegen.tiling.HBaseTileIO
 import com.oculusinfo.tilegen.tiling.LocalTileIO
 import com.oculusinfo.tilegen.util.PropertiesWrapper
+import com.oculusinfo.binning.TileData
 import com.oculusinfo.binning.io.PyramidIO
 import com.oculusinfo.tilegen.tiling.TileIO
 import com.oculusinfo.tilegen.tiling.SqliteTileIO
@@ -136,29 +137,46 @@ object CSVBinner {
 	                        tileIO: TileIO): Unit = {
 		val binner = new RDDBinner
 		binner.debug = true
-		dataset.getLevels.map(levels =>
-			{
-				val procFcn: RDD[(IT, PT)] => Unit =
-					rdd =>
+		val writeTiles: (Seq[Int], RDD[TileData[BT]]) => Unit =
+			(levels, tiles) => tileIO.writeTileSet(dataset.getTilePyramid,
+			                                       dataset.getName,
+			                                       tiles,
+			                                       dataset.getBinDescriptor,
+			                                       dataset.getName,
+			                                       dataset.getDescription)
+
+		if (dataset.isBottomUp && !dataset.isDensityStrip) {
+			// Bin the raw data once, on the deepest level, and build the rest
+			// of the pyramid from that
+			val procFcn: RDD[(IT, PT)] => Unit =
+				rdd => binner.processDataBottomUp(rdd,
+				                                  dataset.getIndexScheme,
+				                                  dataset.getBinDescriptor,
+				                                  dataset.getTilePyramid,
+				                                  dataset.getLevels,
+				                                  (dataset.getNumXBins max dataset.getNumYBins),
+				                                  dataset.getConsolidationPartitions)(writeTiles)
+			dataset.process(procFcn, None)
+		} else {
+			dataset.getLevels.map(levels =>
 				{
-					val tiles = binner.processDataByLevel(rdd,
-					                                      dataset.getIndexScheme,
-					                                      dataset.getBinDescriptor,
-					                                      dataset.getTilePyramid,
-					                                      levels,
-					                                      (dataset.getNumXBins max dataset.getNumYBins),
-					                                      dataset.getConsolidationPartitions,
-					                                      dataset.isDensityStrip)
-					tileIO.writeTileSet(dataset.getTilePyramid,
-					                    dataset.getName,
-					                    tiles,
-					                    dataset.getBinDescriptor,
-					                    dataset.getName,
-					                    dataset.getDescription)
+					val procFcn: RDD[(IT, PT)] => Unit =
+						rdd =>
+					{
+						val tiles = binner.processDataByLevel(rdd,
+						                                      dataset.getIndexScheme,
+						                                      dataset.getBinDescriptor,
+						                                      dataset.getTilePyramid,
+						                                      levels,
+						                                      (dataset.getNumXBins max dataset.getNumYBins),
+						                                      dataset.getConsolidationPartitions,
+						                                      dataset.isDensityStrip)
+						writeTiles(levels, tiles)
+					}
+					dataset.process(procFcn, None)
 				}
-				dataset.process(procFcn, None)
-			}
-		)
+			)
+		}
 	}
 
 	/**
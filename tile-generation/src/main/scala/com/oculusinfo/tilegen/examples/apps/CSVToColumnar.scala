@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.examples.apps
+
+
+
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.util.Properties
+
+import com.oculusinfo.tilegen.datasets.ColumnarBlock
+import com.oculusinfo.tilegen.datasets.CSVRecordPropertiesWrapper
+import com.oculusinfo.tilegen.util.PropertiesWrapper
+
+
+
+/**
+ * Converts a CSV data set into the columnar form read by ColumnarDataset, so
+ * that repeated binning runs against the same data don't have to re-parse
+ * it each time.
+ *
+ * For each job properties file given, the data it describes is converted and
+ * written to the given output location, and a new properties file, pointing
+ * at the converted data, is written alongside the original, with the suffix
+ * ".columnar".  That file can then be passed directly to CSVBinner.
+ */
+object CSVToColumnar {
+	def main (args: Array[String]): Unit = {
+		if (args.size<2) {
+			println("Usage:")
+			println("\tCSVToColumnar [-d default_properties_file] job_properties_file output_location [rows_per_block]")
+			System.exit(1)
+		}
+
+		// Read default properties
+		var argIdx = 0
+		var defProps = new Properties()
+
+		while ("-d" == args(argIdx)) {
+			argIdx = argIdx + 1
+			val stream = new FileInputStream(args(argIdx))
+			defProps.load(stream)
+			stream.close()
+			argIdx = argIdx + 1
+		}
+		val defaultProperties = new PropertiesWrapper(defProps)
+		val connector = defaultProperties.getSparkConnector()
+		val sc = connector.getSparkContext("CSV to Columnar Conversion")
+
+		val propertiesFile = args(argIdx)
+		val outputLocation = args(argIdx+1)
+		val rowsPerBlock =
+			if (argIdx+2 < args.size) args(argIdx+2).toInt
+			else ColumnarBlock.DEFAULT_ROWS_PER_BLOCK
+
+		val props = new Properties(defProps)
+		val propStream = new FileInputStream(propertiesFile)
+		props.load(propStream)
+		propStream.close()
+
+		val startTime = System.currentTimeMillis()
+		ColumnarBlock.convert(sc, new CSVRecordPropertiesWrapper(props), outputLocation, rowsPerBlock)
+		val endTime = System.currentTimeMillis()
+		println("Finished converting "+propertiesFile+" in "+((endTime-startTime)/60000.0)+" minutes")
+
+		// Write out properties describing the converted data
+		val columnarProps = new Properties()
+		columnarProps.putAll(props)
+		columnarProps.setProperty("oculus.binning.source.location", outputLocation)
+		columnarProps.setProperty("oculus.binning.source.format", "columnar")
+		val columnarStream = new FileOutputStream(propertiesFile+".columnar")
+		columnarProps.store(columnarStream, "Converted from "+propertiesFile)
+		columnarStream.close()
+	}
+}
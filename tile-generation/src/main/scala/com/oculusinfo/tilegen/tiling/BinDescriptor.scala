@@ -32,15 +32,22 @@ import scala.collection.JavaConverters._
 
 import java.lang.{Double => JavaDouble}
 import java.lang.{Math => JavaMath}
+import java.util.{Iterator => JavaIterator}
 import java.util.{List => JavaList}
 import java.util.{Map => JavaMap}
 import java.util.ArrayList
 
 import org.apache.avro.file.CodecFactory
 
+import com.oculusinfo.binning.DoubleTileData
+import com.oculusinfo.binning.SparseTileData
+import com.oculusinfo.binning.TileData
+import com.oculusinfo.binning.TileIndex
+import com.oculusinfo.binning.io.serialization.PackedTileSerializer
 import com.oculusinfo.binning.io.serialization.TileSerializer
 import com.oculusinfo.binning.io.serialization.impl.DoubleAvroSerializer
 import com.oculusinfo.binning.io.serialization.impl.DoubleArrayAvroSerializer
+import com.oculusinfo.binning.io.serialization.impl.PackedDoubleTileSerializer
 import com.oculusinfo.binning.io.serialization.impl.BackwardCompatibilitySerializer
 import com.oculusinfo.binning.io.serialization.impl.StringDoublePairArrayAvroSerializer
 import com.oculusinfo.binning.util.Pair
@@ -72,6 +79,19 @@ trait BinDescriptor[PT, BT] extends Serializable {
 	/** Convert the processing value to a binning value */
 	def convert (value: PT): BT
 
+	/**
+	 * Convert a binning value back to a processing value, so that bins of
+	 * stored tiles can be aggregated with new data.  Descriptors whose
+	 * conversion loses information can't do this, and so can't be used to
+	 * update existing tile sets incrementally.  Only called if canUnconvert
+	 * is true.
+	 */
+	def unconvert (value: BT): PT =
+		throw new UnsupportedOperationException(getClass.getName+" can't convert bin values back into processing values")
+
+	/** Determine if this descriptor implements unconvert */
+	def canUnconvert: Boolean = false
+
 	/** Determine the minimum of two bin values */
 	def min (a: BT, b: BT): BT
 
@@ -105,6 +125,60 @@ trait BinDescriptor[PT, BT] extends Serializable {
 
 	/** Get the type of serializer to be used for tiles with this kind of bin */
 	def getSerializer: TileSerializer[BT]
+
+	/**
+	 * Create an empty tile to hold bins of this type, with every bin set to
+	 * the given default value.  Bin types with a more compact tile
+	 * representation should override this.
+	 */
+	def createTile (index: TileIndex, defaultValue: BT): TileData[BT] =
+		new TileData[BT](index, defaultValue)
+
+	/**
+	 * Create an empty tile to hold bins of this type, given the number of
+	 * bins that are expected to be set to something other than the default
+	 * value.  Mostly-empty tiles are stored sparsely; others are created with
+	 * createTile(index, defaultValue).
+	 */
+	def createTile (index: TileIndex, defaultValue: BT, nonDefaultBins: Int): TileData[BT] =
+		if (SparseTileData.isSparseEnough(index, nonDefaultBins))
+			new SparseTileData[BT](index, defaultValue)
+		else
+			createTile(index, defaultValue)
+
+	/**
+	 * Determine the minimum and maximum bin values of a tile, starting from
+	 * defaultMin and defaultMax.
+	 */
+	def getTileMinMax (tile: TileData[BT]): (BT, BT) = {
+		var minValue = defaultMin
+		var maxValue = defaultMax
+		val data: JavaIterator[BT] = tile match {
+			// Sparse tiles only need their stored values, plus the default
+			// value if any bins are unset.  The type parameter is erased, but
+			// a sparse tile passed to us as a TileData[BT] holds BTs.
+			case sparse: SparseTileData[_] => {
+				val index = sparse.getDefinition
+				if (sparse.getStoredBinCount < index.getXBins * index.getYBins) {
+					val defaultValue = sparse.getDefaultValue.asInstanceOf[BT]
+					if (null != defaultValue) {
+						minValue = min(minValue, defaultValue)
+						maxValue = max(maxValue, defaultValue)
+					}
+				}
+				sparse.getStoredBinValues.iterator.asInstanceOf[JavaIterator[BT]]
+			}
+			case _ => tile.getData.iterator
+		}
+		while (data.hasNext) {
+			val value = data.next
+			if (null != value) {
+				minValue = min(minValue, value)
+				maxValue = max(maxValue, value)
+			}
+		}
+		(minValue, maxValue)
+	}
 }
 
 class StandardDoubleBinDescriptor extends BinDescriptor[Double, JavaDouble] {
@@ -118,7 +192,41 @@ class StandardDoubleBinDescriptor extends BinDescriptor[Double, JavaDouble] {
 	def defaultUnprocessedBinValue: Double = 0.0
 	def stringToBin (value: String): JavaDouble = convert(value.toDouble)
 	def convert (value: Double): JavaDouble = new JavaDouble(value)
+	override def canUnconvert: Boolean = true
+	override def unconvert (value: JavaDouble): Double = value.doubleValue
 	def getSerializer: TileSerializer[JavaDouble] = new DoubleAvroSerializer(CodecFactory.bzip2Codec())
+	override def createTile (index: TileIndex, defaultValue: JavaDouble): TileData[JavaDouble] =
+		new DoubleTileData(index, defaultValue.doubleValue)
+	override def getTileMinMax (tile: TileData[JavaDouble]): (JavaDouble, JavaDouble) = tile match {
+		case doubleTile: DoubleTileData => getDoubleTileMinMax(doubleTile)
+		case _ => super.getTileMinMax(tile)
+	}
+	private def getDoubleTileMinMax (tile: DoubleTileData): (JavaDouble, JavaDouble) = {
+		val data = tile.getDoubleData
+		var minValue = defaultMin.doubleValue
+		var maxValue = defaultMax.doubleValue
+		var i = 0
+		while (i < data.length) {
+			val value = data(i)
+			// Null bins are stored as NaN, and, like nulls in the boxed case,
+			// shouldn't count; JavaMath.min and max would return NaN for them.
+			if (!JavaDouble.isNaN(value)) {
+				minValue = JavaMath.min(minValue, value)
+				maxValue = JavaMath.max(maxValue, value)
+			}
+			i += 1
+		}
+		(new JavaDouble(minValue), new JavaDouble(maxValue))
+	}
+}
+
+/**
+ * Mix-in for double bin descriptors to write tiles with the packed binary
+ * serializer, rather than with Avro.
+ */
+trait PackedDoubleSerialization extends StandardDoubleBinDescriptor {
+	override def getSerializer: TileSerializer[JavaDouble] =
+		new PackedDoubleTileSerializer(PackedTileSerializer.Compression.Deflate, 6)
 }
 
 class CompatibilityDoubleBinDescriptor extends StandardDoubleBinDescriptor {
@@ -192,6 +300,9 @@ class StandardDoubleArrayBinDescriptor extends BinDescriptor[Seq[Double], JavaLi
 	def defaultUnprocessedBinValue: Seq[Double] = Seq[Double]()
 	def convert (value: Seq[Double]): JavaList[JavaDouble] =
 		value.map(v => new JavaDouble(v)).asJava
+	override def canUnconvert: Boolean = true
+	override def unconvert (value: JavaList[JavaDouble]): Seq[Double] =
+		value.asScala.map(_.doubleValue).toList
 	def getSerializer: TileSerializer[JavaList[JavaDouble]] = new DoubleArrayAvroSerializer(CodecFactory.bzip2Codec())
 }
 
@@ -270,6 +381,9 @@ class StringScoreBinDescriptor extends BinDescriptor[Map[String, Double],
 			.map(p => new Pair[String, JavaDouble](p._1, p._2))
 			.toList.sortBy(_.getSecond).asJava
 	}
+	override def canUnconvert: Boolean = true
+	override def unconvert (value: JavaList[Pair[String, JavaDouble]]): Map[String, Double] =
+		value.asScala.map(p => (p.getFirst, p.getSecond.doubleValue)).toMap
 	def getSerializer: TileSerializer[JavaList[Pair[String, JavaDouble]]] =
 		new StringDoublePairArrayAvroSerializer(CodecFactory.bzip2Codec())
 }
@@ -349,6 +463,9 @@ class CategoryValueBinDescriptor(categoryNames: List[String]) extends BinDescrip
 			new Pair[String, JavaDouble](categoryNames(i), value(i))
 		}).toList.asJava
 	}
+	override def canUnconvert: Boolean = true
+	override def unconvert (value: JavaList[Pair[String, JavaDouble]]): List[Double] =
+		value.asScala.map(_.getSecond.doubleValue).toList
 	def getSerializer: TileSerializer[JavaList[Pair[String, JavaDouble]]] =
 		new StringDoublePairArrayAvroSerializer(CodecFactory.bzip2Codec())
 }
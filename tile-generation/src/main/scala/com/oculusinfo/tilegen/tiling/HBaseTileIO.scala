@@ -30,6 +30,9 @@ package com.oculusinfo.tilegen.tiling
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 
+import scala.collection.JavaConverters._
+
+import org.apache.hadoop.conf.Configuration
 import org.apache.hadoop.fs.Path
 import org.apache.hadoop.hbase.HBaseConfiguration
 import org.apache.hadoop.hbase.client.HBaseAdmin;
@@ -38,6 +41,7 @@ import org.apache.hadoop.hbase.client.Result
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable
 import org.apache.hadoop.hbase.mapred.TableOutputFormat
 import org.apache.hadoop.hbase.mapreduce.TableInputFormat
+import org.apache.hadoop.hbase.util.Bytes
 import org.apache.hadoop.mapred.JobConf
 
 
@@ -47,10 +51,10 @@ import org.apache.spark.rdd.RDD
 import org.apache.spark.rdd.NewHadoopRDD
 
 import com.oculusinfo.binning.TileIndex
-import com.oculusinfo.binning.TilePyramid
 import com.oculusinfo.binning.TileData
 import com.oculusinfo.binning.io.PyramidIO
 import com.oculusinfo.binning.io.impl.HBasePyramidIO
+import com.oculusinfo.binning.io.impl.HBaseRowKeyScheme
 import com.oculusinfo.binning.io.serialization.TileSerializer
 
 import com.oculusinfo.tilegen.util.ArgumentParser
@@ -90,7 +94,8 @@ class HBaseTileIO (zookeeperQuorum: String,
 	 * Read a set of tiles.
 	 * 
 	 * We can do a little better than the standard; if levels is null, we can 
-	 * just read all tiles.
+	 * just read all tiles, and otherwise, we only scan the key ranges that
+	 * hold the requested levels.
 	 * 
 	 * Note that this uses the new Hadoop API
 	 */
@@ -103,50 +108,67 @@ class HBaseTileIO (zookeeperQuorum: String,
 		// We need some TableInputFormat constants in here.
 		import org.apache.hadoop.hbase.mapred.TableInputFormat._
 
-		val conf = getPyramidIO.getConfiguration()
+		val conf = pyramidIO.getConfiguration()
 		conf.set(TableInputFormat.INPUT_TABLE, baseLocation)
 		val admin = new HBaseAdmin(conf)
 
 		if (!admin.isTableAvailable(baseLocation)) {
 			sc.parallelize(List[TileData[T]]())
 		} else {
-			val hBaseRDD = sc.newAPIHadoopRDD(conf,
-			                                  classOf[TableInputFormat],
-			                                  classOf[ImmutableBytesWritable],
-			                                  classOf[Result])
-			val tiles = hBaseRDD.map(_._2).map(result =>
+			val hBaseRDD =
+				if (null == levels) {
+					sc.newAPIHadoopRDD(conf,
+					                   classOf[TableInputFormat],
+					                   classOf[ImmutableBytesWritable],
+					                   classOf[Result])
+				} else {
+					// Each range still gets one split per region it spans, so
+					// reads stay local
+					val scheme = pyramidIO.getRowKeyScheme(baseLocation)
+					val ranges = levels.flatMap(level => scheme.getLevelScanRanges(level).asScala)
+					sc.union(ranges.map(range =>
+						{
+							val rangeConf = new Configuration(conf)
+							rangeConf.set(RowRangeTableInputFormat.START_ROW,
+							              Bytes.toStringBinary(range(0)))
+							rangeConf.set(RowRangeTableInputFormat.STOP_ROW,
+							              Bytes.toStringBinary(range(1)))
+							sc.newAPIHadoopRDD(rangeConf,
+							                   classOf[RowRangeTableInputFormat],
+							                   classOf[ImmutableBytesWritable],
+							                   classOf[Result])
+						}
+					))
+				}
+			// Row keys may be in either the legacy or the binary scheme;
+			// rows that aren't tiles (i.e., the metadata row) are skipped
+			val tiles = hBaseRDD.map(_._2).flatMap(result =>
 				{
-					val key = new String(result.getRow())
+					val index = HBaseRowKeyScheme.getTileIndex(result.getRow())
 					val value = result.getValue(TILE_COLUMN.getFamily(),
 					                            TILE_COLUMN.getQualifier())
-					serializer.deserialize(
-						tileIndexFromRowId(key),
-						new ByteArrayInputStream(value)
-					)
+					if (null == index || null == value) {
+						None
+					} else {
+						Some(serializer.deserialize(index,
+						                            new ByteArrayInputStream(value)))
+					}
 				}
 			)
 
-			if (null == levels) {
-				tiles
-			} else {
-				val levelSet = levels.toSet
-				tiles.filter(tile => levelSet.contains(tile.getDefinition().getLevel()))
-			}
+			tiles
 		}
 	}
 
 
 	/**
-	 * Write a tile set directly to HBase.
+	 * Write tiles directly to HBase.
 	 * 
 	 * Note that this uses the old Hadoop API
 	 */
-	override def writeTileSet[PT, BT] (pyramider: TilePyramid,
-	                                   baseLocation: String,
-	                                   data: RDD[TileData[BT]],
-	                                   binDesc: BinDescriptor[PT, BT],
-	                                   name: String = "unknown",
-	                                   description: String = "unknown"): Map[Int, (BT, BT)] = {
+	override protected def writeTiles[PT, BT] (baseLocation: String,
+	                                           data: RDD[TileData[BT]],
+	                                           binDesc: BinDescriptor[PT, BT]): Map[Int, (BT, BT)] = {
 		val pyramidIO = getPyramidIO
 
 		// We need some TableOutputFormat constants in here.
@@ -154,6 +176,8 @@ class HBaseTileIO (zookeeperQuorum: String,
 
 		// Do any needed table initialization
 		pyramidIO.initializeForWrite(baseLocation)
+		// and find out how this table's rows are keyed
+		val rowKeyScheme = pyramidIO.getRowKeyScheme(baseLocation)
 
 		// Set up some accumulators to figure out needed metadata
 		val minMaxAccumulable = new LevelMinMaxAccumulableParam[BT](binDesc.min,
@@ -185,7 +209,7 @@ class HBaseTileIO (zookeeperQuorum: String,
 				baos.close
 				baos.flush
 
-				val put = new Put(rowIdFromTileIndex(index).getBytes())
+				val put = new Put(rowKeyScheme.getRowKey(index))
 				put.add(TILE_COLUMN.getFamily(),
 				        TILE_COLUMN.getQualifier(),
 				        baos.toByteArray())
@@ -208,27 +232,36 @@ class HBaseTileIO (zookeeperQuorum: String,
 		HBaseTiles.saveAsHadoopDataset(jobConfig)
 		println("Input tiles: "+tileCount)
 
+		// Now that we've written tiles  (therefore actually run our data mapping),
+		// our accumulators should be set.
+		minMaxAccum.value
+	}
+}
 
 
-		// Now that we've written tiles  (therefore actually run our data mapping),
-		// our accumulators should be set, and we can update our metadata
-		println("Calculating metadata")
-		// Don't alter metadata if there was no data added.
-		// Ideally, we'd still alter levels, but that's stored in our min/max list,
-		// so since we have no min/max info for levels with no data, we just don't store them.
-		val minMax = minMaxAccum.value
-		if (tileCount.value > 0) {
-			val sampleTile = data.first.getDefinition()
-			val tileSize = sampleTile.getXBins()
-			val metaData = combineMetaData(pyramider, baseLocation, minMax, tileSize, name, description)
-			writeMetaData(baseLocation, metaData)
-		}
-		
-		minMax
+object RowRangeTableInputFormat {
+	val START_ROW = "com.oculusinfo.tilegen.tiling.scan.row.start"
+	val STOP_ROW = "com.oculusinfo.tilegen.tiling.scan.row.stop"
+}
+/**
+ * A table input format that only scans one range of row keys.
+ * 
+ * TableInputFormat's own start and stop row properties are read as UTF-8
+ * strings, so can't hold arbitrary binary row keys; ours are read with
+ * Bytes.toBytesBinary.
+ */
+class RowRangeTableInputFormat extends TableInputFormat {
+	override def setConf (conf: Configuration): Unit = {
+		super.setConf(conf)
+		val start = conf.get(RowRangeTableInputFormat.START_ROW)
+		val stop = conf.get(RowRangeTableInputFormat.STOP_ROW)
+		if (null != start) getScan().setStartRow(Bytes.toBytesBinary(start))
+		if (null != stop) getScan().setStopRow(Bytes.toBytesBinary(stop))
 	}
 }
 
 
+
 object CountHBaseRowsByLevel {
 	def main (args: Array[String]): Unit = {
 		val argParser = new ArgumentParser(Array("-io", "hbase") ++ args)
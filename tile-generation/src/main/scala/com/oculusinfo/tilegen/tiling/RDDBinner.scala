@@ -49,11 +49,11 @@ import com.oculusinfo.binning.BinIndex
 import com.oculusinfo.binning.BinIterator
 import com.oculusinfo.binning.TileIndex
 import com.oculusinfo.binning.TilePyramid
-import com.oculusinfo.binning.DensityStripData
 import com.oculusinfo.binning.TileData
 import com.oculusinfo.binning.impl.AOITilePyramid
 import com.oculusinfo.binning.impl.WebMercatorTilePyramid
 import com.oculusinfo.binning.io.serialization.TileSerializer
+import com.oculusinfo.tilegen.util.LongDoubleHashMap
 
 
 
@@ -106,14 +106,95 @@ class TimeRangeCartesianIndexScheme extends TimeIndexScheme[(Double, Double, Dou
 }
 
 
+/**
+ * Tile manipulation used inside RDDBinner's RDD operations, kept here so
+ * those operations don't need to serialize the binner itself.
+ */
+object RDDBinner {
+	// Layout of a tile and bin packed into a single long: 5 bits of level, 21
+	// each of tile x and y, and 8 each of bin x and y.  Bin counts aren't
+	// stored, so all packed bins in a set must come from same-sized tiles.
+	private val MAX_PACKED_LEVEL = 21
+	private val MAX_PACKED_BINS = 256
+
+	/** Determine if a tile and bin can be packed into a long with packBin */
+	def canPackBin (tile: TileIndex, bin: BinIndex): Boolean = {
+		val level = tile.getLevel()
+		(0 <= level && level <= MAX_PACKED_LEVEL &&
+			 0 <= tile.getX() && tile.getX() < (1 << MAX_PACKED_LEVEL) &&
+			 0 <= tile.getY() && tile.getY() < (1 << MAX_PACKED_LEVEL) &&
+			 0 <= bin.getX() && bin.getX() < MAX_PACKED_BINS &&
+			 0 <= bin.getY() && bin.getY() < MAX_PACKED_BINS &&
+			 tile.getXBins() <= MAX_PACKED_BINS && tile.getYBins() <= MAX_PACKED_BINS)
+	}
+
+	/** Pack a tile and bin into a single, non-negative, long */
+	def packBin (tile: TileIndex, bin: BinIndex): Long =
+		((tile.getLevel().toLong << 58) |
+			 (tile.getX().toLong << 37) |
+			 (tile.getY().toLong << 16) |
+			 (bin.getX().toLong << 8) |
+			 bin.getY().toLong)
+
+	/** Unpack a tile and bin packed by packBin */
+	def unpackBin (key: Long, xBins: Int, yBins: Int): (TileIndex, BinIndex) =
+		(new TileIndex((key >>> 58).toInt,
+		               ((key >>> 37) & 0x1FFFFF).toInt,
+		               ((key >>> 16) & 0x1FFFFF).toInt,
+		               xBins, yBins),
+		 new BinIndex(((key >>> 8) & 0xFF).toInt, (key & 0xFF).toInt))
+
+	/**
+	 * Shrink the bins of a tile to the quarter of its parent tile that it
+	 * covers.  Bins are keyed by x + y * xBins; note that bin y coordinates run
+	 * from top to bottom, while tile y coordinates run from bottom to top.
+	 */
+	def toParentTile[PT] (index: TileIndex,
+	                      bins: MutableMap[Int, PT],
+	                      binDesc: BinDescriptor[PT, _]): (TileIndex, MutableMap[Int, PT]) = {
+		val xBins = index.getXBins()
+		val yBins = index.getYBins()
+		val parent = new TileIndex(index.getLevel()-1, index.getX()/2, index.getY()/2, xBins, yBins)
+		val xOffset = (index.getX() % 2) * (xBins/2)
+		val yOffset = (1 - index.getY() % 2) * (yBins/2)
+
+		val parentBins = MutableMap[Int, PT]()
+		bins.foreach(bin =>
+			{
+				val x = xOffset + (bin._1 % xBins)/2
+				val y = yOffset + (bin._1 / xBins)/2
+				val key = x + y*xBins
+				parentBins(key) = parentBins.get(key).map(binDesc.aggregateBins(_, bin._2)).getOrElse(bin._2)
+			}
+		)
+		(parent, parentBins)
+	}
+
+	/** Convert a tile's bins, keyed as in toParentTile, into a tile */
+	def toTile[PT, BT] (index: TileIndex,
+	                    bins: MutableMap[Int, PT],
+	                    binDesc: BinDescriptor[PT, BT]): TileData[BT] = {
+		val xBins = index.getXBins()
+		val tile = binDesc.createTile(index, binDesc.convert(binDesc.defaultProcessedBinValue), bins.size)
+		bins.foreach(bin => tile.setBin(bin._1 % xBins, bin._1 / xBins, binDesc.convert(bin._2)))
+		tile
+	}
+}
+
+
+
 /**
  * This class is the basis of all (or, at least, nearly all) of the
  * other binning classes.  This takes an RDD of data and transforms it
  * into a pyramid of tiles.
  *
- * @param tileScheme the type of tile pyramid this binner can bin.
+ * @param aggregateLevelsBottomUp If true, binAndWriteData and
+ *        binAndUpdateData bin raw data only on the deepest requested level,
+ *        and derive the tiles of each shallower level from those of the
+ *        level below it (see processDataBottomUp), instead of binning the
+ *        raw data once per level.
  */
-class RDDBinner {
+class RDDBinner (val aggregateLevelsBottomUp: Boolean = false) {
 	var debug: Boolean = true
 	
 
@@ -140,9 +221,64 @@ class RDDBinner {
 		bins: Int = 256,
 		name: String = "unknown",
 		description: String = "unknown") =
+		binAndStoreData(data, indexFcn, valueFcn, indexScheme, binDesc, tileScheme,
+		                consolidationPartitions, writeLocation, tileIO, levelSets,
+		                bins, name, description, false)
+
+
+
+	/**
+	 * Process a new batch of input records into tiles, and merge those tiles
+	 * into the tile set already stored at the given location, rather than
+	 * re-binning the whole data set.  Stored bins are aggregated with new ones
+	 * using the bin descriptor, so it must support
+	 * {@link BinDescriptor#unconvert}; if it doesn't (see
+	 * {@link BinDescriptor#canUnconvert}), this throws an
+	 * IllegalArgumentException before binning anything.
+	 * 
+	 * @param RT The raw input record type
+	 * @param IT The coordinate type
+	 * @param PT The processing bin type
+	 * @param BT The output bin type
+	 */
+	def binAndUpdateData[RT: ClassTag, IT: ClassTag, PT: ClassTag, BT] (
+		data: RDD[RT],
+		indexFcn: RT => Try[IT],
+		valueFcn: RT => Try[PT],
+		indexScheme: IndexScheme[IT],
+		binDesc: BinDescriptor[PT, BT],
+		tileScheme: TilePyramid,
+		consolidationPartitions: Option[Int],
+		writeLocation: String,
+		tileIO: TileIO,
+		levelSets: Seq[Seq[Int]],
+		bins: Int = 256,
+		name: String = "unknown",
+		description: String = "unknown") =
+		binAndStoreData(data, indexFcn, valueFcn, indexScheme, binDesc, tileScheme,
+		                consolidationPartitions, writeLocation, tileIO, levelSets,
+		                bins, name, description, true)
+
+
+
+	private def binAndStoreData[RT: ClassTag, IT: ClassTag, PT: ClassTag, BT] (
+		data: RDD[RT],
+		indexFcn: RT => Try[IT],
+		valueFcn: RT => Try[PT],
+		indexScheme: IndexScheme[IT],
+		binDesc: BinDescriptor[PT, BT],
+		tileScheme: TilePyramid,
+		consolidationPartitions: Option[Int],
+		writeLocation: String,
+		tileIO: TileIO,
+		levelSets: Seq[Seq[Int]],
+		bins: Int,
+		name: String,
+		description: String,
+		update: Boolean) =
 	{
 		if (debug) {
-			println("Binning data")
+			println(if (update) "Binning data update" else "Binning data")
 			println("\tConsolidation partitions: "+consolidationPartitions)
 			println("\tWrite location: "+writeLocation)
 			println("\tTile io type: "+tileIO.getClass.getName)
@@ -153,6 +289,12 @@ class RDDBinner {
 			println("\tDescription: "+description)
 		}
 
+		// Check this before doing any work, rather than failing part way
+		// through the first merge
+		if (update && !binDesc.canUnconvert)
+			throw new IllegalArgumentException("Bin descriptor "+binDesc.getClass.getName
+				                                   +" can't be used to update existing tiles")
+
 		val startTime = System.currentTimeMillis()
 
 		// Process the data to remove all but the minimal portion we need for
@@ -165,32 +307,50 @@ class RDDBinner {
 		).filter(record => record._1.isSuccess && record._2.isSuccess)
 			.map(record =>(record._1.get, record._2.get))
 
-		// Cache this, we'll use it at least once for each level set
-		bareData.persist(StorageLevel.MEMORY_AND_DISK)
-
-		levelSets.foreach(levels =>
-			{
-				val levelStartTime = System.currentTimeMillis()
-				// For each level set, process the bare data into tiles...
-				var tiles = processDataByLevel(bareData,
-				                               indexScheme,
-				                               binDesc,
-				                               tileScheme,
-				                               levels,
-				                               bins,
-				                               consolidationPartitions)
-				// ... and write them out.
+		var levelStartTime = System.currentTimeMillis()
+		val storeTiles: (Seq[Int], RDD[TileData[BT]]) => Unit = (levels, tiles) =>
+		{
+			// Write the tiles out, or merge them into what's there.
+			if (update)
+				tileIO.updateTileSet(tileScheme, writeLocation, tiles,
+				                     binDesc, name, description)
+			else
 				tileIO.writeTileSet(tileScheme, writeLocation, tiles,
 				                    binDesc, name, description)
-				if (debug) {
-					val levelEndTime = System.currentTimeMillis()
-					println("Finished binning levels ["+levels.mkString(", ")+"] of data set "
-						        + name + " in " + ((levelEndTime-levelStartTime)/60000.0) + " minutes")
-				}
+			if (debug) {
+				val levelEndTime = System.currentTimeMillis()
+				println("Finished binning levels ["+levels.mkString(", ")+"] of data set "
+					        + name + " in " + ((levelEndTime-levelStartTime)/60000.0) + " minutes")
+				levelStartTime = levelEndTime
 			}
-		)
+		}
+
+		if (aggregateLevelsBottomUp) {
+			// The bare data is only binned once, on the deepest level.
+			processDataBottomUp(bareData, indexScheme, binDesc, tileScheme, levelSets,
+			                    bins, consolidationPartitions)(storeTiles)
+		} else {
+			// Cache this, we'll use it at least once for each level set
+			bareData.persist(StorageLevel.MEMORY_AND_DISK)
+
+			levelSets.foreach(levels =>
+				{
+					levelStartTime = System.currentTimeMillis()
+					// For each level set, process the bare data into tiles...
+					var tiles = processDataByLevel(bareData,
+					                               indexScheme,
+					                               binDesc,
+					                               tileScheme,
+					                               levels,
+					                               bins,
+					                               consolidationPartitions)
+					// ... and store them.
+					storeTiles(levels, tiles)
+				}
+			)
 
-		bareData.unpersist(false)
+			bareData.unpersist(false)
+		}
 
 		if (debug) {
 			val endTime = System.currentTimeMillis()
@@ -248,7 +408,8 @@ class RDDBinner {
 				)
 			}
 
-		processData(data, binDesc, mapOverLevels, bins, consolidationPartitions, isDensityStrip)
+		processData(data, binDesc, mapOverLevels, bins, consolidationPartitions, isDensityStrip,
+		            Some(levels))
 	}
 
 
@@ -268,6 +429,9 @@ class RDDBinner {
 	 *                                grouping values in the same bin or the same
 	 *                                tile.  None to use the default determined
 	 *                                by Spark.
+	 * @param levels The levels over which indexToTiles spreads each record,
+	 *               if known; used to estimate which tiles are heavy enough
+	 *               to be split across partitions.
 	 * 
 	 * @param IT The index type, convertable to tile and bin
 	 * @param PT The bin type, when processing and aggregating
@@ -279,10 +443,165 @@ class RDDBinner {
 	                                   indexToTiles: IT => TraversableOnce[(TileIndex, BinIndex)],
 	                                   bins: Int = 256,
 	                                   consolidationPartitions: Option[Int] = None,
-	                                   isDensityStrip: Boolean = false):
+	                                   isDensityStrip: Boolean = false,
+	                                   levels: Option[Seq[Int]] = None):
 			RDD[TileData[BT]] = {
 		// We first bin data in each partition into its associated bins
-		val partitionBins = data.mapPartitions(iter =>
+		val partitionBins = aggregateWithinPartitions(data, binDesc, indexToTiles)
+
+		// Now, combine by-partition bins into global bins, and turn them into tiles.
+		consolidate(partitionBins, binDesc, consolidationPartitions, isDensityStrip, levels)
+	}
+
+
+
+	/**
+	 * Process a simplified input dataset into tiles on a set of levels,
+	 * binning the raw data only on the deepest level.  Each shallower level is
+	 * then built from the level below it, by aggregating each 2x2 block of
+	 * child bins into one parent bin, so the data shuffled for each level is
+	 * proportional to the number of occupied bins, rather than the number of
+	 * records.
+	 * 
+	 * This requires that each tile be split evenly into its four children, and
+	 * each bin into four child bins, which holds for both standard tile
+	 * pyramids when the number of bins is even.  Since parent bins are
+	 * aggregated from child bins with the bin descriptor, its aggregation
+	 * must also be associative.
+	 * 
+	 * @param data The data to be processed
+	 * @param indexScheme A conversion scheme for converting from the index type 
+	 *        to one we can use.
+	 * @param binDesc A description of how raw values are to be aggregated into
+	 *                bin values
+	 * @param tileScheme A description of how raw values are transformed to bin
+	 *                   coordinates
+	 * @param levelSets The sets of levels on which to create tiles
+	 * @param bins The number of bins per coordinate on each tile
+	 * @param consolidationPartitions The number of partitions to use when
+	 *                                grouping values in the same tile.  None
+	 *                                to use the default determined by Spark.
+	 * @param consumer A function to which the tiles of each level set are
+	 *                 passed, as soon as that level set is complete (so level
+	 *                 sets are consumed from the deepest up).  The levels
+	 *                 making up those tiles may be uncached once the
+	 *                 consumer returns, so it should be done with them by
+	 *                 then.
+	 * 
+	 * @param IT the index type, convertable to a cartesian pair with the 
+	 *           coordinateFromIndex function
+	 * @param PT The bin type, when processing and aggregating
+	 * @param BT The final bin type, ready for writing to tiles
+	 */
+	def processDataBottomUp[IT: ClassTag,
+	                        PT: ClassTag, BT] (data: RDD[(IT, PT)],
+	                                           indexScheme: IndexScheme[IT],
+	                                           binDesc: BinDescriptor[PT, BT],
+	                                           tileScheme: TilePyramid,
+	                                           levelSets: Seq[Seq[Int]],
+	                                           bins: Int = 256,
+	                                           consolidationPartitions: Option[Int] = None)
+	                                          (consumer: (Seq[Int], RDD[TileData[BT]]) => Unit): Unit = {
+		val allLevels = levelSets.flatten.toSet
+		val maxLevel = allLevels.max
+		val minLevel = allLevels.min
+		if (maxLevel > minLevel && 0 != (bins % 2))
+			throw new IllegalArgumentException("Can't aggregate levels bottom-up with an odd number ("
+				                                   +bins+") of bins")
+
+		// Bin the data on the deepest level
+		val mapToDeepestLevel: IT => TraversableOnce[(TileIndex, BinIndex)] =
+			index => {
+				val (x, y) = indexScheme.toCartesian(index)
+				val tile = tileScheme.rootToTile(x, y, maxLevel, bins)
+				Iterator.single((tile, tileScheme.rootToBin(x, y, tile)))
+			}
+		val deepestBins = aggregateWithinPartitions(data, binDesc, mapToDeepestLevel).map(p =>
+			(p._1._1, (p._1._2.getX() + p._1._2.getY()*p._1._1.getXBins(), p._2))
+		)
+		val createBins: ((Int, PT)) => MutableMap[Int, PT] = bin => MutableMap(bin)
+		val addBin: (MutableMap[Int, PT], (Int, PT)) => MutableMap[Int, PT] =
+			(tileBins, bin) => {
+				tileBins(bin._1) = tileBins.get(bin._1).map(binDesc.aggregateBins(_, bin._2)).getOrElse(bin._2)
+				tileBins
+			}
+		val mergeBins: (MutableMap[Int, PT], MutableMap[Int, PT]) => MutableMap[Int, PT] =
+			(a, b) => {
+				b.foreach(bin => addBin(a, bin))
+				a
+			}
+
+		// Each level is used both for its own tiles and for its parent level.
+		val levelTiles = MutableMap[Int, RDD[(TileIndex, MutableMap[Int, PT])]]()
+		levelTiles(maxLevel) =
+			deepestBins.combineByKey(createBins, addBin, mergeBins,
+			                         new TilePartitioner(getNumSplits(consolidationPartitions, deepestBins)))
+		levelTiles(maxLevel).persist(StorageLevel.MEMORY_AND_DISK)
+
+		for (level <- maxLevel to minLevel by -1) {
+			if (level < maxLevel) {
+				val children = levelTiles(level+1)
+				levelTiles(level) = children.map(child => RDDBinner.toParentTile(child._1, child._2, binDesc))
+					.reduceByKey(new TilePartitioner(getNumSplits(consolidationPartitions, children)), mergeBins)
+				levelTiles(level).persist(StorageLevel.MEMORY_AND_DISK)
+			}
+
+			// Hand off any level sets this level completes
+			val completed = levelSets.filter(_.min == level)
+			completed.foreach(levels =>
+				{
+					val tiles = levels.distinct.map(setLevel =>
+						levelTiles(setLevel).map(tile => RDDBinner.toTile(tile._1, tile._2, binDesc))
+					).reduce(_ union _)
+					consumer(levels, tiles)
+				}
+			)
+
+			// Release deeper levels once every level set that uses them has
+			// been consumed - as long as the levels built from them have been
+			// computed.  Computing this level computes any deeper ones still
+			// cached, but nothing computes it until it's used, so if no level
+			// set has used it yet, force it.
+			val released = levelTiles.keys.filter(deeperLevel =>
+				deeperLevel > level &&
+					levelSets.forall(levels => levels.min >= level || !levels.contains(deeperLevel))
+			).toList
+			if (!released.isEmpty) {
+				if (completed.isEmpty) levelTiles(level).count
+				released.foreach(deeperLevel => levelTiles.remove(deeperLevel).foreach(_.unpersist(false)))
+			}
+		}
+
+		levelTiles.values.foreach(_.unpersist(false))
+	}
+
+
+
+	// Bin data within each partition, combining values that land in the same
+	// bin of the same tile.
+	private def aggregateWithinPartitions[IT: ClassTag,
+	                                      PT: ClassTag] (data: RDD[(IT, PT)],
+	                                                     binDesc: BinDescriptor[PT, _],
+	                                                     indexToTiles: IT => TraversableOnce[(TileIndex, BinIndex)]):
+			RDD[((TileIndex, BinIndex), PT)] =
+		if (ClassTag.Double == implicitly[ClassTag[PT]]) {
+			aggregateDoublesWithinPartitions(data.asInstanceOf[RDD[(IT, Double)]],
+			                                 binDesc.asInstanceOf[BinDescriptor[Double, _]],
+			                                 indexToTiles)
+				.asInstanceOf[RDD[((TileIndex, BinIndex), PT)]]
+		} else {
+			aggregateObjectsWithinPartitions(data, binDesc, indexToTiles)
+		}
+
+
+
+	// The general case of aggregateWithinPartitions
+	private def aggregateObjectsWithinPartitions[IT: ClassTag,
+	                                             PT: ClassTag] (data: RDD[(IT, PT)],
+	                                                            binDesc: BinDescriptor[PT, _],
+	                                                            indexToTiles: IT => TraversableOnce[(TileIndex, BinIndex)]):
+			RDD[((TileIndex, BinIndex), PT)] =
+		data.mapPartitions(iter =>
 			{
 				val partitionResults: MutableMap[(TileIndex, BinIndex), PT] =
 					MutableMap[(TileIndex, BinIndex), PT]()
@@ -306,53 +625,119 @@ class RDDBinner {
 			}
 		)
 
-		// Now, combine by-partition bins into global bins, and turn them into tiles.
-		consolidate(partitionBins, binDesc, consolidationPartitions, isDensityStrip)
-	}
 
 
 
-	private def consolidate[PT: ClassTag, BT] (data: RDD[((TileIndex, BinIndex), PT)],
-	                                           binDesc: BinDescriptor[PT, BT],
-	                                           consolidationPartitions: Option[Int],
-	                                           isDensityStrip: Boolean):
-			RDD[TileData[BT]] = {
-		val densityStripLocal = isDensityStrip
-		val reduced = data.reduceByKey(binDesc.aggregateBins(_, _),
-		                               getNumSplits(consolidationPartitions, data)).map(p =>
-			(p._1._1, (p._1._2, p._2))
-		)
-		val result = reduced
-			.groupByKey(getNumSplits(consolidationPartitions, reduced))
-			.map(t =>
+	// aggregateWithinPartitions for double-valued bins.  Tiles and bins are
+	// packed into a single long key, and aggregated in a primitive map, so
+	// nothing is allocated per bin.  Aggregation only avoids boxing if the
+	// bin descriptor is a StandardDoubleBinDescriptor (or a subclass), whose
+	// aggregateBins takes primitive doubles; other descriptors are called
+	// through the generic BinDescriptor interface, which boxes.  If a
+	// partition has any bin that can't be packed, it falls back on a general
+	// map from that point.
+	private def aggregateDoublesWithinPartitions[IT: ClassTag] (data: RDD[(IT, Double)],
+	                                                            binDesc: BinDescriptor[Double, _],
+	                                                            indexToTiles: IT => TraversableOnce[(TileIndex, BinIndex)]):
+			RDD[((TileIndex, BinIndex), Double)] =
+		data.mapPartitions(iter =>
 			{
-				val index = t._1
-				val bins = t._2
-				val xLimit = index.getXBins()
-				val yLimit = index.getYBins()
-				val tile = if (densityStripLocal) new DensityStripData[BT](index)
-				else new TileData[BT](index)
-				val defaultBinValue = binDesc.convert(binDesc.defaultProcessedBinValue)
-
-				for (x <- 0 until xLimit) {
-					for (y <- 0 until yLimit) {
-						tile.setBin(x, y, defaultBinValue)
-					}
+				val aggregate: (Double, Double) => Double = binDesc match {
+					case doubleDesc: StandardDoubleBinDescriptor => (a, b) => doubleDesc.aggregateBins(a, b)
+					case _ => (a, b) => binDesc.aggregateBins(a, b)
 				}
+				val packedResults = new LongDoubleHashMap()
+				var generalResults: MutableMap[(TileIndex, BinIndex), Double] = null
+				var xBins = -1
+				var yBins = -1
 
-				bins.foreach(p =>
+				iter.foreach(record =>
 					{
-						val bin = p._1
-						val value = p._2
-						tile.setBin(bin.getX(), bin.getY(), binDesc.convert(value))
+						val value = record._2
+						indexToTiles(record._1).foreach(tbi =>
+							{
+								val (tile, bin) = tbi
+								if (null == generalResults) {
+									if (xBins < 0) {
+										xBins = tile.getXBins()
+										yBins = tile.getYBins()
+									}
+									if (xBins == tile.getXBins() && yBins == tile.getYBins() &&
+										    RDDBinner.canPackBin(tile, bin)) {
+										packedResults.merge(RDDBinner.packBin(tile, bin), value, aggregate)
+									} else {
+										// Switch to the general case
+										generalResults = MutableMap[(TileIndex, BinIndex), Double]()
+										packedResults.foreach((key, packedValue) =>
+											generalResults(RDDBinner.unpackBin(key, xBins, yBins)) = packedValue
+										)
+									}
+								}
+								if (null != generalResults) {
+									generalResults(tbi) = generalResults.get(tbi).map(aggregate(_, value)).getOrElse(value)
+								}
+							}
+						)
 					}
 				)
 
-				tile
+				if (null == generalResults) {
+					packedResults.iterator.map(entry =>
+						(RDDBinner.unpackBin(entry._1, xBins, yBins), entry._2)
+					)
+				} else {
+					generalResults.iterator
+				}
 			}
 		)
 
-		result
+
+
+	// Assemble bins into tiles.  Bins are aggregated directly into a buffer
+	// for each tile, so only one shuffle is needed - unless some tiles are so
+	// heavy that their bins are split over several partitions, in which case
+	// the parts of those tiles are merged in a second, tile-level, shuffle.
+	private def consolidate[PT: ClassTag, BT] (data: RDD[((TileIndex, BinIndex), PT)],
+	                                           binDesc: BinDescriptor[PT, BT],
+	                                           consolidationPartitions: Option[Int],
+	                                           isDensityStrip: Boolean,
+	                                           levels: Option[Seq[Int]]):
+			RDD[TileData[BT]] = {
+		val densityStripLocal = isDensityStrip
+		// Keep neighboring tiles together, but spread the bins of the largest
+		// tiles over several partitions, so they don't hold up the whole stage.
+		val partitions = getNumSplits(consolidationPartitions, data)
+		val levelSplits = levels match {
+			case Some(levelList) => TilePartitioner.levelSplits(partitions, levelList.size, levelList)
+			case None => TilePartitioner.levelSplits(partitions, 1)
+		}
+		val partitioner = new TilePartitioner(partitions, levelSplits)
+
+		val aggregate: (PT, PT) => PT = binDesc.aggregateBins(_, _)
+		val createBuffer: ((TileIndex, Int, PT)) => TileBuffer[PT] = tbv =>
+			new TileBuffer[PT](tbv._1).add(tbv._2, tbv._3, aggregate)
+		val addToBuffer: (TileBuffer[PT], (TileIndex, Int, PT)) => TileBuffer[PT] = (buffer, tbv) =>
+			buffer.add(tbv._2, tbv._3, aggregate)
+		val mergeBuffers: (TileBuffer[PT], TileBuffer[PT]) => TileBuffer[PT] = (a, b) =>
+			a.merge(b, aggregate)
+
+		val tileParts = data.map(p =>
+			{
+				val ((tile, bin), value) = p
+				((tile, partitioner.getShard(tile, bin)),
+				 (tile, bin.getX() + bin.getY()*tile.getXBins(), value))
+			}
+		).combineByKey(createBuffer, addToBuffer, mergeBuffers, partitioner)
+			.map(_._2)
+
+		val tiles =
+			if (partitioner.splitsTiles)
+				tileParts.map(buffer => (buffer.index, buffer))
+					.reduceByKey(new TilePartitioner(partitions), mergeBuffers)
+					.map(_._2)
+			else tileParts
+
+		tiles.map(_.toTile(binDesc, densityStripLocal))
 	}
 
 
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.tiling
+
+
+
+import scala.collection.mutable.{Map => MutableMap}
+
+import com.oculusinfo.binning.DensityStripData
+import com.oculusinfo.binning.TileData
+import com.oculusinfo.binning.TileIndex
+
+
+
+object TileBuffer {
+	/**
+	 * Buffers switch from sparse to dense storage once more than 1 in this
+	 * many of their bins are set.
+	 */
+	val DENSE_FRACTION = 8
+}
+
+/**
+ * A mutable buffer of processing values for the bins of a single tile, into
+ * which values can be aggregated directly as tiles are assembled.  Bins are
+ * keyed by x + y * xBins.
+ * 
+ * Mostly-empty tiles are common on deep levels, so buffers start out storing
+ * their bins sparsely, and switch to a preallocated array of all bins once
+ * enough of them are set.
+ * 
+ * @param index The tile whose bins this buffer holds
+ */
+class TileBuffer[PT] (val index: TileIndex) extends Serializable {
+	private val xBins = index.getXBins()
+	private val numBins = xBins * index.getYBins()
+	private var sparseBins = MutableMap[Int, PT]()
+	// Null entries are unset bins
+	private var denseBins: Array[Any] = null
+	private var denseCount = 0
+
+	/** The number of bins in this tile that have a value */
+	def binCount: Int = if (null == denseBins) sparseBins.size else denseCount
+
+	/** Aggregate a value into a bin of this tile */
+	def add (bin: Int, value: PT, aggregate: (PT, PT) => PT): TileBuffer[PT] = {
+		if (null == denseBins) {
+			sparseBins.get(bin) match {
+				case Some(current) => sparseBins(bin) = aggregate(current, value)
+				case None => {
+					sparseBins(bin) = value
+					if (sparseBins.size * TileBuffer.DENSE_FRACTION > numBins) makeDense()
+				}
+			}
+		} else {
+			val current = denseBins(bin)
+			if (null == current) {
+				denseBins(bin) = value
+				denseCount += 1
+			} else {
+				denseBins(bin) = aggregate(current.asInstanceOf[PT], value)
+			}
+		}
+		this
+	}
+
+	/**
+	 * Aggregate all the bins of another buffer of the same tile into this one.
+	 * Either buffer may be reused for the result, so neither should be used
+	 * afterwards except through the return value.
+	 */
+	def merge (that: TileBuffer[PT], aggregate: (PT, PT) => PT): TileBuffer[PT] =
+		if (null == denseBins && null != that.denseBins) {
+			// Add into whichever buffer is already dense
+			that.merge(this, aggregate)
+		} else {
+			that.foreach((bin, value) => add(bin, value, aggregate))
+			this
+		}
+
+	/** Call the given function on each (bin, value) pair that has been set */
+	def foreach (fcn: (Int, PT) => Unit): Unit =
+		if (null == denseBins) {
+			sparseBins.foreach(p => fcn(p._1, p._2))
+		} else {
+			var bin = 0
+			while (bin < numBins) {
+				if (null != denseBins(bin)) fcn(bin, denseBins(bin).asInstanceOf[PT])
+				bin += 1
+			}
+		}
+
+	/**
+	 * Convert this buffer into a tile, with bins that have no value set to the
+	 * descriptor's default.
+	 */
+	def toTile[BT] (binDesc: BinDescriptor[PT, BT], isDensityStrip: Boolean = false): TileData[BT] = {
+		val defaultBinValue = binDesc.convert(binDesc.defaultProcessedBinValue)
+		val tile = if (isDensityStrip) {
+			val strip = new DensityStripData[BT](index)
+			for (x <- 0 until index.getXBins(); y <- 0 until index.getYBins())
+				strip.setBin(x, y, defaultBinValue)
+			strip
+		} else {
+			binDesc.createTile(index, defaultBinValue, binCount)
+		}
+		foreach((bin, value) => tile.setBin(bin % xBins, bin / xBins, binDesc.convert(value)))
+		tile
+	}
+
+	private def makeDense (): Unit = {
+		denseBins = new Array[Any](numBins)
+		sparseBins.foreach(p => denseBins(p._1) = p._2)
+		denseCount = sparseBins.size
+		sparseBins = null
+	}
+}
@@ -35,16 +35,21 @@ import scala.util.{Try, Success, Failure}
 import org.apache.spark._
 import org.apache.spark.SparkContext._
 import org.apache.spark.rdd.RDD
+import org.apache.spark.storage.StorageLevel
 import org.apache.avro.file.CodecFactory
 
 import com.oculusinfo.binning.TileIndex
 import com.oculusinfo.binning.TilePyramid
 import com.oculusinfo.binning.TileData
 import com.oculusinfo.binning.io.PyramidIO
+import com.oculusinfo.binning.io.impl.ArchivePyramidIO
 import com.oculusinfo.binning.io.impl.FileSystemPyramidIO
+import com.oculusinfo.binning.io.serialization.PackedTileSerializer
 import com.oculusinfo.binning.io.serialization.TileSerializer
 import com.oculusinfo.binning.io.serialization.impl.DoubleAvroSerializer
 import com.oculusinfo.binning.io.serialization.impl.DoubleArrayAvroSerializer
+import com.oculusinfo.binning.io.serialization.impl.PackedDoubleArrayTileSerializer
+import com.oculusinfo.binning.io.serialization.impl.PackedDoubleTileSerializer
 import com.oculusinfo.binning.io.serialization.impl.StringArrayAvroSerializer
 import com.oculusinfo.binning.io.serialization.impl.StringIntPairArrayAvroSerializer
 import com.oculusinfo.binning.io.serialization.impl.BackwardCompatibilitySerializer
@@ -73,7 +78,8 @@ object TileIO {
 	 */
 	def fromArguments (argParser: KeyValueArgumentSource): TileIO = {
 		argParser.getString("io",
-		                    "TileIO type - either hbase "
+		                    "TileIO type - either hbase, "
+			                    +"archive (one packed file per level), "
 			                    +"or file (DEFAULT).\n",
 		                    Some("file")) match {
 			case "hbase" => new HBaseTileIO(
@@ -84,12 +90,53 @@ object TileIO {
 				                    Some("2181")),
 				argParser.getString("hbasemaster",
 				                    "The master machine for hbase"));
+			case "archive" => new ArchiveTileIO()
 			case _ => new LocalTileIO(
 				argParser.getString("tileextension",
 				                    "The extension used for each tile file.  Default is \"avro\"",
-				                    Some("avro")))
+				                    Some("avro")),
+				argParser.getInt("tileiothreads",
+				                 "The number of threads with which each worker reads and "
+					                 +"writes batches of tile files.  Default is "
+					                 +FileSystemPyramidIO.DEFAULT_IO_THREADS,
+				                 Some(FileSystemPyramidIO.DEFAULT_IO_THREADS)))
 		}
 	}
+
+	/**
+	 * Merge a new tile into a stored tile of the same index, aggregating the
+	 * two bin by bin.  Bins holding the default value count as empty in
+	 * either tile, so they take the other tile's value unchanged.
+	 */
+	def mergeTiles[PT, BT] (stored: TileData[BT],
+	                        delta: TileData[BT],
+	                        binDesc: BinDescriptor[PT, BT]): TileData[BT] = {
+		val index = delta.getDefinition()
+		val xBins = index.getXBins()
+		val yBins = index.getYBins()
+		val defaultValue = binDesc.convert(binDesc.defaultProcessedBinValue)
+
+		val merged = new Array[Any](xBins*yBins)
+		var nonDefaultBins = 0
+		for (x <- 0 until xBins; y <- 0 until yBins) {
+			val storedValue = stored.getBin(x, y)
+			val deltaValue = delta.getBin(x, y)
+			val value =
+				if (null == storedValue || defaultValue == storedValue) deltaValue
+				else if (null == deltaValue || defaultValue == deltaValue) storedValue
+				else binDesc.convert(binDesc.aggregateBins(binDesc.unconvert(storedValue),
+				                                           binDesc.unconvert(deltaValue)))
+			if (defaultValue != value) nonDefaultBins += 1
+			merged(x + y*xBins) = value
+		}
+
+		val tile = binDesc.createTile(index, defaultValue, nonDefaultBins)
+		for (x <- 0 until xBins; y <- 0 until yBins) {
+			val value = merged(x + y*xBins).asInstanceOf[BT]
+			if (defaultValue != value) tile.setBin(x, y, value)
+		}
+		tile
+	}
 }
 
 trait TileIO extends Serializable {
@@ -136,6 +183,31 @@ trait TileIO extends Serializable {
 	                          binDesc: BinDescriptor[PT, BT],
 	                          name: String = "unknown",
 	                          description: String = "unknown"): Map[Int, (BT, BT)] = {
+		val minMax = writeTiles(baseLocation, data, binDesc)
+
+		// Don't alter metadata if there was no data added.
+		if (!minMax.isEmpty) {
+			println("Calculating metadata")
+			val sampleTile = data.first.getDefinition()
+			val metaData = combineMetaData(pyramider, baseLocation, minMax, sampleTile.getXBins, name, description)
+			writeMetaData(baseLocation, metaData)
+		}
+
+		// Return the min/maxes so the data isn't lost from converting it to a
+		// string in PyramidMetaData
+		minMax
+	}
+
+	/**
+	 * Write all tiles contained in the given data, without touching the
+	 * metadata
+	 * 
+	 * @return The minimum and maximum bin values of the tiles written on
+	 *         each level
+	 */
+	protected def writeTiles[PT, BT] (baseLocation: String,
+	                                  data: RDD[TileData[BT]],
+	                                  binDesc: BinDescriptor[PT, BT]): Map[Int, (BT, BT)] = {
 		// Do any needed initialization
 		getPyramidIO.initializeForWrite(baseLocation)
 
@@ -166,31 +238,108 @@ trait TileIO extends Serializable {
 						// Update minimum and maximum values for metadata
 						val level = index.getLevel()
 						tileCount += 1
-						for (x <- 0 until index.getXBins()) {
-							for (y <- 0 until index.getYBins()) {
-								minMaxAccum += (level -> tile.getBin(x, y))
-							}
-						}
+						val (tileMin, tileMax) = binDesc.getTileMinMax(tile)
+						minMaxAccum += (level -> tileMin)
+						minMaxAccum += (level -> tileMax)
 					}
 				)
 			}
 		)
 
-		// Calculate overall tile set characteristics
-		val sampleTile = data.first.getDefinition()
-		val minMax = minMaxAccum.value
-
-		println("Calculating metadata")
 		println("Input tiles: "+tileCount)
-		
-		val metaData = combineMetaData(pyramider, baseLocation, minMax, sampleTile.getXBins, name, description)
-		writeMetaData(baseLocation, metaData)
 
-		// Return the min/maxes so the data isn't lost from converting it to a
-		// string in PyramidMetaData
-		minMax
+		minMaxAccum.value
 	}
 	
+	/**
+	 * Merge a set of new tiles into the tiles already stored at the given
+	 * location, and write the merged tiles back.  Each tile index should
+	 * appear at most once in the new data (as it does in the output of
+	 * RDDBinner), so each stored tile is read and rewritten exactly once.
+	 * 
+	 * Since only some tiles are rewritten, level minimums and maximums in the
+	 * metadata are widened to cover the merged tiles, rather than being
+	 * recalculated over the whole pyramid.
+	 * 
+	 * The bin descriptor must be able to unconvert bin values; if it can't,
+	 * this throws an IllegalArgumentException before reading anything.
+	 */
+	def updateTileSet[PT, BT] (pyramider: TilePyramid,
+	                           baseLocation: String,
+	                           data: RDD[TileData[BT]],
+	                           binDesc: BinDescriptor[PT, BT],
+	                           name: String = "unknown",
+	                           description: String = "unknown"): Map[Int, (BT, BT)] = {
+		if (!binDesc.canUnconvert)
+			throw new IllegalArgumentException("Bin descriptor "+binDesc.getClass.getName
+				                                   +" can't be used to update existing tiles")
+
+		val oldMetaData = readMetaData(baseLocation)
+
+		// With no metadata, there's no existing tile set to merge into.
+		val merged = if (oldMetaData.isEmpty) data else {
+			val serializer = binDesc.getSerializer
+			data.mapPartitions(iter =>
+				{
+					val pyramidIO = getPyramidIO
+					// read stored tiles in the same size groups we write them
+					iter.grouped(1024).flatMap(group =>
+						{
+							val storedTiles = pyramidIO.readTiles(baseLocation, serializer,
+							                                      group.map(_.getDefinition()).asJava)
+							val stored = storedTiles.asScala.filter(null != _)
+								.map(tile => (tile.getDefinition(), tile)).toMap
+							group.map(tile =>
+								stored.get(tile.getDefinition()) match {
+									case Some(storedTile) => TileIO.mergeTiles(storedTile, tile, binDesc)
+									case None => tile
+								}
+							)
+						}
+					)
+				}
+			)
+		}
+
+		// Writing goes over its input more than once; make sure the stored
+		// tiles are only read (and merged) once.
+		merged.persist(StorageLevel.MEMORY_AND_DISK)
+		val newMinMax = writeTiles(baseLocation, merged, binDesc)
+
+		val minMax = oldMetaData match {
+			case None => newMinMax
+			case Some(metaData) => {
+				val oldMins = metaData.getLevelMinimums().asScala
+				val oldMaxes = metaData.getLevelMaximums().asScala
+				newMinMax.map(entry =>
+					{
+						val level = entry._1
+						val (newMin, newMax) = entry._2
+						val min = oldMins.get(level)
+							.map(old => binDesc.min(binDesc.stringToBin(old), newMin))
+							.getOrElse(newMin)
+						val max = oldMaxes.get(level)
+							.map(old => binDesc.max(binDesc.stringToBin(old), newMax))
+							.getOrElse(newMax)
+						(level, (min, max))
+					}
+				)
+			}
+		}
+
+		// Write the metadata once, with the widened minimums and maximums
+		if (!minMax.isEmpty) {
+			println("Calculating metadata")
+			writeMetaData(baseLocation,
+			              combineMetaData(pyramider, baseLocation, minMax,
+			                              merged.first.getDefinition().getXBins(),
+			                              name, description))
+		}
+		merged.unpersist(false)
+
+		minMax
+	}
+
 	/**
 	 * Takes a map of levels to (mins, maxes) and combines them with the current metadata
 	 * that already exists, or creates a new one if none exists.
@@ -273,9 +422,20 @@ class LevelMinMaxAccumulableParam[T] (minFcn: (T, T) => T, defaultMin: T,
 /**
  * Read and write tiles from the local file system
  */
-class LocalTileIO (extension: String) extends TileIO {
+class LocalTileIO (extension: String,
+                   ioThreads: Int = FileSystemPyramidIO.DEFAULT_IO_THREADS) extends TileIO {
+	def getPyramidIO : PyramidIO =
+		new FileSystemPyramidIO("", extension, ioThreads)
+}
+
+
+/**
+ * Read and write tiles from packed, per-level archives on the local file
+ * system
+ */
+class ArchiveTileIO extends TileIO {
 	def getPyramidIO : PyramidIO =
-		new FileSystemPyramidIO("", extension)
+		new ArchivePyramidIO("")
 }
 
 
@@ -304,6 +464,8 @@ object TileSerializerChooser {
 			case "avro-double-array" => new DoubleArrayAvroSerializer(CodecFactory.bzip2Codec())
 			case "avro-string-array" => new StringArrayAvroSerializer(CodecFactory.bzip2Codec())
 			case "avro-string-int-pair-array" => new StringIntPairArrayAvroSerializer(CodecFactory.bzip2Codec())
+			case "packed-double" => new PackedDoubleTileSerializer(PackedTileSerializer.Compression.Deflate, 6)
+			case "packed-double-array" => new PackedDoubleArrayTileSerializer(PackedTileSerializer.Compression.Deflate, 6)
 			case _ => throw new IllegalArgumentException("Illegal serializer type "+serializerType)
 		}
 }
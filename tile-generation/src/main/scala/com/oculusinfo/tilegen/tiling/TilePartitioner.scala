@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.tiling
+
+
+
+import org.apache.spark.Partitioner
+
+import com.oculusinfo.binning.BinIndex
+import com.oculusinfo.binning.TileIndex
+import com.oculusinfo.binning.util.ZOrder
+
+
+
+object TilePartitioner {
+	/** The default size, in tiles, of each side of a block of tiles kept together */
+	val DEFAULT_BLOCK_SIZE = 4
+
+	/**
+	 * Estimate how many partitions the bins of each tile on a level need, if
+	 * binned data is spread evenly over the given number of levels.  A tile
+	 * on level L then holds about 1/(4^L * levels) of the data, while each
+	 * partition should get about 1/partitions of it, so shallow levels (where
+	 * tiles are few and large) get split, and deep ones don't.
+	 */
+	def levelSplits (partitions: Int, levels: Int, maxLevel: Int = 15): Map[Int, Int] =
+		levelSplits(partitions, levels, Range(0, maxLevel+1))
+
+	/** As above, but only for the given levels */
+	def levelSplits (partitions: Int, levels: Int, splitLevels: Seq[Int]): Map[Int, Int] =
+		splitLevels.map(level =>
+			{
+				val tilesInLevel = (1L << (2*level)) * (levels max 1)
+				(level, (partitions / tilesInLevel).toInt max 1)
+			}
+		).filter(_._2 > 1).toMap
+}
+
+/**
+ * A partitioner for binning keys - tile indices, (tile index, bin index)
+ * pairs, or (tile index, shard) pairs (see getShard).
+ * 
+ * Tiles are grouped into square blocks of neighboring tiles along the Z-curve
+ * (as given by {@link ZOrder#getTileKey}), and each block goes to
+ * one partition, so spatially adjacent tiles end up together.
+ * 
+ * Heavy tiles - typically those on the lowest levels, which contain a large
+ * share of all the data - can be split: the bins of a tile on a level with n
+ * splits are spread over n consecutive partitions.  This only applies to
+ * (tile, bin) and (tile, shard) keys; tiles themselves always go to a single
+ * partition, so bins reduced separately can be merged together again into
+ * whole tiles.
+ *
+ * @param partitions The number of partitions into which to split data
+ * @param levelSplits The number of partitions over which to split the bins
+ *                    of each tile on a given level; levels not listed aren't
+ *                    split.
+ * @param blockSize The size, in tiles, of each side of a block of tiles kept
+ *                  together in one partition.  Rounded down to a power of 2.
+ */
+class TilePartitioner (private val partitions: Int,
+                       private val levelSplits: Map[Int, Int] = Map(),
+                       blockSize: Int = TilePartitioner.DEFAULT_BLOCK_SIZE)
+		extends Partitioner {
+	// Each level of block size is 2 bits of Z-curve key
+	private val blockShift = 2 * (31 - Integer.numberOfLeadingZeros(blockSize max 1))
+
+	def numPartitions: Int = partitions
+
+	def getPartition (key: Any): Int = key match {
+		case (tile: TileIndex, bin: BinIndex) => getShardPartition(tile, getShard(tile, bin))
+		case (tile: TileIndex, shard: Int) => getShardPartition(tile, shard)
+		case tile: TileIndex => getTilePartition(tile)
+		case _ => mod(key.hashCode)
+	}
+
+	/** Determine if any tiles on any levels are split across partitions */
+	def splitsTiles: Boolean = levelSplits.values.exists(_ > 1)
+
+	/**
+	 * Get the shard of its tile to which a bin belongs - the offset from its
+	 * tile's partition of the partition to which it goes.  Zero for tiles
+	 * that aren't split.  (tile, shard) keys are partitioned the same as the
+	 * (tile, bin) keys in that shard.
+	 */
+	def getShard (tile: TileIndex, bin: BinIndex): Int = {
+		val splits = levelSplits.getOrElse(tile.getLevel(), 1)
+		if (splits > 1) mod(bin.hashCode, splits) else 0
+	}
+
+	private def getShardPartition (tile: TileIndex, shard: Int): Int =
+		if (0 == shard) getTilePartition(tile)
+		else mod(getTilePartition(tile) + shard)
+
+	private def getTilePartition (tile: TileIndex): Int = {
+		// Shifting the fence bit along with the key keeps blocks on different
+		// levels distinct.
+		val block = ZOrder.getTileKey(tile) >>> blockShift
+		// Mix the bits, so nearby blocks don't land in a regular pattern of
+		// partitions.
+		val mixed = block * 0x9E3779B97F4A7C15L
+		mod((mixed ^ (mixed >>> 32)).toInt)
+	}
+
+	private def mod (n: Int, modulus: Int = partitions): Int = {
+		val m = n % modulus
+		if (m < 0) m + modulus else m
+	}
+
+	override def equals (other: Any): Boolean = other match {
+		case that: TilePartitioner =>
+			(that.partitions == partitions &&
+				 that.levelSplits == levelSplits &&
+				 that.blockShift == blockShift)
+		case _ => false
+	}
+
+	override def hashCode: Int = 41*partitions + 43*levelSplits.hashCode + 47*blockShift
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.util
+
+
+
+/**
+ * A hash map from non-negative longs to doubles, using open addressing over
+ * primitive arrays, so that neither keys nor values are boxed and adding a
+ * value allocates nothing (except when the map grows).
+ *
+ * @param initialCapacity The number of entries the map should be able to
+ *                        hold before it has to grow
+ */
+class LongDoubleHashMap (initialCapacity: Int = 1024) {
+	private val EMPTY = -1L
+	private val replace: (Double, Double) => Double = (a, b) => b
+	private var _keys: Array[Long] = null
+	private var _values: Array[Double] = null
+	private var _mask = 0
+	private var _size = 0
+	allocate(math.max(16, Integer.highestOneBit(math.max(1, initialCapacity)*2-1) << 1))
+
+	private def allocate (capacity: Int): Unit = {
+		_keys = Array.fill(capacity)(EMPTY)
+		_values = new Array[Double](capacity)
+		_mask = capacity-1
+	}
+
+	// Spread the key bits, so packed keys that differ only in high bits
+	// don't all collide
+	private def slotFor (key: Long): Int = {
+		var h = key * 0x9E3779B97F4A7C15L
+		h ^= (h >>> 32)
+		h.toInt & _mask
+	}
+
+	private def findSlot (key: Long): Int = {
+		var slot = slotFor(key)
+		while (EMPTY != _keys(slot) && key != _keys(slot))
+			slot = (slot + 1) & _mask
+		slot
+	}
+
+	def size: Int = _size
+
+	def contains (key: Long): Boolean = EMPTY != _keys(findSlot(key))
+
+	/** Get the value stored for a key, or the given default if there is none */
+	def getOrElse (key: Long, default: Double): Double = {
+		val slot = findSlot(key)
+		if (EMPTY == _keys(slot)) default else _values(slot)
+	}
+
+	/** Set the value of a key */
+	def update (key: Long, value: Double): Unit =
+		merge(key, value, replace)
+
+	/**
+	 * Add a value to the map; if the key is already present, the stored
+	 * value is combined with the new one using the given function.
+	 */
+	def merge (key: Long, value: Double, combine: (Double, Double) => Double): Unit = {
+		require(key >= 0, "LongDoubleHashMap keys must be non-negative")
+		val slot = findSlot(key)
+		if (EMPTY == _keys(slot)) {
+			_keys(slot) = key
+			_values(slot) = value
+			_size += 1
+			// Keep the load factor at or below one half
+			if (_size*2 > _keys.length) grow()
+		} else {
+			_values(slot) = combine(_values(slot), value)
+		}
+	}
+
+	private def grow (): Unit = {
+		val oldKeys = _keys
+		val oldValues = _values
+		allocate(oldKeys.length*2)
+		var i = 0
+		while (i < oldKeys.length) {
+			if (EMPTY != oldKeys(i)) {
+				val slot = findSlot(oldKeys(i))
+				_keys(slot) = oldKeys(i)
+				_values(slot) = oldValues(i)
+			}
+			i += 1
+		}
+	}
+
+	/** Call the given function on each (key, value) entry in the map */
+	def foreach (fcn: (Long, Double) => Unit): Unit = {
+		var i = 0
+		while (i < _keys.length) {
+			if (EMPTY != _keys(i)) fcn(_keys(i), _values(i))
+			i += 1
+		}
+	}
+
+	/** Iterate over the (key, value) entries in the map */
+	def iterator: Iterator[(Long, Double)] =
+		Iterator.range(0, _keys.length).filter(i => EMPTY != _keys(i)).map(i => (_keys(i), _values(i)))
+}
@@ -57,5 +57,39 @@ class CSVDatasetPropertiesTestSuite extends FunSuite {
 		assert(2 === CSVProps.fieldIndices("c"))
 		assert(3 === CSVProps.fieldIndices("d"))
 	}
-}
 
+	test("Test record parsing") {
+		val props = new Properties()
+		props.setProperty("oculus.binning.parsing.separator", ",")
+		props.setProperty("oculus.binning.parsing.a.index", "0")
+		props.setProperty("oculus.binning.parsing.a.fieldType", "int")
+		props.setProperty("oculus.binning.parsing.b.index", "1")
+		props.setProperty("oculus.binning.parsing.b.fieldType", "ipv4")
+		props.setProperty("oculus.binning.parsing.c.index", "3")
+		props.setProperty("oculus.binning.parsing.c.fieldScaling", "log")
+		props.setProperty("oculus.binning.parsing.c.fieldBase", "10")
+		props.setProperty("oculus.binning.parsing.d.index", "2")
+		props.setProperty("oculus.binning.parsing.d.fieldType", "propertyMap")
+		props.setProperty("oculus.binning.parsing.d.property", "y")
+		props.setProperty("oculus.binning.parsing.d.propertyType", "long")
+		props.setProperty("oculus.binning.parsing.d.propertySeparator", ";")
+		props.setProperty("oculus.binning.parsing.d.propertyValueSeparator", "=")
+
+		val parser = new CSVRecordParser(new CSVRecordPropertiesWrapper(props))
+		val records = parser.parseRecords(Iterator("3,0.0.1.2,x=1;y=4,100,ignored",
+		                                           "3,0.0.1.2,x=1;y=4",
+		                                           "3.5,0.0.1.2,x=1;y=4,100")).toList
+		assert(3 === records.size)
+
+		val values = records(0)._2.get
+		assert(4 === values.size)
+		assert(3.0 === values(0))
+		assert(258.0 === values(1))
+		assert(4.0 === values(2))
+		assert(math.abs(values(3) - 2.0) < 1E-12)
+
+		// Missing columns and badly formatted values fail
+		assert(records(1)._2.isFailure)
+		assert(records(2)._2.isFailure)
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.datasets
+
+
+
+import org.scalatest.FunSuite
+
+
+
+class ColumnarBlockTestSuite extends FunSuite {
+	test("Encode and decode a block") {
+		val columns = Seq("a", "b", "c")
+		val rows = Seq(Seq(1.0, 2.0, 3.0),
+		               Seq(4.0, 5.0, 6.0),
+		               Seq(7.0, 8.0, 9.0),
+		               Seq(10.0, 11.0, 12.0))
+		val block = ColumnarBlock.encode(columns, rows)
+
+		val (n, values) = ColumnarBlock.decode(block, block.length, Seq("c", "a"))
+		assert(4 === n)
+		assert(2 === values.size)
+		assert(List(3.0, 6.0, 9.0, 12.0) === values(0).toList)
+		assert(List(1.0, 4.0, 7.0, 10.0) === values(1).toList)
+	}
+
+	test("Decode a block from a larger buffer") {
+		val block = ColumnarBlock.encode(Seq("x"), Seq(Seq(1.5), Seq(2.5)))
+		val buffer = block ++ Array.fill[Byte](16)(-1)
+
+		val (n, values) = ColumnarBlock.decode(buffer, block.length, Seq("x"))
+		assert(2 === n)
+		assert(List(1.5, 2.5) === values(0).toList)
+	}
+
+	test("Missing columns are rejected") {
+		val block = ColumnarBlock.encode(Seq("x"), Seq(Seq(1.0)))
+		intercept[IllegalArgumentException] {
+			ColumnarBlock.decode(block, block.length, Seq("y"))
+		}
+	}
+}
@@ -32,6 +32,7 @@ import java.util.{List => JavaList}
 
 import org.scalatest.FunSuite
 
+import com.oculusinfo.binning.{DoubleTileData, TileIndex}
 import com.oculusinfo.binning.util.Pair
 
 
@@ -59,11 +60,24 @@ class BinDescriptorTestSuite extends FunSuite {
 		                      new JavaDouble(2.0)).doubleValue)
 		assert(3.0 === bd.aggregateBins(1.0, 2.0))
 		assert(4.0 === bd.convert(4.0).doubleValue)
+		assert(bd.canUnconvert)
+		assert(4.0 === bd.unconvert(bd.convert(4.0)))
 
 		assert("1.3" === bd.binToString(new JavaDouble(1.3)))
 		assert(1.3 === bd.stringToBin("1.3").doubleValue)
 	}
 
+	test("Standard Double Bin Descriptor min and max skip empty bins") {
+		val bd = new StandardDoubleBinDescriptor
+		val tile = new DoubleTileData(new TileIndex(0, 0, 0, 2, 2), Array(3.0, 1.0, 4.0, 1.5))
+		tile.setBin(1, 0, null)
+		assert(JavaDouble.isNaN(tile.getDoubleData()(1)))
+
+		val (minValue, maxValue) = bd.getTileMinMax(tile)
+		assert(1.5 === minValue.doubleValue)
+		assert(4.0 === maxValue.doubleValue)
+	}
+
 
 	test("Minimum Double Bin Descriptor") {
 		val bd = new MinimumDoubleBinDescriptor
@@ -108,6 +122,7 @@ class BinDescriptorTestSuite extends FunSuite {
 		assert("4.1,3.2,2.3,1.4" === bd.binToString(toJava(List(4.1, 3.2, 2.3, 1.4))))
 		assertListsEqual(toJava(List(4.1, 3.2, 2.3, 1.4)),
 		                 bd.stringToBin("4.1,3.2,2.3,1.4"))
+		assertSeqsEqual(aBase, bd.unconvert(bd.convert(aBase)))
 	}
 
 	test("String Score Bin Descriptor") {
@@ -127,6 +142,7 @@ class BinDescriptorTestSuite extends FunSuite {
 		assert("\"a\":1.0,\"b\":2.0,\"c\":3.0,\"d\":4.0" === bd.binToString(bd.convert(a)))
 		assert(a ===
 			       unconvert(bd.stringToBin("\"a\":1.0,\"b\":2.0,\"c\":3.0,\"d\":4.0")))
+		assert(a === bd.unconvert(bd.convert(a)))
 
 	}
 }
@@ -37,6 +37,7 @@ import org.scalatest.FunSuite
 import org.apache.spark.SharedSparkContext
 
 import com.oculusinfo.binning.impl.AOITilePyramid
+import com.oculusinfo.binning.BinIndex
 import com.oculusinfo.binning.TileData
 import com.oculusinfo.binning.TileIndex
 
@@ -89,4 +90,138 @@ class RDDBinnerTestSuite extends FunSuite with SharedSparkContext {
 			                    0.0, 0.0, 1.0, 0.0,
 			                    0.0, 0.0, 0.0, 1.0))
 	}
+
+	test("Incremental update") {
+		val coordFcn: (((Double, Double), Double)) => Try[(Double, Double)] = record => Try(record._1)
+		val valueFcn: (((Double, Double), Double)) => Try[Double] = record => Try(record._2)
+		val binner = new RDDBinner
+		val tileIO = new TestTileIO
+		val pyramid = new AOITilePyramid(0.0, 0.0, 7.9999, 7.9999)
+		val pyramidId = "update test"
+
+		def bin (data: Seq[((Double, Double), Double)], update: Boolean): Unit = {
+			val rdd = sc.parallelize(data)
+			if (update)
+				binner.binAndUpdateData(rdd, coordFcn, valueFcn, new CartesianIndexScheme,
+				                        new StandardDoubleBinDescriptor, pyramid, None,
+				                        pyramidId, tileIO, List(List(1)), bins=4)
+			else
+				binner.binAndWriteData(rdd, coordFcn, valueFcn, new CartesianIndexScheme,
+				                       new StandardDoubleBinDescriptor, pyramid, None,
+				                       pyramidId, tileIO, List(List(1)), bins=4)
+		}
+
+		// Start with the diagonal of tile (1, 0, 1)...
+		bin(Range(0, 4).map(n => ((n.toDouble, (7-n).toDouble), 1.0)), false)
+		// ... then add to two of its bins, and to a tile that doesn't exist yet
+		bin(List(((0.0, 7.0), 2.0), ((1.0, 7.0), 1.0), ((7.0, 7.0), 3.0)), true)
+
+		val tile01 = tileIO.getTile(pyramidId, new TileIndex(1, 0, 1, 4, 4))
+		assert(tile01.isDefined)
+		assert(tile01.get.getData.asScala.map(_.toString.toDouble) ===
+			       List[Double](3.0, 1.0, 0.0, 0.0,
+			                    0.0, 1.0, 0.0, 0.0,
+			                    0.0, 0.0, 1.0, 0.0,
+			                    0.0, 0.0, 0.0, 1.0))
+		val tile11 = tileIO.getTile(pyramidId, new TileIndex(1, 1, 1, 4, 4))
+		assert(tile11.isDefined)
+		assert(tile11.get.getData.asScala.map(_.toString.toDouble) ===
+			       List[Double](0.0, 0.0, 0.0, 3.0,
+			                    0.0, 0.0, 0.0, 0.0,
+			                    0.0, 0.0, 0.0, 0.0,
+			                    0.0, 0.0, 0.0, 0.0))
+		assert(tileIO.getTile(pyramidId, new TileIndex(1, 0, 0, 4, 4)).isEmpty)
+
+		val metaData = tileIO.readMetaData(pyramidId)
+		assert(metaData.isDefined)
+		assert(3.0 === metaData.get.getLevelMaximum(1).toDouble)
+	}
+
+	test("Updates need a descriptor that can unconvert") {
+		val coordFcn: (((Double, Double), Double)) => Try[(Double, Double)] = record => Try(record._1)
+		val valueFcn: (((Double, Double), Double)) => Try[Double] = record => Try(record._2)
+		val binner = new RDDBinner
+		val tileIO = new TestTileIO
+		val pyramid = new AOITilePyramid(0.0, 0.0, 7.9999, 7.9999)
+		val pyramidId = "bad update test"
+		val binDesc = new StandardDoubleBinDescriptor {
+			override def canUnconvert: Boolean = false
+		}
+
+		intercept[IllegalArgumentException] {
+			binner.binAndUpdateData(sc.parallelize(List(((0.0, 7.0), 2.0))), coordFcn, valueFcn,
+			                        new CartesianIndexScheme, binDesc, pyramid, None,
+			                        pyramidId, tileIO, List(List(1)), bins=4)
+		}
+		// Nothing was binned or written
+		assert(tileIO.getTile(pyramidId, new TileIndex(1, 0, 1, 4, 4)).isEmpty)
+		assert(tileIO.readMetaData(pyramidId).isEmpty)
+	}
+
+	test("Bottom-up binning matches binning each level") {
+		val data = sc.parallelize(Range(0, 100)).map(n =>
+			(((n*1.37) % 7.9, (n*2.71) % 7.9), 1.0)
+		)
+		val coordFcn: (((Double, Double), Double)) => Try[(Double, Double)] = record => Try(record._1)
+		val valueFcn: (((Double, Double), Double)) => Try[Double] = record => Try(record._2)
+		val tileIO = new TestTileIO
+		val pyramid = new AOITilePyramid(0.0, 0.0, 7.9999, 7.9999)
+		val levelSets = List(List(0, 1), List(2, 3))
+
+		def bin (pyramidId: String, bottomUp: Boolean): Unit = {
+			val binner = new RDDBinner(bottomUp)
+			binner.binAndWriteData(data, coordFcn, valueFcn, new CartesianIndexScheme,
+			                       new StandardDoubleBinDescriptor, pyramid, None,
+			                       pyramidId, tileIO, levelSets, bins=4)
+		}
+		bin("by level", false)
+		bin("bottom up", true)
+
+		for (level <- 0 to 3; x <- 0 until (1 << level); y <- 0 until (1 << level)) {
+			val index = new TileIndex(level, x, y, 4, 4)
+			val byLevel = tileIO.getTile("by level", index)
+			val bottomUp = tileIO.getTile("bottom up", index)
+			assert(byLevel.isDefined === bottomUp.isDefined)
+			if (byLevel.isDefined) {
+				assert(byLevel.get.getData.asScala.map(_.toString.toDouble) ===
+					       bottomUp.get.getData.asScala.map(_.toString.toDouble))
+			}
+		}
+		assert(100.0 === tileIO.getTile("bottom up", new TileIndex(0, 0, 0, 4, 4)).get
+			       .getData.asScala.map(_.toString.toDouble).sum)
+	}
+
+	test("Bottom-up binning releases levels as it goes") {
+		val data = sc.parallelize(Range(0, 100)).map(n =>
+			(((n*1.37) % 7.9, (n*2.71) % 7.9), 1.0)
+		)
+		val pyramid = new AOITilePyramid(0.0, 0.0, 7.9999, 7.9999)
+		val binner = new RDDBinner
+		val initialPersisted = sc.getPersistentRDDs.size
+
+		var consumed = List[Seq[Int]]()
+		binner.processDataBottomUp(data, new CartesianIndexScheme, new StandardDoubleBinDescriptor,
+		                           pyramid, List(List(3), List(2), List(1), List(0)), bins=4)(
+			(levels, tiles) => {
+				assert(tiles.count > 0)
+				// Only the level being consumed, and the one it was built from
+				assert(sc.getPersistentRDDs.size - initialPersisted <= 2)
+				consumed = consumed :+ levels
+			}
+		)
+		assert(List(List(3), List(2), List(1), List(0)) === consumed)
+		assert(initialPersisted === sc.getPersistentRDDs.size)
+	}
+
+	test("Tile and bin packing") {
+		val tile = new TileIndex(21, (1 << 21)-1, 12345, 256, 256)
+		val bin = new BinIndex(255, 17)
+		assert(RDDBinner.canPackBin(tile, bin))
+		val key = RDDBinner.packBin(tile, bin)
+		assert(key >= 0)
+		assert((tile, bin) === RDDBinner.unpackBin(key, 256, 256))
+
+		assert(!RDDBinner.canPackBin(new TileIndex(22, 0, 0, 256, 256), bin))
+		assert(!RDDBinner.canPackBin(new TileIndex(4, 0, 0, 512, 512), new BinIndex(300, 0)))
+	}
 }
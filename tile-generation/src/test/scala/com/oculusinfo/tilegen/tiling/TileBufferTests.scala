@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.tiling
+
+
+
+import scala.collection.JavaConverters._
+
+import org.scalatest.FunSuite
+
+import com.oculusinfo.binning.TileIndex
+
+
+
+class TileBufferTestSuite extends FunSuite {
+	val sum: (Double, Double) => Double = _ + _
+
+	test("Sparse aggregation") {
+		val buffer = new TileBuffer[Double](new TileIndex(2, 1, 1, 4, 4))
+		buffer.add(0, 1.0, sum).add(5, 2.0, sum).add(0, 3.0, sum)
+		assert(2 === buffer.binCount)
+
+		val tile = buffer.toTile(new StandardDoubleBinDescriptor)
+		assert(tile.getData.asScala.map(_.toString.toDouble) ===
+			       List[Double](4.0, 0.0, 0.0, 0.0,
+			                    0.0, 2.0, 0.0, 0.0,
+			                    0.0, 0.0, 0.0, 0.0,
+			                    0.0, 0.0, 0.0, 0.0))
+	}
+
+	test("Dense aggregation and merging") {
+		val index = new TileIndex(2, 1, 1, 4, 4)
+		// More than 1/8 of the bins set - dense
+		val dense = new TileBuffer[Double](index)
+		Range(0, 16).foreach(bin => dense.add(bin, bin.toDouble, sum))
+		// Fewer - sparse
+		val sparse = new TileBuffer[Double](index)
+		sparse.add(3, 10.0, sum).add(15, 20.0, sum)
+
+		val merged = sparse.merge(dense, sum)
+		assert(16 === merged.binCount)
+		val tile = merged.toTile(new StandardDoubleBinDescriptor)
+		assert(tile.getData.asScala.map(_.toString.toDouble) ===
+			       List[Double](0.0, 1.0, 2.0, 13.0,
+			                    4.0, 5.0, 6.0, 7.0,
+			                    8.0, 9.0, 10.0, 11.0,
+			                    12.0, 13.0, 14.0, 35.0))
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.tiling
+
+
+
+import org.scalatest.FunSuite
+
+import com.oculusinfo.binning.BinIndex
+import com.oculusinfo.binning.TileIndex
+
+
+
+class TilePartitionerTestSuite extends FunSuite {
+	test("Level split heuristic") {
+		val splits = TilePartitioner.levelSplits(200, 2)
+		assert(100 === splits(0))
+		assert(25 === splits(1))
+		assert(6 === splits(2))
+		// Levels that fit in a partition aren't split at all
+		assert(!splits.contains(3))
+	}
+
+	test("Neighboring tiles stay together") {
+		val partitioner = new TilePartitioner(1000)
+		for (level <- 2 to 10) {
+			val p = partitioner.getPartition(new TileIndex(level, 4, 8))
+			for (x <- 4 until 8; y <- 8 until 12)
+				assert(p === partitioner.getPartition(new TileIndex(level, x, y)))
+		}
+		// Bins of an unsplit tile go with the tile
+		val tile = new TileIndex(5, 3, 7)
+		assert(partitioner.getPartition(tile) ===
+			       partitioner.getPartition((tile, new BinIndex(17, 23))))
+	}
+
+	test("Heavy tiles are split") {
+		val partitioner = new TilePartitioner(64, Map(0 -> 16))
+		val tile = new TileIndex(0, 0, 0)
+		val binPartitions =
+			(for (x <- 0 until 256; y <- 0 until 256)
+			 yield partitioner.getPartition((tile, new BinIndex(x, y)))).toSet
+		assert(16 === binPartitions.size)
+		binPartitions.foreach(p => assert(0 <= p && p < 64))
+
+		// The same bin always goes to the same partition
+		assert(partitioner.getPartition((tile, new BinIndex(3, 4))) ===
+			       partitioner.getPartition((tile, new BinIndex(3, 4))))
+	}
+
+	test("Partitions are in range") {
+		val partitioner = new TilePartitioner(7)
+		for (level <- 0 to 8; x <- 0 until (1 << level) by 3; y <- 0 until (1 << level) by 5) {
+			val p = partitioner.getPartition((new TileIndex(level, x, y), new BinIndex(x % 256, y % 256)))
+			assert(0 <= p && p < 7)
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tilegen.util
+
+
+
+import org.scalatest.FunSuite
+
+
+
+class LongDoubleHashMapTestSuite extends FunSuite {
+	test("Set and merge values") {
+		val map = new LongDoubleHashMap(4)
+		map(3L) = 1.0
+		map.merge(3L, 2.0, _ + _)
+		map.merge(5L, 4.0, _ + _)
+		map.merge(5L, 1.0, _ min _)
+
+		assert(2 === map.size)
+		assert(3.0 === map.getOrElse(3L, 0.0))
+		assert(1.0 === map.getOrElse(5L, 0.0))
+		assert(-1.0 === map.getOrElse(4L, -1.0))
+		assert(map.contains(3L))
+		assert(!map.contains(4L))
+	}
+
+	test("Growth") {
+		val map = new LongDoubleHashMap(4)
+		// Keys spread over high and low bits
+		val keys = Range(0, 10000).map(n => (n.toLong << 40) | (n % 7))
+		keys.foreach(key => map.merge(key, 1.0, _ + _))
+		keys.foreach(key => map.merge(key, 1.0, _ + _))
+
+		assert(10000 === map.size)
+		keys.foreach(key => assert(2.0 === map.getOrElse(key, 0.0)))
+		assert(keys.toSet === map.iterator.map(_._1).toSet)
+		var total = 0.0
+		map.foreach((key, value) => total += value)
+		assert(20000.0 === total)
+	}
+
+	test("Negative keys are rejected") {
+		intercept[IllegalArgumentException] {
+			new LongDoubleHashMap().merge(-1L, 1.0, _ + _)
+		}
+	}
+}
@@ -47,6 +47,7 @@ public enum DefaultPyramidIOFactoryProvider {
 	JDBC ("jdbc"),
 	RESOURCE ("resource"), 
 	ZIP ("zip"),
+	ARCHIVE ("archive"),
 	SQLITE ("sqlite"),
 	DUMMY ("dummy");
 
@@ -103,6 +104,9 @@ public enum DefaultPyramidIOFactoryProvider {
 			else if (factoryType.equals("zip")) {
 				factory = new ZipPyramidIOFactory(factoryName, parent, path);				
 			}
+			else if (factoryType.equals("archive")) {
+				factory = new ArchivePyramidIOFactory(factoryName, parent, path);
+			}
 			else if (factoryType.equals("sqlite")) {
 				factory = new SQLitePyramidIOFactory(factoryName, parent, path);				
 			}
@@ -41,6 +41,7 @@ public class StandardPyramidIOFactoryModule extends AbstractModule {
 		factoryProviderBinder.addBinding().toInstance(DefaultPyramidIOFactoryProvider.JDBC.create());
 		factoryProviderBinder.addBinding().toInstance(DefaultPyramidIOFactoryProvider.RESOURCE.create());
 		factoryProviderBinder.addBinding().toInstance(DefaultPyramidIOFactoryProvider.ZIP.create());
+		factoryProviderBinder.addBinding().toInstance(DefaultPyramidIOFactoryProvider.ARCHIVE.create());
         factoryProviderBinder.addBinding().toInstance(DefaultPyramidIOFactoryProvider.SQLITE.create());
         factoryProviderBinder.addBinding().toInstance(DefaultPyramidIOFactoryProvider.DUMMY.create());
 
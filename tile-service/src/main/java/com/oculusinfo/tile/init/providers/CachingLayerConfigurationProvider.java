@@ -24,6 +24,7 @@
 package com.oculusinfo.tile.init.providers;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 import org.json.JSONObject;
@@ -117,7 +118,12 @@ public class CachingLayerConfigurationProvider implements FactoryProvider<LayerC
 		                                 Iterable<TileIndex> tileSet) {
 			try {
 				TileSerializer<?> serializer = produce(TileSerializer.class);
-				_pyramidIO.requestTiles(layer, serializer, tileSet);
+				// Read the tile about to be rendered now, and the rest of the
+				// tile set in the background, so rendering need not wait for
+				// the whole set.
+				if (null != tile)
+					_pyramidIO.requestTiles(layer, serializer, Collections.singletonList(tile));
+				_pyramidIO.requestTilesAsync(layer, serializer, tileSet);
 			} catch (IOException e) {
 				LOGGER.warn("Error requesting tile set", e);
 			} catch (ConfigurationException e) {
@@ -41,6 +41,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 
@@ -117,11 +119,14 @@ public class LayerConfiguration extends ConfigurableFactory<LayerConfiguration>
 		                                                        )));
 
 
-	// Some local properties it doesn't get from the configuration
+	// Some local properties it doesn't get from the configuration.  The
+	// per-tile ones are kept per thread, so that one configuration may be
+	// used to render several tiles at once.
 	private ValueTransformerFactory              _transformFactory;
-	private TileIndex                            _tileCoordinate;
-	private String                               _levelMinimum;
-	private String                               _levelMaximum;
+	private ThreadLocal<TileProperties>          _tileProperties;
+	// Renderers and serializers hold no per-request state, so each is only
+	// produced once per configuration, by factory name and type.
+	private ConcurrentMap<String, Object>        _sharedProducts;
 
 	public LayerConfiguration (FactoryProvider<PyramidIO> pyramidIOFactoryProvider,
 	                           FactoryProvider<TileSerializer<?>> serializationFactoryProvider,
@@ -156,6 +161,8 @@ public class LayerConfiguration extends ConfigurableFactory<LayerConfiguration>
 		addProperty(LEVEL_MINIMUMS);
 		addProperty(LEVEL_MAXIMUMS);
 
+		_tileProperties = new ThreadLocal<>();
+		_sharedProducts = new ConcurrentHashMap<>();
 		_transformFactory = new ValueTransformerFactory(this, Collections.singletonList("transform"));
 		addChildFactory(_transformFactory);
 		addChildFactory(rendererFactoryProvider.createFactory(this, RENDERER_PATH));
@@ -168,6 +175,24 @@ public class LayerConfiguration extends ConfigurableFactory<LayerConfiguration>
 		return this;
 	}
 
+	@Override
+	public <GT> GT produce (String name, Class<GT> goodsType) throws ConfigurationException {
+		if (!TileDataImageRenderer.class.equals(goodsType) && !TileSerializer.class.equals(goodsType))
+			return super.produce(name, goodsType);
+
+		String key = name+":"+goodsType.getName();
+		Object product = _sharedProducts.get(key);
+		if (null == product) {
+			product = super.produce(name, goodsType);
+			if (null == product)
+				return null;
+			Object existing = _sharedProducts.putIfAbsent(key, product);
+			if (null != existing)
+				product = existing;
+		}
+		return goodsType.cast(product);
+	}
+
 	@Override
 	public <PT> PT getPropertyValue (ConfigurationProperty<PT> property) {
 		if (LOCAL_PROPERTIES.contains(property)) {
@@ -185,23 +210,28 @@ public class LayerConfiguration extends ConfigurableFactory<LayerConfiguration>
 					return property.getType().cast(getPropertyValue(LAYER_NAME));
 				}
 			} else if (TILE_COORDINATE.equals(property)) {
-				return property.getType().cast(_tileCoordinate);
+				TileProperties tileProperties = _tileProperties.get();
+				return property.getType().cast(null == tileProperties ? null : tileProperties._tileCoordinate);
 			} else if (LEVEL_MAXIMUMS.equals(property)) {
-				return property.getType().cast(_levelMaximum);
+				TileProperties tileProperties = _tileProperties.get();
+				return property.getType().cast(null == tileProperties ? null : tileProperties._levelMaximum);
 			} else if (LEVEL_MINIMUMS.equals(property)) {
-				return property.getType().cast(_levelMinimum);
+				TileProperties tileProperties = _tileProperties.get();
+				return property.getType().cast(null == tileProperties ? null : tileProperties._levelMinimum);
 			}
 		}
 
 		return super.getPropertyValue(property);
 	}
 
+	/**
+	 * Set the properties specific to the tile about to be rendered. These
+	 * apply only to the calling thread.
+	 */
 	public void setLevelProperties (TileIndex tileIndex,
 	                                String levelMinimum,
 	                                String levelMaximum) {
-		_tileCoordinate = tileIndex;
-		_levelMaximum = levelMaximum;
-		_levelMinimum = levelMinimum;
+		_tileProperties.set(new TileProperties(tileIndex, levelMinimum, levelMaximum));
 
 		try {
 			TileDataImageRenderer renderer = produce(TileDataImageRenderer.class);
@@ -232,4 +262,19 @@ public class LayerConfiguration extends ConfigurableFactory<LayerConfiguration>
 	                                 Iterable<TileIndex> tileSet) {
 		// NOOP
 	}
+
+
+
+	// The properties of the tile currently being rendered by a given thread
+	private static class TileProperties {
+		final TileIndex _tileCoordinate;
+		final String    _levelMinimum;
+		final String    _levelMaximum;
+
+		TileProperties (TileIndex tileCoordinate, String levelMinimum, String levelMaximum) {
+			_tileCoordinate = tileCoordinate;
+			_levelMinimum = levelMinimum;
+			_levelMaximum = levelMaximum;
+		}
+	}
 }
@@ -50,6 +50,7 @@ public class ColorRampFactory extends ConfigurableFactory<ColorRamp> {
 	public static final IntegerProperty          ALPHA2     = new IntegerProperty("to-alpha", "The opacity (0-255) of the secondary color for this ramp.  Used by single-gradient ramps only.  -1 to use the base opacity.", -1);
 	public static final DoubleProperty           HUE1       = new DoubleProperty("from", "The initial hue of a hue ramp (from 0.0 to 1.0).  Used only for hue ramps.", 0.0);
 	public static final DoubleProperty           HUE2       = new DoubleProperty("to", "The final hue of a hue ramp (from 0.0 to 1.0).  Used only for hue ramps.", 1.0);
+	public static final IntegerProperty          LOOKUP_SIZE = new IntegerProperty("lookupSize", "The number of precalculated colors with which to approximate the ramp.  0 to calculate every color exactly.", LookupColorRamp.DEFAULT_SIZE);
 
 	public ColorRampFactory (ConfigurableFactory<?> parent, List<String> path) {
 		super(ColorRamp.class, parent, path);
@@ -63,6 +64,7 @@ public class ColorRampFactory extends ConfigurableFactory<ColorRamp> {
 		addProperty(ALPHA2);
 		addProperty(HUE1);
 		addProperty(HUE2);
+		addProperty(LOOKUP_SIZE);
 	}
 
 	@Override
@@ -77,6 +79,9 @@ public class ColorRampFactory extends ConfigurableFactory<ColorRamp> {
 		boolean inverted = getPropertyValue(INVERTED);
 		double opacity = getPropertyValue(OPACITY);
         
+		// Anything beyond type, inversion, and opacity that distinguishes ramps
+		String parameters = "";
+
 		ColorRamp ramp;
 		if (rampType.equalsIgnoreCase("br")){
 			ramp = new BRColorRamp(inverted, opacity);
@@ -96,6 +101,7 @@ public class ColorRampFactory extends ConfigurableFactory<ColorRamp> {
 		} else if (rampType.equalsIgnoreCase("flat")) {
 			Color color = getColor(getPropertyValue(COLOR1));
 			ramp = new FlatColorRamp(color.getRGB(), opacity);
+			parameters = Integer.toHexString(color.getRGB());
 		} else if (rampType.equalsIgnoreCase("single-gradient")) {
 			int alpha1 = getPropertyValue(ALPHA1);
 			if (-1 == alpha1) alpha1 = (int) Math.floor(255*opacity);
@@ -104,11 +110,22 @@ public class ColorRampFactory extends ConfigurableFactory<ColorRamp> {
 			if (-1 == alpha2) alpha2 = (int) Math.floor(255*opacity);
 			Color endColor = getColorWithAlpha(getPropertyValue(COLOR2), alpha2);
 			ramp = new SingleGradientColorRamp(startColor, endColor);
+			parameters = Integer.toHexString(startColor.getRGB())+":"+Integer.toHexString(endColor.getRGB());
 		} else if (rampType.equalsIgnoreCase("hue")) {
-			ramp = new HueColorRamp(getPropertyValue(HUE1), getPropertyValue(HUE2));
+			double hue1 = getPropertyValue(HUE1);
+			double hue2 = getPropertyValue(HUE2);
+			ramp = new HueColorRamp(hue1, hue2);
+			parameters = hue1+":"+hue2;
 		} else {
 			ramp = new WareColorRamp(inverted, opacity);
 		}
+
+		int lookupSize = getPropertyValue(LOOKUP_SIZE);
+		if (lookupSize > 1) {
+			String key = ramp.getClass().getName()+":"+rampType.toLowerCase()+":"+inverted+":"
+				+opacity+":"+parameters+":"+lookupSize;
+			ramp = LookupColorRamp.get(key, ramp, lookupSize);
+		}
 		return ramp;
 	}
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rendering.color.impl;
+
+import com.oculusinfo.tile.rendering.color.ColorRamp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A color ramp that samples another ramp once, at evenly spaced scale values,
+ * and afterwards answers every request from that table.  Most ramps
+ * interpolate between lists of fixed points on every call, which is far too
+ * slow to do for every bin of every rendered tile.
+ * 
+ * Tables are shared between equivalent ramps through {@link #get}, so each
+ * distinct ramp configuration is only ever sampled once.
+ */
+public class LookupColorRamp implements ColorRamp {
+	public static final int DEFAULT_SIZE = 4096;
+
+	// The number of distinct ramp configurations whose tables we keep around
+	private static final int MAX_CACHED_RAMPS = 256;
+	private static final Map<String, LookupColorRamp> RAMP_CACHE =
+		new LinkedHashMap<String, LookupColorRamp>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<String, LookupColorRamp> eldest) {
+				return size() > MAX_CACHED_RAMPS;
+			}
+		};
+
+	/**
+	 * Get the lookup ramp for the given key, creating it from the given base
+	 * ramp if it isn't already cached.
+	 * 
+	 * @param key A key uniquely describing the configuration of the base
+	 *            ramp, and the table size
+	 * @param base The ramp to sample, if needed
+	 * @param size The number of table entries to use
+	 */
+	public static LookupColorRamp get (String key, ColorRamp base, int size) {
+		synchronized (RAMP_CACHE) {
+			LookupColorRamp ramp = RAMP_CACHE.get(key);
+			if (null == ramp) {
+				ramp = new LookupColorRamp(base, size);
+				RAMP_CACHE.put(key, ramp);
+			}
+			return ramp;
+		}
+	}
+
+
+
+	private int[]  _table;
+	private double _maxIndex;
+
+	public LookupColorRamp (ColorRamp base, int size) {
+		if (size < 2) throw new IllegalArgumentException("Lookup color ramps need at least 2 entries");
+		_table = new int[size];
+		_maxIndex = size - 1;
+		for (int i = 0; i < size; ++i) {
+			_table[i] = base.getRGB(i / _maxIndex);
+		}
+	}
+
+	/**
+	 * Get the table index of a scale value, clamped to the table.
+	 */
+	public int getIndex (double scale) {
+		int index = (int) (scale * _maxIndex + 0.5);
+		if (index < 0) return 0;
+		if (index > _table.length - 1) return _table.length - 1;
+		return index;
+	}
+
+	/**
+	 * Get the table itself.  Callers must not modify it.
+	 */
+	public int[] getTable () {
+		return _table;
+	}
+
+	@Override
+	public int getRGB (double scale) {
+		return _table[getIndex(scale)];
+	}
+}
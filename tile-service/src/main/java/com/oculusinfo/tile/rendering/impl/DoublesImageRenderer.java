@@ -24,6 +24,7 @@
  */
 package com.oculusinfo.tile.rendering.impl;
 
+import com.oculusinfo.binning.DoubleTileData;
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.binning.io.PyramidIO;
@@ -42,6 +43,8 @@ import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -100,8 +103,7 @@ public class DoublesImageRenderer implements TileDataImageRenderer {
 			bi = new BufferedImage(outputWidth, outputHeight, BufferedImage.TYPE_INT_ARGB);
 
 			IValueTransformer t = config.produce(IValueTransformer.class);
-			int[] rgbArray = new int[outputWidth*outputHeight];
-			
+
 			double scaledLevelMaxFreq = t.transform(maximumValue)*rangeMax/100;
 			double scaledLevelMinFreq = t.transform(maximumValue)*rangeMin/100;
 
@@ -135,7 +137,7 @@ public class DoublesImageRenderer implements TileDataImageRenderer {
 				return null;
 			}
 			
-			TileData<Double> data = tileDatas.get(0);
+			DoubleTileData data = DoubleTileData.fromTile(tileDatas.get(0));
 			int xBins = data.getDefinition().getXBins();
 			int yBins = data.getDefinition().getYBins();
 			
@@ -156,39 +158,42 @@ public class DoublesImageRenderer implements TileDataImageRenderer {
 
 			int numBinsWide = xBinEnd - xBinStart;
 			int numBinsHigh = yBinEnd - yBinStart;
-			double xScale = ((double) bi.getWidth())/numBinsWide;
-			double yScale = ((double) bi.getHeight())/numBinsHigh;
+			double xScale = ((double) outputWidth)/numBinsWide;
+			double yScale = ((double) outputHeight)/numBinsHigh;
 			ColorRamp colorRamp = config.produce(ColorRamp.class);
+
+			// Write straight into the image's pixels, rather than through a
+			// copy and setRGB.
+			int[] pixels = ((DataBufferInt) bi.getRaster().getDataBuffer()).getData();
+			int blank = COLOR_BLANK.getRGB();
+
 			for(int ty = 0; ty < numBinsHigh; ty++){
+				int minY = (int) Math.round(ty*yScale);
+				int maxY = (int) Math.round((ty+1)*yScale);
+
 				for(int tx = 0; tx < numBinsWide; tx++){
 					//calculate the scaled dimensions of this 'pixel' within the image
 					int minX = (int) Math.round(tx*xScale);
 					int maxX = (int) Math.round((tx+1)*xScale);
-					int minY = (int) Math.round(ty*yScale);
-					int maxY = (int) Math.round((ty+1)*yScale);
-
-					double binCount = data.getBin(tx + xBinStart, ty + yBinStart);
-					double transformedValue = t.transform(binCount);
-					int rgb;
-					if (binCount > 0
-					    && transformedValue >= scaledLevelMinFreq
-					    && transformedValue <= scaledLevelMaxFreq) {
-						rgb = colorRamp.getRGB(transformedValue);
-					} else {
-						rgb = COLOR_BLANK.getRGB();
+
+					double binCount = data.getDoubleBin(tx + xBinStart, ty + yBinStart);
+					int rgb = blank;
+					if (binCount > 0) {
+						double transformedValue = t.transform(binCount);
+						if (transformedValue >= scaledLevelMinFreq
+						    && transformedValue <= scaledLevelMaxFreq) {
+							// Ramps from the factory are lookup tables, so this is cheap
+							rgb = colorRamp.getRGB(transformedValue);
+						}
 					}
 
 					//'draw' out the scaled 'pixel' 
-					for (int ix = minX; ix < maxX; ++ix) {
-						for (int iy = minY; iy < maxY; ++iy) {
-							int i = iy*bi.getWidth() + ix;
-							rgbArray[i] = rgb;
-						}
+					for (int iy = minY; iy < maxY; ++iy) {
+						int rowStart = iy*outputWidth;
+						Arrays.fill(pixels, rowStart + minX, rowStart + maxX, rgb);
 					}
 				}
 			}
-
-			bi.setRGB(0, 0, outputWidth, outputHeight, rgbArray, 0, outputWidth);
 		} catch (Exception e) {
 			LOGGER.debug("Tile is corrupt: " + layer + ":" + index);
 			LOGGER.debug("Tile error: ", e);
@@ -24,6 +24,7 @@
  */
 package com.oculusinfo.tile.rendering.impl;
 
+import com.oculusinfo.binning.DoubleTileData;
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.binning.io.PyramidIO;
@@ -111,7 +112,7 @@ public class DoublesStatisticImageRenderer implements TileDataImageRenderer {
 				return null;
 			}
 
-			TileData<Double> data = tileDatas.get(0);
+			DoubleTileData data = DoubleTileData.fromTile(tileDatas.get(0));
 			int xBins = data.getDefinition().getXBins();
 			int yBins = data.getDefinition().getYBins();
 			
@@ -122,7 +123,7 @@ public class DoublesStatisticImageRenderer implements TileDataImageRenderer {
 			for(int ty = 0; ty < yBins; ty++){
 				for(int tx = 0; tx < xBins; tx++){
 
-					double binCount = data.getBin(tx, ty);
+					double binCount = data.getDoubleBin(tx, ty);
 					if (binCount > 0 ){
 						
 						totalNonEmptyBins += 1;
@@ -71,20 +71,25 @@ public class ValueTransformerFactory extends ConfigurableFactory<IValueTransform
 		addProperty(LAYER_MINIMUM);
 	}
 
-	private double _layerMaximum;
-	private double _layerMinimum;
+	// Extrema are calculated per tile, and so, like the rest of the per-tile
+	// layer properties, are kept per thread.  Each entry is {min, max}.
+	private ThreadLocal<double[]> _layerExtrema = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue () {
+			return new double[2];
+		}
+	};
 	// Extrema are calculated properties; we must allow a way to set them.
 	public void setExtrema (double min, double max) {
-		_layerMaximum = max;
-		_layerMinimum = min;
+		_layerExtrema.set(new double[] {min, max});
 	}
 
 	@Override
 	public <PT> PT getPropertyValue (ConfigurationProperty<PT> property) {
 		if (LAYER_MAXIMUM.equals(property)) {
-			return property.getType().cast(_layerMaximum);
+			return property.getType().cast(_layerExtrema.get()[1]);
 		} else if (LAYER_MINIMUM.equals(property)) {
-			return property.getType().cast(_layerMinimum);
+			return property.getType().cast(_layerExtrema.get()[0]);
 		}
 		return super.getPropertyValue(property);
 	}
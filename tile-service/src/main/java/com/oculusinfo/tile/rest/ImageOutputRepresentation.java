@@ -27,7 +27,6 @@ package com.oculusinfo.tile.rest;
 import org.restlet.data.MediaType;
 import org.restlet.representation.OutputRepresentation;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -36,16 +35,55 @@ import java.io.OutputStream;
  * @author dgray
  */
 public class ImageOutputRepresentation extends OutputRepresentation {
-	private BufferedImage _image;
+	// The encoder used when none is given
+	private static final TileImageEncoder DEFAULT_ENCODER = new TileImageEncoder();
+
+	private BufferedImage    _image;
+	private byte[]           _encodedImage;
+	private TileImageEncoder _encoder;
 	
 	/**
 	 * @param mediaType
 	 * @param expectedSize
 	 */
 	public ImageOutputRepresentation(MediaType mediaType, BufferedImage image) {
+		this(mediaType, image, DEFAULT_ENCODER);
+	}
+
+	/**
+	 * @param mediaType The type as which to encode the image
+	 * @param image The image to encode
+	 * @param encoder The encoder with which to encode the image
+	 */
+	public ImageOutputRepresentation(MediaType mediaType, BufferedImage image, TileImageEncoder encoder) {
 		super(mediaType);
 
 		_image = image;
+		_encodedImage = null;
+		_encoder = encoder;
+	}
+
+	/**
+	 * Create a representation of an image that has already been encoded
+	 * 
+	 * @param mediaType The type of the encoded image
+	 * @param encodedImage The encoded image, as returned by
+	 *            {@link #encode(BufferedImage)}
+	 */
+	public ImageOutputRepresentation(MediaType mediaType, byte[] encodedImage) {
+		super(mediaType, encodedImage.length);
+
+		_image = null;
+		_encodedImage = encodedImage;
+		_encoder = null;
+	}
+
+	/**
+	 * Encode an image as a PNG, in the form in which it would be written by
+	 * this representation
+	 */
+	public static byte[] encode (BufferedImage image) throws IOException {
+		return DEFAULT_ENCODER.encode(image, MediaType.IMAGE_PNG);
 	}
 
 	/* (non-Javadoc)
@@ -53,7 +91,10 @@ public class ImageOutputRepresentation extends OutputRepresentation {
 	 */
 	@Override
 	public void write(OutputStream outputStream) throws IOException {
-		// TODO: create a constant map of MediaType to ImageIO file type for the "png".
-		ImageIO.write(_image, "png", outputStream);
+		if (null != _encodedImage) {
+			outputStream.write(_encodedImage);
+		} else {
+			_encoder.write(_image, getMediaType(), outputStream);
+		}
 	}
 }
@@ -30,7 +30,9 @@ import com.oculusinfo.tile.rest.data.DataResource;
 import com.oculusinfo.tile.rest.layer.LayerResource;
 import com.oculusinfo.tile.rest.legend.LegendResource;
 import com.oculusinfo.tile.rest.map.MapResource;
+import com.oculusinfo.tile.rest.tile.TileBatchResource;
 import com.oculusinfo.tile.rest.tile.TileResource;
+import com.oculusinfo.tile.rest.warmup.WarmupResource;
 import oculus.aperture.common.rest.ResourceDefinition;
 
 public class RestConfigModule extends AbstractModule {
@@ -44,7 +46,9 @@ public class RestConfigModule extends AbstractModule {
 		resourceBinder.addBinding("/maps").toInstance(new ResourceDefinition(MapResource.class));
 		resourceBinder.addBinding("/layer").toInstance(new ResourceDefinition(LayerResource.class));
 		resourceBinder.addBinding("/tile/{id}/{version}/{layer}/{level}/{x}/{y}.{ext}").toInstance(new ResourceDefinition(TileResource.class));
+		resourceBinder.addBinding("/tile/{id}/{version}/{layer}/batch.{ext}").toInstance(new ResourceDefinition(TileBatchResource.class));
 		resourceBinder.addBinding("/legend").toInstance(new ResourceDefinition(LegendResource.class));
 		resourceBinder.addBinding("/data").toInstance(new ResourceDefinition(DataResource.class));
+		resourceBinder.addBinding("/warmup").toInstance(new ResourceDefinition(WarmupResource.class));
 	}
 }
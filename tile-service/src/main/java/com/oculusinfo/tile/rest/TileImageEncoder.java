@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import org.restlet.data.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+
+/**
+ * Encodes rendered tile images for transmission.
+ * 
+ * PNG images are written directly, rather than through ImageIO, so that:
+ * <ul>
+ * <li>Tiles with at most 256 distinct colors - which, with color ramps, is
+ * most of them - are written as much smaller palette images</li>
+ * <li>Compression level and row filtering can be tuned</li>
+ * <li>Deflaters are reused, one per thread, rather than created per image</li>
+ * <li>Completely transparent tiles are encoded once per size, and reused</li>
+ * </ul>
+ * JPEG requests are written as JPEGs, through ImageIO.
+ * 
+ * Configured by the following optional properties in tile.properties:
+ * <dl>
+ * <dt>com.oculusinfo.tile.image.png.compression</dt>
+ * <dd>The deflate level, from 0 (none) to 9 (best). Defaults to 4.</dd>
+ * <dt>com.oculusinfo.tile.image.png.filter</dt>
+ * <dd>The row filter used for full color images: none, sub, up, or paeth.
+ * Defaults to sub. Palette images are never filtered.</dd>
+ * </dl>
+ */
+@Singleton
+public class TileImageEncoder {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TileImageEncoder.class);
+
+	public static enum PNGFilter {
+		none(0), sub(1), up(2), paeth(4);
+
+		// The filter type byte, as defined by the PNG standard
+		private final byte _type;
+		private PNGFilter (int type) {
+			_type = (byte) type;
+		}
+		public byte getType () {
+			return _type;
+		}
+	}
+
+	private static final byte[] PNG_SIGNATURE     = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+	private static final int    MAX_PALETTE_SIZE  = 256;
+	private static final int    DEFAULT_COMPRESSION = 4;
+
+	// One deflater per thread; deflaters hold native memory, and are
+	// expensive to create and to leave for the finalizer.
+	private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue () {
+			return new Deflater(DEFAULT_COMPRESSION);
+		}
+	};
+
+
+
+	private int                           _compression;
+	private PNGFilter                     _filter;
+	// Encoded, completely transparent images, by type and size
+	private ConcurrentMap<String, byte[]> _transparentImages;
+
+
+
+	public TileImageEncoder () {
+		_compression = DEFAULT_COMPRESSION;
+		_filter = PNGFilter.sub;
+		_transparentImages = new ConcurrentHashMap<>();
+	}
+
+	@Inject(optional = true)
+	public void setCompression (@Named("com.oculusinfo.tile.image.png.compression") String compression) {
+		try {
+			int level = Integer.parseInt(compression.trim());
+			if (level < 0 || level > 9) throw new NumberFormatException();
+			_compression = level;
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Illegal PNG compression level {}; using default", compression);
+		}
+	}
+
+	@Inject(optional = true)
+	public void setFilter (@Named("com.oculusinfo.tile.image.png.filter") String filter) {
+		try {
+			_filter = PNGFilter.valueOf(filter.trim().toLowerCase());
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("Illegal PNG filter {}; using default", filter);
+		}
+	}
+
+
+
+	/**
+	 * Encode an image in the format of the given media type. Anything other
+	 * than JPEG is encoded as PNG.
+	 * 
+	 * The returned array may be shared with other callers, and must not be
+	 * modified.
+	 */
+	public byte[] encode (BufferedImage image, MediaType mediaType) throws IOException {
+		if (null == image) throw new IllegalArgumentException("Attempt to encode null image");
+
+		boolean jpeg = null != mediaType && MediaType.IMAGE_JPEG.getName().equals(mediaType.getName());
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = getPixels(image);
+
+		if (isTransparent(pixels)) {
+			String key = (jpeg ? "jpg:" : "png:")+width+"x"+height;
+			byte[] encoded = _transparentImages.get(key);
+			if (null == encoded) {
+				encoded = jpeg ? encodeJPEG(image) : encodePNG(pixels, width, height);
+				_transparentImages.putIfAbsent(key, encoded);
+			}
+			return encoded;
+		}
+
+		if (jpeg) return encodeJPEG(image);
+		else return encodePNG(pixels, width, height);
+	}
+
+	/**
+	 * Encode an image in the format of the given media type directly to a
+	 * stream.
+	 */
+	public void write (BufferedImage image, MediaType mediaType, OutputStream output) throws IOException {
+		output.write(encode(image, mediaType));
+	}
+
+
+
+	// Get the ARGB values of an image, without copying if possible
+	private static int[] getPixels (BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (BufferedImage.TYPE_INT_ARGB == image.getType()
+		    && image.getRaster().getDataBuffer() instanceof DataBufferInt
+		    && 0 == image.getRaster().getSampleModelTranslateX()
+		    && 0 == image.getRaster().getSampleModelTranslateY()) {
+			int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			if (data.length == width*height) return data;
+		}
+		return image.getRGB(0, 0, width, height, null, 0, width);
+	}
+
+	private static boolean isTransparent (int[] pixels) {
+		for (int i = 0; i < pixels.length; ++i) {
+			if (0 != (pixels[i] >>> 24)) return false;
+		}
+		return true;
+	}
+
+	// All fully transparent colors look the same, so treat them as one.
+	private static int normalize (int argb) {
+		return 0 == (argb >>> 24) ? 0 : argb;
+	}
+
+
+
+	private static byte[] encodeJPEG (BufferedImage image) throws IOException {
+		// JPEG has no alpha channel; flatten onto white first.
+		BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = rgb.createGraphics();
+		try {
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, image.getWidth(), image.getHeight());
+			g.drawImage(image, 0, 0, null);
+		} finally {
+			g.dispose();
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ImageIO.write(rgb, "jpg", output);
+		return output.toByteArray();
+	}
+
+
+
+	private byte[] encodePNG (int[] pixels, int width, int height) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(width*height/2 + 1024);
+		output.write(PNG_SIGNATURE);
+
+		int[] palette = getPalette(pixels);
+		if (null != palette) {
+			writePalettePNG(output, pixels, width, height, palette);
+		} else {
+			writeFullColorPNG(output, pixels, width, height);
+		}
+
+		writeChunk(output, "IEND", new byte[0], 0);
+		return output.toByteArray();
+	}
+
+	/**
+	 * Get the distinct colors of an image, if there are few enough of them to
+	 * use a palette image.
+	 * 
+	 * @return The distinct colors, sorted, or null if there are too many
+	 */
+	static int[] getPalette (int[] pixels) {
+		int[] colors = new int[MAX_PALETTE_SIZE];
+		int numColors = 0;
+		int lastColor = 0;
+		boolean haveLast = false;
+		for (int i = 0; i < pixels.length; ++i) {
+			int argb = normalize(pixels[i]);
+			// Runs of the same color are the norm
+			if (haveLast && argb == lastColor) continue;
+			if (Arrays.binarySearch(colors, 0, numColors, argb) < 0) {
+				if (numColors == MAX_PALETTE_SIZE) return null;
+				int insertAt = -Arrays.binarySearch(colors, 0, numColors, argb) - 1;
+				System.arraycopy(colors, insertAt, colors, insertAt+1, numColors-insertAt);
+				colors[insertAt] = argb;
+				++numColors;
+			}
+			lastColor = argb;
+			haveLast = true;
+		}
+		return Arrays.copyOf(colors, numColors);
+	}
+
+	private void writeHeader (OutputStream output, int width, int height, int colorType) throws IOException {
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8;                // bit depth
+		header[9] = (byte) colorType;
+		header[10] = 0;               // deflate compression
+		header[11] = 0;               // adaptive filtering
+		header[12] = 0;               // no interlace
+		writeChunk(output, "IHDR", header, header.length);
+	}
+
+	private void writePalettePNG (OutputStream output, int[] pixels, int width, int height, int[] palette) throws IOException {
+		writeHeader(output, width, height, 3);
+
+		byte[] rgb = new byte[palette.length*3];
+		byte[] alpha = new byte[palette.length];
+		int alphaLength = 0;
+		for (int i = 0; i < palette.length; ++i) {
+			rgb[i*3]   = (byte) (palette[i] >> 16);
+			rgb[i*3+1] = (byte) (palette[i] >> 8);
+			rgb[i*3+2] = (byte) palette[i];
+			alpha[i] = (byte) (palette[i] >>> 24);
+			if (0xff != (palette[i] >>> 24)) alphaLength = i+1;
+		}
+		writeChunk(output, "PLTE", rgb, rgb.length);
+		if (alphaLength > 0) writeChunk(output, "tRNS", alpha, alphaLength);
+
+		Deflater deflater = getDeflater();
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		byte[] row = new byte[width+1];
+		int lastColor = 0;
+		int lastIndex = -1;
+		for (int y = 0; y < height; ++y) {
+			row[0] = 0; // no filter
+			for (int x = 0; x < width; ++x) {
+				int argb = normalize(pixels[y*width+x]);
+				if (argb != lastColor || lastIndex < 0) {
+					lastIndex = Arrays.binarySearch(palette, argb);
+					lastColor = argb;
+				}
+				row[x+1] = (byte) lastIndex;
+			}
+			deflate(deflater, row, data, buffer);
+		}
+		finishDeflating(deflater, data, buffer);
+		writeChunk(output, "IDAT", data.toByteArray(), data.size());
+	}
+
+	private void writeFullColorPNG (OutputStream output, int[] pixels, int width, int height) throws IOException {
+		writeHeader(output, width, height, 6);
+
+		Deflater deflater = getDeflater();
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int rowLength = width*4;
+		byte[] previous = new byte[rowLength];
+		byte[] current = new byte[rowLength];
+		byte[] filtered = new byte[rowLength+1];
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int argb = normalize(pixels[y*width+x]);
+				current[x*4]   = (byte) (argb >> 16);
+				current[x*4+1] = (byte) (argb >> 8);
+				current[x*4+2] = (byte) argb;
+				current[x*4+3] = (byte) (argb >>> 24);
+			}
+			filter(_filter, current, previous, filtered);
+			deflate(deflater, filtered, data, buffer);
+
+			byte[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		finishDeflating(deflater, data, buffer);
+		writeChunk(output, "IDAT", data.toByteArray(), data.size());
+	}
+
+	/**
+	 * Filter a row of 4-byte pixels, as specified by the PNG standard.
+	 * 
+	 * @param previous The unfiltered previous row (all 0 for the first row)
+	 * @param filtered The output, one byte longer than the input row, to hold
+	 *            the filter type
+	 */
+	static void filter (PNGFilter type, byte[] row, byte[] previous, byte[] filtered) {
+		int bpp = 4;
+		filtered[0] = type.getType();
+		switch (type) {
+		case none:
+			System.arraycopy(row, 0, filtered, 1, row.length);
+			break;
+		case sub:
+			for (int i = 0; i < row.length; ++i) {
+				int left = i < bpp ? 0 : row[i-bpp];
+				filtered[i+1] = (byte) (row[i] - left);
+			}
+			break;
+		case up:
+			for (int i = 0; i < row.length; ++i) {
+				filtered[i+1] = (byte) (row[i] - previous[i]);
+			}
+			break;
+		case paeth:
+			for (int i = 0; i < row.length; ++i) {
+				int a = i < bpp ? 0 : row[i-bpp] & 0xff;
+				int b = previous[i] & 0xff;
+				int c = i < bpp ? 0 : previous[i-bpp] & 0xff;
+				int p = a + b - c;
+				int pa = Math.abs(p - a);
+				int pb = Math.abs(p - b);
+				int pc = Math.abs(p - c);
+				int predictor;
+				if (pa <= pb && pa <= pc) predictor = a;
+				else if (pb <= pc) predictor = b;
+				else predictor = c;
+				filtered[i+1] = (byte) (row[i] - predictor);
+			}
+			break;
+		}
+	}
+
+
+
+	private Deflater getDeflater () {
+		Deflater deflater = DEFLATERS.get();
+		deflater.reset();
+		deflater.setLevel(_compression);
+		return deflater;
+	}
+
+	private static void deflate (Deflater deflater, byte[] input, ByteArrayOutputStream output, byte[] buffer) {
+		deflater.setInput(input);
+		while (!deflater.needsInput()) {
+			int length = deflater.deflate(buffer);
+			output.write(buffer, 0, length);
+		}
+	}
+
+	private static void finishDeflating (Deflater deflater, ByteArrayOutputStream output, byte[] buffer) {
+		deflater.finish();
+		while (!deflater.finished()) {
+			int length = deflater.deflate(buffer);
+			output.write(buffer, 0, length);
+		}
+	}
+
+	private static void putInt (byte[] target, int offset, int value) {
+		target[offset]   = (byte) (value >>> 24);
+		target[offset+1] = (byte) (value >>> 16);
+		target[offset+2] = (byte) (value >>> 8);
+		target[offset+3] = (byte) value;
+	}
+
+	private static void writeChunk (OutputStream output, String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		byte[] intBytes = new byte[4];
+
+		putInt(intBytes, 0, length);
+		output.write(intBytes);
+		output.write(typeBytes);
+		output.write(data, 0, length);
+
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		putInt(intBytes, 0, (int) crc.getValue());
+		output.write(intBytes);
+	}
+}
@@ -36,6 +36,8 @@ import com.oculusinfo.tile.rest.map.MapService;
 import com.oculusinfo.tile.rest.map.MapServiceImpl;
 import com.oculusinfo.tile.rest.tile.TileService;
 import com.oculusinfo.tile.rest.tile.TileServiceImpl;
+import com.oculusinfo.tile.rest.warmup.WarmupService;
+import com.oculusinfo.tile.rest.warmup.WarmupServiceImpl;
 
 
 public class TileModule extends AbstractModule {
@@ -46,5 +48,7 @@ public class TileModule extends AbstractModule {
 		bind(TileService.class).to(TileServiceImpl.class);
 		bind(LegendService.class).to(LegendServiceImpl.class);
 		bind(DataService.class).to(DataServiceImpl.class);
+		// Eager, so that any startup warm-up happens without waiting for a request
+		bind(WarmupService.class).to(WarmupServiceImpl.class).asEagerSingleton();
 	}
 }
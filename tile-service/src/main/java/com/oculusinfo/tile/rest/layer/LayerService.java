@@ -73,6 +73,20 @@ public interface LayerService {
      */
     public UUID configureLayer (String layerId, JSONObject configuration);
 
+    /**
+     * For use by other services; the LayerResource doesn't serve this out.
+     * 
+     * Gets an ID shared by all configurations of the same layer with the same
+     * content, no matter which client created them, so that things derived
+     * purely from the configuration (such as rendered images) can be shared.
+     * 
+     * @param uuid The ID of a configuration, as returned by
+     *            {@link #configureLayer(String, JSONObject)}
+     * @return The ID of the first configuration with identical content; the
+     *         given ID if it is unknown.
+     */
+    public UUID getCanonicalConfigurationId (UUID uuid);
+
     /**
      * For use by other services; the LayerResource doesn't serve this out.
      * 
@@ -84,6 +98,8 @@ public interface LayerService {
      *            but there are a few exceptions. A null value indicates that
      *            any tile-specific pieces of the configuration may safely be
      *            ignored.
+     * @return A configuration which may be shared with other requests; its
+     *         tile-specific properties apply only to the calling thread.
      */
     public LayerConfiguration getRenderingConfiguration (UUID uuid, TileIndex tile, JSONObject requestParams);
 
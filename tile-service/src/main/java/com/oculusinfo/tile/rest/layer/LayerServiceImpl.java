@@ -33,6 +33,7 @@ import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.PyramidIOFactory;
 import com.oculusinfo.binning.metadata.PyramidMetaData;
 import com.oculusinfo.binning.util.JsonUtilities;
+import com.oculusinfo.binning.util.SynchronizedLRUCache;
 import com.oculusinfo.factory.ConfigurableFactory;
 import com.oculusinfo.factory.ConfigurationException;
 import com.oculusinfo.tile.init.FactoryProvider;
@@ -40,6 +41,7 @@ import com.oculusinfo.tile.init.providers.CachingLayerConfigurationProvider;
 import com.oculusinfo.tile.rendering.ImageRendererFactory;
 import com.oculusinfo.tile.rendering.LayerConfiguration;
 import com.oculusinfo.tile.rest.RequestParamsFactory;
+import com.oculusinfo.tile.rest.tile.TileSetParameters;
 import com.oculusinfo.tile.rest.tile.caching.CachingPyramidIO.LayerDataChangedListener;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -54,17 +56,26 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Singleton
 public class LayerServiceImpl implements LayerService {
     private static final Logger LOGGER = LoggerFactory.getLogger(LayerServiceImpl.class);
 
+	// The maximum number of distinct sets of request parameters for which
+	// compiled configurations are kept, per configuration UUID
+	private static final int MAX_COMPILED_CONFIGURATIONS_PER_UUID = 16;
 
 
     private List<LayerInfo>                     _layers;
     private Map<String, LayerInfo>              _layersById;
     private Map<String, JSONObject>             _metaDataCache;
     private Map<UUID, JSONObject>               _configurationssByUuid;
+    // The canonical ID of each distinct layer configuration, by the content
+    // that affects its rendering, and of each configuration, by its own UUID
+    private Map<String, CanonicalId>            _canonicalIdsByContent;
+    private Map<UUID, CanonicalId>              _canonicalIds;
+    private Map<UUID, SynchronizedLRUCache<String, LayerConfiguration>> _compiledConfigurations;
     private FactoryProvider<LayerConfiguration> _layerConfigurationProvider;
 
 
@@ -74,8 +85,11 @@ public class LayerServiceImpl implements LayerService {
                              FactoryProvider<LayerConfiguration> layerConfigurationProvider) {
         _layers = new ArrayList<>();
         _layersById = new HashMap<>();
-        _metaDataCache = new HashMap<>();
-        _configurationssByUuid = new HashMap<>();
+        _metaDataCache = new ConcurrentHashMap<>();
+        _configurationssByUuid = new ConcurrentHashMap<>();
+        _canonicalIdsByContent = new HashMap<>();
+        _canonicalIds = new ConcurrentHashMap<>();
+        _compiledConfigurations = new ConcurrentHashMap<>();
         _layerConfigurationProvider = layerConfigurationProvider;
 
         if (_layerConfigurationProvider instanceof CachingLayerConfigurationProvider) {
@@ -213,9 +227,100 @@ public class LayerServiceImpl implements LayerService {
         UUID uuid = UUID.randomUUID();
         _configurationssByUuid.put(uuid, configuration);
 
+        // The first configuration with given content provides the canonical
+        // ID for all later ones
+        String content = getRenderingContent(layerId, configuration);
+        synchronized (_canonicalIdsByContent) {
+            CanonicalId canonicalId = _canonicalIdsByContent.get(content);
+            if (null == canonicalId) {
+                canonicalId = new CanonicalId(content, uuid);
+                _canonicalIdsByContent.put(content, canonicalId);
+            }
+            ++canonicalId._references;
+            _canonicalIds.put(uuid, canonicalId);
+        }
+
         return uuid;
 	}
 
+	@Override
+	public UUID getCanonicalConfigurationId (UUID uuid) {
+		if (null == uuid)
+			return null;
+		CanonicalId canonicalId = _canonicalIds.get(uuid);
+		return null == canonicalId ? uuid : canonicalId._id;
+	}
+
+	// Describe the parts of a configuration that affect rendering - the values
+	// of all properties the layer configuration factories read from it.
+	// Anything else, such as client-only display settings, is left out, so
+	// configurations that differ only in those share a canonical ID.
+	private String getRenderingContent (String layerId, JSONObject configuration) {
+		try {
+			EmptyConfigurableFactory rootFactory = new EmptyConfigurableFactory(null, null, null);
+			ConfigurableFactory<LayerConfiguration> factory = _layerConfigurationProvider.createFactory(rootFactory, Collections.singletonList("config"));
+			rootFactory.addChildFactory(factory);
+			rootFactory.readConfiguration(mergeQueryConfigOptions(configuration, null));
+			return layerId+":"+getCanonicalString(factory.getPropertyValues());
+		} catch (ConfigurationException e) {
+			LOGGER.warn("Error reading configuration for layer {}; using it whole as its canonical content", layerId, e);
+			return layerId+":"+getCanonicalString(configuration);
+		}
+	}
+
+	// Write out a JSON value with object keys in sorted order, so that equal
+	// values always produce equal strings.
+	private static String getCanonicalString (Object value) {
+		StringBuilder result = new StringBuilder();
+		appendCanonicalString(value, result);
+		return result.toString();
+	}
+
+	private static void appendCanonicalString (Object value, StringBuilder result) {
+		if (value instanceof JSONObject) {
+			JSONObject object = (JSONObject) value;
+			List<String> keys = new ArrayList<>();
+			Iterator<?> i = object.keys();
+			while (i.hasNext())
+				keys.add(i.next().toString());
+			Collections.sort(keys);
+
+			result.append('{');
+			for (String key: keys) {
+				result.append(JSONObject.quote(key)).append(':');
+				appendCanonicalString(object.opt(key), result);
+				result.append(',');
+			}
+			result.append('}');
+		} else if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			result.append('[');
+			for (int n = 0; n < array.length(); ++n) {
+				appendCanonicalString(array.opt(n), result);
+				result.append(',');
+			}
+			result.append(']');
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			List<String> keys = new ArrayList<>();
+			for (Object key: map.keySet())
+				keys.add(key.toString());
+			Collections.sort(keys);
+
+			result.append('{');
+			for (String key: keys) {
+				result.append(JSONObject.quote(key)).append(':');
+				appendCanonicalString(map.get(key), result);
+				result.append(',');
+			}
+			result.append('}');
+		} else if (value instanceof String) {
+			result.append(JSONObject.quote((String) value));
+		} else {
+			result.append(value);
+		}
+	}
+
 	/**
 	 * Wraps the options and query {@link JSONObject}s together into a new object.
 	 */
@@ -236,50 +341,115 @@ public class LayerServiceImpl implements LayerService {
 
 	@Override
 	public LayerConfiguration getRenderingConfiguration (UUID uuid, TileIndex tile, JSONObject requestParams) {
-	    try {
-			//the root factory that does nothing
-			EmptyConfigurableFactory rootFactory = new EmptyConfigurableFactory(null, null, null);
-			
-			//add another factory that will handle query params
-			RequestParamsFactory queryParamsFactory = new RequestParamsFactory(null, rootFactory, Collections.<String>emptyList());
-			rootFactory.addChildFactory(queryParamsFactory);
-			
-			//add the layer configuration factory under the path 'config'
-	        ConfigurableFactory<LayerConfiguration> factory = _layerConfigurationProvider.createFactory(rootFactory, Collections.singletonList("config"));
-	        rootFactory.addChildFactory(factory);
-	        
-	        JSONObject rawConfiguration = _configurationssByUuid.get(uuid);
-	        if (null == rawConfiguration)
-	            throw new IllegalArgumentException("Unknown configuration: "+uuid);
-
-	        rootFactory.readConfiguration(mergeQueryConfigOptions(rawConfiguration, requestParams));
-	        LayerConfiguration config = rootFactory.produce(LayerConfiguration.class);
-            String layerId = config.getPropertyValue(LayerConfiguration.LAYER_NAME);
-            PyramidIO pyramidIO = config.produce(PyramidIO.class);
+		try {
+			LayerConfiguration config = getCompiledConfiguration(uuid, requestParams);
+
+			// Set level-specific properties in the configuration
+			if (null != tile) {
+				String layerId = config.getPropertyValue(LayerConfiguration.LAYER_NAME);
+				PyramidIO pyramidIO = config.produce(PyramidIO.class);
+				PyramidMetaData metadata = getMetaData(layerId, pyramidIO);
+				config.setLevelProperties(tile,
+				                          metadata.getLevelMinimum(tile.getLevel()),
+				                          metadata.getLevelMaximum(tile.getLevel()));
+			}
+
+			return config;
+		} catch (ConfigurationException e) {
+			LOGGER.warn("Error configuring rendering for {}", uuid, e);
+			return null;
+		}
+	}
 
-	        // Initialize the PyramidIO for reading
-            JSONObject initJSON = config.getProducer(PyramidIO.class).getPropertyValue(PyramidIOFactory.INITIALIZATION_DATA);
-            if (null != initJSON) {
-                int width = config.getPropertyValue(LayerConfiguration.OUTPUT_WIDTH);
-                int height = config.getPropertyValue(LayerConfiguration.OUTPUT_HEIGHT);
-                Properties initProps = JsonUtilities.jsonObjToProperties(initJSON);
+	/*
+	 * Get the compiled configuration for a given configuration UUID and set of
+	 * request parameters, building it if it hasn't been built yet.
+	 * 
+	 * Compiled configurations are shared between requests, so only per-tile
+	 * properties (which are kept per thread) may be set on them.
+	 */
+	private LayerConfiguration getCompiledConfiguration (UUID uuid, JSONObject requestParams)
+		throws ConfigurationException {
+		if (null == uuid)
+			throw new IllegalArgumentException("Unknown configuration: "+uuid);
+
+		SynchronizedLRUCache<String, LayerConfiguration> compiled = _compiledConfigurations.get(uuid);
+		if (null == compiled) {
+			// Don't start a cache for a configuration we don't know
+			if (!_configurationssByUuid.containsKey(uuid))
+				throw new IllegalArgumentException("Unknown configuration: "+uuid);
+			_compiledConfigurations.putIfAbsent(uuid, new SynchronizedLRUCache<String, LayerConfiguration>(MAX_COMPILED_CONFIGURATIONS_PER_UUID));
+			compiled = _compiledConfigurations.get(uuid);
+		}
 
-                pyramidIO.initializeForRead(layerId, width, height, initProps);
-            }
+		String key = getRequestKey(requestParams);
+		LayerConfiguration config = compiled.get(key);
+		if (null == config) {
+			// Two threads may occasionally both compile the same
+			// configuration; that's harmless, and cheaper than making every
+			// request wait on a lock.
+			config = compileConfiguration(uuid, requestParams);
+			compiled.put(key, config);
+		}
+		return config;
+	}
 
-            // Set level-specific properties in the configuration
-            if (null != tile) {
-                PyramidMetaData metadata = getMetaData(layerId, pyramidIO);
-                config.setLevelProperties(tile,
-                                          metadata.getLevelMinimum(tile.getLevel()),
-                                          metadata.getLevelMaximum(tile.getLevel()));
-            }
+	// Reduce request parameters to a canonical string, independent of
+	// parameter order, leaving out the tile set parameters, which don't
+	// affect rendering.
+	private String getRequestKey (JSONObject requestParams) {
+		if (null == requestParams)
+			return "";
+
+		List<String> names = new ArrayList<>();
+		Iterator<?> i = requestParams.keys();
+		while (i.hasNext()) {
+			String name = i.next().toString();
+			if (!TileSetParameters.isTileSetParameter(name))
+				names.add(name);
+		}
+		Collections.sort(names);
 
-            return config;
-	    } catch (ConfigurationException e) {
-	        LOGGER.warn("Error configuring rendering for {}", uuid, e);
-	        return null;
-	    }
+		StringBuilder key = new StringBuilder();
+		for (String name: names) {
+			key.append(name).append('=').append(requestParams.opt(name)).append('&');
+		}
+		return key.toString();
+	}
+
+	private LayerConfiguration compileConfiguration (UUID uuid, JSONObject requestParams)
+		throws ConfigurationException {
+		//the root factory that does nothing
+		EmptyConfigurableFactory rootFactory = new EmptyConfigurableFactory(null, null, null);
+
+		//add another factory that will handle query params
+		RequestParamsFactory queryParamsFactory = new RequestParamsFactory(null, rootFactory, Collections.<String>emptyList());
+		rootFactory.addChildFactory(queryParamsFactory);
+
+		//add the layer configuration factory under the path 'config'
+		ConfigurableFactory<LayerConfiguration> factory = _layerConfigurationProvider.createFactory(rootFactory, Collections.singletonList("config"));
+		rootFactory.addChildFactory(factory);
+
+		JSONObject rawConfiguration = _configurationssByUuid.get(uuid);
+		if (null == rawConfiguration)
+			throw new IllegalArgumentException("Unknown configuration: "+uuid);
+
+		rootFactory.readConfiguration(mergeQueryConfigOptions(rawConfiguration, requestParams));
+		LayerConfiguration config = rootFactory.produce(LayerConfiguration.class);
+		String layerId = config.getPropertyValue(LayerConfiguration.LAYER_NAME);
+
+		// Initialize the PyramidIO for reading
+		JSONObject initJSON = config.getProducer(PyramidIO.class).getPropertyValue(PyramidIOFactory.INITIALIZATION_DATA);
+		if (null != initJSON) {
+			int width = config.getPropertyValue(LayerConfiguration.OUTPUT_WIDTH);
+			int height = config.getPropertyValue(LayerConfiguration.OUTPUT_HEIGHT);
+			Properties initProps = JsonUtilities.jsonObjToProperties(initJSON);
+
+			PyramidIO pyramidIO = config.produce(PyramidIO.class);
+			pyramidIO.initializeForRead(layerId, width, height, initProps);
+		}
+
+		return config;
 	}
 
 	/*
@@ -333,7 +503,32 @@ public class LayerServiceImpl implements LayerService {
 
 	@Override
 	public void forgetConfiguration (UUID uuid) {
+	    if (null == uuid)
+	        return;
 	    _configurationssByUuid.remove(uuid);
+	    _compiledConfigurations.remove(uuid);
+	    // Drop the canonical ID once no configuration refers to it
+	    synchronized (_canonicalIdsByContent) {
+	        CanonicalId canonicalId = _canonicalIds.remove(uuid);
+	        if (null != canonicalId && 0 == --canonicalId._references)
+	            _canonicalIdsByContent.remove(canonicalId._content);
+	    }
+	}
+
+
+
+	// The canonical ID of a set of configurations with the same rendering
+	// content, and how many of them there currently are
+	private static class CanonicalId {
+		final String _content;
+		final UUID   _id;
+		int          _references;
+
+		CanonicalId (String content, UUID id) {
+			_content = content;
+			_id = id;
+			_references = 0;
+		}
 	}
 
 
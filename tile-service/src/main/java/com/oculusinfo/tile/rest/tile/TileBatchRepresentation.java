@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.tile;
+
+import com.oculusinfo.binning.TileIndex;
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Streams the contents of many tiles in one response, writing each tile as
+ * soon as it is available.
+ * 
+ * JSON responses are an array of each tile's JSON contents. All other
+ * responses use a compact binary framing: a 4-byte count of the tiles, then,
+ * for each tile, its level, x index, and y index, the length of its contents,
+ * all as 4-byte integers, and finally the contents themselves. Tiles with no
+ * contents have a length of 0. All integers are big-endian.
+ */
+public class TileBatchRepresentation extends OutputRepresentation {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The source of the contents of each tile
+	 */
+	public static interface TileContents {
+		/**
+		 * Get the contents of a tile, waiting for them if necessary.
+		 * 
+		 * @return The contents of the tile, or null if it has none; for JSON
+		 *         responses, the UTF-8 encoding of a JSON value
+		 */
+		public byte[] getContents (TileIndex tile) throws IOException;
+	}
+
+
+
+	private List<TileIndex> _tiles;
+	private TileContents    _contents;
+
+	/**
+	 * @param mediaType The type of response; JSON for a JSON array, anything
+	 *            else for binary framing
+	 * @param tiles The tiles to write, in order
+	 * @param contents The source of the contents of each tile
+	 */
+	public TileBatchRepresentation (MediaType mediaType, List<TileIndex> tiles, TileContents contents) {
+		super(mediaType);
+
+		_tiles = tiles;
+		_contents = contents;
+	}
+
+	@Override
+	public void write (OutputStream outputStream) throws IOException {
+		if (MediaType.APPLICATION_JSON.getName().equals(getMediaType().getName())) {
+			writeJSON(outputStream);
+		} else {
+			writeFrames(outputStream);
+		}
+	}
+
+	private void writeJSON (OutputStream outputStream) throws IOException {
+		outputStream.write('[');
+		boolean first = true;
+		for (TileIndex tile: _tiles) {
+			if (!first) outputStream.write(',');
+			first = false;
+
+			byte[] contents = _contents.getContents(tile);
+			outputStream.write(null == contents ? "null".getBytes(UTF8) : contents);
+			outputStream.flush();
+		}
+		outputStream.write(']');
+		outputStream.flush();
+	}
+
+	private void writeFrames (OutputStream outputStream) throws IOException {
+		DataOutputStream output = new DataOutputStream(outputStream);
+		output.writeInt(_tiles.size());
+		for (TileIndex tile: _tiles) {
+			byte[] contents = _contents.getContents(tile);
+			output.writeInt(tile.getLevel());
+			output.writeInt(tile.getX());
+			output.writeInt(tile.getY());
+			if (null == contents) {
+				output.writeInt(0);
+			} else {
+				output.writeInt(contents.length);
+				output.write(contents);
+			}
+			output.flush();
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.tile;
+
+import com.google.inject.Inject;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.tile.rest.TileImageEncoder;
+import com.oculusinfo.tile.rest.layer.LayerService;
+import com.oculusinfo.tile.rest.tile.TileBatchRepresentation.TileContents;
+import com.oculusinfo.tile.rest.tile.TileResource.ExtensionType;
+import com.oculusinfo.tile.rest.tile.TileResource.ResponseType;
+import com.oculusinfo.tile.rest.tile.caching.RenderedImageCache;
+import com.oculusinfo.tile.rest.tile.caching.RenderedImageCache.CachedImage;
+import oculus.aperture.common.rest.ApertureServerResource;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ResourceException;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Serves many tiles of a layer in a single response.
+ * 
+ * The tiles wanted are given by the same query parameters that give the tile
+ * set of a single tile request - <code>tileset</code>, or bounds given by
+ * <code>minx</code>, <code>maxx</code>, <code>miny</code>,
+ * <code>maxy</code>, <code>minz</code> and <code>maxz</code>, or by
+ * <code>mintile</code> and <code>maxtile</code>. The extension determines the
+ * response:
+ * <dl>
+ * <dt>json</dt>
+ * <dd>A JSON array of objects with the tile index ("index") and data
+ * ("tile") of each tile, as returned for single tiles</dd>
+ * <dt>avro</dt>
+ * <dd>The serialized data of each tile, in the binary framing of
+ * {@link TileBatchRepresentation}</dd>
+ * <dt>png, jpg, jpeg</dt>
+ * <dd>The rendered image of each tile, in the binary framing of
+ * {@link TileBatchRepresentation}</dd>
+ * </dl>
+ * Tiles are written in order of level, then x index, then y index.
+ */
+public class TileBatchResource extends ApertureServerResource {
+	private static final Charset UTF8           = Charset.forName("UTF-8");
+	// The most tiles that may be requested at once
+	private static final int     MAX_TILES      = 1024;
+	// The extension under which serialized tile data is requested
+	private static final String  DATA_EXTENSION = "avro";
+
+
+
+	private TileService        _service;
+	private LayerService       _layerService;
+	private RenderedImageCache _imageCache;
+	private TileImageEncoder   _imageEncoder;
+
+
+
+	@Inject
+	public TileBatchResource (TileService service, LayerService layerService,
+	                          RenderedImageCache imageCache, TileImageEncoder imageEncoder) {
+		_service = service;
+		_layerService = layerService;
+		_imageCache = imageCache;
+		_imageEncoder = imageEncoder;
+	}
+
+	@Get
+	public Representation getTiles () throws ResourceException {
+		String id = (String) getRequest().getAttributes().get("id");
+		String layer = (String) getRequest().getAttributes().get("layer");
+		String ext = ((String) getRequest().getAttributes().get("ext")).trim().toLowerCase();
+		Form form = getRequest().getResourceRef().getQueryAsForm();
+
+		UUID uuid = null;
+		List<TileIndex> tiles;
+		try {
+			if (!"default".equals(id)) { // Special indicator - no ID.
+				uuid = UUID.fromString(id);
+			}
+			// Check the size of the request before listing its tiles, so a
+			// request for too many can't use up memory listing them
+			long tileSetSize = TileResource.getTileSetSize(form);
+			if (tileSetSize > MAX_TILES) {
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+				                            tileSetSize+" tiles requested; at most "+MAX_TILES+" are allowed");
+			}
+			Collection<TileIndex> tileSet = TileResource.parseTileSetDescription(form);
+			if (null == tileSet || tileSet.isEmpty()) {
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, "No tiles requested");
+			}
+			tiles = new ArrayList<>(tileSet);
+			Collections.sort(tiles);
+		} catch (IllegalArgumentException e) {
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+			                            "Unable to interpret requested tiles from supplied URL.", e);
+		}
+		JSONObject query = TileSetParameters.getRenderingQuery(new JSONObject(form.getValuesMap()));
+
+		if (DATA_EXTENSION.equals(ext)) {
+			final Map<TileIndex, byte[]> data = _service.getTileData(uuid, layer, tiles, query);
+			setStatus(Status.SUCCESS_OK);
+			return new TileBatchRepresentation(MediaType.APPLICATION_OCTET_STREAM, tiles, new TileContents() {
+				@Override
+				public byte[] getContents (TileIndex tile) {
+					return data.get(tile);
+				}
+			});
+		}
+
+		ExtensionType extType;
+		try {
+			extType = ExtensionType.valueOf(ext);
+		} catch (IllegalArgumentException e) {
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, "Unknown tile type "+ext, e);
+		}
+		setStatus(Status.SUCCESS_OK);
+		if (ResponseType.Image.equals(extType.getResponseType())) {
+			return getImages(uuid, layer, tiles, extType, query);
+		} else {
+			return getTileObjects(uuid, layer, tiles, query);
+		}
+	}
+
+	private Representation getTileObjects (UUID uuid, String layer, List<TileIndex> tiles, JSONObject query) {
+		final Map<TileIndex, JSONObject> data = _service.getTileObjects(uuid, layer, tiles, query);
+		return new TileBatchRepresentation(MediaType.APPLICATION_JSON, tiles, new TileContents() {
+			@Override
+			public byte[] getContents (TileIndex tile) throws IOException {
+				// The same form as the result of a single tile request
+				try {
+					JSONObject tileIndex = new JSONObject();
+					tileIndex.put("level", tile.getLevel());
+					tileIndex.put("xIndex", tile.getX());
+					tileIndex.put("yIndex", tile.getY());
+
+					JSONObject result = new JSONObject();
+					result.put("index", tileIndex);
+					JSONObject tileData = data.get(tile);
+					if (null != tileData)
+						result.put("tile", tileData);
+					return result.toString().getBytes(UTF8);
+				} catch (JSONException e) {
+					throw new IOException("Unable to convert tile "+tile+" to JSON", e);
+				}
+			}
+		});
+	}
+
+	private Representation getImages (final UUID uuid, String layer, List<TileIndex> tiles,
+	                                  final ExtensionType extType, final JSONObject query) {
+		// Use any images we've already rendered, and render the rest
+		final Map<TileIndex, byte[]> cached = new HashMap<>();
+		final Map<TileIndex, String> cacheKeys = new HashMap<>();
+		List<TileIndex> toRender = new ArrayList<>();
+		UUID canonicalId = _layerService.getCanonicalConfigurationId(uuid);
+		for (TileIndex tile: tiles) {
+			if (_imageCache.isEnabled()) {
+				String cacheKey = RenderedImageCache.getKey(canonicalId, layer, tile, extType.name(), query);
+				CachedImage image = _imageCache.get(cacheKey);
+				if (null != image) {
+					cached.put(tile, image.getData());
+					continue;
+				}
+				cacheKeys.put(tile, cacheKey);
+			}
+			toRender.add(tile);
+		}
+		final Map<TileIndex, Future<BufferedImage>> rendered = _service.getTileImages(uuid, layer, toRender, query);
+
+		return new TileBatchRepresentation(MediaType.APPLICATION_OCTET_STREAM, tiles, new TileContents() {
+			@Override
+			public byte[] getContents (TileIndex tile) throws IOException {
+				byte[] image = cached.get(tile);
+				if (null != image)
+					return image;
+
+				BufferedImage renderedImage;
+				try {
+					renderedImage = rendered.get(tile).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted rendering tile "+tile, e);
+				} catch (ExecutionException e) {
+					throw new IOException("Unable to render tile "+tile, e.getCause());
+				}
+				// A tile that couldn't be rendered, possibly only for the
+				// moment, gets a blank image, which isn't cached
+				if (null == renderedImage)
+					return _imageEncoder.encode(_service.getBlankTileImage(uuid, tile, query), extType.getMediaType());
+
+				image = _imageEncoder.encode(renderedImage, extType.getMediaType());
+				String cacheKey = cacheKeys.get(tile);
+				if (null != cacheKey)
+					_imageCache.put(cacheKey, image);
+				return image;
+			}
+		});
+	}
+}
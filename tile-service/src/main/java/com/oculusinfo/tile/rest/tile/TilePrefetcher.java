@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.tile;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.tile.rest.TileImageEncoder;
+import com.oculusinfo.tile.rest.layer.LayerService;
+import com.oculusinfo.tile.rest.tile.TileResource.ExtensionType;
+import com.oculusinfo.tile.rest.tile.TileResource.ResponseType;
+import com.oculusinfo.tile.rest.tile.caching.RenderedImageCache;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+
+/**
+ * Anticipates the tiles a client will want next, and prepares them before
+ * they are requested.
+ * 
+ * Recent tile requests are tracked per session - that is, per client, layer,
+ * configuration, and image type. Shortly after a session's requests stop
+ * arriving, the tiles around its current view are predicted: the next ring of
+ * tiles, in the direction of any panning, and the next level up or down, if
+ * the client has been zooming. Their data is read into the tile cache, and,
+ * if the rendered image cache is enabled, they are rendered into it, on a
+ * small pool of low-priority threads. Any prefetch still in progress for a
+ * session is abandoned as soon as the client requests something new.
+ * 
+ * Configured by the following optional properties in tile.properties:
+ * <dl>
+ * <dt>com.oculusinfo.tile.prefetch.threads</dt>
+ * <dd>The number of threads on which to prefetch; 0 disables prefetching.
+ * Defaults to 2.</dd>
+ * <dt>com.oculusinfo.tile.prefetch.delay</dt>
+ * <dd>The time, in milliseconds, to wait after a session's last request
+ * before prefetching for it. Defaults to 200.</dd>
+ * <dt>com.oculusinfo.tile.prefetch.maxTiles</dt>
+ * <dd>The maximum number of tiles prefetched after any one view.  Defaults to
+ * 32.</dd>
+ * </dl>
+ */
+@Singleton
+public class TilePrefetcher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TilePrefetcher.class);
+
+	private static final int  DEFAULT_THREADS   = 2;
+	private static final long DEFAULT_DELAY     = 200L;
+	private static final int  DEFAULT_MAX_TILES = 32;
+	// The number of recent requests remembered per session
+	private static final int  HISTORY_SIZE      = 64;
+	// The time, in milliseconds, after which an idle session is forgotten
+	private static final long SESSION_TIMEOUT   = 5L * 60L * 1000L;
+	// The number of requests between sweeps for idle sessions
+	private static final int  SWEEP_INTERVAL    = 1024;
+
+
+
+	private TileService                    _service;
+	private LayerService                   _layerService;
+	private RenderedImageCache             _imageCache;
+	private TileImageEncoder               _imageEncoder;
+
+	private int                            _threads;
+	private long                           _delay;
+	private int                            _maxTiles;
+
+	private ConcurrentMap<String, Session> _sessions;
+	private AtomicInteger                  _requestCount;
+	private ScheduledThreadPoolExecutor    _executor;
+
+
+
+	@Inject
+	public TilePrefetcher (TileService service, LayerService layerService,
+	                       RenderedImageCache imageCache, TileImageEncoder imageEncoder) {
+		_service = service;
+		_layerService = layerService;
+		_imageCache = imageCache;
+		_imageEncoder = imageEncoder;
+
+		_threads = DEFAULT_THREADS;
+		_delay = DEFAULT_DELAY;
+		_maxTiles = DEFAULT_MAX_TILES;
+
+		_sessions = new ConcurrentHashMap<>();
+		_requestCount = new AtomicInteger(0);
+		_executor = null;
+	}
+
+	@Inject(optional = true)
+	public void setThreads (@Named("com.oculusinfo.tile.prefetch.threads") String threads) {
+		try {
+			_threads = Math.max(0, Integer.parseInt(threads.trim()));
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Illegal prefetch thread count {}; using default", threads);
+		}
+	}
+
+	@Inject(optional = true)
+	public void setDelay (@Named("com.oculusinfo.tile.prefetch.delay") String delay) {
+		try {
+			_delay = Math.max(0L, Long.parseLong(delay.trim()));
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Illegal prefetch delay {}; using default", delay);
+		}
+	}
+
+	@Inject(optional = true)
+	public void setMaxTiles (@Named("com.oculusinfo.tile.prefetch.maxTiles") String maxTiles) {
+		try {
+			_maxTiles = Math.max(0, Integer.parseInt(maxTiles.trim()));
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Illegal prefetch tile count {}; using default", maxTiles);
+		}
+	}
+
+	public boolean isEnabled () {
+		return _threads > 0 && _maxTiles > 0;
+	}
+
+	private synchronized ScheduledThreadPoolExecutor getExecutor () {
+		if (null == _executor) {
+			ThreadFactory factory = new ThreadFactory() {
+				private final AtomicInteger _count = new AtomicInteger(0);
+				@Override
+				public Thread newThread (Runnable r) {
+					Thread thread = new Thread(r, "tile-prefetch-"+_count.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			};
+			_executor = new ScheduledThreadPoolExecutor(_threads, factory);
+			_executor.setRemoveOnCancelPolicy(true);
+		}
+		return _executor;
+	}
+
+
+
+	/**
+	 * Note that a client has requested a tile, and schedule a prefetch of the
+	 * tiles it is likely to want next.
+	 * 
+	 * @param client An identifier of the requesting client
+	 * @param id The UUID of the layer configuration; may be null for the
+	 *            default configuration
+	 * @param layer The requested layer
+	 * @param index The requested tile
+	 * @param extension The type of response requested
+	 * @param query Any query parameters of the request; may be null. Tile set
+	 *            parameters are ignored, as they don't affect rendering.
+	 */
+	public void onTileRequested (String client, UUID id, String layer, TileIndex index,
+	                             ExtensionType extension, JSONObject query) {
+		if (!isEnabled()) return;
+
+		// Requests for different tile sets of the same view are one session,
+		// and their images are cached under the same keys
+		query = TileSetParameters.getRenderingQuery(query);
+		String sessionKey = client+"|"+RenderedImageCache.getKey(id, layer, null, extension.name(), query);
+		Session session = _sessions.get(sessionKey);
+		if (null == session) {
+			session = new Session(id, layer, extension, query);
+			Session existing = _sessions.putIfAbsent(sessionKey, session);
+			if (null != existing) session = existing;
+		}
+		session.onRequest(index);
+
+		if (0 == _requestCount.incrementAndGet() % SWEEP_INTERVAL) {
+			sweepSessions();
+		}
+	}
+
+	// Forget about sessions that haven't been heard from in a while
+	private void sweepSessions () {
+		long now = System.currentTimeMillis();
+		Iterator<Session> i = _sessions.values().iterator();
+		while (i.hasNext()) {
+			Session session = i.next();
+			if (now - session.getLastRequestTime() > SESSION_TIMEOUT) {
+				session.cancel();
+				i.remove();
+			}
+		}
+	}
+
+	// The number of sessions currently tracked
+	int getSessionCount () {
+		return _sessions.size();
+	}
+
+
+
+	/**
+	 * Predict the tiles a client will want next, given its recent requests.
+	 * 
+	 * The current view is taken to be the most recent run of requests at the
+	 * same level. If the last few requests of that run lie off to one side,
+	 * the client is taken to be panning that way, and the next two rows or
+	 * columns in that direction are predicted; otherwise, the ring of tiles
+	 * around the view is. If the level before the current run was higher or
+	 * lower, the client is taken to be zooming, and the tiles covering the
+	 * current view at the next level in the same direction are predicted too.
+	 * 
+	 * @param recent The recent requests, oldest first
+	 * @param maxTiles The maximum number of tiles to predict
+	 * @return The predicted tiles, most likely first, excluding any already
+	 *         requested
+	 */
+	static List<TileIndex> predict (List<TileIndex> recent, int maxTiles) {
+		List<TileIndex> predictions = new ArrayList<>();
+		if (recent.isEmpty() || maxTiles <= 0) return predictions;
+
+		// Find the current view
+		int level = recent.get(recent.size()-1).getLevel();
+		int runStart = recent.size()-1;
+		while (runStart > 0 && recent.get(runStart-1).getLevel() == level) --runStart;
+		List<TileIndex> view = recent.subList(runStart, recent.size());
+		int previousLevel = runStart > 0 ? recent.get(runStart-1).getLevel() : level;
+
+		int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+		for (TileIndex tile: view) {
+			minX = Math.min(minX, tile.getX());
+			maxX = Math.max(maxX, tile.getX());
+			minY = Math.min(minY, tile.getY());
+			maxY = Math.max(maxY, tile.getY());
+		}
+
+		// Determine the direction of any panning, from where the latest
+		// requests lie relative to the center of the view
+		int latest = Math.max(1, Math.min(8, view.size()/4));
+		double meanX = 0.0, meanY = 0.0;
+		for (TileIndex tile: view.subList(view.size()-latest, view.size())) {
+			meanX += tile.getX();
+			meanY += tile.getY();
+		}
+		meanX /= latest;
+		meanY /= latest;
+		int dx = panDirection(meanX, minX, maxX);
+		int dy = panDirection(meanY, minY, maxY);
+
+		Set<TileIndex> candidates = new LinkedHashSet<>();
+		if (0 == dx && 0 == dy) {
+			// No panning; just get the ring around the current view.
+			for (int x = minX-1; x <= maxX+1; ++x) {
+				for (int y = minY-1; y <= maxY+1; ++y) {
+					if (x < minX || x > maxX || y < minY || y > maxY)
+						addTile(candidates, level, x, y);
+				}
+			}
+		} else {
+			// Get the next two rows or columns in the direction of panning.
+			for (int step = 1; step <= 2; ++step) {
+				if (0 != dx) {
+					int x = dx > 0 ? maxX+step : minX-step;
+					for (int y = minY; y <= maxY; ++y) addTile(candidates, level, x, y);
+				}
+				if (0 != dy) {
+					int y = dy > 0 ? maxY+step : minY-step;
+					for (int x = minX; x <= maxX; ++x) addTile(candidates, level, x, y);
+				}
+				if (0 != dx && 0 != dy) {
+					addTile(candidates, level, dx > 0 ? maxX+step : minX-step, dy > 0 ? maxY+step : minY-step);
+				}
+			}
+		}
+
+		if (previousLevel < level) {
+			// Zooming in; get the children of the current view
+			for (int x = minX*2; x <= maxX*2+1; ++x) {
+				for (int y = minY*2; y <= maxY*2+1; ++y) {
+					addTile(candidates, level+1, x, y);
+				}
+			}
+		} else if (previousLevel > level) {
+			// Zooming out; get the parents of the current view
+			for (int x = minX/2; x <= maxX/2; ++x) {
+				for (int y = minY/2; y <= maxY/2; ++y) {
+					addTile(candidates, level-1, x, y);
+				}
+			}
+		}
+
+		candidates.removeAll(recent);
+		for (TileIndex tile: candidates) {
+			if (predictions.size() >= maxTiles) break;
+			predictions.add(tile);
+		}
+		return predictions;
+	}
+
+	private static int panDirection (double latestMean, int min, int max) {
+		double center = (min + max) / 2.0;
+		double offset = latestMean - center;
+		// Require the latest requests to be at least halfway to an edge of
+		// the view, and the view to be more than a single tile
+		if (max > min && Math.abs(offset) * 4.0 >= (max - min)) {
+			return offset > 0 ? 1 : -1;
+		}
+		return 0;
+	}
+
+	private static void addTile (Set<TileIndex> tiles, int level, int x, int y) {
+		if (level < 0) return;
+		int size = 1 << Math.min(level, 30);
+		if (x < 0 || y < 0 || x >= size || y >= size) return;
+		tiles.add(new TileIndex(level, x, y));
+	}
+
+
+
+	/*
+	 * The recent requests, and any scheduled prefetch, of a single session
+	 */
+	private class Session {
+		private UUID                 _id;
+		private String               _layer;
+		private ExtensionType        _extension;
+		private JSONObject           _query;
+		private Deque<TileIndex>     _recent;
+		private long                 _lastRequestTime;
+		private ScheduledFuture<?>   _scheduled;
+		private PrefetchTask         _task;
+
+		Session (UUID id, String layer, ExtensionType extension, JSONObject query) {
+			_id = id;
+			_layer = layer;
+			_extension = extension;
+			_query = query;
+			_recent = new ArrayDeque<>();
+			_lastRequestTime = System.currentTimeMillis();
+			_scheduled = null;
+			_task = null;
+		}
+
+		synchronized long getLastRequestTime () {
+			return _lastRequestTime;
+		}
+
+		synchronized void onRequest (TileIndex index) {
+			_lastRequestTime = System.currentTimeMillis();
+			_recent.remove(index);
+			_recent.addLast(index);
+			while (_recent.size() > HISTORY_SIZE) _recent.removeFirst();
+
+			// The client has moved on; replace anything pending
+			cancel();
+			_task = new PrefetchTask(this);
+			_scheduled = getExecutor().schedule(_task, _delay, TimeUnit.MILLISECONDS);
+		}
+
+		synchronized void cancel () {
+			if (null != _task) _task.cancel();
+			if (null != _scheduled) _scheduled.cancel(false);
+			_task = null;
+			_scheduled = null;
+		}
+
+		synchronized List<TileIndex> getRecentRequests () {
+			return new ArrayList<>(_recent);
+		}
+	}
+
+	private class PrefetchTask implements Runnable {
+		private Session          _session;
+		private volatile boolean _cancelled;
+
+		PrefetchTask (Session session) {
+			_session = session;
+			_cancelled = false;
+		}
+
+		void cancel () {
+			_cancelled = true;
+		}
+
+		@Override
+		public void run () {
+			try {
+				List<TileIndex> tiles = predict(_session.getRecentRequests(), _maxTiles);
+				if (tiles.isEmpty() || _cancelled) return;
+
+				// Start all the data reads at once...
+				_service.prefetchTiles(_session._id, _session._layer, tiles, _session._query);
+
+				// ... then render what we can before the client moves on.
+				if (!ResponseType.Image.equals(_session._extension.getResponseType()) || !_imageCache.isEnabled())
+					return;
+
+				UUID canonicalId = _layerService.getCanonicalConfigurationId(_session._id);
+				for (TileIndex tile: tiles) {
+					if (_cancelled) return;
+					String key = RenderedImageCache.getKey(canonicalId, _session._layer, tile,
+					                                       _session._extension.name(), _session._query);
+					if (null != _imageCache.get(key)) continue;
+
+					// Tiles that can't be rendered are left for a real request
+					BufferedImage image = _service.renderTileImage(_session._id, _session._layer, tile, tiles, _session._query);
+					if (null != image)
+						_imageCache.put(key, _imageEncoder.encode(image, _session._extension.getMediaType()));
+				}
+			} catch (Exception e) {
+				LOGGER.warn("Error prefetching tiles for layer {}", _session._layer, e);
+			}
+		}
+	}
+}
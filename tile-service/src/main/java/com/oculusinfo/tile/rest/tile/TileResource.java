@@ -27,11 +27,16 @@ package com.oculusinfo.tile.rest.tile;
 import com.google.inject.Inject;
 import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.tile.rest.ImageOutputRepresentation;
+import com.oculusinfo.tile.rest.TileImageEncoder;
+import com.oculusinfo.tile.rest.layer.LayerService;
+import com.oculusinfo.tile.rest.tile.caching.RenderedImageCache;
+import com.oculusinfo.tile.rest.tile.caching.RenderedImageCache.CachedImage;
 import oculus.aperture.common.rest.ApertureServerResource;
 import org.json.JSONObject;
 import org.restlet.data.Form;
 import org.restlet.data.MediaType;
 import org.restlet.data.Status;
+import org.restlet.data.Tag;
 import org.restlet.ext.json.JsonRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
@@ -40,6 +45,7 @@ import org.restlet.resource.ResourceException;
 import java.awt.image.BufferedImage;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
@@ -69,15 +75,24 @@ public class TileResource extends ApertureServerResource {
 		}
 	}
 	
-	private TileService _service;
+	private TileService        _service;
+	private LayerService       _layerService;
+	private RenderedImageCache _imageCache;
+	private TileImageEncoder   _imageEncoder;
+	private TilePrefetcher     _prefetcher;
 	
 	
 	@Inject
-	public TileResource(TileService service) {
+	public TileResource(TileService service, LayerService layerService, RenderedImageCache imageCache,
+	                    TileImageEncoder imageEncoder, TilePrefetcher prefetcher) {
 		this._service = service;
+		this._layerService = layerService;
+		this._imageCache = imageCache;
+		this._imageEncoder = imageEncoder;
+		this._prefetcher = prefetcher;
 	}
 	
-	private Integer getIntQueryValue (Form query, String key) {
+	private static Integer getIntQueryValue (Form query, String key) {
 		String stringValue = query.getFirstValue(key, true, null);
 		if (null == stringValue) return null;
 		try {
@@ -88,13 +103,17 @@ public class TileResource extends ApertureServerResource {
 		}
 	}
 
-	private TileIndex getTileIndexQueryValue (Form query, String key) {
+	private static TileIndex getTileIndexQueryValue (Form query, String key) {
 		String stringValue = query.getFirstValue(key, true, null);
 		if (null == stringValue) return null;
 		return TileIndex.fromString(stringValue);
 	}
 
-	private Collection<TileIndex>  parseTileSetDescription (Form query) {
+	/*
+	 * Get the set of tiles described by the query parameters of a request,
+	 * or null if none are.
+	 */
+	static Collection<TileIndex> parseTileSetDescription (Form query) {
 		Set<TileIndex> indices = null;
 
 		if (null != query) {
@@ -114,23 +133,10 @@ public class TileResource extends ApertureServerResource {
 			}
 
 			// Check for simple bounds
-			Integer minX = getIntQueryValue(query, "minx");
-			Integer maxX = getIntQueryValue(query, "maxx");
-			Integer minY = getIntQueryValue(query, "miny");
-			Integer maxY = getIntQueryValue(query, "maxy");
-			Integer minZ = getIntQueryValue(query, "minz");
-			Integer maxZ = getIntQueryValue(query, "maxz");
-
-			TileIndex minTile = getTileIndexQueryValue(query, "mintile");
-			TileIndex maxTile = getTileIndexQueryValue(query, "maxtile");
-
-			if (null == minTile && null != minX && null != minY && null != minZ) {
-				minTile = new TileIndex(minZ, minX, minY);
-			}
-			if (null == maxTile && null != maxX && null != maxY && null != maxZ) {
-				maxTile = new TileIndex(maxZ, maxX, maxY);
-			}
-			if (null != minTile && null != maxTile) {
+			TileIndex[] bounds = getTileSetBounds(query);
+			if (null != bounds) {
+				TileIndex minTile = bounds[0];
+				TileIndex maxTile = bounds[1];
 				for (int z=minTile.getLevel(); z <= maxTile.getLevel(); ++z) {
 					for (int x=minTile.getX(); x <= maxTile.getX(); ++x) {
 						for (int y=minTile.getY(); y <= maxTile.getY(); ++y) {
@@ -144,6 +150,62 @@ public class TileResource extends ApertureServerResource {
 		}
 		return indices;
 	}
+
+	/*
+	 * Get the minimum and maximum tiles of the bounds given by the query
+	 * parameters of a request, or null if none are.
+	 */
+	private static TileIndex[] getTileSetBounds (Form query) {
+		Integer minX = getIntQueryValue(query, "minx");
+		Integer maxX = getIntQueryValue(query, "maxx");
+		Integer minY = getIntQueryValue(query, "miny");
+		Integer maxY = getIntQueryValue(query, "maxy");
+		Integer minZ = getIntQueryValue(query, "minz");
+		Integer maxZ = getIntQueryValue(query, "maxz");
+
+		TileIndex minTile = getTileIndexQueryValue(query, "mintile");
+		TileIndex maxTile = getTileIndexQueryValue(query, "maxtile");
+
+		if (null == minTile && null != minX && null != minY && null != minZ) {
+			minTile = new TileIndex(minZ, minX, minY);
+		}
+		if (null == maxTile && null != maxX && null != maxY && null != maxZ) {
+			maxTile = new TileIndex(maxZ, maxX, maxY);
+		}
+		if (null == minTile || null == maxTile)
+			return null;
+		return new TileIndex[] {minTile, maxTile};
+	}
+
+	/*
+	 * Get the most tiles the query parameters of a request can describe -
+	 * the number of tiles listed, plus the number within any bounds given -
+	 * without listing them.  This lets a request for too many tiles be
+	 * rejected before they are all created.
+	 */
+	static long getTileSetSize (Form query) {
+		if (null == query)
+			return 0L;
+
+		long size = 0L;
+		for (String tileSetDescription: query.getValuesArray("tileset", true)) {
+			size += tileSetDescription.split("\\|").length;
+		}
+
+		TileIndex[] bounds = getTileSetBounds(query);
+		if (null != bounds) {
+			// Multiplied as doubles, so huge bounds can't overflow
+			double boundedSize = (double) getRangeSize(bounds[0].getLevel(), bounds[1].getLevel())
+				* getRangeSize(bounds[0].getX(), bounds[1].getX())
+				* getRangeSize(bounds[0].getY(), bounds[1].getY());
+			size += (long) Math.min(boundedSize, Integer.MAX_VALUE);
+		}
+		return size;
+	}
+
+	private static long getRangeSize (int min, int max) {
+		return max < min ? 0L : (long) max - min + 1L;
+	}
 	
 	/**
 	 * If there's any query params, then they are turned into a {@link JSONObject}.
@@ -177,7 +239,9 @@ public class TileResource extends ApertureServerResource {
 			String yAttr = (String) getRequest().getAttributes().get("y");
 			int y = Integer.parseInt(yAttr);
 			TileIndex index = new TileIndex(zoomLevel, x, y);
-			JSONObject queryParams = createQueryParamsObject(getRequest().getResourceRef().getQueryAsForm());
+			// Leave out the tile set parameters, so requests for this tile as
+			// part of different sets (or of a batch) share rendered images.
+			JSONObject queryParams = TileSetParameters.getRenderingQuery(createQueryParamsObject(getRequest().getResourceRef().getQueryAsForm()));
 
 
 			Collection<TileIndex> tileSet = parseTileSetDescription(getRequest().getResourceRef().getQueryAsForm());
@@ -193,11 +257,49 @@ public class TileResource extends ApertureServerResource {
 
 			String ext = (String) getRequest().getAttributes().get("ext");
 			ExtensionType extType = ExtensionType.valueOf(ext.trim().toLowerCase());
+			if (null != extType) {
+				_prefetcher.onTileRequested(getRequest().getClientInfo().getAddress(),
+				                            uuid, layer, index, extType, queryParams);
+			}
+
 			if (null == extType) {
 				setStatus(Status.SERVER_ERROR_INTERNAL);
 			} else if (ResponseType.Image.equals(extType.getResponseType())) {
-				BufferedImage tile = _service.getTileImage(uuid, layer, index, tileSet, queryParams);
-				ImageOutputRepresentation imageRep = new ImageOutputRepresentation(extType.getMediaType(), tile);
+				if (!_imageCache.isEnabled()) {
+					BufferedImage tile = _service.getTileImage(uuid, layer, index, tileSet, queryParams);
+					ImageOutputRepresentation imageRep = new ImageOutputRepresentation(extType.getMediaType(), tile, _imageEncoder);
+
+					setStatus(Status.SUCCESS_CREATED);
+					return imageRep;
+				}
+
+				// Key images by configuration content, so identically configured
+				// clients (and the warm-up service) share them.
+				String cacheKey = RenderedImageCache.getKey(_layerService.getCanonicalConfigurationId(uuid),
+				                                            layer, index, extType.name(), queryParams);
+				CachedImage image = _imageCache.get(cacheKey);
+				if (null == image) {
+					BufferedImage tile = _service.renderTileImage(uuid, layer, index, tileSet, queryParams);
+					if (null == tile) {
+						// The tile couldn't be rendered, possibly only for the
+						// moment, so serve a blank image without caching it
+						tile = _service.getBlankTileImage(uuid, index, queryParams);
+						setStatus(Status.SUCCESS_CREATED);
+						return new ImageOutputRepresentation(extType.getMediaType(), tile, _imageEncoder);
+					}
+					image = _imageCache.put(cacheKey, _imageEncoder.encode(tile, extType.getMediaType()));
+				}
+
+				// If the client already has this exact image, don't send it again.
+				Tag tag = new Tag(image.getEntityTag(), false);
+				List<Tag> noneMatch = getRequest().getConditions().getNoneMatch();
+				if (noneMatch.contains(tag) || noneMatch.contains(Tag.ALL)) {
+					setStatus(Status.REDIRECTION_NOT_MODIFIED);
+					return null;
+				}
+
+				ImageOutputRepresentation imageRep = new ImageOutputRepresentation(extType.getMediaType(), image.getData());
+				imageRep.setTag(tag);
 
 				setStatus(Status.SUCCESS_CREATED);
 				return imageRep;
@@ -28,7 +28,10 @@ import com.oculusinfo.binning.TileIndex;
 import org.json.JSONObject;
 
 import java.awt.image.BufferedImage;
+import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 public interface TileService {
 	/**
@@ -39,10 +42,25 @@ public interface TileService {
 	 * @param index The index of the desired tile
 	 * @param tileSet A set of other tiles which will be wanted along with this
 	 *            one
-	 * @return rendered image.
+	 * @return rendered image, or a blank image if the tile can't be rendered.
 	 */
 	public BufferedImage getTileImage (UUID id, String layer, TileIndex index, Iterable<TileIndex> tileSet, JSONObject query);
 
+	/**
+	 * TMS tile request, for images that will be cached. Unlike
+	 * {@link #getTileImage(UUID, String, TileIndex, Iterable, JSONObject)},
+	 * this doesn't fall back on a blank image, so that a tile that can't be
+	 * rendered - possibly only for the moment - isn't cached as blank.
+	 * 
+	 * @return rendered image, or null if the tile can't be rendered.
+	 */
+	public BufferedImage renderTileImage (UUID id, String layer, TileIndex index, Iterable<TileIndex> tileSet, JSONObject query);
+
+	/**
+	 * Get the blank image served in place of a tile that can't be rendered.
+	 */
+	public BufferedImage getBlankTileImage (UUID id, TileIndex index, JSONObject query);
+
 	/**
 	 * TMS raw tile data request.
 	 * 
@@ -55,4 +73,53 @@ public interface TileService {
 	 * @return The raw data for the indicated tile
 	 */
 	public JSONObject getTileObject (UUID fromString, String layer, TileIndex index, Iterable<TileIndex> tileSet, JSONObject query);
+
+	/**
+	 * Start reading the data for a set of tiles in the background, so that
+	 * later requests for them need not wait for it.
+	 * 
+	 * @param id - 'default' is ok - means use server defaults.
+	 * @param layer - The layer for which to read tile data
+	 * @param tiles The tiles expected to be requested soon
+	 */
+	public void prefetchTiles (UUID id, String layer, Iterable<TileIndex> tiles, JSONObject query);
+
+	/**
+	 * Batch raw tile data request; all tiles are read from the pyramid at
+	 * once.
+	 * 
+	 * @param id - 'default' is ok - means use server defaults.
+	 * @param layer - The layer for which to get tile data
+	 * @param tiles The desired tiles
+	 * @return The serialized data of each tile, by index; tiles with no data
+	 *         are left out.
+	 */
+	public Map<TileIndex, byte[]> getTileData (UUID id, String layer, Collection<TileIndex> tiles, JSONObject query);
+
+	/**
+	 * Batch raw tile data request, as JSON; all tiles are read from the
+	 * pyramid at once.
+	 * 
+	 * @param id - 'default' is ok - means use server defaults.
+	 * @param layer - The layer for which to get tile data
+	 * @param tiles The desired tiles
+	 * @return The data of each tile, by index, in the same form as
+	 *         {@link #getTileObject(UUID, String, TileIndex, Iterable, JSONObject)};
+	 *         tiles with no data are left out.
+	 */
+	public Map<TileIndex, JSONObject> getTileObjects (UUID id, String layer, Collection<TileIndex> tiles, JSONObject query);
+
+	/**
+	 * Batch TMS tile request; the data of all the tiles is read at once,
+	 * where the pyramid allows it, and the tiles are then rendered in
+	 * parallel.
+	 * 
+	 * @param id - 'default' is ok - means use server defaults.
+	 * @param layer - The layer for which to get images
+	 * @param tiles The desired tiles
+	 * @return The eventual rendered image of each tile, by index; an image
+	 *         is null if its tile can't be rendered, as with
+	 *         {@link #renderTileImage(UUID, String, TileIndex, Iterable, JSONObject)}
+	 */
+	public Map<TileIndex, Future<BufferedImage>> getTileImages (UUID id, String layer, Collection<TileIndex> tiles, JSONObject query);
 }
@@ -26,6 +26,8 @@ package com.oculusinfo.tile.rest.tile;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
@@ -33,7 +35,9 @@ import com.oculusinfo.factory.ConfigurationException;
 import com.oculusinfo.tile.rendering.LayerConfiguration;
 import com.oculusinfo.tile.rendering.TileDataImageRenderer;
 import com.oculusinfo.tile.rest.layer.LayerService;
+import com.oculusinfo.tile.rest.tile.caching.CachingPyramidIO;
 import com.oculusinfo.tile.util.AvroJSONConverter;
+import org.apache.commons.io.IOUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -41,13 +45,31 @@ import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Batches of images are rendered, and batches of stored tiles read, on a
+ * shared pool of threads, the size of which is set by the optional property
+ * <code>com.oculusinfo.tile.batch.threads</code> in tile.properties; it
+ * defaults to the number of available processors.
+ * 
  * @author dgray
- *
  */
 @Singleton
 public class TileServiceImpl implements TileService {
@@ -56,8 +78,38 @@ public class TileServiceImpl implements TileService {
 
 	@Inject
 	private LayerService _layerService;
+
+	private int             _batchThreads;
+	private ExecutorService _batchExecutor;
 	
 	public TileServiceImpl () {
+		_batchThreads = Runtime.getRuntime().availableProcessors();
+		_batchExecutor = null;
+	}
+
+	@Inject(optional = true)
+	public void setRenderThreads (@Named("com.oculusinfo.tile.batch.threads") String threads) {
+		try {
+			_batchThreads = Math.max(1, Integer.parseInt(threads.trim()));
+		} catch (NumberFormatException e) {
+			_logger.warn("Illegal batch render thread count {}; using default", threads);
+		}
+	}
+
+	private synchronized ExecutorService getBatchExecutor () {
+		if (null == _batchExecutor) {
+			ThreadFactory factory = new ThreadFactory() {
+				private final AtomicInteger _count = new AtomicInteger(0);
+				@Override
+				public Thread newThread (Runnable r) {
+					Thread thread = new Thread(r, "tile-batch-"+_count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+			_batchExecutor = Executors.newFixedThreadPool(_batchThreads, factory);
+		}
+		return _batchExecutor;
 	}
 
 
@@ -66,36 +118,46 @@ public class TileServiceImpl implements TileService {
 	 */
 	@Override
 	public BufferedImage getTileImage (UUID id, String layer, TileIndex index, Iterable<TileIndex> tileSet, JSONObject query) {
-		int width = 256;
-		int height = 256;
-		BufferedImage bi = null;
+		BufferedImage bi = renderTileImage(id, layer, index, tileSet, query);
+		if (bi == null){
+			bi = getBlankTileImage(id, index, query);
+		}
+		return bi;
+	}
 
+	@Override
+	public BufferedImage renderTileImage (UUID id, String layer, TileIndex index, Iterable<TileIndex> tileSet, JSONObject query) {
 		try {
 			LayerConfiguration config = _layerService.getRenderingConfiguration(id, index, query);
-    
-			// Record image dimensions in case of error. 
-			width = config.getPropertyValue(LayerConfiguration.OUTPUT_WIDTH);
-			height = config.getPropertyValue(LayerConfiguration.OUTPUT_HEIGHT);
+			if (null == config) return null;
 
 			TileDataImageRenderer tileRenderer = config.produce(TileDataImageRenderer.class);
 
 			config.prepareForRendering(layer, index, tileSet);
 
-			bi = tileRenderer.render(config);
+			return tileRenderer.render(config);
 		} catch (ConfigurationException e) {
 			_logger.info("No renderer specified for tile request.");
+			return null;
 		}
+	}
 
-		if (bi == null){
-			bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-			Graphics2D g = bi.createGraphics();
-			g.setColor(COLOR_BLANK);
-			g.fillRect(0, 0, 256, 256);
-			//g.setColor(Color.red);
-			//g.drawLine(1, 1, 254, 254);
-			g.dispose();
+	@Override
+	public BufferedImage getBlankTileImage (UUID id, TileIndex index, JSONObject query) {
+		int width = 256;
+		int height = 256;
+		// Only the image size is needed, not level properties
+		LayerConfiguration config = _layerService.getRenderingConfiguration(id, null, query);
+		if (null != config) {
+			width = config.getPropertyValue(LayerConfiguration.OUTPUT_WIDTH);
+			height = config.getPropertyValue(LayerConfiguration.OUTPUT_HEIGHT);
 		}
 
+		BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = bi.createGraphics();
+		g.setColor(COLOR_BLANK);
+		g.fillRect(0, 0, width, height);
+		g.dispose();
 		return bi;
 	}
 
@@ -109,9 +171,9 @@ public class TileServiceImpl implements TileService {
 
 			config.prepareForRendering(layer, index, tileSet);
 
-			InputStream tile = pyramidIO.getTileStream(layer, serializer, index);
-			if (null == tile) return null;
-			return AvroJSONConverter.convert(tile);
+			Map<TileIndex, JSONObject> tiles = new HashMap<>();
+			readTileObjects(pyramidIO, serializer, layer, Collections.singletonList(index), tiles);
+			return tiles.get(index);
 		} catch (IOException e) {
 			_logger.warn("Exception getting tile for {}", index, e);
 		} catch (JSONException e) {
@@ -121,4 +183,168 @@ public class TileServiceImpl implements TileService {
 		}
 		return null;
 	}
+
+	@Override
+	public Map<TileIndex, JSONObject> getTileObjects (UUID id, String layer, Collection<TileIndex> tiles, JSONObject query) {
+		Map<TileIndex, JSONObject> objects = new HashMap<>();
+		if (tiles.isEmpty()) return objects;
+
+		try {
+			LayerConfiguration config = _layerService.getRenderingConfiguration(id, null, query);
+			if (null == config) return objects;
+
+			PyramidIO pyramidIO = config.produce(PyramidIO.class);
+			TileSerializer<?> serializer = config.produce(TileSerializer.class);
+			readTileObjects(pyramidIO, serializer, layer, tiles, objects);
+		} catch (IOException e) {
+			_logger.warn("Exception getting tiles for layer {}", layer, e);
+		} catch (JSONException e) {
+			_logger.warn("Exception getting tiles for layer {}", layer, e);
+		} catch (ConfigurationException e) {
+			_logger.warn("Exception getting tiles for layer {}", layer, e);
+		}
+		return objects;
+	}
+
+	// Read a batch of tiles, and convert each one that has data to JSON.
+	// If the layer's serializer writes avro container files, their stored
+	// bytes are converted directly; otherwise, tiles are converted from their
+	// deserialized form, after writing them out again as avro.
+	private <T> void readTileObjects (PyramidIO pyramidIO, TileSerializer<T> serializer,
+	                                  String layer, Collection<TileIndex> tiles,
+	                                  Map<TileIndex, JSONObject> objects) throws IOException, JSONException {
+		if (AvroJSONConverter.isContainerSerializer(serializer)) {
+			for (Map.Entry<TileIndex, byte[]> entry: readStoredTiles(pyramidIO, serializer, layer, tiles).entrySet()) {
+				objects.put(entry.getKey(), AvroJSONConverter.convert(new ByteArrayInputStream(entry.getValue())));
+			}
+			return;
+		}
+
+		List<TileData<T>> tileData = pyramidIO.readTiles(layer, serializer, tiles);
+		if (null == tileData) return;
+
+		Map<TileIndex, TileIndex> requested = getRequestedIndices(tiles);
+		for (TileData<T> tile: tileData) {
+			if (null == tile) continue;
+			TileIndex key = getRequestedIndex(requested, tile);
+			if (null == key) continue;
+
+			objects.put(key, AvroJSONConverter.convert(serializer, tile));
+		}
+	}
+
+	@Override
+	public void prefetchTiles (UUID id, String layer, Iterable<TileIndex> tiles, JSONObject query) {
+		Iterator<TileIndex> i = tiles.iterator();
+		if (!i.hasNext()) return;
+
+		LayerConfiguration config = _layerService.getRenderingConfiguration(id, i.next(), query);
+		config.prepareForRendering(layer, null, tiles);
+	}
+
+	@Override
+	public Map<TileIndex, byte[]> getTileData (UUID id, String layer, Collection<TileIndex> tiles, JSONObject query) {
+		Map<TileIndex, byte[]> data = new HashMap<>();
+		if (tiles.isEmpty()) return data;
+
+		try {
+			LayerConfiguration config = _layerService.getRenderingConfiguration(id, null, query);
+			if (null == config) return data;
+
+			PyramidIO pyramidIO = config.produce(PyramidIO.class);
+			TileSerializer<?> serializer = config.produce(TileSerializer.class);
+			data.putAll(readStoredTiles(pyramidIO, serializer, layer, tiles));
+		} catch (IOException e) {
+			_logger.warn("Exception getting tiles for layer {}", layer, e);
+		} catch (ConfigurationException e) {
+			_logger.warn("Exception getting tiles for layer {}", layer, e);
+		}
+		return data;
+	}
+
+	// Read the stored bytes of each of a batch of tiles that has data, as
+	// written by the layer's serializer, without deserializing them.  Tiles
+	// are streamed one by one, so they are read in parallel on the batch
+	// pool.
+	private Map<TileIndex, byte[]> readStoredTiles (final PyramidIO pyramidIO, final TileSerializer<?> serializer,
+	                                                final String layer, Collection<TileIndex> tiles) throws IOException {
+		ExecutorService executor = getBatchExecutor();
+		Map<TileIndex, Future<byte[]>> reads = new HashMap<>();
+		for (final TileIndex tile: tiles) {
+			reads.put(tile, executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call () throws IOException {
+					InputStream stream = pyramidIO.getTileStream(layer, serializer, tile);
+					if (null == stream) return null;
+					try {
+						return IOUtils.toByteArray(stream);
+					} finally {
+						stream.close();
+					}
+				}
+			}));
+		}
+
+		Map<TileIndex, byte[]> data = new HashMap<>();
+		for (Map.Entry<TileIndex, Future<byte[]>> entry: reads.entrySet()) {
+			try {
+				byte[] tileData = entry.getValue().get();
+				if (null != tileData)
+					data.put(entry.getKey(), tileData);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted reading tile "+entry.getKey(), e);
+			} catch (ExecutionException e) {
+				throw new IOException("Unable to read tile "+entry.getKey(), e.getCause());
+			}
+		}
+		return data;
+	}
+
+	// Key tiles by the index requested, whatever their bin counts
+	private static Map<TileIndex, TileIndex> getRequestedIndices (Collection<TileIndex> tiles) {
+		Map<TileIndex, TileIndex> requested = new HashMap<>();
+		for (TileIndex tile: tiles) {
+			requested.put(new TileIndex(tile.getLevel(), tile.getX(), tile.getY()), tile);
+		}
+		return requested;
+	}
+
+	private static TileIndex getRequestedIndex (Map<TileIndex, TileIndex> requested, TileData<?> tile) {
+		TileIndex index = tile.getDefinition();
+		return requested.get(new TileIndex(index.getLevel(), index.getX(), index.getY()));
+	}
+
+	@Override
+	public Map<TileIndex, Future<BufferedImage>> getTileImages (final UUID id, final String layer,
+	                                                           Collection<TileIndex> tiles, final JSONObject query) {
+		Map<TileIndex, Future<BufferedImage>> images = new HashMap<>();
+		if (tiles.isEmpty()) return images;
+
+		// Read the data of all the tiles in one batch, so each renderer
+		// finds its tile already in the cache.
+		try {
+			LayerConfiguration config = _layerService.getRenderingConfiguration(id, null, query);
+			PyramidIO pyramidIO = (null == config ? null : config.produce(PyramidIO.class));
+			if (pyramidIO instanceof CachingPyramidIO) {
+				TileSerializer<?> serializer = config.produce(TileSerializer.class);
+				((CachingPyramidIO) pyramidIO).requestTiles(layer, serializer, tiles);
+			}
+		} catch (IOException e) {
+			_logger.warn("Exception reading tiles for layer {}", layer, e);
+		} catch (ConfigurationException e) {
+			_logger.warn("Exception reading tiles for layer {}", layer, e);
+		}
+
+		ExecutorService executor = getBatchExecutor();
+		for (final TileIndex tile: tiles) {
+			images.put(tile, executor.submit(new Callable<BufferedImage>() {
+				@Override
+				public BufferedImage call () {
+					return renderTileImage(id, layer, tile, Collections.singletonList(tile), query);
+				}
+			}));
+		}
+		return images;
+	}
 }
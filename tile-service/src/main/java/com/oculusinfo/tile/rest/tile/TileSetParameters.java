@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.tile;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/**
+ * The query parameters with which a tile request describes the set of tiles
+ * wanted along with it - <code>tileset</code>, <code>minx</code>,
+ * <code>maxx</code>, <code>miny</code>, <code>maxy</code>, <code>minz</code>,
+ * <code>maxz</code>, <code>mintile</code> and <code>maxtile</code>.
+ * 
+ * These don't affect how any one tile is rendered, so anything keyed by
+ * request parameters (rendered images, prefetch sessions, compiled
+ * configurations) should leave them out, or requests for the same tile as
+ * part of different sets would never share anything.
+ */
+public class TileSetParameters {
+	/**
+	 * The names of the tile set parameters, in lower case
+	 */
+	public static final Set<String> NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+		"tileset", "minx", "maxx", "miny", "maxy", "minz", "maxz", "mintile", "maxtile")));
+
+
+
+	/**
+	 * Determine if a query parameter describes a tile set
+	 */
+	public static boolean isTileSetParameter (String name) {
+		return NAMES.contains(name.toLowerCase());
+	}
+
+	/**
+	 * Get the query parameters of a request that affect how tiles are
+	 * rendered - that is, all but the tile set parameters.
+	 * 
+	 * @param query The query parameters of a tile request; may be null
+	 * @return A copy of the query without any tile set parameters, or null if
+	 *         the query was null
+	 */
+	public static JSONObject getRenderingQuery (JSONObject query) {
+		if (null == query)
+			return null;
+
+		Map<String, Object> values = new HashMap<>();
+		Iterator<?> i = query.keys();
+		while (i.hasNext()) {
+			String name = i.next().toString();
+			if (!isTileSetParameter(name))
+				values.put(name, query.opt(name));
+		}
+		return new JSONObject(values);
+	}
+}
@@ -23,38 +23,75 @@
  */
 package com.oculusinfo.tile.rest.tile.caching;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.AsyncPyramidIO;
+import com.oculusinfo.binning.io.ExecutorPyramidIO;
 import com.oculusinfo.binning.io.PyramidIO;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
 import com.oculusinfo.factory.ConfigurableFactory;
 import com.oculusinfo.factory.ConfigurationException;
-import com.oculusinfo.tile.rest.tile.caching.TileCacheEntry.CacheRequestCallback;
 
-public class CachingPyramidIO implements PyramidIO {
+/**
+ * A read-only PyramidIO that sits in front of a set of base pyramid IOs, one
+ * per layer, and caches the tiles read from them.
+ * 
+ * No lock is held while reading from a base pyramid IO, so requests on the
+ * same layer proceed in parallel; concurrent requests for the same tile share
+ * a single read. Tiles may also be read asynchronously, on a bounded pool of
+ * reader threads; the futures returned are the cache entries themselves, or,
+ * for batches of tiles, built from them.
+ */
+public class CachingPyramidIO implements AsyncPyramidIO {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CachingPyramidIO.class);
 
-	private Map<String, TileCache<?>>                    _tileCaches;
-	private Map<String, PyramidIO>                       _basePyramidIOs;
+	// The time, in milliseconds, for which a requested tile is guaranteed to
+	// remain in the cache before being retrieved.
+	private static final long MAX_TILE_AGE          = 10000L;
+	// The maximum number of tiles cached per layer
+	private static final int  MAX_TILES_PER_LAYER   = 4096;
+	// The maximum estimated size of the tiles cached per layer, in bytes
+	private static final long MAX_BYTES_PER_LAYER   = 64L * 1024L * 1024L;
+	// The time, in milliseconds, to wait for a tile being read by another
+	// request; this matches the time for which such a tile is guaranteed to
+	// stay in the cache.
+	private static final long TILE_WAIT_TIME        = MAX_TILE_AGE;
+	// The number of threads used for asynchronous reads
+	private static final int  READ_THREADS          = 8;
+	// The number of asynchronous reads that may wait for a reader thread
+	private static final int  MAX_QUEUED_READS      = 1024;
+
+	private ConcurrentMap<String, TileCache<?>>          _tileCaches;
+	private ConcurrentMap<String, PyramidIO>             _basePyramidIOs;
 	private List<LayerDataChangedListener>               _layerListeners;
+	private ExecutorService                              _readExecutor;
 
 	public CachingPyramidIO () {
-		_tileCaches = new HashMap<>();
-		_basePyramidIOs = new HashMap<>();
-		_layerListeners = new ArrayList<>();
+		_tileCaches = new ConcurrentHashMap<>();
+		_basePyramidIOs = new ConcurrentHashMap<>();
+		_layerListeners = new CopyOnWriteArrayList<>();
+		_readExecutor = ExecutorPyramidIO.createBoundedExecutor("tile-cache-reader",
+		                                                        READ_THREADS, MAX_QUEUED_READS);
 	}
 
 	public void addLayerListener (LayerDataChangedListener listener) {
@@ -65,36 +102,108 @@ public class CachingPyramidIO implements PyramidIO {
 		_layerListeners.remove(listener);
 	}
 
-	synchronized private PyramidIO getBasePyramidIO (String pyramidId) {
+	private PyramidIO getBasePyramidIO (String pyramidId) {
 		return _basePyramidIOs.get(pyramidId);
 	}
 
-	synchronized private <T> TileCache<T> getTileCache (String pyramidId) {
+	private <T> TileCache<T> getTileCache (String pyramidId) {
 		// We rely on configuration to make sure types match here
 		@SuppressWarnings({"rawtypes", "unchecked"})
 		TileCache<T> cache = (TileCache)_tileCaches.get(pyramidId);
 		if (null == cache) {
-			cache = new TileCache<>(10000, 100);
-			cache.addGlobalCallback(new GlobalCallback<T>(pyramidId));
-			_tileCaches.put(pyramidId, cache);
+			TileCache<T> newCache = new TileCache<>(MAX_TILE_AGE, MAX_TILES_PER_LAYER, MAX_BYTES_PER_LAYER);
+			newCache.addGlobalCallback(new GlobalCallback<T>(pyramidId));
+			@SuppressWarnings({"rawtypes", "unchecked"})
+			TileCache<T> existing = (TileCache) _tileCaches.putIfAbsent(pyramidId, newCache);
+			cache = (null == existing ? newCache : existing);
 		}
 		return cache;
 	}
 
-	// Using the callback mechanism in the tile cache, get a tile and hand it
-	// back synchronously.
-	//
-	// This does _not_ handle making the request; that must be done separately
-	// with RequestData.
-	private <T> TileData<T> getTileData (String pyramidId, TileIndex index) {
-		TileCache<T> cache = getTileCache(pyramidId);
+	// Read any of the given tiles not already in the cache from the base
+	// pyramid IO, and place them in the cache.  Tiles already requested by
+	// someone else are left for them to provide.
+	private <T> void loadTiles (String pyramidId, TileCache<T> cache,
+	                            TileSerializer<T> serializer,
+	                            Iterable<TileIndex> indices) throws IOException {
+		readClaimedTiles(pyramidId, cache, serializer, cache.getNewRequests(indices));
+	}
 
-		CacheListenerCallback<T> callback = new CacheListenerCallback<>();
-		cache.requestTile(index, callback);
+	// Read tiles we have claimed in the cache from the base pyramid IO, and
+	// provide them to the cache.
+	private <T> void readClaimedTiles (String pyramidId, TileCache<T> cache,
+	                                   TileSerializer<T> serializer,
+	                                   List<TileIndex> newIndices) throws IOException {
+		if (newIndices.isEmpty())
+			return;
 
-		TileData<T> tile = callback.waitForTile();
+		List<TileIndex> unprovided = new ArrayList<>(newIndices);
+		try {
+			PyramidIO base = getBasePyramidIO(pyramidId);
+			List<TileData<T>> tiles = base.readTiles(pyramidId, serializer, newIndices);
 
-		return tile;
+			// Cache recieved tiles...
+			if (null != tiles) {
+				for (TileData<T> tile: tiles) {
+					if (null == tile)
+						continue;
+					cache.provideTile(tile);
+					unprovided.remove(tile.getDefinition());
+				}
+			}
+			// And the fact that some were empty
+			for (TileIndex index: unprovided) {
+				cache.provideEmptyTile(index);
+			}
+			unprovided.clear();
+		} finally {
+			// If the read failed, release anyone waiting on the tiles we
+			// claimed, so they can be requested again.
+			if (!unprovided.isEmpty())
+				cache.abandonTiles(unprovided);
+		}
+	}
+
+	// Claim any of the given tiles not already in the cache, and read them in
+	// the background.
+	private <T> void loadTilesAsync (final String pyramidId, final TileCache<T> cache,
+	                                 final TileSerializer<T> serializer,
+	                                 Iterable<TileIndex> indices) {
+		final List<TileIndex> newIndices = cache.getNewRequests(indices);
+		if (newIndices.isEmpty())
+			return;
+
+		_readExecutor.execute(new Runnable() {
+			@Override
+			public void run () {
+				try {
+					readClaimedTiles(pyramidId, cache, serializer, newIndices);
+				} catch (IOException e) {
+					LOGGER.warn("Error reading tiles for {}", pyramidId, e);
+				}
+			}
+		});
+	}
+
+	// Wait for a tile, requested by us or anyone else, to arrive in the cache.
+	private <T> TileData<T> getTileData (TileCache<T> cache, TileIndex index) {
+		Future<TileData<T>> future = cache.getTile(index);
+		if (null == future)
+			return null;
+
+		try {
+			return future.get(TILE_WAIT_TIME, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			LOGGER.warn("Error waiting for return for tile.", e);
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			LOGGER.warn("Error waiting for return for tile.", e);
+			return null;
+		} catch (TimeoutException e) {
+			LOGGER.warn("Timed out waiting for tile {}", index);
+			return null;
+		}
 	}
 
 
@@ -161,28 +270,63 @@ public class CachingPyramidIO implements PyramidIO {
 	public <T> void requestTiles (String pyramidId,
 	                              TileSerializer<T> serializer,
 	                              Iterable<TileIndex> indices) throws IOException {
-		TileCache<T> cache = getTileCache(pyramidId);
+		// Request and retrieve all tiles needed over the long term; only
+		// those we don't already have are read.
+		loadTiles(pyramidId, this.<T>getTileCache(pyramidId), serializer, indices);
+	}
 
-		synchronized (cache) {
-			// First, request and retrieve all tiles needed over the long term
-			// Only request those we don't already have
-			List<TileIndex> newIndices = new ArrayList<>(cache.getNewRequests(indices));
-			if (newIndices.isEmpty())
-				return;
+	/**
+	 * Request a set of tiles, setting them all up for eventual retrieval, but
+	 * without waiting for any of them to be read.
+	 * 
+	 * @param pyramidId
+	 * @param serializer
+	 * @param indices Indices of tiles to be requested.  May not be null.
+	 */
+	public <T> void requestTilesAsync (String pyramidId,
+	                                   TileSerializer<T> serializer,
+	                                   Iterable<TileIndex> indices) {
+		loadTilesAsync(pyramidId, this.<T>getTileCache(pyramidId), serializer, indices);
+	}
 
-			PyramidIO base = getBasePyramidIO(pyramidId);
-			List<TileData<T>> tiles = base.readTiles(pyramidId, serializer, newIndices);
-    
-			// Cache recieved tiles...
-			for (TileData<T> tile: tiles) {
-				cache.provideTile(tile);
-				newIndices.remove(tile.getDefinition());
-			}
-			// And the fact that some were empty
-			for (TileIndex index: newIndices) {
-				cache.provideEmptyTile(index);
-			}
+	@Override
+	public <T> Future<TileData<T>> readTileAsync (String pyramidId,
+	                                              TileSerializer<T> serializer,
+	                                              TileIndex index) {
+		TileCache<T> cache = getTileCache(pyramidId);
+		loadTilesAsync(pyramidId, cache, serializer, Collections.singletonList(index));
+		// Entries that are still awaited are never evicted, so this can only
+		// be null if the read has already failed.
+		Future<TileData<T>> future = cache.getTile(index);
+		if (null == future) {
+			FutureTask<TileData<T>> empty = new FutureTask<>(new Callable<TileData<T>>() {
+				@Override
+				public TileData<T> call () {
+					return null;
+				}
+			});
+			empty.run();
+			future = empty;
 		}
+		return future;
+	}
+
+	@Override
+	public <T> Future<List<TileData<T>>> readTilesAsync (String pyramidId,
+	                                                     TileSerializer<T> serializer,
+	                                                     Iterable<TileIndex> indices) {
+		// The tiles are read on the reader threads as usual; the batch just
+		// waits on their cache entries, so it never ties up a reader thread
+		// itself.
+		TileCache<T> cache = getTileCache(pyramidId);
+		loadTilesAsync(pyramidId, cache, serializer, indices);
+		List<Future<TileData<T>>> futures = new ArrayList<>();
+		for (TileIndex index: indices) {
+			Future<TileData<T>> future = cache.getTile(index);
+			if (null != future)
+				futures.add(future);
+		}
+		return new TileListFuture<>(futures);
 	}
 
 	@Override
@@ -190,38 +334,30 @@ public class CachingPyramidIO implements PyramidIO {
 	                                        TileSerializer<T> serializer,
 	                                        Iterable<TileIndex> indices) throws IOException {
 		TileCache<T> cache = getTileCache(pyramidId);
-		synchronized (cache) {
-			List<TileData<T>> tiles = new ArrayList<>();
-			for (TileIndex index: indices) {
-				// We rely on configuration to make sure types match here
-				@SuppressWarnings({"unchecked", "rawtypes"})
-				TileData<T> tile = (TileData) getTileData(pyramidId, index);
-
-				if (null != tile)
-					tiles.add(tile);
-			}
-    
-			return(tiles);
+		// Make sure anything not already requested gets read
+		loadTiles(pyramidId, cache, serializer, indices);
+
+		List<TileData<T>> tiles = new ArrayList<>();
+		for (TileIndex index: indices) {
+			TileData<T> tile = getTileData(cache, index);
+			if (null != tile)
+				tiles.add(tile);
 		}
+
+		return(tiles);
 	}
 
 	@Override
 	public <T> InputStream getTileStream (String pyramidId,
 	                                      TileSerializer<T> serializer,
 	                                      TileIndex index) throws IOException {
-		// We cache tiles, not streams, so we need to serialize the tile into a
-		// stream, in order to return a stream.
-		TileData<T> tile = getTileData(pyramidId, index);
-
-		if (null == tile) {
+		// We cache tiles, not streams, and serializing a cached tile again is
+		// generally slower than reading its stored form, so streams come
+		// straight from the base pyramid IO.
+		PyramidIO base = getBasePyramidIO(pyramidId);
+		if (null == base)
 			return null;
-		} else {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			serializer.serialize(tile, baos);
-			baos.flush();
-			baos.close();
-			return new ByteArrayInputStream(baos.toByteArray());
-		}
+		return base.getTileStream(pyramidId, serializer, index);
 	}
 
 	@Override
@@ -234,47 +370,59 @@ public class CachingPyramidIO implements PyramidIO {
 		throw new IOException("removeTiles not currently supported for CachingPyramidIO");
 	}
 
-	private class CacheListenerCallback<T> implements CacheRequestCallback<T> {
-		private TileData<T> _tile;
-		private boolean     _waiting;
-		private boolean     _notified;
-
+	/*
+	 * The combined result of a set of tile futures, listing those tiles that
+	 * exist.  Like the tiles themselves, it can't be cancelled.
+	 */
+	private static class TileListFuture<T> implements Future<List<TileData<T>>> {
+		private List<Future<TileData<T>>> _tiles;
 
+		TileListFuture (List<Future<TileData<T>>> tiles) {
+			_tiles = tiles;
+		}
 
-		public CacheListenerCallback () {
-			_tile = null;
-			_waiting = false;
-			_notified = false;
+		@Override
+		public boolean cancel (boolean mayInterruptIfRunning) {
+			return false;
 		}
 
-		synchronized public TileData<T> waitForTile () {
-				if (!_notified)
-					try {
-						_waiting = true;
-						wait(1000);
-					} catch (InterruptedException e) {
-						LOGGER.warn("Error waiting for return for tile.", e);
-						return null;
-					} finally {
-						_waiting = false;
-					}
+		@Override
+		public boolean isCancelled () {
+			return false;
+		}
 
-				return _tile;
+		@Override
+		public boolean isDone () {
+			for (Future<TileData<T>> tile: _tiles) {
+				if (!tile.isDone())
+					return false;
 			}
+			return true;
+		}
 
 		@Override
-		synchronized public boolean onTileReceived (TileIndex index, TileData<T> tile) {
-				_tile = tile;
-				_notified = true;
-				if (_waiting)
-					this.notify();
-				return true;
+		public List<TileData<T>> get () throws InterruptedException, ExecutionException {
+			List<TileData<T>> tiles = new ArrayList<>();
+			for (Future<TileData<T>> future: _tiles) {
+				TileData<T> tile = future.get();
+				if (null != tile)
+					tiles.add(tile);
 			}
+			return tiles;
+		}
 
 		@Override
-		public void onTileAbandoned (TileIndex index) {
-			if (_waiting)
-				this.notify();
+		public List<TileData<T>> get (long timeout, TimeUnit unit) throws InterruptedException,
+		                                                                ExecutionException,
+		                                                                TimeoutException {
+			long end = System.nanoTime() + unit.toNanos(timeout);
+			List<TileData<T>> tiles = new ArrayList<>();
+			for (Future<TileData<T>> future: _tiles) {
+				TileData<T> tile = future.get(Math.max(0L, end - System.nanoTime()), TimeUnit.NANOSECONDS);
+				if (null != tile)
+					tiles.add(tile);
+			}
+			return tiles;
 		}
 	}
 
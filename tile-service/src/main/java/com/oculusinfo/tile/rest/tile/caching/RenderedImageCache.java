@@ -0,0 +1,458 @@
+/**
+ * Copyright (c) 2013 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.tile.caching;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.oculusinfo.binning.TileIndex;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * A cache of encoded, rendered tile images, so that repeated requests for the
+ * same tile under the same configuration need neither rendering nor encoding.
+ * 
+ * The cache is bounded by the total size of the images it holds, and images
+ * expire after a fixed age (so that live or regenerated layers are eventually
+ * re-rendered). If a spill directory is configured, images evicted from
+ * memory are written there, and read back on a later memory miss. The spill
+ * directory is swept of expired images once per image lifetime, and of its
+ * oldest images whenever it grows past its own size bound.
+ * 
+ * Each image carries an entity tag derived from its content, for use in
+ * conditional requests.
+ * 
+ * Configured by the following optional properties in tile.properties:
+ * <dl>
+ * <dt>com.oculusinfo.tile.image.cache.maxBytes</dt>
+ * <dd>The maximum total size of images held in memory, in bytes; 0 disables
+ * the cache. Defaults to 32MB.</dd>
+ * <dt>com.oculusinfo.tile.image.cache.maxAge</dt>
+ * <dd>The time, in milliseconds, after which a cached image is re-rendered.
+ * Defaults to 5 minutes.</dd>
+ * <dt>com.oculusinfo.tile.image.cache.spillDirectory</dt>
+ * <dd>A directory to which to write images evicted from memory. Unset by
+ * default, in which case evicted images are simply dropped.</dd>
+ * <dt>com.oculusinfo.tile.image.cache.spillMaxBytes</dt>
+ * <dd>The maximum total size of images in the spill directory, in bytes.
+ * Defaults to 256MB.</dd>
+ * </dl>
+ */
+@Singleton
+public class RenderedImageCache {
+	private static final Logger  LOGGER            = LoggerFactory.getLogger(RenderedImageCache.class);
+	private static final Charset UTF8              = Charset.forName("UTF-8");
+	private static final long    DEFAULT_MAX_BYTES = 32L * 1024L * 1024L;
+	private static final long    DEFAULT_MAX_AGE   = 5L * 60L * 1000L;
+	private static final long    DEFAULT_MAX_SPILL = 256L * 1024L * 1024L;
+	private static final String  SPILL_EXTENSION   = ".img";
+
+	// The images held in memory, in access order, so the first is the least
+	// recently used.
+	private LinkedHashMap<String, CachedImage> _images;
+	private long                               _currentBytes;
+	private long                               _maxBytes;
+	private long                               _maxAge;
+	private File                               _spillDirectory;
+	private long                               _maxSpillBytes;
+	// The size of the spill directory at the last sweep, plus everything
+	// written since, and the time of that sweep
+	private AtomicLong                         _spilledBytes;
+	private volatile long                      _lastSweepTime;
+	private final Object                       _sweepLock;
+
+
+
+	public RenderedImageCache () {
+		_images = new LinkedHashMap<>(16, 0.75f, true);
+		_currentBytes = 0L;
+		_maxBytes = DEFAULT_MAX_BYTES;
+		_maxAge = DEFAULT_MAX_AGE;
+		_spillDirectory = null;
+		_maxSpillBytes = DEFAULT_MAX_SPILL;
+		_spilledBytes = new AtomicLong(0L);
+		_lastSweepTime = 0L;
+		_sweepLock = new Object();
+	}
+
+	@Inject(optional = true)
+	public void setMaxBytes (@Named("com.oculusinfo.tile.image.cache.maxBytes") String maxBytes) {
+		try {
+			_maxBytes = Long.parseLong(maxBytes.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Illegal image cache size {}; using default", maxBytes);
+		}
+	}
+
+	@Inject(optional = true)
+	public void setMaxAge (@Named("com.oculusinfo.tile.image.cache.maxAge") String maxAge) {
+		try {
+			_maxAge = Long.parseLong(maxAge.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Illegal image cache age {}; using default", maxAge);
+		}
+	}
+
+	@Inject(optional = true)
+	public void setSpillDirectory (@Named("com.oculusinfo.tile.image.cache.spillDirectory") String spillDirectory) {
+		if (null == spillDirectory || spillDirectory.trim().isEmpty())
+			return;
+
+		File directory = new File(spillDirectory.trim());
+		if (directory.isDirectory() || directory.mkdirs()) {
+			_spillDirectory = directory;
+		} else {
+			LOGGER.warn("Can't create image cache spill directory {}", spillDirectory);
+		}
+	}
+
+	@Inject(optional = true)
+	public void setSpillMaxBytes (@Named("com.oculusinfo.tile.image.cache.spillMaxBytes") String maxSpillBytes) {
+		try {
+			_maxSpillBytes = Long.parseLong(maxSpillBytes.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Illegal image cache spill size {}; using default", maxSpillBytes);
+		}
+	}
+
+	/**
+	 * Indicates whether images should be cached at all
+	 */
+	public boolean isEnabled () {
+		return _maxBytes > 0;
+	}
+
+	/**
+	 * Construct the key under which a rendered tile is cached. Query
+	 * parameters are included in sorted order, so that equivalent queries
+	 * share a key.
+	 * 
+	 * @param id The UUID of the layer configuration; may be null for the
+	 *            default configuration
+	 * @param layer The layer rendered
+	 * @param index The tile rendered
+	 * @param extension The image type requested
+	 * @param query Any query parameters of the request; may be null
+	 */
+	public static String getKey (UUID id, String layer, TileIndex index,
+	                             String extension, JSONObject query) {
+		StringBuilder key = new StringBuilder();
+		key.append(id).append('/').append(layer).append('/').append(index).append('.').append(extension);
+		if (null != query && query.length() > 0) {
+			List<String> names = new ArrayList<>();
+			Iterator<?> i = query.keys();
+			while (i.hasNext())
+				names.add(i.next().toString());
+			Collections.sort(names);
+			char separator = '?';
+			for (String name: names) {
+				key.append(separator).append(name).append('=').append(query.opt(name));
+				separator = '&';
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Get a cached image
+	 * 
+	 * @param key The key of the image, as returned by
+	 *            {@link #getKey(UUID, String, TileIndex, String, JSONObject)}
+	 * @return The cached image, or null if it isn't cached, or has expired
+	 */
+	public CachedImage get (String key) {
+		if (!isEnabled())
+			return null;
+
+		synchronized (this) {
+			CachedImage image = _images.get(key);
+			if (null != image) {
+				if (!isExpired(image.getCreationTime()))
+					return image;
+				_images.remove(key);
+				_currentBytes -= image.getData().length;
+			}
+		}
+
+		return readSpilledImage(key);
+	}
+
+	/**
+	 * Cache an image
+	 * 
+	 * @param key The key of the image, as returned by
+	 *            {@link #getKey(UUID, String, TileIndex, String, JSONObject)}
+	 * @param data The encoded image
+	 * @return The cached image, complete with entity tag
+	 */
+	public CachedImage put (String key, byte[] data) {
+		return put(key, new CachedImage(data, System.currentTimeMillis()));
+	}
+
+	private CachedImage put (String key, CachedImage image) {
+		if (!isEnabled() || image.getData().length > _maxBytes)
+			return image;
+
+		Map<String, CachedImage> evicted = new LinkedHashMap<>();
+		synchronized (this) {
+			CachedImage previous = _images.put(key, image);
+			if (null != previous)
+				_currentBytes -= previous.getData().length;
+			_currentBytes += image.getData().length;
+
+			Iterator<Map.Entry<String, CachedImage>> i = _images.entrySet().iterator();
+			while (_currentBytes > _maxBytes && i.hasNext()) {
+				Map.Entry<String, CachedImage> eldest = i.next();
+				i.remove();
+				_currentBytes -= eldest.getValue().getData().length;
+				evicted.put(eldest.getKey(), eldest.getValue());
+			}
+		}
+
+		// Spill outside the lock, so disk writes don't hold up other requests.
+		for (Map.Entry<String, CachedImage> entry: evicted.entrySet()) {
+			spillImage(entry.getKey(), entry.getValue());
+		}
+		return image;
+	}
+
+	/**
+	 * Remove all images from the cache, including any spilled to disk
+	 */
+	public void clear () {
+		synchronized (this) {
+			_images.clear();
+			_currentBytes = 0L;
+		}
+		if (null != _spillDirectory) {
+			File[] files = _spillDirectory.listFiles();
+			if (null != files) {
+				for (File file: files) {
+					if (file.getName().endsWith(SPILL_EXTENSION) && !file.delete())
+						LOGGER.warn("Couldn't remove spilled image {}", file);
+				}
+			}
+		}
+	}
+
+	private boolean isExpired (long creationTime) {
+		return System.currentTimeMillis() - creationTime > _maxAge;
+	}
+
+	private File getSpillFile (String key) {
+		return new File(_spillDirectory, toHex(digest(key.getBytes(UTF8)))+SPILL_EXTENSION);
+	}
+
+	private void spillImage (String key, CachedImage image) {
+		if (null == _spillDirectory || isExpired(image.getCreationTime()))
+			return;
+
+		File file = getSpillFile(key);
+		try (OutputStream output = new FileOutputStream(file)) {
+			output.write(image.getData());
+		} catch (IOException e) {
+			LOGGER.warn("Couldn't spill image {} to disk", key, e);
+			return;
+		}
+		if (!file.setLastModified(image.getCreationTime()))
+			LOGGER.debug("Couldn't set time of spilled image {}", key);
+
+		if (_spilledBytes.addAndGet(image.getData().length) > _maxSpillBytes || isExpired(_lastSweepTime))
+			sweepSpillDirectory();
+	}
+
+	// Remove expired images from the spill directory, and then the oldest
+	// remaining ones until it fits within its size bound.  Images are only
+	// otherwise removed when read after expiry, so without this, the
+	// directory would grow without limit.
+	private void sweepSpillDirectory () {
+		synchronized (_sweepLock) {
+			// Someone else may have just swept
+			if (_spilledBytes.get() <= _maxSpillBytes && !isExpired(_lastSweepTime))
+				return;
+
+			File[] files = _spillDirectory.listFiles();
+			if (null == files)
+				return;
+
+			// Read each file's time once, as it may change while we sort
+			List<SpilledImage> spilled = new ArrayList<>();
+			long totalBytes = 0L;
+			for (File file: files) {
+				if (!file.getName().endsWith(SPILL_EXTENSION))
+					continue;
+				SpilledImage image = new SpilledImage(file);
+				if (isExpired(image._creationTime)) {
+					if (!file.delete())
+						LOGGER.debug("Couldn't remove expired spilled image {}", file);
+				} else {
+					spilled.add(image);
+					totalBytes += image._size;
+				}
+			}
+
+			Collections.sort(spilled);
+			for (SpilledImage image: spilled) {
+				if (totalBytes <= _maxSpillBytes)
+					break;
+				if (image._file.delete())
+					totalBytes -= image._size;
+				else
+					LOGGER.debug("Couldn't remove spilled image {}", image._file);
+			}
+
+			_spilledBytes.set(totalBytes);
+			_lastSweepTime = System.currentTimeMillis();
+		}
+	}
+
+	private CachedImage readSpilledImage (String key) {
+		if (null == _spillDirectory)
+			return null;
+
+		File file = getSpillFile(key);
+		if (!file.isFile())
+			return null;
+		long creationTime = file.lastModified();
+		if (isExpired(creationTime)) {
+			if (!file.delete())
+				LOGGER.debug("Couldn't remove expired spilled image {}", key);
+			return null;
+		}
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream((int) file.length());
+		try (InputStream input = new FileInputStream(file)) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) > 0)
+				data.write(buffer, 0, read);
+		} catch (IOException e) {
+			LOGGER.warn("Couldn't read spilled image {}", key, e);
+			return null;
+		}
+
+		// Bring it back into memory
+		return put(key, new CachedImage(data.toByteArray(), creationTime));
+	}
+
+	private static byte[] digest (byte[] data) {
+		try {
+			return MessageDigest.getInstance("MD5").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			// MD5 is required of every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex (byte[] bytes) {
+		StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (byte b: bytes) {
+			result.append(Character.forDigit((b >> 4) & 0xf, 16));
+			result.append(Character.forDigit(b & 0xf, 16));
+		}
+		return result.toString();
+	}
+
+
+
+	// A file in the spill directory, as it was when listed; ordered oldest
+	// first
+	private static class SpilledImage implements Comparable<SpilledImage> {
+		final File _file;
+		final long _creationTime;
+		final long _size;
+
+		SpilledImage (File file) {
+			_file = file;
+			_creationTime = file.lastModified();
+			_size = file.length();
+		}
+
+		@Override
+		public int compareTo (SpilledImage that) {
+			return _creationTime < that._creationTime ? -1 : (_creationTime == that._creationTime ? 0 : 1);
+		}
+	}
+
+	/**
+	 * An encoded image, with an entity tag identifying its content
+	 */
+	public static class CachedImage {
+		private byte[] _data;
+		private String _entityTag;
+		private long   _creationTime;
+
+		CachedImage (byte[] data, long creationTime) {
+			_data = data;
+			_entityTag = toHex(digest(data));
+			_creationTime = creationTime;
+		}
+
+		/**
+		 * Get the encoded image. This is the cached array itself, and must not
+		 * be modified.
+		 */
+		public byte[] getData () {
+			return _data;
+		}
+
+		/**
+		 * Get an opaque tag identifying the content of this image
+		 */
+		public String getEntityTag () {
+			return _entityTag;
+		}
+
+		/**
+		 * Get the time at which this image was rendered
+		 */
+		public long getCreationTime () {
+			return _creationTime;
+		}
+	}
+}
@@ -1,18 +1,19 @@
 /**
- * Copyright (c) 2013 Oculus Info Inc. http://www.oculusinfo.com/
- * 
+ * Copyright (c) 2013 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
  * Released under the MIT License.
- * 
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- * 
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- * 
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
@@ -24,48 +25,93 @@
 package com.oculusinfo.tile.rest.tile.caching;
 
 
+import com.oculusinfo.binning.DoubleTileData;
+import com.oculusinfo.binning.LongTileData;
+import com.oculusinfo.binning.SparseTileData;
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
-import com.oculusinfo.binning.util.LRUCache.RemovalPolicy;
-import com.oculusinfo.binning.util.Pair;
-import com.oculusinfo.binning.util.SynchronizedLRUCache;
 import com.oculusinfo.tile.rest.tile.caching.TileCacheEntry.CacheRequestCallback;
 
-import java.util.*;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 
 /**
- * An LRU cache of tiles, with its own specific removal policy and cache entry
- * type
+ * A concurrent, approximately-LRU cache of tiles, with its own specific
+ * removal policy and cache entry type.
+ * 
+ * Entries are kept in a concurrent map, so lookups and requests for different
+ * tiles never contend for a common lock. Each entry is a future for its tile,
+ * so concurrent requests for the same tile share a single load. The cache may
+ * be bounded both by entry count and by the estimated size of the tiles it
+ * holds; when over either bound, a sample of the entries is examined, and the
+ * least recently used entry that has already been retrieved (or, failing that,
+ * the least recently used one older than the maximum tile age) is removed.
+ * Each sample continues where the last one left off, so over successive
+ * evictions every entry is considered.
+ * Entries that are still awaited and not yet too old are never removed.
  * 
  * @author nkronenfeld
  * 
  */
 public class TileCache<T> {
+	// The number of removable entries examined when looking for one to evict
+	private static final int  EVICTION_SAMPLE_SIZE = 16;
+	// Estimated fixed overhead of a tile, in bytes
+	private static final long TILE_OVERHEAD        = 128L;
+	// Estimated size of a boxed bin value plus the reference to it, in bytes
+	private static final long BOXED_BIN_SIZE       = 24L;
+
 	// The maximum amount of time an unrecieved tile is guaranteed to remain in
 	// the cache, in milliseconds
-	private long                                                    _maxTileAge;
+	private long                                        _maxTileAge;
+	// The maximum number of entries in the cache
+	private int                                         _maxEntries;
+	// The maximum estimated size of all tiles in the cache, in bytes
+	private long                                        _maxBytes;
 	// The cache iteself
-	private SynchronizedLRUCache<TileIndex, TileCacheEntry<T>> _cache;
-	// A list of all keys which have recieved their data, with the time at which they were first requested.
-	private TreeSet<Pair<TileIndex, Long>>                          _haveData;
-	// A list of all keys, in the order in which they were requested.
-	private List<TileIndex>                                         _orderedKeys;
-	// A listener to attach to all entries
-	private CacheEntryListener                                      _entryListener;
+	private ConcurrentMap<TileIndex, TileCacheEntry<T>> _cache;
+	// The current estimated size of all tiles in the cache, in bytes
+	private AtomicLong                                  _currentBytes;
+	// A logical clock, ticked on each access, used to order entries by recency
+	private AtomicLong                                  _accessClock;
+	// Held by whichever thread is currently evicting entries
+	private ReentrantLock                               _evictionLock;
+	// Where the next eviction sample starts; only used under the eviction lock
+	private Iterator<TileCacheEntry<T>>                 _evictionCursor;
 	// A list of global listeners to all requests
-	private List<CacheRequestCallback<T>>                           _globalCallbacks;
+	private List<CacheRequestCallback<T>>               _globalCallbacks;
 
 	public TileCache (long maxAge, int maxSize) {
+		this(maxAge, maxSize, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Create a tile cache
+	 * 
+	 * @param maxAge The time, in milliseconds, for which an unretrieved tile
+	 *            is guaranteed to remain in the cache
+	 * @param maxEntries The maximum number of tiles to hold
+	 * @param maxBytes The maximum estimated size, in bytes, of all tiles held
+	 */
+	public TileCache (long maxAge, int maxEntries, long maxBytes) {
 		_maxTileAge = maxAge;
-		_cache = new SynchronizedLRUCache<>(maxSize,
-		                                    new TileCacheRemovalPolicy());
-		_haveData= new TreeSet<>(new EntryAgeComparator());
-		_orderedKeys = new LinkedList<>();
-		_entryListener = new CacheEntryListener();
-		_globalCallbacks = new ArrayList<>();
+		_maxEntries = maxEntries;
+		_maxBytes = maxBytes;
+		_cache = new ConcurrentHashMap<>();
+		_currentBytes = new AtomicLong(0L);
+		_accessClock = new AtomicLong(0L);
+		_evictionLock = new ReentrantLock();
+		_evictionCursor = null;
+		_globalCallbacks = new CopyOnWriteArrayList<>();
 	}
 
 	public void addGlobalCallback (CacheRequestCallback<T> callback) {
@@ -80,7 +126,10 @@ public class TileCache<T> {
 	 * Take a list of tiles to request, and return the subset that are new
 	 * requests - i.e., ones not already in the cache.
 	 * 
-	 * Each new request will be placed in the cache.
+	 * Each new request will be placed in the cache. Claiming a request is
+	 * atomic, so if several threads ask for the same tile at once, exactly one
+	 * of them will be told it is new, and is then responsible for providing it
+	 * (or abandoning it, if it can't).
 	 * 
 	 * @param requests
 	 *            The list of tiles needed
@@ -88,23 +137,21 @@ public class TileCache<T> {
 	 */
 	public List<TileIndex> getNewRequests (Iterable<TileIndex> requests) {
 		List<TileIndex> needed = new ArrayList<>();
-		synchronized (_cache) {
-			for (TileIndex index : requests) {
-				if (!_cache.containsKey(index)) {
-					// Create the tile request, and listen for its fulfilment
-					TileCacheEntry<T> entry = new TileCacheEntry<T>(index);
-					entry.requestTile(_entryListener);
-
-					// Add to cache
-					_cache.put(index, entry);
-					// Add to list of keys in request order
-					_orderedKeys.add(index);
-
+		for (TileIndex index : requests) {
+			TileCacheEntry<T> entry = _cache.get(index);
+			if (null == entry) {
+				TileCacheEntry<T> newEntry = new TileCacheEntry<T>(index);
+				entry = _cache.putIfAbsent(index, newEntry);
+				if (null == entry) {
+					entry = newEntry;
 					needed.add(index);
 				}
 			}
+			entry.touch(_accessClock.incrementAndGet());
 		}
 
+		if (!needed.isEmpty())
+			evictIfNeeded();
 		return needed;
 	}
 
@@ -118,111 +165,169 @@ public class TileCache<T> {
 	 *            A callback to call when the request is fulfilled.
 	 */
 	public void requestTile (TileIndex index, CacheRequestCallback<T> callback) {
-		_cache.get(index).requestTile(callback);
+		TileCacheEntry<T> entry = _cache.get(index);
+		if (null == entry) {
+			callback.onTileAbandoned(index);
+		} else {
+			entry.touch(_accessClock.incrementAndGet());
+			entry.requestTile(callback);
+		}
+	}
+
+	/**
+	 * Get a future for a requested tile.
+	 * 
+	 * @param index
+	 *            The index of the tile being requested.
+	 * @return A future that will yield the tile once it is provided, or null
+	 *         if the tile has not been requested.
+	 */
+	public Future<TileData<T>> getTile (TileIndex index) {
+		TileCacheEntry<T> entry = _cache.get(index);
+		if (null != entry)
+			entry.touch(_accessClock.incrementAndGet());
+		return entry;
 	}
 
 	public void provideTile (TileData<T> tile) {
 		if (null == tile)
 			return;
 
-		TileIndex index = tile.getDefinition();
-		TileCacheEntry<T> entry = _cache.get(index);
-		if (null != entry)
-			entry.setTile(tile);
+		provideTile(tile.getDefinition(), tile);
 	}
 
 	public void provideEmptyTile (TileIndex index) {
-		TileCacheEntry<T> entry = _cache.get(index);
-		if (null != entry)
-			entry.setTile(null);
+		provideTile(index, null);
 	}
 
-	private class CacheEntryListener implements CacheRequestCallback<T> {
-		@Override
-		public boolean onTileReceived (TileIndex index, TileData<T> tile) {
+	/**
+	 * Give up on a set of requested tiles, removing them from the cache and
+	 * releasing anyone waiting on them.  This should be called by whoever
+	 * claimed a request (via {@link #getNewRequests(Iterable)}) if they fail
+	 * to provide the tile.
+	 */
+	public void abandonTiles (Iterable<TileIndex> indices) {
+		for (TileIndex index: indices) {
 			TileCacheEntry<T> entry = _cache.get(index);
-			if (null != entry) {
-				_haveData.add(new Pair<TileIndex, Long>(index,
-				                                        entry.initialRequestTime()));
-			}
-			// Notify any global listeners
-			if (null != _globalCallbacks && !_globalCallbacks.isEmpty()) {
-				for (CacheRequestCallback<T> callback: _globalCallbacks) {
-					callback.onTileReceived(index, tile);
-				}
-			}
-			return false;
+			if (null != entry)
+				remove(entry);
 		}
+	}
+
+	/**
+	 * Get the current estimated size of all tiles in the cache, in bytes
+	 */
+	public long getCurrentBytes () {
+		return _currentBytes.get();
+	}
 
-		@Override
-		public void onTileAbandoned (TileIndex index) {
-			// If we're here, everything's already handled, so there is nothing
-			// more to do.
+	private void provideTile (TileIndex index, TileData<T> tile) {
+		TileCacheEntry<T> entry = _cache.get(index);
+		if (null == entry)
+			return;
+
+		long delta = entry.setTile(tile, estimateSize(tile));
+		if (entry.isCancelled())
+			return;
+		if (0L != delta)
+			_currentBytes.addAndGet(delta);
+
+		// Notify any global listeners
+		for (CacheRequestCallback<T> callback: _globalCallbacks) {
+			callback.onTileReceived(index, tile);
 		}
+
+		evictIfNeeded();
 	}
 
+	private void remove (TileCacheEntry<T> entry) {
+		if (_cache.remove(entry.getIndex(), entry)) {
+			long released = entry.abandonTile();
+			if (0L != released)
+				_currentBytes.addAndGet(-released);
+		}
+	}
 
+	private boolean isOverCapacity () {
+		return _cache.size() > _maxEntries || _currentBytes.get() > _maxBytes;
+	}
 
-	private class TileCacheRemovalPolicy
-		implements
-		RemovalPolicy<TileIndex, TileCacheEntry<T>> {
-		@Override
-		public boolean shouldRemove (Entry<TileIndex, TileCacheEntry<T>> entry,
-		                             Map<TileIndex, TileCacheEntry<T>> map,
-		                             int suggestedMaxSize) {
-			if (null == entry) {
-				return false;
-			} else if (null == entry.getValue()) {
-				return true;
-			} else {
-				TileCacheEntry<T> value = entry.getValue();
-				if (value.hasBeenRetrieved() || value.age() > _maxTileAge) {
-					// This entry has been received, or is to old for us to
-					// care; just remove it.
-					return true;
-				} else {
-					// First see if there is anything which has already been
-					// handled, so can be freely deleted.
-					for (Pair<TileIndex, Long> hasData: _haveData) {
-						TileIndex index = hasData.getFirst();
-						TileCacheEntry<T> entryWithData = _cache.get(index);
-						if (entryWithData.hasBeenRetrieved()) {
-							_cache.remove(index);
-							return false;
-						}
-					}
-
-					// If we get this far, there was nothing already handled.
-					//
-					// See if there's anything so old we just don't care about
-					// its safety any more.
-					if (_orderedKeys.size() > 0) {
-						TileIndex oldestKey = _orderedKeys.get(0);
-						TileCacheEntry<T> oldestEntry = _cache.get(oldestKey);
-						if (oldestEntry.age() > _maxTileAge) {
-							_cache.remove(oldestKey);
-						}
-					}
-					return false;
-				}
+	// Remove entries until we are back within our bounds, or until there is
+	// nothing left that can safely be removed.  Only one thread evicts at a
+	// time; any other thread that finds the cache over capacity leaves the
+	// work to it rather than waiting.
+	private void evictIfNeeded () {
+		if (!isOverCapacity() || !_evictionLock.tryLock())
+			return;
+
+		try {
+			while (isOverCapacity()) {
+				TileCacheEntry<T> victim = chooseVictim();
+				if (null == victim)
+					break;
+				remove(victim);
 			}
+		} finally {
+			_evictionLock.unlock();
 		}
+	}
 
-		@Override
-		public void onElementRemoved (TileIndex key,
-		                              TileCacheEntry<T> value) {
-			value.abandonTile();
+	// Choose the entry to evict from a sample of the removable entries.
+	// Entries that have already been retrieved are preferred; entries that
+	// are still awaited are only removable once they are too old for us to
+	// care about.
+	//
+	// The sample is taken from a cursor over the cache that persists between
+	// calls (wrapping around when it reaches the end), so successive samples
+	// rotate through the whole cache, rather than always looking at the same
+	// entries at the start of its iteration order.  The map's iterators are
+	// weakly consistent, so the cursor remains valid as entries come and go.
+	private TileCacheEntry<T> chooseVictim () {
+		TileCacheEntry<T> oldestRetrieved = null;
+		TileCacheEntry<T> oldestExpired = null;
+		int sampled = 0;
+		// Look at each entry at most once per call, so we stop if nothing is
+		// removable
+		int examined = 0;
+		int size = _cache.size();
+		while (sampled < EVICTION_SAMPLE_SIZE && examined < size) {
+			if (null == _evictionCursor || !_evictionCursor.hasNext()) {
+				_evictionCursor = _cache.values().iterator();
+				if (!_evictionCursor.hasNext())
+					break;
+			}
+			TileCacheEntry<T> entry = _evictionCursor.next();
+			++examined;
+			if (entry.hasBeenRetrieved()) {
+				if (null == oldestRetrieved || entry.lastAccess() < oldestRetrieved.lastAccess())
+					oldestRetrieved = entry;
+			} else if (entry.age() > _maxTileAge) {
+				if (null == oldestExpired || entry.lastAccess() < oldestExpired.lastAccess())
+					oldestExpired = entry;
+			} else {
+				continue;
+			}
+			++sampled;
 		}
+		return (null == oldestRetrieved ? oldestExpired : oldestRetrieved);
 	}
 
+	/*
+	 * Estimate the in-memory size of a tile, in bytes.
+	 */
+	static long estimateSize (TileData<?> tile) {
+		if (null == tile)
+			return 0L;
 
-
-	// Compare two elements in our _haveData list.  This puts the older element first.
-	private class EntryAgeComparator implements
-		Comparator<Pair<TileIndex, Long>> {
-		@Override
-		public int compare (Pair<TileIndex, Long> o1, Pair<TileIndex, Long> o2) {
-			return -o1.getSecond().compareTo(o2.getSecond());
+		if (tile instanceof SparseTileData) {
+			return TILE_OVERHEAD + (4L + BOXED_BIN_SIZE) * ((SparseTileData<?>) tile).getStoredBinCount();
+		}
+		TileIndex index = tile.getDefinition();
+		long bins = (long) index.getXBins() * (long) index.getYBins();
+		if (tile instanceof DoubleTileData || tile instanceof LongTileData) {
+			return TILE_OVERHEAD + 8L * bins;
+		} else {
+			return TILE_OVERHEAD + BOXED_BIN_SIZE * bins;
 		}
 	}
 }
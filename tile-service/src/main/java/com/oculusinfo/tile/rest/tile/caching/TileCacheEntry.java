@@ -28,52 +28,78 @@ import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * This class tracks an entry in an LRU cache for a particular tile; it keeps 
- * track of whether or not the tile has been directly or indirectly requested, 
- * and the age of the original request, so that the LRUCache's RemovalPolicy 
- * can determine correctly whether or not the tile should be purged when 
- * requested.
+ * This class tracks an entry in the tile cache for a particular tile; it keeps
+ * track of whether or not the tile has been directly or indirectly requested,
+ * and the age of the original request, so that the cache can determine
+ * correctly whether or not the tile should be purged when space is needed.
+ * 
+ * Each entry is also a future for its tile, so that any number of threads
+ * waiting on the same tile share a single load. All state is guarded by the
+ * entry's own monitor, so requests for different tiles never contend with one
+ * another; callbacks are always invoked outside that monitor.
  * 
  * @author nkronenfeld
  */
-public class TileCacheEntry<T> {
+public class TileCacheEntry<T> implements Future<TileData<T>> {
 	/* The index of our data */
 	private TileIndex                     _index;
 	/* Our actual data */
 	private TileData<T>                   _tile;
+	/* The estimated size of our data, in bytes */
+	private long                          _size;
 	/* The time of our original request */
 	private long                          _requestTime;
+	/* The cache's access clock at the last time this entry was touched */
+	private volatile long                 _lastAccess;
 	/* True only if the data for this tile has been recieved */
 	private boolean                       _received;
 	/* True only if this tile has ever actually been retrieved */
-	private boolean                       _retreived;
+	private volatile boolean              _retreived;
+	/* True only if this entry has been dropped from the cache */
+	private boolean                       _abandoned;
 	/* A list of listeners for tile requests */
 	private List<CacheRequestCallback<T>> _requests;
 
 	public TileCacheEntry (TileIndex index) {
 		_index = index;
 		_tile = null;
+		_size = 0L;
 		_requestTime = System.currentTimeMillis();
+		_lastAccess = 0L;
 		_received = false;
 		_retreived = false;
+		_abandoned = false;
 		_requests = new ArrayList<>();
 	}
 
+	/**
+	 * Get the index of the tile this entry tracks
+	 */
+	public TileIndex getIndex () {
+		return _index;
+	}
+
 	/**
 	 * Used to request a tile, of course. The callback will be called once when
 	 * the tile is received (immediately if it is already there)
 	 */
 	public void requestTile (CacheRequestCallback<T> callback) {
-		if (_received) {
-			callback.onTileReceived(_index, _tile);
-			_retreived = true;
-		} else {
-			_requests.add(callback);
+		TileData<T> tile;
+		synchronized (this) {
+			if (!_received) {
+				_requests.add(callback);
+				return;
+			}
+			tile = _tile;
 		}
+		callback.onTileReceived(_index, tile);
+		_retreived = true;
 	}
 
 	/*
@@ -81,30 +107,63 @@ public class TileCacheEntry<T> {
 	 * 
 	 * @param tile
 	 *            The requested tile
+	 * @param size
+	 *            The estimated size of the tile, in bytes
+	 * @return The change in the number of bytes held by this entry. This is
+	 *         always 0 if the entry has already been abandoned, in which case
+	 *         the tile is ignored.
 	 */
-	void setTile (TileData<T> tile) {
-		_received = true;
-		_tile = tile;
-		Iterator<CacheRequestCallback<T>> i = _requests.iterator();
-		while (i.hasNext()) {
-			CacheRequestCallback<T> callback = i.next();
-			if (callback.onTileReceived(_index, _tile)) {
+	long setTile (TileData<T> tile, long size) {
+		List<CacheRequestCallback<T>> callbacks;
+		long delta;
+		synchronized (this) {
+			if (_abandoned)
+				return 0L;
+			_received = true;
+			_tile = tile;
+			delta = size - _size;
+			_size = size;
+			callbacks = new ArrayList<>(_requests);
+			notifyAll();
+		}
+
+		List<CacheRequestCallback<T>> processed = new ArrayList<>();
+		for (CacheRequestCallback<T> callback: callbacks) {
+			if (callback.onTileReceived(_index, tile)) {
 				_retreived = true;
-				i.remove();
+				processed.add(callback);
+			}
+		}
+		if (!processed.isEmpty()) {
+			synchronized (this) {
+				_requests.removeAll(processed);
 			}
 		}
+		return delta;
 	}
 
 	/*
 	 * Notify the anyone who cares that a tile has been abandoned.
+	 * 
+	 * @return The number of bytes released by abandoning this entry
 	 */
-	void abandonTile () {
-		Iterator<CacheRequestCallback<T>> i = _requests.iterator();
-		while (i.hasNext()) {
-			CacheRequestCallback<T> callback = i.next();
+	long abandonTile () {
+		List<CacheRequestCallback<T>> callbacks;
+		long released;
+		synchronized (this) {
+			if (_abandoned)
+				return 0L;
+			_abandoned = true;
+			released = _size;
+			_size = 0L;
+			callbacks = new ArrayList<>(_requests);
+			_requests.clear();
+			notifyAll();
+		}
+		for (CacheRequestCallback<T> callback: callbacks) {
 			callback.onTileAbandoned(_index);
-			i.remove();
 		}
+		return released;
 	}
 
 	/**
@@ -130,6 +189,72 @@ public class TileCacheEntry<T> {
 		return System.currentTimeMillis()-_requestTime;
 	}
 
+	long lastAccess () {
+		return _lastAccess;
+	}
+
+	void touch (long accessTime) {
+		_lastAccess = accessTime;
+	}
+
+
+
+	// Future implementation, so that callers can block on a tile directly
+	// rather than going through a callback.  Getting the tile counts as
+	// retrieving it.
+	@Override
+	public boolean cancel (boolean mayInterruptIfRunning) {
+		// Loads are shared between requesters, so no one requester may cancel one.
+		return false;
+	}
+
+	@Override
+	public synchronized boolean isCancelled () {
+		return _abandoned && !_received;
+	}
+
+	@Override
+	public synchronized boolean isDone () {
+		return _received || _abandoned;
+	}
+
+	/**
+	 * Wait for the tile to be received.
+	 * 
+	 * @return The tile, or null if the tile was empty or its request was
+	 *         abandoned before it arrived.
+	 */
+	@Override
+	public TileData<T> get () throws InterruptedException {
+		TileData<T> tile;
+		synchronized (this) {
+			while (!_received && !_abandoned) {
+				wait();
+			}
+			tile = _tile;
+		}
+		_retreived = true;
+		return tile;
+	}
+
+	@Override
+	public TileData<T> get (long timeout, TimeUnit unit) throws InterruptedException,
+	                                                              TimeoutException {
+		TileData<T> tile;
+		synchronized (this) {
+			long end = System.nanoTime() + unit.toNanos(timeout);
+			while (!_received && !_abandoned) {
+				long remaining = end - System.nanoTime();
+				if (remaining <= 0)
+					throw new TimeoutException("Timed out waiting for tile "+_index);
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			tile = _tile;
+		}
+		_retreived = true;
+		return tile;
+	}
+
 
 
 	/**
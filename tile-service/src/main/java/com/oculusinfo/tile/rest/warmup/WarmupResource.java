@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.warmup;
+
+
+import com.google.inject.Inject;
+import oculus.aperture.common.rest.ApertureServerResource;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.Post;
+import org.restlet.resource.ResourceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+public class WarmupResource extends ApertureServerResource {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WarmupResource.class);
+
+
+
+	private WarmupService _service;
+
+
+
+	@Inject
+	public WarmupResource (WarmupService service) {
+		_service = service;
+	}
+
+	/**
+	 * Get the progress of the current or most recent warm-up, as described
+	 * by {@link WarmupService#getStatus()}.
+	 */
+	@Get("json")
+	public Representation getStatus () {
+		return new JsonRepresentation(_service.getStatus());
+	}
+
+	/**
+	 * <p>
+	 * Start a warm-up. All properties of the post data are optional; any
+	 * omitted are taken from the server configuration.
+	 * <dl>
+	 * <dt>layers</dt>
+	 * <dd>An array of the IDs of the layers to warm up</dd>
+	 * <dt>levels</dt>
+	 * <dd>The highest level to load in its entirety</dd>
+	 * <dt>prerender</dt>
+	 * <dd>Whether to render tile images, as well as loading tile data</dd>
+	 * </dl>
+	 * Returns the status of the new warm-up, a conflict error if one is
+	 * already running, or a bad request error if too many levels are asked
+	 * for.
+	 * </p>
+	 */
+	@Post("json:json")
+	public Representation startWarmup (String jsonArguments) {
+		try {
+			JSONObject arguments = new JSONObject();
+			if (null != jsonArguments && !jsonArguments.trim().isEmpty())
+				arguments = new JSONObject(jsonArguments);
+
+			List<String> layers = null;
+			JSONArray jsonLayers = arguments.optJSONArray("layers");
+			if (null != jsonLayers) {
+				layers = new ArrayList<>();
+				for (int i=0; i<jsonLayers.length(); ++i) {
+					layers.add(jsonLayers.getString(i));
+				}
+			}
+			Integer levels = arguments.has("levels") ? arguments.getInt("levels") : null;
+			Boolean prerender = arguments.has("prerender") ? arguments.getBoolean("prerender") : null;
+
+			if (!_service.startWarmup(layers, levels, prerender)) {
+				throw new ResourceException(Status.CLIENT_ERROR_CONFLICT, "A warm-up is already running");
+			}
+			setStatus(Status.SUCCESS_ACCEPTED);
+			return new JsonRepresentation(_service.getStatus());
+		} catch (IllegalArgumentException e) {
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage(), e);
+		} catch (JSONException e) {
+			LOGGER.warn("Bad warm-up request: {}", jsonArguments, e);
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+			                            "Unable to create JSON object from supplied options string",
+			                            e);
+		}
+	}
+}
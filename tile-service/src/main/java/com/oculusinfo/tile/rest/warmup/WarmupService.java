@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.warmup;
+
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Warms up the server's caches, so that the first clients after a restart
+ * don't each have to wait for tiles to be read from the backing store.
+ */
+public interface WarmupService {
+	/**
+	 * Start warming up in the background.
+	 * 
+	 * @param layers The layers to warm up; null for the configured layers
+	 * @param levels The number of the highest level to load fully; null for
+	 *            the configured level
+	 * @param prerender Whether to render tile images into the rendered image
+	 *            cache; null for the configured default
+	 * @return True if a warm-up was started, false if one was already running
+	 * @throws IllegalArgumentException if loading the given levels fully
+	 *             would take too many tiles
+	 */
+	public boolean startWarmup (List<String> layers, Integer levels, Boolean prerender);
+
+	/**
+	 * Get the progress of the current or most recent warm-up.
+	 * 
+	 * @return An object listing whether a warm-up is running ("running"), when
+	 *         it started and finished ("started", "finished", in milliseconds
+	 *         since the epoch), the layers warmed so far ("layers"), the
+	 *         number of tiles loaded ("tiles") and images rendered ("images"),
+	 *         and the number of tiles and layers that failed ("errors")
+	 */
+	public JSONObject getStatus ();
+}
@@ -0,0 +1,617 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.warmup;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.TilePyramid;
+import com.oculusinfo.binning.io.PyramidIO;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.metadata.PyramidMetaData;
+import com.oculusinfo.factory.ConfigurationException;
+import com.oculusinfo.tile.rendering.LayerConfiguration;
+import com.oculusinfo.tile.rendering.TileDataImageRenderer;
+import com.oculusinfo.tile.rest.TileImageEncoder;
+import com.oculusinfo.tile.rest.layer.LayerInfo;
+import com.oculusinfo.tile.rest.layer.LayerService;
+import com.oculusinfo.tile.rest.tile.TileService;
+import com.oculusinfo.tile.rest.tile.caching.CachingPyramidIO;
+import com.oculusinfo.tile.rest.tile.caching.RenderedImageCache;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+
+/**
+ * Loads the parts of each layer's tile pyramid that are most likely to be
+ * requested into the tile cache, and optionally renders their images into the
+ * rendered image cache, so that a freshly started server doesn't have to go
+ * to the backing store for every tile its first clients ask for.
+ * 
+ * For each layer warmed, the pyramid metadata is read (and so cached), then
+ * every tile from level 0 through the configured level is loaded, as are the
+ * tiles of any configured hot regions. Tiles are read in batches, so backing
+ * stores that can read many tiles at once do so. If prerendering is on, and
+ * both the layer and the rendered image cache are set up for server-side
+ * rendering, the PNG images of the loaded tiles are then rendered in
+ * parallel, using the layer's default configuration; clients that configure
+ * the layer the same way are served these images directly.
+ * 
+ * A warm-up runs shortly after the server starts, if so configured, and may
+ * be started at any time through {@link WarmupResource}. Only one warm-up
+ * runs at a time.
+ * 
+ * Configured by the following optional properties in tile.properties:
+ * <dl>
+ * <dt>com.oculusinfo.tile.warmup.onStartup</dt>
+ * <dd>Whether to warm up when the server starts. Defaults to false.</dd>
+ * <dt>com.oculusinfo.tile.warmup.layers</dt>
+ * <dd>A comma-separated list of the IDs of the layers to warm up. Defaults to
+ * all layers.</dd>
+ * <dt>com.oculusinfo.tile.warmup.levels</dt>
+ * <dd>The highest level to load in its entirety; -1 loads only hot regions.
+ * Defaults to 3.</dd>
+ * <dt>com.oculusinfo.tile.warmup.regions</dt>
+ * <dd>Hot regions to load at deeper levels, separated by semicolons. Each is
+ * of the form <code>minLevel-maxLevel:minX,minY,maxX,maxY</code>, with the
+ * bounds in the raw coordinates of each layer's tile pyramid (longitude and
+ * latitude, for geographic layers). Defaults to none.</dd>
+ * <dt>com.oculusinfo.tile.warmup.prerender</dt>
+ * <dd>Whether to render images of the tiles loaded. Defaults to true.</dd>
+ * <dt>com.oculusinfo.tile.warmup.threads</dt>
+ * <dd>The number of threads on which to render images. Defaults to 4.</dd>
+ * </dl>
+ * At most {@value #MAX_TILES} tiles are warmed up per layer; levels or hot
+ * regions that would take more than that are rejected.
+ */
+@Singleton
+public class WarmupServiceImpl implements WarmupService {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WarmupServiceImpl.class);
+
+	private static final int    DEFAULT_LEVELS  = 3;
+	private static final int    DEFAULT_THREADS = 4;
+	// The number of tiles read from the backing store at once
+	private static final int    BATCH_SIZE      = 256;
+	// The most tiles warmed up per layer, so that listing them can't use up
+	// memory
+	static final int            MAX_TILES       = 100000;
+	// The time, in milliseconds, to wait after the server starts before
+	// warming up, so as not to slow the server's own initialization
+	private static final long   STARTUP_DELAY   = 10000L;
+	// The type of image prerendered
+	private static final String IMAGE_EXTENSION = "png";
+
+
+
+	private LayerService             _layerService;
+	private TileService              _tileService;
+	private RenderedImageCache       _imageCache;
+	private TileImageEncoder         _imageEncoder;
+
+	private volatile boolean         _onStartup;
+	private volatile List<String>    _layers;
+	private volatile int             _levels;
+	private volatile List<HotRegion> _regions;
+	private volatile boolean         _prerender;
+	private volatile int             _threads;
+
+	private ScheduledExecutorService _executor;
+	private AtomicBoolean            _running;
+	private volatile long            _startTime;
+	private volatile long            _endTime;
+	private List<String>             _layersWarmed;
+	private AtomicInteger            _tilesLoaded;
+	private AtomicInteger            _imagesRendered;
+	private AtomicInteger            _errors;
+
+
+
+	@Inject
+	public WarmupServiceImpl (LayerService layerService, TileService tileService,
+	                          RenderedImageCache imageCache, TileImageEncoder imageEncoder) {
+		_layerService = layerService;
+		_tileService = tileService;
+		_imageCache = imageCache;
+		_imageEncoder = imageEncoder;
+
+		_onStartup = false;
+		_layers = null;
+		_levels = DEFAULT_LEVELS;
+		_regions = Collections.emptyList();
+		_prerender = true;
+		_threads = DEFAULT_THREADS;
+
+		_executor = Executors.newSingleThreadScheduledExecutor(createThreadFactory("tile-warmup"));
+		_running = new AtomicBoolean(false);
+		_startTime = 0L;
+		_endTime = 0L;
+		_layersWarmed = new CopyOnWriteArrayList<>();
+		_tilesLoaded = new AtomicInteger(0);
+		_imagesRendered = new AtomicInteger(0);
+		_errors = new AtomicInteger(0);
+
+		// Our properties are only set after construction, so we can't tell
+		// yet whether to warm up at startup; check once they're in.
+		_executor.schedule(new Runnable() {
+			@Override
+			public void run () {
+				if (_onStartup)
+					startWarmup(null, null, null);
+			}
+		}, STARTUP_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	@Inject(optional = true)
+	public void setOnStartup (@Named("com.oculusinfo.tile.warmup.onStartup") String onStartup) {
+		_onStartup = Boolean.parseBoolean(onStartup.trim());
+	}
+
+	@Inject(optional = true)
+	public void setLayers (@Named("com.oculusinfo.tile.warmup.layers") String layers) {
+		List<String> layerIds = new ArrayList<>();
+		for (String layer: layers.split(",")) {
+			if (!layer.trim().isEmpty())
+				layerIds.add(layer.trim());
+		}
+		_layers = layerIds.isEmpty() ? null : layerIds;
+	}
+
+	@Inject(optional = true)
+	public void setLevels (@Named("com.oculusinfo.tile.warmup.levels") String levels) {
+		try {
+			int parsedLevels = Math.max(-1, Integer.parseInt(levels.trim()));
+			if (getFullLevelsSize(parsedLevels) > MAX_TILES) {
+				LOGGER.warn("Warm-up level {} has more than {} tiles; using default", levels, MAX_TILES);
+			} else {
+				_levels = parsedLevels;
+			}
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Illegal warm-up level {}; using default", levels);
+		}
+	}
+
+	@Inject(optional = true)
+	public void setRegions (@Named("com.oculusinfo.tile.warmup.regions") String regions) {
+		try {
+			_regions = HotRegion.parseRegions(regions);
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("Illegal warm-up regions {}; ignoring them", regions, e);
+		}
+	}
+
+	@Inject(optional = true)
+	public void setPrerender (@Named("com.oculusinfo.tile.warmup.prerender") String prerender) {
+		_prerender = Boolean.parseBoolean(prerender.trim());
+	}
+
+	@Inject(optional = true)
+	public void setThreads (@Named("com.oculusinfo.tile.warmup.threads") String threads) {
+		try {
+			_threads = Math.max(1, Integer.parseInt(threads.trim()));
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Illegal warm-up thread count {}; using default", threads);
+		}
+	}
+
+	private static ThreadFactory createThreadFactory (final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger(0);
+			@Override
+			public Thread newThread (Runnable r) {
+				Thread thread = new Thread(r, name+"-"+_count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		};
+	}
+
+
+
+	@Override
+	public boolean startWarmup (List<String> layers, Integer levels, Boolean prerender) {
+		final List<String> runLayers = (null == layers ? _layers : layers);
+		final int runLevels = (null == levels ? _levels : levels);
+		final boolean runPrerender = (null == prerender ? _prerender : prerender);
+		if (getFullLevelsSize(runLevels) > MAX_TILES)
+			throw new IllegalArgumentException("Warming up levels 0-"+runLevels+" would load more than "
+			                                   +MAX_TILES+" tiles per layer");
+
+		if (!_running.compareAndSet(false, true))
+			return false;
+
+		_startTime = System.currentTimeMillis();
+		_endTime = 0L;
+		_layersWarmed.clear();
+		_tilesLoaded.set(0);
+		_imagesRendered.set(0);
+		_errors.set(0);
+		try {
+			_executor.execute(new Runnable() {
+				@Override
+				public void run () {
+					try {
+						warmup(runLayers, runLevels, runPrerender);
+					} finally {
+						_endTime = System.currentTimeMillis();
+						_running.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			_running.set(false);
+			throw e;
+		}
+		return true;
+	}
+
+	@Override
+	public JSONObject getStatus () {
+		JSONObject status = new JSONObject();
+		try {
+			status.put("running", _running.get());
+			status.put("started", _startTime);
+			status.put("finished", _endTime);
+			status.put("layers", new JSONArray(_layersWarmed));
+			status.put("tiles", _tilesLoaded.get());
+			status.put("images", _imagesRendered.get());
+			status.put("errors", _errors.get());
+		} catch (JSONException e) {
+			LOGGER.warn("Error describing warm-up status", e);
+		}
+		return status;
+	}
+
+
+
+	private void warmup (List<String> layers, int levels, boolean prerender) {
+		if (null == layers)
+			layers = getAllLayers();
+		LOGGER.info("Warming up layers {}", layers);
+
+		ExecutorService renderExecutor = null;
+		if (prerender && _imageCache.isEnabled())
+			renderExecutor = Executors.newFixedThreadPool(_threads, createThreadFactory("tile-warmup-render"));
+		try {
+			for (String layer: layers) {
+				try {
+					warmupLayer(layer, levels, renderExecutor);
+					_layersWarmed.add(layer);
+				} catch (IOException e) {
+					_errors.incrementAndGet();
+					LOGGER.warn("Error warming up layer {}", layer, e);
+				} catch (ConfigurationException e) {
+					_errors.incrementAndGet();
+					LOGGER.warn("Error warming up layer {}", layer, e);
+				} catch (RuntimeException e) {
+					_errors.incrementAndGet();
+					LOGGER.warn("Error warming up layer {}", layer, e);
+				}
+			}
+		} finally {
+			if (null != renderExecutor)
+				renderExecutor.shutdown();
+		}
+
+		LOGGER.info("Warm-up loaded {} tiles and rendered {} images in {}ms",
+		            new Object[] {_tilesLoaded.get(), _imagesRendered.get(),
+		                          System.currentTimeMillis() - _startTime});
+	}
+
+	// All layers with data - that is, all the leaves of the layer tree
+	private List<String> getAllLayers () {
+		List<String> layers = new ArrayList<>();
+		addLeafLayers(_layerService.listLayers(), layers);
+		return layers;
+	}
+
+	private static void addLeafLayers (List<LayerInfo> infos, List<String> layers) {
+		for (LayerInfo info: infos) {
+			if (info.getChildren().isEmpty())
+				layers.add(info.getID());
+			else
+				addLeafLayers(info.getChildren(), layers);
+		}
+	}
+
+	private void warmupLayer (String layer, int levels, ExecutorService renderExecutor)
+		throws IOException, ConfigurationException {
+		PyramidMetaData metaData = _layerService.getMetaData(layer);
+		if (null == metaData)
+			throw new IllegalArgumentException("Couldn't read metadata for layer "+layer);
+
+		TilePyramid pyramid = metaData.getTilePyramid();
+		if (null == pyramid && !_regions.isEmpty())
+			LOGGER.warn("Unknown tile pyramid for layer {}; skipping hot regions", layer);
+		List<TileIndex> tiles = getWarmupTiles(pyramid, metaData.getLevels(), levels, _regions);
+
+		UUID id = _layerService.configureLayer(layer, new JSONObject());
+		try {
+			LayerConfiguration config = _layerService.getRenderingConfiguration(id, null, null);
+			if (null == config)
+				throw new IllegalArgumentException("Couldn't configure layer "+layer);
+			PyramidIO pyramidIO = config.produce(PyramidIO.class);
+			TileSerializer<?> serializer = config.produce(TileSerializer.class);
+			boolean render = null != renderExecutor && hasRenderer(config);
+			UUID canonicalId = _layerService.getCanonicalConfigurationId(id);
+
+			for (int start = 0; start < tiles.size(); start += BATCH_SIZE) {
+				List<TileIndex> batch = tiles.subList(start, Math.min(tiles.size(), start + BATCH_SIZE));
+				loadTiles(pyramidIO, layer, serializer, batch);
+				_tilesLoaded.addAndGet(batch.size());
+				if (render)
+					renderTiles(renderExecutor, id, canonicalId, layer, batch);
+			}
+		} finally {
+			_layerService.forgetConfiguration(id);
+		}
+	}
+
+	private static boolean hasRenderer (LayerConfiguration config) {
+		try {
+			return null != config.produce(TileDataImageRenderer.class);
+		} catch (ConfigurationException e) {
+			// Rendered on the client
+			return false;
+		}
+	}
+
+	// Tiles go into the tile cache, if there is one; if not, reading them
+	// still warms up any caching done by the backing store itself.
+	private static <T> void loadTiles (PyramidIO pyramidIO, String layer,
+	                                   TileSerializer<T> serializer,
+	                                   List<TileIndex> tiles) throws IOException {
+		if (pyramidIO instanceof CachingPyramidIO) {
+			((CachingPyramidIO) pyramidIO).requestTiles(layer, serializer, tiles);
+		} else {
+			pyramidIO.readTiles(layer, serializer, tiles);
+		}
+	}
+
+	// Render a batch of tiles in parallel, waiting for them all to finish
+	private void renderTiles (ExecutorService renderExecutor, final UUID id, final UUID canonicalId,
+	                          final String layer, List<TileIndex> tiles) {
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (final TileIndex tile: tiles) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call () throws IOException {
+					String key = RenderedImageCache.getKey(canonicalId, layer, tile, IMAGE_EXTENSION, null);
+					if (null == _imageCache.get(key)) {
+						// Tiles that can't be rendered are left for a real request
+						BufferedImage image = _tileService.renderTileImage(id, layer, tile,
+						                                                   Collections.singletonList(tile), null);
+						if (null != image)
+							_imageCache.put(key, _imageEncoder.encode(image, MediaType.IMAGE_PNG));
+					}
+					_imagesRendered.incrementAndGet();
+					return null;
+				}
+			});
+		}
+
+		try {
+			for (Future<Void> result: renderExecutor.invokeAll(tasks)) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					_errors.incrementAndGet();
+					LOGGER.warn("Error prerendering tile of layer {}", layer, e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+
+	/**
+	 * Determine which tiles to warm up for a layer.
+	 * 
+	 * @param pyramid The tile pyramid of the layer; if null, hot regions are
+	 *            ignored
+	 * @param knownLevels The levels listed in the layer's metadata; if not
+	 *            empty, only tiles on these levels are included
+	 * @param levels The highest level to include in its entirety
+	 * @param regions Hot regions to include
+	 * @return The tiles to warm up, in order of level, with no duplicates
+	 * @throws IllegalArgumentException if the levels and regions, counted
+	 *             separately, hold more than {@link #MAX_TILES} tiles
+	 */
+	static List<TileIndex> getWarmupTiles (TilePyramid pyramid, List<Integer> knownLevels,
+	                                       int levels, List<HotRegion> regions) {
+		// Count the tiles before listing any, so an overly large warm-up is
+		// rejected without filling memory
+		long size = 0L;
+		for (int level = 0; level <= Math.min(levels, HotRegion.MAX_LEVEL); ++level) {
+			if (includesLevel(knownLevels, level))
+				size += 1L << (2*level);
+		}
+		if (null != pyramid) {
+			for (HotRegion region: regions) {
+				for (int level = region._minLevel; level <= region._maxLevel; ++level) {
+					if (includesLevel(knownLevels, level)) {
+						int[] bounds = getTileBounds(pyramid, region, level);
+						size += (bounds[1] - bounds[0] + 1L) * (bounds[3] - bounds[2] + 1L);
+					}
+				}
+			}
+		}
+		if (size > MAX_TILES)
+			throw new IllegalArgumentException("Warm-up of "+size+" tiles requested; at most "
+			                                   +MAX_TILES+" are allowed");
+
+		Set<TileIndex> tiles = new LinkedHashSet<>();
+		for (int level = 0; level <= Math.min(levels, HotRegion.MAX_LEVEL); ++level) {
+			if (!includesLevel(knownLevels, level))
+				continue;
+			int levelSize = 1 << level;
+			for (int x = 0; x < levelSize; ++x) {
+				for (int y = 0; y < levelSize; ++y) {
+					tiles.add(new TileIndex(level, x, y));
+				}
+			}
+		}
+
+		if (null != pyramid) {
+			for (HotRegion region: regions) {
+				for (int level = region._minLevel; level <= region._maxLevel; ++level) {
+					if (!includesLevel(knownLevels, level))
+						continue;
+					int[] bounds = getTileBounds(pyramid, region, level);
+					for (int x = bounds[0]; x <= bounds[1]; ++x) {
+						for (int y = bounds[2]; y <= bounds[3]; ++y) {
+							tiles.add(new TileIndex(level, x, y));
+						}
+					}
+				}
+			}
+		}
+
+		return new ArrayList<>(tiles);
+	}
+
+	// The number of tiles on levels 0 through the given level
+	private static long getFullLevelsSize (int levels) {
+		long size = 0L;
+		for (int level = 0; level <= Math.min(levels, HotRegion.MAX_LEVEL); ++level) {
+			size += 1L << (2*level);
+		}
+		return size;
+	}
+
+	private static boolean includesLevel (List<Integer> knownLevels, int level) {
+		return knownLevels.isEmpty() || knownLevels.contains(level);
+	}
+
+	// The tiles a region covers on a level, as {minX, maxX, minY, maxY}
+	private static int[] getTileBounds (TilePyramid pyramid, HotRegion region, int level) {
+		TileIndex corner1 = pyramid.rootToTile(region._minX, region._minY, level);
+		TileIndex corner2 = pyramid.rootToTile(region._maxX, region._maxY, level);
+		int max = (1 << level) - 1;
+		return new int[] {clamp(Math.min(corner1.getX(), corner2.getX()), max),
+		                  clamp(Math.max(corner1.getX(), corner2.getX()), max),
+		                  clamp(Math.min(corner1.getY(), corner2.getY()), max),
+		                  clamp(Math.max(corner1.getY(), corner2.getY()), max)};
+	}
+
+	private static int clamp (int value, int max) {
+		return Math.max(0, Math.min(max, value));
+	}
+
+
+
+	/*
+	 * An area of particular interest, to be warmed up over a range of levels
+	 */
+	static class HotRegion {
+		// Levels are limited so that tile counts stay within integers
+		private static final int MAX_LEVEL = 30;
+
+		final int    _minLevel;
+		final int    _maxLevel;
+		final double _minX;
+		final double _minY;
+		final double _maxX;
+		final double _maxY;
+
+		HotRegion (int minLevel, int maxLevel, double minX, double minY, double maxX, double maxY) {
+			_minLevel = minLevel;
+			_maxLevel = maxLevel;
+			_minX = minX;
+			_minY = minY;
+			_maxX = maxX;
+			_maxY = maxY;
+		}
+
+		/**
+		 * Parse a list of regions of the form
+		 * <code>minLevel-maxLevel:minX,minY,maxX,maxY</code> (or
+		 * <code>level:minX,minY,maxX,maxY</code>), separated by semicolons.
+		 * 
+		 * @throws IllegalArgumentException if any region is malformed
+		 */
+		static List<HotRegion> parseRegions (String description) {
+			List<HotRegion> regions = new ArrayList<>();
+			for (String regionDescription: description.split(";")) {
+				if (!regionDescription.trim().isEmpty())
+					regions.add(parseRegion(regionDescription.trim()));
+			}
+			return regions;
+		}
+
+		private static HotRegion parseRegion (String description) {
+			String[] parts = description.split(":");
+			if (2 != parts.length)
+				throw new IllegalArgumentException("Region "+description+" should be of the form levels:bounds");
+			String[] levels = parts[0].split("-");
+			String[] bounds = parts[1].split(",");
+			if (levels.length < 1 || levels.length > 2 || 4 != bounds.length)
+				throw new IllegalArgumentException("Region "+description+" should be of the form minLevel-maxLevel:minX,minY,maxX,maxY");
+
+			try {
+				int minLevel = Integer.parseInt(levels[0].trim());
+				int maxLevel = Integer.parseInt(levels[levels.length-1].trim());
+				if (minLevel < 0 || maxLevel < minLevel || maxLevel > MAX_LEVEL)
+					throw new IllegalArgumentException("Illegal levels in region "+description);
+				return new HotRegion(minLevel, maxLevel,
+				                     Double.parseDouble(bounds[0].trim()),
+				                     Double.parseDouble(bounds[1].trim()),
+				                     Double.parseDouble(bounds[2].trim()),
+				                     Double.parseDouble(bounds[3].trim()));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Non-numeric value in region "+description, e);
+			}
+		}
+	}
+}
@@ -25,7 +25,18 @@
 package com.oculusinfo.tile.util;
 
 
+import com.oculusinfo.binning.TileData;
+import com.oculusinfo.binning.io.serialization.GenericAvroSerializer;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.DoubleArrayAvroSerializer;
+import com.oculusinfo.binning.io.serialization.impl.DoubleAvroSerializer;
+import com.oculusinfo.binning.io.serialization.impl.IntegerAvroSerializer;
+import com.oculusinfo.binning.io.serialization.impl.StringArrayAvroSerializer;
+import com.oculusinfo.binning.io.serialization.impl.StringDoublePairArrayAvroSerializer;
+import com.oculusinfo.binning.io.serialization.impl.StringIntPairArrayAvroSerializer;
+import com.oculusinfo.binning.util.TypeDescriptor;
 import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.file.FileReader;
 import org.apache.avro.file.SeekableByteArrayInput;
@@ -36,12 +47,16 @@ import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.io.JsonEncoder;
 import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
 
 
 
@@ -51,8 +66,70 @@ import java.io.InputStream;
  * @author nkronenfeld
  */
 public class AvroJSONConverter {
+	// Uncompressed, container-framed serializers for each bin type we can
+	// convert, used for tiles that weren't written as avro container files
+	private static final List<TileSerializer<?>> AVRO_SERIALIZERS = Arrays.<TileSerializer<?>>asList(
+		new IntegerAvroSerializer(CodecFactory.nullCodec()),
+		new DoubleAvroSerializer(CodecFactory.nullCodec()),
+		new DoubleArrayAvroSerializer(CodecFactory.nullCodec()),
+		new StringArrayAvroSerializer(CodecFactory.nullCodec()),
+		new StringIntPairArrayAvroSerializer(CodecFactory.nullCodec()),
+		new StringDoublePairArrayAvroSerializer(CodecFactory.nullCodec()));
+
+
+
+	/**
+	 * Convert a tile into a JSON object, in the same form as
+	 * {@link #convert(InputStream)} gives for the avro serialization of that
+	 * tile, whatever serializer the tile was actually read with.
+	 * 
+	 * @param serializer The serializer with which the tile was read
+	 * @param tile The tile to convert
+	 * @return A JSON representation of the tile
+	 * @throws IOException If there is no avro serializer for the bin type of
+	 *             the tile, or the tile can't be serialized
+	 * @throws JSONException
+	 */
+	public static <T> JSONObject convert (TileSerializer<T> serializer, TileData<T> tile) throws IOException, JSONException {
+		TileSerializer<T> avroSerializer = getAvroSerializer(serializer);
+		if (null == avroSerializer) {
+			throw new IOException("No JSON conversion for tiles of type "+serializer.getBinTypeDescription());
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		avroSerializer.serialize(tile, output);
+		return convert(new ByteArrayInputStream(output.toByteArray()));
+	}
+
+	/**
+	 * Determine whether the given serializer writes tiles as avro container
+	 * files, so that its output can be passed straight to
+	 * {@link #convert(InputStream)}.
+	 */
+	public static boolean isContainerSerializer (TileSerializer<?> serializer) {
+		return serializer instanceof GenericAvroSerializer
+			&& !((GenericAvroSerializer<?>) serializer).isRawFraming();
+	}
+
+	/*
+	 * Get a serializer that writes avro container files for tiles of the same
+	 * bin type as the given serializer - the serializer itself, if it does.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> TileSerializer<T> getAvroSerializer (TileSerializer<T> serializer) {
+		if (isContainerSerializer(serializer)) {
+			return serializer;
+		}
+		TypeDescriptor binType = serializer.getBinTypeDescription();
+		for (TileSerializer<?> candidate: AVRO_SERIALIZERS) {
+			if (candidate.getBinTypeDescription().equals(binType))
+				return (TileSerializer<T>) candidate;
+		}
+		return null;
+	}
+
 	/**
-	 * Convert an Avro input stream into a JSON object
+	 * Convert an Avro input stream into a JSON object.  Sparse tiles are
+	 * expanded, so that the values of a tile are always listed bin by bin.
 	 * 
 	 * @param stream The input data
 	 * @return A JSON representation of the input data
@@ -84,6 +161,40 @@ public class AvroJSONConverter {
 			fileReader.close();
 		}
 		String jsonString = output.toString("UTF-8");
-		return new JSONObject(jsonString);
+		JSONObject result = new JSONObject(jsonString);
+		expandSparseTile(result);
+		return result;
+	}
+
+	/*
+	 * If the given object is a sparse tile, list every bin in its values,
+	 * and drop its offsets and default, so it reads just like a dense tile.
+	 *
+	 * In avro's JSON encoding, a non-null union value is wrapped in an
+	 * object keyed by its type name, so the offsets are {"array": [...]}
+	 * and a default is {"<record name>": {...}}.
+	 */
+	private static void expandSparseTile (JSONObject tile) throws JSONException {
+		if (!tile.has("binOffsets") || tile.isNull("binOffsets"))
+			return;
+
+		JSONArray offsets = (JSONArray) unwrapUnion(tile.getJSONObject("binOffsets"));
+		JSONArray storedValues = tile.getJSONArray("values");
+		Object defaultValue = tile.isNull("default") ? JSONObject.NULL : unwrapUnion(tile.getJSONObject("default"));
+		int binCount = tile.getInt("xBinCount") * tile.getInt("yBinCount");
+
+		JSONArray values = new JSONArray();
+		for (int n = 0; n < binCount; ++n)
+			values.put(defaultValue);
+		for (int n = 0; n < offsets.length(); ++n)
+			values.put(offsets.getInt(n), storedValues.get(n));
+
+		tile.put("values", values);
+		tile.put("default", JSONObject.NULL);
+		tile.put("binOffsets", JSONObject.NULL);
+	}
+
+	private static Object unwrapUnion (JSONObject union) throws JSONException {
+		return union.get(union.keys().next().toString());
 	}
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rendering.color;
+
+import com.oculusinfo.tile.rendering.color.impl.LookupColorRamp;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LookupColorRampTests {
+	// A ramp that just encodes its input, so we can see what was sampled
+	private static final ColorRamp IDENTITY = new ColorRamp() {
+		@Override
+		public int getRGB (double scale) {
+			return (int) Math.round(scale * 1000);
+		}
+	};
+
+	@Test
+	public void testSampling () {
+		LookupColorRamp ramp = new LookupColorRamp(IDENTITY, 11);
+		Assert.assertEquals(11, ramp.getTable().length);
+		Assert.assertEquals(0, ramp.getRGB(0.0));
+		Assert.assertEquals(500, ramp.getRGB(0.5));
+		Assert.assertEquals(1000, ramp.getRGB(1.0));
+		// Nearest sample
+		Assert.assertEquals(300, ramp.getRGB(0.27));
+		Assert.assertEquals(300, ramp.getRGB(0.34));
+	}
+
+	@Test
+	public void testClamping () {
+		LookupColorRamp ramp = new LookupColorRamp(IDENTITY, 11);
+		Assert.assertEquals(0, ramp.getRGB(-3.0));
+		Assert.assertEquals(1000, ramp.getRGB(4.0));
+	}
+
+	@Test
+	public void testSharing () {
+		LookupColorRamp a = LookupColorRamp.get("lookup-test", IDENTITY, 16);
+		LookupColorRamp b = LookupColorRamp.get("lookup-test", IDENTITY, 16);
+		Assert.assertTrue(a == b);
+	}
+}
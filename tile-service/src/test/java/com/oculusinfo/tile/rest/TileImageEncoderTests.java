@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.restlet.data.MediaType;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class TileImageEncoderTests {
+	private static BufferedImage decode (byte[] encoded) throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(encoded));
+	}
+
+	private static void assertSameImage (BufferedImage expected, BufferedImage actual) {
+		Assert.assertEquals(expected.getWidth(), actual.getWidth());
+		Assert.assertEquals(expected.getHeight(), actual.getHeight());
+		for (int x = 0; x < expected.getWidth(); ++x) {
+			for (int y = 0; y < expected.getHeight(); ++y) {
+				int e = expected.getRGB(x, y);
+				int a = actual.getRGB(x, y);
+				// Fully transparent pixels may come back as any color
+				if (0 == (e >>> 24)) Assert.assertEquals(0, a >>> 24);
+				else Assert.assertEquals(e, a);
+			}
+		}
+	}
+
+	@Test
+	public void testPaletteImage () throws IOException {
+		BufferedImage image = new BufferedImage(32, 16, BufferedImage.TYPE_INT_ARGB);
+		for (int x = 0; x < 32; ++x) {
+			for (int y = 0; y < 16; ++y) {
+				image.setRGB(x, y, ((x+y)%3) * 0x40302010 + 0x10000000);
+			}
+		}
+		image.setRGB(3, 3, 0x00ffffff);
+
+		byte[] encoded = new TileImageEncoder().encode(image, MediaType.IMAGE_PNG);
+		BufferedImage decoded = decode(encoded);
+		Assert.assertEquals(BufferedImage.TYPE_BYTE_INDEXED, decoded.getType());
+		assertSameImage(image, decoded);
+	}
+
+	@Test
+	public void testFullColorImage () throws IOException {
+		BufferedImage image = new BufferedImage(40, 20, BufferedImage.TYPE_INT_ARGB);
+		for (int x = 0; x < 40; ++x) {
+			for (int y = 0; y < 20; ++y) {
+				image.setRGB(x, y, (x*6 << 24) | (y*12 << 16) | ((x*y) & 0xff) << 8 | (x+y));
+			}
+		}
+
+		for (TileImageEncoder.PNGFilter filter: TileImageEncoder.PNGFilter.values()) {
+			TileImageEncoder encoder = new TileImageEncoder();
+			encoder.setFilter(filter.name());
+			assertSameImage(image, decode(encoder.encode(image, MediaType.IMAGE_PNG)));
+		}
+	}
+
+	@Test
+	public void testTransparentImagesAreShared () throws IOException {
+		TileImageEncoder encoder = new TileImageEncoder();
+		byte[] first = encoder.encode(new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB), MediaType.IMAGE_PNG);
+		byte[] second = encoder.encode(new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB), MediaType.IMAGE_PNG);
+		Assert.assertTrue(first == second);
+		assertSameImage(new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB), decode(first));
+	}
+
+	@Test
+	public void testJPEG () throws IOException {
+		BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+		byte[] encoded = new TileImageEncoder().encode(image, MediaType.IMAGE_JPEG);
+		// JPEG start of image marker
+		Assert.assertEquals((byte) 0xff, encoded[0]);
+		Assert.assertEquals((byte) 0xd8, encoded[1]);
+	}
+}
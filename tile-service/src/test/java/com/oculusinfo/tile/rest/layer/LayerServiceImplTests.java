@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.layer;
+
+import com.oculusinfo.binning.io.DummyPyramidIOFactory;
+import com.oculusinfo.binning.io.PyramidIO;
+import com.oculusinfo.binning.io.serialization.StandardTileSerializerFactory;
+import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.factory.ConfigurableFactory;
+import com.oculusinfo.tile.init.FactoryProvider;
+import com.oculusinfo.tile.rendering.ImageRendererFactory;
+import com.oculusinfo.tile.rendering.LayerConfiguration;
+import com.oculusinfo.tile.rendering.TileDataImageRenderer;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.UUID;
+
+
+
+public class LayerServiceImplTests {
+	private static final String LAYER = "test-layer";
+
+	private File             _configFile;
+	private LayerServiceImpl _service;
+
+
+
+	@Before
+	public void setup () throws IOException {
+		_configFile = File.createTempFile("layers", ".json");
+		Writer writer = new FileWriter(_configFile);
+		try {
+			writer.write("{\"layers\": [{"
+			             + "  \"id\": \""+LAYER+"\","
+			             + "  \"name\": \"Test layer\","
+			             + "  \"data\": {"
+			             + "    \"layer\": \""+LAYER+"\","
+			             + "    \"pyramidio\": {\"type\": \"dummy\"},"
+			             + "    \"serializer\": {\"type\": \"double-a\"}"
+			             + "  },"
+			             + "  \"renderers\": [{"
+			             + "    \"domain\": \"server\","
+			             + "    \"renderer\": {\"type\": \"heatmap\"}"
+			             + "  }]"
+			             + "}]}");
+		} finally {
+			writer.close();
+		}
+		_service = new LayerServiceImpl(_configFile.getAbsolutePath(), new TestLayerConfigurationProvider());
+	}
+
+	@After
+	public void teardown () {
+		_service = null;
+		_configFile.delete();
+		_configFile = null;
+	}
+
+
+
+	// Requests differing only in the set of tiles wanted should share a
+	// compiled configuration
+	@Test
+	public void testCompiledConfigurationIgnoresTileSet () throws Exception {
+		UUID id = _service.configureLayer(LAYER, new JSONObject());
+
+		LayerConfiguration config1 = _service.getRenderingConfiguration(id, null, new JSONObject("{\"foo\": \"bar\", \"tileset\": \"1,0,0|1,0,1\"}"));
+		LayerConfiguration config2 = _service.getRenderingConfiguration(id, null, new JSONObject("{\"minx\": \"0\", \"maxx\": \"1\", \"foo\": \"bar\"}"));
+		Assert.assertNotNull(config1);
+		Assert.assertSame(config1, config2);
+	}
+
+	// Requests with different rendering parameters should not
+	@Test
+	public void testCompiledConfigurationRenderingParameters () throws Exception {
+		UUID id = _service.configureLayer(LAYER, new JSONObject());
+
+		LayerConfiguration config1 = _service.getRenderingConfiguration(id, null, new JSONObject("{\"foo\": \"bar\"}"));
+		LayerConfiguration config2 = _service.getRenderingConfiguration(id, null, new JSONObject("{\"foo\": \"baz\"}"));
+		Assert.assertNotSame(config1, config2);
+		Assert.assertSame(config1, _service.getRenderingConfiguration(id, null, new JSONObject("{\"foo\": \"bar\"}")));
+	}
+
+	// Renderers and serializers should be produced once per compiled
+	// configuration
+	@Test
+	public void testSharedProducts () throws Exception {
+		UUID id = _service.configureLayer(LAYER, new JSONObject());
+		LayerConfiguration config = _service.getRenderingConfiguration(id, null, new JSONObject());
+
+		TileDataImageRenderer renderer = config.produce(TileDataImageRenderer.class);
+		Assert.assertNotNull(renderer);
+		Assert.assertSame(renderer, config.produce(TileDataImageRenderer.class));
+		TileSerializer<?> serializer = config.produce(TileSerializer.class);
+		Assert.assertNotNull(serializer);
+		Assert.assertSame(serializer, config.produce(TileSerializer.class));
+	}
+
+	// Forgetting a configuration should drop its compiled configurations,
+	// and no others
+	@Test
+	public void testForgetConfiguration () throws Exception {
+		UUID forgotten = _service.configureLayer(LAYER, new JSONObject());
+		UUID kept = _service.configureLayer(LAYER, new JSONObject());
+		LayerConfiguration keptConfig = _service.getRenderingConfiguration(kept, null, new JSONObject());
+		Assert.assertNotNull(_service.getRenderingConfiguration(forgotten, null, new JSONObject()));
+
+		_service.forgetConfiguration(forgotten);
+		Assert.assertSame(keptConfig, _service.getRenderingConfiguration(kept, null, new JSONObject()));
+		try {
+			_service.getRenderingConfiguration(forgotten, null, new JSONObject());
+			Assert.fail("Forgotten configuration still available");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+
+	// A client configuration that only adds settings the server doesn't use
+	// should share the canonical ID of the bare configuration the warm-up
+	// service uses; one that changes how tiles are rendered should not
+	@Test
+	public void testCanonicalIdIgnoresClientSettings () throws Exception {
+		UUID warmupId = _service.configureLayer(LAYER, new JSONObject());
+		UUID clientId = _service.configureLayer(LAYER, new JSONObject(
+			"{\"layer\": \""+LAYER+"\","
+			+ " \"renderer\": {\"domain\": \"server\", \"renderer\": {\"type\": \"heatmap\"}},"
+			+ " \"opacity\": 0.5,"
+			+ " \"enabled\": true,"
+			+ " \"zIndex\": 2}"));
+		UUID rangeId = _service.configureLayer(LAYER, new JSONObject("{\"rangeMax\": 50}"));
+
+		Assert.assertEquals(warmupId, _service.getCanonicalConfigurationId(warmupId));
+		Assert.assertEquals(warmupId, _service.getCanonicalConfigurationId(clientId));
+		Assert.assertEquals(rangeId, _service.getCanonicalConfigurationId(rangeId));
+	}
+
+	// Once every configuration with some content is forgotten, that content
+	// should no longer map to the old canonical ID
+	@Test
+	public void testForgetCanonicalId () throws Exception {
+		UUID first = _service.configureLayer(LAYER, new JSONObject());
+		UUID second = _service.configureLayer(LAYER, new JSONObject());
+		Assert.assertEquals(first, _service.getCanonicalConfigurationId(second));
+
+		_service.forgetConfiguration(first);
+		UUID third = _service.configureLayer(LAYER, new JSONObject());
+		Assert.assertEquals(first, _service.getCanonicalConfigurationId(third));
+
+		_service.forgetConfiguration(second);
+		_service.forgetConfiguration(third);
+		UUID fourth = _service.configureLayer(LAYER, new JSONObject());
+		Assert.assertEquals(fourth, _service.getCanonicalConfigurationId(fourth));
+	}
+
+
+	// Builds layer configurations from the standard factories, without
+	// needing injection
+	private static class TestLayerConfigurationProvider implements FactoryProvider<LayerConfiguration> {
+		private static final FactoryProvider<PyramidIO> PYRAMID_IO = new FactoryProvider<PyramidIO>() {
+			@Override
+			public ConfigurableFactory<PyramidIO> createFactory (List<String> path) {
+				return createFactory(null, null, path);
+			}
+			@Override
+			public ConfigurableFactory<PyramidIO> createFactory (ConfigurableFactory<?> parent, List<String> path) {
+				return createFactory(null, parent, path);
+			}
+			@Override
+			public ConfigurableFactory<PyramidIO> createFactory (String name, ConfigurableFactory<?> parent, List<String> path) {
+				return new DummyPyramidIOFactory(name, parent, path);
+			}
+		};
+		private static final FactoryProvider<TileSerializer<?>> SERIALIZER = new FactoryProvider<TileSerializer<?>>() {
+			@Override
+			public ConfigurableFactory<TileSerializer<?>> createFactory (List<String> path) {
+				return createFactory(null, null, path);
+			}
+			@Override
+			public ConfigurableFactory<TileSerializer<?>> createFactory (ConfigurableFactory<?> parent, List<String> path) {
+				return createFactory(null, parent, path);
+			}
+			@Override
+			public ConfigurableFactory<TileSerializer<?>> createFactory (String name, ConfigurableFactory<?> parent, List<String> path) {
+				return new StandardTileSerializerFactory(name, parent, path);
+			}
+		};
+		private static final FactoryProvider<TileDataImageRenderer> RENDERER = new FactoryProvider<TileDataImageRenderer>() {
+			@Override
+			public ConfigurableFactory<TileDataImageRenderer> createFactory (List<String> path) {
+				return createFactory(null, null, path);
+			}
+			@Override
+			public ConfigurableFactory<TileDataImageRenderer> createFactory (ConfigurableFactory<?> parent, List<String> path) {
+				return createFactory(null, parent, path);
+			}
+			@Override
+			public ConfigurableFactory<TileDataImageRenderer> createFactory (String name, ConfigurableFactory<?> parent, List<String> path) {
+				return new ImageRendererFactory(name, parent, path);
+			}
+		};
+
+		@Override
+		public ConfigurableFactory<LayerConfiguration> createFactory (List<String> path) {
+			return createFactory(null, null, path);
+		}
+
+		@Override
+		public ConfigurableFactory<LayerConfiguration> createFactory (ConfigurableFactory<?> parent, List<String> path) {
+			return createFactory(null, parent, path);
+		}
+
+		@Override
+		public ConfigurableFactory<LayerConfiguration> createFactory (String name, ConfigurableFactory<?> parent, List<String> path) {
+			return new LayerConfiguration(PYRAMID_IO, SERIALIZER, RENDERER, name, parent, path);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.tile;
+
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.tile.rest.tile.TileBatchRepresentation.TileContents;
+import org.junit.Assert;
+import org.junit.Test;
+import org.restlet.data.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TileBatchRepresentationTests {
+	private static final List<TileIndex> TILES = Arrays.asList(new TileIndex(1, 0, 1),
+	                                                           new TileIndex(1, 1, 1));
+
+	private static TileContents contents (byte[] first) {
+		final Map<TileIndex, byte[]> contents = new HashMap<>();
+		contents.put(TILES.get(0), first);
+		return new TileContents() {
+			@Override
+			public byte[] getContents (TileIndex tile) {
+				return contents.get(tile);
+			}
+		};
+	}
+
+	@Test
+	public void testBinaryFraming () throws IOException {
+		TileBatchRepresentation representation =
+			new TileBatchRepresentation(MediaType.APPLICATION_OCTET_STREAM, TILES, contents(new byte[] {7, 8, 9}));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		representation.write(output);
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+		Assert.assertEquals(2, input.readInt());
+
+		Assert.assertEquals(1, input.readInt());
+		Assert.assertEquals(0, input.readInt());
+		Assert.assertEquals(1, input.readInt());
+		Assert.assertEquals(3, input.readInt());
+		byte[] data = new byte[3];
+		input.readFully(data);
+		Assert.assertArrayEquals(new byte[] {7, 8, 9}, data);
+
+		// A tile with no contents
+		Assert.assertEquals(1, input.readInt());
+		Assert.assertEquals(1, input.readInt());
+		Assert.assertEquals(1, input.readInt());
+		Assert.assertEquals(0, input.readInt());
+		Assert.assertEquals(-1, input.read());
+	}
+
+	@Test
+	public void testJSON () throws IOException {
+		TileBatchRepresentation representation =
+			new TileBatchRepresentation(MediaType.APPLICATION_JSON, TILES, contents("{\"a\":1}".getBytes("UTF-8")));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		representation.write(output);
+
+		Assert.assertEquals("[{\"a\":1},null]", output.toString("UTF-8"));
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.tile;
+
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.tile.rest.tile.TileResource.ExtensionType;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TilePrefetcherTests {
+	private static List<TileIndex> view (int level, int minX, int maxX, int minY, int maxY) {
+		List<TileIndex> tiles = new ArrayList<>();
+		for (int x = minX; x <= maxX; ++x) {
+			for (int y = minY; y <= maxY; ++y) {
+				tiles.add(new TileIndex(level, x, y));
+			}
+		}
+		return tiles;
+	}
+
+	@Test
+	public void testStillView () {
+		// A 3x3 view, requested from the center out
+		List<TileIndex> recent = new ArrayList<>();
+		recent.add(new TileIndex(4, 5, 5));
+		for (TileIndex tile: view(4, 4, 6, 4, 6)) {
+			if (!recent.contains(tile)) recent.add(tile);
+		}
+		recent.add(recent.remove(1));
+
+		List<TileIndex> predicted = TilePrefetcher.predict(recent, 100);
+		// The ring around the view
+		Assert.assertEquals(16, predicted.size());
+		Assert.assertTrue(predicted.contains(new TileIndex(4, 3, 3)));
+		Assert.assertTrue(predicted.contains(new TileIndex(4, 7, 5)));
+		Assert.assertFalse(predicted.contains(new TileIndex(4, 5, 5)));
+	}
+
+	@Test
+	public void testPanning () {
+		// A 3x3 view, then a new column to the right
+		List<TileIndex> recent = view(4, 4, 6, 4, 6);
+		recent.addAll(view(4, 7, 7, 4, 6));
+
+		List<TileIndex> predicted = TilePrefetcher.predict(recent, 100);
+		Assert.assertEquals(6, predicted.size());
+		for (TileIndex tile: predicted) {
+			Assert.assertTrue(tile.getX() == 8 || tile.getX() == 9);
+			Assert.assertTrue(4 <= tile.getY() && tile.getY() <= 6);
+		}
+	}
+
+	@Test
+	public void testZooming () {
+		List<TileIndex> recent = view(3, 2, 2, 2, 2);
+		recent.addAll(view(4, 4, 5, 4, 5));
+
+		List<TileIndex> predicted = TilePrefetcher.predict(recent, 100);
+		Assert.assertTrue(predicted.contains(new TileIndex(5, 8, 8)));
+		Assert.assertTrue(predicted.contains(new TileIndex(5, 11, 11)));
+		Assert.assertFalse(predicted.contains(new TileIndex(3, 2, 2)));
+
+		recent = view(5, 8, 11, 8, 11);
+		recent.addAll(view(4, 4, 5, 4, 5));
+		predicted = TilePrefetcher.predict(recent, 100);
+		Assert.assertTrue(predicted.contains(new TileIndex(3, 2, 2)));
+		Assert.assertFalse(predicted.contains(new TileIndex(5, 8, 8)));
+	}
+
+	@Test
+	public void testBounds () {
+		List<TileIndex> recent = view(1, 0, 1, 0, 1);
+		Assert.assertTrue(TilePrefetcher.predict(recent, 100).isEmpty());
+
+		recent = view(4, 0, 2, 0, 2);
+		Assert.assertEquals(3, TilePrefetcher.predict(recent, 3).size());
+		for (TileIndex tile: TilePrefetcher.predict(recent, 100)) {
+			Assert.assertTrue(tile.getX() >= 0 && tile.getY() >= 0);
+		}
+	}
+
+	@Test
+	public void testSessionsIgnoreTileSets () throws Exception {
+		TilePrefetcher prefetcher = new TilePrefetcher(null, null, null, null);
+		// Long enough that nothing is actually prefetched
+		prefetcher.setDelay("3600000");
+
+		JSONObject query = new JSONObject();
+		query.put("tileset", "0-3");
+		query.put("minz", "0");
+		query.put("colorramp", "hot");
+		prefetcher.onTileRequested("client", null, "layer", new TileIndex(2, 1, 1), ExtensionType.png, query);
+
+		query = new JSONObject();
+		query.put("tileset", "4-7");
+		query.put("maxz", "7");
+		query.put("colorramp", "hot");
+		prefetcher.onTileRequested("client", null, "layer", new TileIndex(2, 1, 2), ExtensionType.png, query);
+		Assert.assertEquals(1, prefetcher.getSessionCount());
+
+		query = new JSONObject();
+		query.put("colorramp", "cool");
+		prefetcher.onTileRequested("client", null, "layer", new TileIndex(2, 1, 2), ExtensionType.png, query);
+		Assert.assertEquals(2, prefetcher.getSessionCount());
+	}
+}
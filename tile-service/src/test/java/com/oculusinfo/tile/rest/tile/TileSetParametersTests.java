@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.tile;
+
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.tile.rest.tile.caching.RenderedImageCache;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.UUID;
+
+
+
+public class TileSetParametersTests {
+	@Test
+	public void testRenderingQuery () {
+		JSONObject query = new JSONObject();
+		query.put("tileset", "2,1,1|2,1,2");
+		query.put("MinX", "1");
+		query.put("mintile", "2,0,0");
+		query.put("ramp", "hot");
+
+		JSONObject renderingQuery = TileSetParameters.getRenderingQuery(query);
+		Assert.assertEquals(1, renderingQuery.length());
+		Assert.assertEquals("hot", renderingQuery.opt("ramp"));
+		// The original is left alone
+		Assert.assertEquals(4, query.length());
+
+		Assert.assertNull(TileSetParameters.getRenderingQuery(null));
+	}
+
+	// Requests for the same tile as part of different tile sets should map to
+	// the same rendered image
+	@Test
+	public void testImageKeysIgnoreTileSets () {
+		UUID id = UUID.randomUUID();
+		TileIndex index = new TileIndex(2, 1, 1);
+
+		JSONObject first = new JSONObject();
+		first.put("tileset", "2,1,1|2,1,2");
+		first.put("ramp", "hot");
+		JSONObject second = new JSONObject();
+		second.put("minx", "0");
+		second.put("maxx", "3");
+		second.put("ramp", "hot");
+		Assert.assertEquals(RenderedImageCache.getKey(id, "layer", index, "png", TileSetParameters.getRenderingQuery(first)),
+		                    RenderedImageCache.getKey(id, "layer", index, "png", TileSetParameters.getRenderingQuery(second)));
+
+		// But not to the same image as a request with different rendering
+		// parameters
+		JSONObject third = new JSONObject();
+		third.put("tileset", "2,1,1|2,1,2");
+		third.put("ramp", "cold");
+		Assert.assertFalse(RenderedImageCache.getKey(id, "layer", index, "png", TileSetParameters.getRenderingQuery(first))
+		                   .equals(RenderedImageCache.getKey(id, "layer", index, "png", TileSetParameters.getRenderingQuery(third))));
+
+		// A query of only tile set parameters is the same as none at all
+		JSONObject tileSetOnly = new JSONObject();
+		tileSetOnly.put("tileset", "2,1,1");
+		Assert.assertEquals(RenderedImageCache.getKey(id, "layer", index, "png", null),
+		                    RenderedImageCache.getKey(id, "layer", index, "png", TileSetParameters.getRenderingQuery(tileSetOnly)));
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2013 Oculus Info Inc. http://www.oculusinfo.com/
+ * 
+ * Released under the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.tile.caching;
+
+
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.tile.rest.tile.caching.RenderedImageCache.CachedImage;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.UUID;
+
+
+
+public class RenderedImageCacheTests {
+	private RenderedImageCache _cache;
+	private File               _spillDirectory;
+
+	@Before
+	public void setup () {
+		_cache = new RenderedImageCache();
+		_cache.setMaxBytes("100");
+		_spillDirectory = new File(System.getProperty("java.io.tmpdir"),
+		                           "image-cache-test-"+UUID.randomUUID());
+	}
+
+	@After
+	public void cleanup () {
+		_cache.clear();
+		if (_spillDirectory.exists())
+			_spillDirectory.delete();
+	}
+
+	private byte[] data (int size, int value) {
+		byte[] data = new byte[size];
+		Arrays.fill(data, (byte) value);
+		return data;
+	}
+
+	@Test
+	public void testKeyIgnoresQueryOrder () throws Exception {
+		UUID id = UUID.randomUUID();
+		TileIndex index = new TileIndex(3, 2, 1);
+		JSONObject query1 = new JSONObject().put("a", "1").put("b", "2");
+		JSONObject query2 = new JSONObject().put("b", "2").put("a", "1");
+		Assert.assertEquals(RenderedImageCache.getKey(id, "layer", index, "png", query1),
+		                    RenderedImageCache.getKey(id, "layer", index, "png", query2));
+		Assert.assertFalse(RenderedImageCache.getKey(id, "layer", index, "png", query1)
+		                   .equals(RenderedImageCache.getKey(id, "layer", index, "png", null)));
+	}
+
+	@Test
+	public void testEntityTags () {
+		CachedImage a = _cache.put("a", data(10, 1));
+		CachedImage b = _cache.put("b", data(10, 1));
+		CachedImage c = _cache.put("c", data(10, 2));
+		Assert.assertEquals(a.getEntityTag(), b.getEntityTag());
+		Assert.assertFalse(a.getEntityTag().equals(c.getEntityTag()));
+		Assert.assertSame(a, _cache.get("a"));
+	}
+
+	@Test
+	public void testSizeBound () {
+		_cache.put("a", data(40, 1));
+		_cache.put("b", data(40, 2));
+		// Touch a, so b is the least recently used
+		Assert.assertNotNull(_cache.get("a"));
+		_cache.put("c", data(40, 3));
+
+		Assert.assertNotNull(_cache.get("a"));
+		Assert.assertNull(_cache.get("b"));
+		Assert.assertNotNull(_cache.get("c"));
+	}
+
+	@Test
+	public void testSpill () {
+		_cache.setSpillDirectory(_spillDirectory.getAbsolutePath());
+		_cache.put("a", data(60, 1));
+		_cache.put("b", data(60, 2));
+
+		// a should have been spilled, and be readable again
+		CachedImage a = _cache.get("a");
+		Assert.assertNotNull(a);
+		Assert.assertEquals(60, a.getData().length);
+		Assert.assertEquals(1, a.getData()[0]);
+	}
+
+	@Test
+	public void testSpillBound () {
+		_cache.setSpillDirectory(_spillDirectory.getAbsolutePath());
+		_cache.setSpillMaxBytes("100");
+		_cache.put("a", data(60, 1));
+		_cache.put("b", data(60, 2));
+		_cache.put("c", data(60, 3));
+
+		// Both a and b were spilled, but only one fits on disk
+		long spilledBytes = 0L;
+		for (File file: _spillDirectory.listFiles())
+			spilledBytes += file.length();
+		Assert.assertTrue(spilledBytes <= 100);
+		Assert.assertNotNull(_cache.get("c"));
+	}
+
+	@Test
+	public void testDisabled () {
+		_cache.setMaxBytes("0");
+		Assert.assertFalse(_cache.isEnabled());
+		_cache.put("a", data(10, 1));
+		Assert.assertNull(_cache.get("a"));
+	}
+}
@@ -34,6 +34,10 @@ import org.junit.Test;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 
@@ -177,6 +181,94 @@ public class TileCacheTests {
 
 
 
+	// Make sure the cache is bounded by the size of its tiles, as well as by
+	// their number
+	@Test
+	public void testByteBoundedCacheRemoval () {
+		TileIndex index0 = new TileIndex(2, 0, 0, 16, 16);
+		long tileSize = TileCache.estimateSize(new TileData<Integer>(index0, 0));
+		// Room for two and a half tiles
+		_cache = new TileCache<>(250, 100, tileSize*5/2);
+		CacheRequestCallback<Integer> callback = new NoOpCacheRequestCallback();
+
+		int i;
+		for (i=0; i<3; ++i) {
+			TileIndex index = new TileIndex(2, i, 0, 16, 16);
+			checkRequest(index, true);
+			_cache.requestTile(index, callback);
+			_cache.provideTile(new TileData<Integer>(index, i));
+		}
+		Assert.assertEquals(tileSize*2, _cache.getCurrentBytes());
+
+		// The first tile should be gone, the others still there
+		checkRequest(new TileIndex(2, 1, 0, 16, 16), false);
+		checkRequest(new TileIndex(2, 2, 0, 16, 16), false);
+		checkRequest(index0, true);
+	}
+
+	// Make sure eviction samples rotate through the cache, so the least
+	// recently used tile is found wherever it lies in iteration order
+	@Test
+	public void testEvictionSamplesWholeCache () {
+		int size = 40;
+		_cache = new TileCache<>(250, size);
+		CacheRequestCallback<Integer> callback = new NoOpCacheRequestCallback();
+
+		TileIndex[] indices = new TileIndex[size];
+		for (int i=0; i<size; ++i) {
+			indices[i] = new TileIndex(6, i, 0);
+			checkRequest(indices[i], true);
+			_cache.requestTile(indices[i], callback);
+			_cache.provideTile(new TileData<Integer>(indices[i], i));
+		}
+		// Touch all but one tile, so that one is the least recently used.  We
+		// pick the tile that comes last in the cache's iteration order (which
+		// is the same as that of an identically-filled map), as far from the
+		// start of any fixed sample as possible.
+		Map<TileIndex, Boolean> order = new ConcurrentHashMap<>();
+		for (int i=0; i<size; ++i) order.put(indices[i], true);
+		TileIndex stale = null;
+		for (TileIndex index: order.keySet()) stale = index;
+		for (int i=0; i<size; ++i) {
+			if (indices[i] != stale)
+				_cache.getTile(indices[i]);
+		}
+
+		// Each new tile evicts one old one.  Successive samples cover the
+		// whole cache in fewer than four evictions, and the stale tile is the
+		// oldest in any sample that includes it.
+		for (int i=0; i<4; ++i) {
+			TileIndex index = new TileIndex(6, i, 1);
+			checkRequest(index, true);
+			_cache.requestTile(index, callback);
+			_cache.provideTile(new TileData<Integer>(index, i));
+		}
+		Assert.assertNull(_cache.getTile(stale));
+	}
+
+	// Make sure a tile can be waited on directly, and that abandoning a
+	// request releases its waiters
+	@Test
+	public void testTileFuture () throws Exception {
+		checkRequest(_indices[0], true);
+		checkRequest(_indices[1], true);
+		Future<TileData<Integer>> future0 = _cache.getTile(_indices[0]);
+		Future<TileData<Integer>> future1 = _cache.getTile(_indices[1]);
+		Assert.assertFalse(future0.isDone());
+
+		_cache.provideTile(new TileData<Integer>(_indices[0], 3));
+		Assert.assertTrue(future0.isDone());
+		Assert.assertEquals(3, future0.get(1, TimeUnit.SECONDS).getBin(0, 0).intValue());
+
+		_cache.abandonTiles(Collections.singletonList(_indices[1]));
+		Assert.assertTrue(future1.isCancelled());
+		Assert.assertNull(future1.get(1, TimeUnit.SECONDS));
+		checkRequest(_indices[1], true);
+		Assert.assertNull(_cache.getTile(_indices[2]));
+	}
+
+
+
 	// Simple callback to do nothing, but act as if we've done something.
 	private class NoOpCacheRequestCallback implements CacheRequestCallback<Integer> {
 		@Override
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oculusinfo.tile.rest.warmup;
+
+import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.TilePyramid;
+import com.oculusinfo.binning.impl.AOITilePyramid;
+import com.oculusinfo.tile.rest.warmup.WarmupServiceImpl.HotRegion;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class WarmupServiceImplTests {
+	private static final List<Integer>   NO_LEVELS  = Collections.emptyList();
+	private static final List<HotRegion> NO_REGIONS = Collections.emptyList();
+
+	@Test
+	public void testFullLevels () {
+		List<TileIndex> tiles = WarmupServiceImpl.getWarmupTiles(null, NO_LEVELS, 2, NO_REGIONS);
+		Assert.assertEquals(1 + 4 + 16, tiles.size());
+		Assert.assertEquals(tiles.size(), new HashSet<>(tiles).size());
+		Assert.assertEquals(new TileIndex(0, 0, 0), tiles.get(0));
+		Assert.assertTrue(tiles.contains(new TileIndex(2, 3, 3)));
+		Assert.assertFalse(tiles.contains(new TileIndex(3, 0, 0)));
+	}
+
+	@Test
+	public void testKnownLevels () {
+		// Only levels listed in the metadata are loaded
+		List<TileIndex> tiles = WarmupServiceImpl.getWarmupTiles(null, Arrays.asList(0, 2), 2, NO_REGIONS);
+		Assert.assertEquals(1 + 16, tiles.size());
+		Assert.assertFalse(tiles.contains(new TileIndex(1, 0, 0)));
+	}
+
+	@Test
+	public void testRegions () {
+		TilePyramid pyramid = new AOITilePyramid(0.0, 0.0, 16.0, 16.0);
+		List<HotRegion> regions = HotRegion.parseRegions("3-4:1.5,1.5,3.5,5.5; 2:20,20,30,30");
+		Assert.assertEquals(2, regions.size());
+
+		List<TileIndex> tiles = WarmupServiceImpl.getWarmupTiles(pyramid, NO_LEVELS, -1, regions);
+		// Level 3 tiles are 2 units wide, level 4 ones 1 unit; the second
+		// region is entirely outside the pyramid, so is clamped to its corner.
+		Assert.assertTrue(tiles.contains(new TileIndex(3, 0, 0)));
+		Assert.assertTrue(tiles.contains(new TileIndex(3, 1, 2)));
+		Assert.assertFalse(tiles.contains(new TileIndex(3, 2, 0)));
+		Assert.assertTrue(tiles.contains(new TileIndex(4, 1, 1)));
+		Assert.assertTrue(tiles.contains(new TileIndex(4, 3, 5)));
+		Assert.assertFalse(tiles.contains(new TileIndex(4, 0, 0)));
+		Assert.assertTrue(tiles.contains(new TileIndex(2, 3, 3)));
+		Assert.assertEquals(2*3 + 3*5 + 1, tiles.size());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTooManyLevels () {
+		// Rejected before any tiles are listed
+		WarmupServiceImpl.getWarmupTiles(null, NO_LEVELS, 30, NO_REGIONS);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTooLargeRegion () {
+		TilePyramid pyramid = new AOITilePyramid(0.0, 0.0, 16.0, 16.0);
+		List<HotRegion> regions = HotRegion.parseRegions("20-30:0,0,16,16");
+		WarmupServiceImpl.getWarmupTiles(pyramid, NO_LEVELS, -1, regions);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadRegion () {
+		HotRegion.parseRegions("4-2:0,0,1,1");
+	}
+}
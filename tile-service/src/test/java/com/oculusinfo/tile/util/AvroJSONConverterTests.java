@@ -41,14 +41,19 @@ import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.DatumWriter;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.oculusinfo.binning.DoubleTileData;
 import com.oculusinfo.binning.TileData;
 import com.oculusinfo.binning.TileIndex;
+import com.oculusinfo.binning.io.serialization.PackedTileSerializer.Compression;
 import com.oculusinfo.binning.io.serialization.TileSerializer;
+import com.oculusinfo.binning.io.serialization.impl.DoubleAvroSerializer;
+import com.oculusinfo.binning.io.serialization.impl.PackedDoubleTileSerializer;
 import com.oculusinfo.binning.io.serialization.impl.StringDoublePairArrayAvroSerializer;
 import com.oculusinfo.binning.util.Pair;
 
@@ -135,4 +140,90 @@ public class AvroJSONConverterTests {
 		JSONObject result = AvroJSONConverter.convert(new ByteArrayInputStream(serializedTileData));
 		System.out.println(result.toString());
 	}
+
+	private static TileData<Double> createDoubleTile () {
+		TileIndex index = new TileIndex(2, 1, 3, 2, 2);
+		TileData<Double> tile = new DoubleTileData(index, new double[] {1.0, 2.5, 0.0, 4.0});
+		tile.setMetaData("minimum", "0.0");
+		return tile;
+	}
+
+	// Read a tile back with the given serializer, and convert it to JSON
+	private static JSONObject readAndConvert (TileSerializer<Double> serializer, TileData<Double> tile) throws IOException, JSONException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(tile, baos);
+		TileData<Double> readTile = serializer.deserialize(tile.getDefinition(), new ByteArrayInputStream(baos.toByteArray()));
+		return AvroJSONConverter.convert(serializer, readTile);
+	}
+
+	@Test
+	public void testConvertPackedTile () throws IOException, JSONException {
+		TileData<Double> tile = createDoubleTile();
+		JSONObject expected = readAndConvert(new DoubleAvroSerializer(CodecFactory.nullCodec()), tile);
+		JSONObject packed = readAndConvert(new PackedDoubleTileSerializer(Compression.Deflate, 4), tile);
+		Assert.assertEquals(expected.toString(), packed.toString());
+		Assert.assertEquals(2, packed.getInt("xBinCount"));
+		Assert.assertEquals(4, packed.getJSONArray("values").length());
+	}
+
+	@Test
+	public void testConvertRawFramedTile () throws IOException, JSONException {
+		TileData<Double> tile = createDoubleTile();
+		JSONObject expected = readAndConvert(new DoubleAvroSerializer(CodecFactory.nullCodec()), tile);
+		JSONObject raw = readAndConvert(new DoubleAvroSerializer(CodecFactory.nullCodec(), true), tile);
+		Assert.assertEquals(expected.toString(), raw.toString());
+	}
+
+	// Exposes the schemas used to write double tiles
+	private static class SchemaSerializer extends DoubleAvroSerializer {
+		private static final long serialVersionUID = 1L;
+		SchemaSerializer () {
+			super(CodecFactory.nullCodec());
+		}
+		Schema getBinSchema () throws IOException {
+			return getCachedRecordSchema();
+		}
+		Schema getWholeTileSchema () throws IOException {
+			return getCachedTileSchema();
+		}
+	}
+
+	private static GenericRecord createBin (Schema schema, double value) {
+		GenericRecord bin = new GenericData.Record(schema);
+		bin.put("value", value);
+		return bin;
+	}
+
+	// Sparse tiles already stored as container files should be listed bin by
+	// bin, just like dense ones, since that's how clients read them
+	@Test
+	public void testConvertSparseTile () throws IOException, JSONException {
+		SchemaSerializer serializer = new SchemaSerializer();
+		Schema binSchema = serializer.getBinSchema();
+		GenericRecord tile = new GenericData.Record(serializer.getWholeTileSchema());
+		tile.put("level", 2);
+		tile.put("xIndex", 1);
+		tile.put("yIndex", 3);
+		tile.put("xBinCount", 2);
+		tile.put("yBinCount", 2);
+		List<GenericRecord> bins = new ArrayList<>();
+		bins.add(createBin(binSchema, 2.5));
+		bins.add(createBin(binSchema, 4.0));
+		tile.put("values", bins);
+		tile.put("default", createBin(binSchema, 1.0));
+		List<Integer> offsets = new ArrayList<>();
+		offsets.add(1);
+		offsets.add(3);
+		tile.put("binOffsets", offsets);
+
+		JSONObject result = AvroJSONConverter.convert(toInputStream(tile.getSchema(), tile));
+		JSONArray values = result.getJSONArray("values");
+		Assert.assertEquals(4, values.length());
+		Assert.assertEquals(1.0, values.getJSONObject(0).getDouble("value"), EPSILON);
+		Assert.assertEquals(2.5, values.getJSONObject(1).getDouble("value"), EPSILON);
+		Assert.assertEquals(1.0, values.getJSONObject(2).getDouble("value"), EPSILON);
+		Assert.assertEquals(4.0, values.getJSONObject(3).getDouble("value"), EPSILON);
+		Assert.assertTrue(result.isNull("binOffsets"));
+		Assert.assertTrue(result.isNull("default"));
+	}
 }